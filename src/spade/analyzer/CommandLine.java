@@ -221,10 +221,21 @@ public class CommandLine extends AbstractAnalyzer{
 			queryOutputWriter.flush();
 		}
 
+		// Written ahead of the query response. Reset so that the stream does not keep a reference to the chunk
+		private void writeGraphChunkToClient(final spade.core.Graph chunk) throws Exception{
+			queryOutputWriter.writeObject(chunk);
+			queryOutputWriter.reset();
+			queryOutputWriter.flush();
+		}
+
 		@Override
 		public Query executeQuery(Query query) throws Exception{
 			if(query != null){
-				query = quickGrailExecutor.execute(query);
+				if(canStreamGraphResult(query)){
+					query = quickGrailExecutor.execute(query, this::writeGraphChunkToClient);
+				}else{
+					query = quickGrailExecutor.execute(query);
+				}
 			}
 			return query;
 		}
@@ -236,7 +247,11 @@ public class CommandLine extends AbstractAnalyzer{
 
 		@Override
 		public void doQueryingShutdownForCurrentStorage() throws Exception{
-			quickGrailExecutor = null;
+			if(quickGrailExecutor != null){
+				final QuickGrailExecutor quickGrailExecutor = this.quickGrailExecutor;
+				this.quickGrailExecutor = null;
+				quickGrailExecutor.shutdown();
+			}
 		}
 		
 		@Override
@@ -323,6 +338,7 @@ public class CommandLine extends AbstractAnalyzer{
 					tab + "native '<Query to execute on the storage in single quotes>'",
 					tab + "export > <Path of the file to write the output of next command to>",
 					tab + "help [all | control | constraint | graph]",
+					tab + "cancel <Id of a query running on another connection>",
 					tab + "exit"
 					));
 		}
@@ -21,6 +21,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -44,10 +45,14 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.mutable.MutableBoolean;
 
 import jline.ConsoleReader;
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
 import spade.core.Graph;
 import spade.core.Query;
 import spade.core.Settings;
 import spade.query.quickgrail.core.EnvironmentVariableManager;
+import spade.query.quickgrail.instruction.ExportGraph;
 import spade.query.quickgrail.instruction.SaveGraph;
 import spade.query.quickgrail.utility.ResultTable;
 import spade.utility.FileUtility;
@@ -72,6 +77,9 @@ public class CommandLine{
 	private static KeyStore serverKeyStorePublic;
 	private static SSLSocketFactory sslSocketFactory;
 
+	// Query waiting for its response from the server. Cancelled on a separate connection when the client is interrupted.
+	private static volatile Query runningQuery = null;
+
 	private static void setupKeyStores() throws Exception{
 		String SERVER_PUBLIC_PATH = Settings.getServerPublicKeystorePath();
 		String CLIENT_PRIVATE_PATH = Settings.getClientPrivateKeystorePath();
@@ -387,11 +395,40 @@ public class CommandLine{
 		}
 	}
 
+	/*
+	 * The connection of the running query is busy until the query finishes so the cancel command is sent on a new one
+	 * to the same host and port
+	 */
+	private static void cancelRunningQuery(final String localHostName){
+		final Query query = runningQuery;
+		if(query == null){
+			return;
+		}
+		try(final SSLSocket cancelSocket = (SSLSocket)sslSocketFactory.createSocket("localhost",
+				Settings.getCommandLineQueryPort())){
+			final ObjectInputStream cancelReader = new ObjectInputStream(cancelSocket.getInputStream());
+			final ObjectOutputStream cancelWriter = new ObjectOutputStream(cancelSocket.getOutputStream());
+			cancelWriter.writeObject(new Query(localHostName, localHostName, "cancel " + query.getQueryId(), null));
+			cancelWriter.flush();
+			cancelReader.readObject();
+			cancelWriter.writeObject(new Query(localHostName, localHostName, "exit", null));
+			cancelWriter.flush();
+			writeToUser("", true);
+			writeToUser("Cancelled query: " + query.query, true);
+		}catch(Exception e){
+			System.err.println("Failed to cancel query '" + query.query + "': " + e.getMessage());
+			System.err.println();
+		}
+	}
+
 	private static void setupShutdownThread(final SSLSocket remoteSocket, final ObjectOutputStream clientOutputWriter,
 			final ObjectInputStream clientInputReader, final String localHostName){
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
 			@Override
 			public void run(){
+				// Interrupted while waiting for a query. The queries below wait for its response.
+				cancelRunningQuery(localHostName);
+
 				final List<String> lines = new ArrayList<String>();
 
 				final MutableBoolean queryError = new MutableBoolean(false);
@@ -469,8 +506,10 @@ public class CommandLine{
 		}
 	}
 
-	private static String query(final ObjectOutputStream clientOutputWriter, final ObjectInputStream clientInputReader,
-			final String localHostName, final String line, final MutableBoolean error) throws Exception{
+	// Synchronized because the shutdown thread uses the same connection
+	private static synchronized String query(final ObjectOutputStream clientOutputWriter,
+			final ObjectInputStream clientInputReader, final String localHostName, final String line,
+			final MutableBoolean error) throws Exception{
 		boolean isExport = false;
 		try{
 			if(line.toLowerCase().startsWith("export ")){
@@ -494,11 +533,34 @@ public class CommandLine{
 
 			final String queryNonce = null; // Keep the nonce null to indicate that the query is local
 			Query spadeQuery = new Query(localHostName, localHostName, line, queryNonce);
+			spadeQuery.setAcceptsGraphChunks(true);
 
+			runningQuery = spadeQuery;
 			clientOutputWriter.writeObject(spadeQuery);
 			clientOutputWriter.flush();
 
-			final Object resultObject = clientInputReader.readObject();
+			// A graph result can arrive as chunks ahead of the query response
+			AbstractStorage chunkStorage = null;
+			Object resultObject;
+			try{
+				while((resultObject = clientInputReader.readObject()) instanceof spade.core.Graph){
+					if(chunkStorage == null){
+						chunkStorage = createGraphChunkStorage();
+					}
+					final spade.core.Graph chunk = (spade.core.Graph)resultObject;
+					for(final AbstractVertex vertex : chunk.vertexSet()){
+						chunkStorage.putVertex(vertex);
+					}
+					for(final AbstractEdge edge : chunk.edgeSet()){
+						chunkStorage.putEdge(edge);
+					}
+				}
+			}finally{
+				if(chunkStorage != null){
+					chunkStorage.shutdown();
+				}
+			}
+
 			if(resultObject == null){ // EOF
 				throw new Exception("Connection closed by the server!");
 			}else{
@@ -508,7 +570,16 @@ public class CommandLine{
 						return ""; // Empty result
 					}else{
 						Object spadeResult = spadeQuery.getResult();
-						if(spadeResult.getClass().equals(String.class)){
+						if(spadeResult instanceof ExportGraph.Streamed){
+							if(chunkStorage == null){ // Empty graph
+								createGraphChunkStorage().shutdown();
+							}
+							if(RESULT_EXPORT_PATH != null){
+								return "Output exported to file: " + RESULT_EXPORT_PATH;
+							}else{
+								return "Output exported to STDOUT";
+							}
+						}else if(spadeResult.getClass().equals(String.class)){
 							return String.valueOf(spadeResult);
 						}else{ // Other types
 							if(spadeResult instanceof spade.core.Graph){
@@ -549,12 +620,27 @@ public class CommandLine{
 			error.setValue(true);
 			throw new Exception("Failed to execute query '" + line + "'. " + e.getMessage(), e);
 		}finally{
+			runningQuery = null;
 			if(!isExport){
 				RESULT_EXPORT_PATH = null;
 			}
 		}
 	}
 
+	// Writes the chunks of a graph result to the export file if one was set or to STDOUT
+	private final static AbstractStorage createGraphChunkStorage() throws Exception{
+		if(RESULT_EXPORT_PATH != null){
+			final SaveGraph.Format format = RESULT_EXPORT_PATH.toLowerCase().endsWith(".json")
+					? SaveGraph.Format.kJson : SaveGraph.Format.kDot;
+			final boolean closeWriter = true;
+			return Graph.createExportStorage(format, new BufferedWriter(new FileWriter(RESULT_EXPORT_PATH)), closeWriter);
+		}else{
+			final boolean closeSystemOut = false;
+			return Graph.createExportStorage(SaveGraph.Format.kJson,
+					new BufferedWriter(new OutputStreamWriter(System.out)), closeSystemOut);
+		}
+	}
+
 	private final static void writeToUser(final Graph graph){
 		if(graph != null){
 			try{
@@ -320,6 +320,15 @@ public abstract class AbstractAnalyzer{
 						}
 						safeWriteToClient(spadeQuery);
 						continue;
+					}else if(queryTokens.length == 2 && queryTokens[0].toLowerCase().equals("cancel")){
+						// Sent on another connection because this one is busy while its query runs
+						if(spade.query.quickgrail.core.QueryMonitor.cancelQuery(queryTokens[1])){
+							spadeQuery.querySucceeded("Cancelled query: " + queryTokens[1]);
+						}else{
+							spadeQuery.queryFailed("No running query with id: " + queryTokens[1]);
+						}
+						safeWriteToClient(spadeQuery);
+						continue;
 					}else if(queryTokens[0].toLowerCase().equals("help")){
 						try{
 							HelpType helpType = null;
@@ -396,6 +405,22 @@ public abstract class AbstractAnalyzer{
 			}
 		}
 
+		/**
+		 * A graph result can be streamed to the client in chunks only if the client asked for it and if there are no
+		 * transformers to apply to the whole graph
+		 */
+		protected final boolean canStreamGraphResult(final Query spadeQuery){
+			if(!spadeQuery.acceptsGraphChunks()){
+				return false;
+			}
+			if(useTransformer){
+				synchronized(Kernel.transformers){
+					return Kernel.transformers.isEmpty();
+				}
+			}
+			return true;
+		}
+
 		public abstract Query readLineFromClient() throws Exception;
 
 		public abstract void writeToClient(Query query) throws Exception;
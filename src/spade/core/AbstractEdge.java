@@ -58,6 +58,13 @@ public abstract class AbstractEdge implements Serializable{
      * If null then big hash computed using the annotations map.
      */
     private final String bigHashCode;
+
+    /**
+     * Big hash computed from the annotations map and the endpoints. Reset whenever the annotations or the
+     * endpoints change. The endpoint hashes used in the computation are kept so that a change in an endpoint
+     * (which gives it a new hash instance) is detected by reference comparison.
+     */
+    private transient volatile ComputedBigHashCode computedBigHashCode;
     
     /**
      * Create a vertex without a fixed big hash.
@@ -114,6 +121,7 @@ public abstract class AbstractEdge implements Serializable{
 				value = "";
 			}
 			annotations.put(key, value);
+			computedBigHashCode = null;
 		}
 	}
 
@@ -138,7 +146,11 @@ public abstract class AbstractEdge implements Serializable{
      * existed.
      */
     public final String removeAnnotation(String key){
-        return annotations.remove(key);
+        final String removed = annotations.remove(key);
+        if(removed != null){
+        	computedBigHashCode = null;
+        }
+        return removed;
     }
 
     /**
@@ -217,6 +229,7 @@ public abstract class AbstractEdge implements Serializable{
      */
     public final void setChildVertex(AbstractVertex childVertex) {
         this.childVertex = childVertex;
+        this.computedBigHashCode = null;
     }
 
     /**
@@ -227,6 +240,7 @@ public abstract class AbstractEdge implements Serializable{
      */
     public final void setParentVertex(AbstractVertex parentVertex) {
         this.parentVertex = parentVertex;
+        this.computedBigHashCode = null;
     }
 
     /**
@@ -235,16 +249,34 @@ public abstract class AbstractEdge implements Serializable{
      */
 	public final String bigHashCode(){
 		if(bigHashCode == null){
-			final String data = 
-					((childVertex == null) ? "(null)" : childVertex.bigHashCode()) + ","
-					+ annotations.toString() + ","
-					+ ((parentVertex == null) ? "(null)" : parentVertex.bigHashCode());
-			return HashHelper.defaultInstance.hashToHexString(data);
+			final String childHash = (childVertex == null) ? null : childVertex.bigHashCode();
+			final String parentHash = (parentVertex == null) ? null : parentVertex.bigHashCode();
+			final ComputedBigHashCode computed = computedBigHashCode;
+			if(computed != null && computed.childHash == childHash && computed.parentHash == parentHash){
+				return computed.hash;
+			}
+			final String hash = HashHelper.defaultInstance.hashEdgeToHexString(
+					((childHash == null) ? "(null)" : childHash),
+					annotations,
+					((parentHash == null) ? "(null)" : parentHash));
+			computedBigHashCode = new ComputedBigHashCode(hash, childHash, parentHash);
+			return hash;
 		}else{
 			return bigHashCode;
 		}
 	}
 
+	private static final class ComputedBigHashCode{
+		private final String hash;
+		private final String childHash;
+		private final String parentHash;
+		private ComputedBigHashCode(final String hash, final String childHash, final String parentHash){
+			this.hash = hash;
+			this.childHash = childHash;
+			this.parentHash = parentHash;
+		}
+	}
+
 	public final byte[] bigHashCodeBytes(){
 		return HashHelper.defaultInstance.convertHashHexStringToHashByteArray(bigHashCode());
     }
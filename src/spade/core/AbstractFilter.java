@@ -19,6 +19,8 @@
  */
 package spade.core;
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * This is the base class for filters.
  *
@@ -26,7 +28,29 @@ package spade.core;
  */
 public abstract class AbstractFilter {
 
+    /**
+     * How a filter can be called when the kernel dispatches elements on more than one worker thread.
+     */
+    public static enum Concurrency{
+        /**
+         * One element at a time. The kernel serializes all calls into the filter. Default.
+         */
+        SERIAL,
+        /**
+         * Elements with different partition keys (vertex hash, or child vertex hash for edges) can arrive
+         * concurrently. Elements with the same partition key always arrive in order on the same thread.
+         */
+        PARTITION_LOCAL,
+        /**
+         * Any number of threads can call the filter at the same time (e.g. filters which modify no state after
+         * initialization).
+         */
+        THREAD_SAFE
+    }
+
     private AbstractFilter nextFilter;
+    private final Object serialLock = new Object();
+    private final LongAdder receivedCount = new LongAdder();
     /**
      * The arguments that a specific filter instance is initialized with.
      */
@@ -66,7 +90,7 @@ public abstract class AbstractFilter {
      * @param vertex The vertex to be sent to the next filter.
      */
     public final void putInNextFilter(AbstractVertex vertex) {
-        nextFilter.putVertex(vertex);
+        nextFilter.receiveVertex(vertex);
     }
 
     /**
@@ -75,7 +99,60 @@ public abstract class AbstractFilter {
      * @param edge The edge to be sent to the next filter.
      */
     public final void putInNextFilter(AbstractEdge edge) {
-        nextFilter.putEdge(edge);
+        nextFilter.receiveEdge(edge);
+    }
+
+    /**
+     * This method is used by the kernel and the previous filter to hand a vertex to this filter.
+     * Calls are serialized if the filter is not safe to be called concurrently.
+     *
+     * @param vertex The vertex to be handed to this filter.
+     */
+    final void receiveVertex(AbstractVertex vertex) {
+        receivedCount.increment();
+        if (getConcurrency() == Concurrency.SERIAL) {
+            synchronized (serialLock) {
+                putVertex(vertex);
+            }
+        } else {
+            putVertex(vertex);
+        }
+    }
+
+    /**
+     * This method is used by the kernel and the previous filter to hand an edge to this filter.
+     * Calls are serialized if the filter is not safe to be called concurrently.
+     *
+     * @param edge The edge to be handed to this filter.
+     */
+    final void receiveEdge(AbstractEdge edge) {
+        receivedCount.increment();
+        if (getConcurrency() == Concurrency.SERIAL) {
+            synchronized (serialLock) {
+                putEdge(edge);
+            }
+        } else {
+            putEdge(edge);
+        }
+    }
+
+    /**
+     * Number of elements (vertices and edges) received by this filter so far.
+     *
+     * @return The count of received elements.
+     */
+    public final long getReceivedCount() {
+        return receivedCount.sum();
+    }
+
+    /**
+     * Filters that keep no shared mutable state (or guard it themselves) should override this method
+     * so that the kernel can run them on multiple worker threads without serializing.
+     *
+     * @return The concurrency supported by this filter.
+     */
+    public Concurrency getConcurrency() {
+        return Concurrency.SERIAL;
     }
 
     /**
@@ -23,6 +23,7 @@ import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -87,6 +88,13 @@ public abstract class AbstractStorage
 		return null;
 	}
 
+	// Incremented before every write so that cached query results can tell whether the storage has changed
+	private final AtomicLong writeWatermark = new AtomicLong(0);
+
+	public final long getWriteWatermark(){
+		return writeWatermark.get();
+	}
+
 	public final boolean putVertex(final AbstractVertex vertex){
 		boolean block = false;
 		if(vertex == null){
@@ -104,6 +112,7 @@ public abstract class AbstractStorage
 		if(block){
 			return false;
 		}else{
+			writeWatermark.incrementAndGet();
 			return storeVertex(vertex);
 		}
 	}
@@ -125,6 +134,7 @@ public abstract class AbstractStorage
 		if(block){
 			return false;
 		}else{
+			writeWatermark.incrementAndGet();
 			return storeEdge(edge);
 		}
 	}
@@ -171,10 +181,14 @@ public abstract class AbstractStorage
     /**
      * Variables and functions for managing scaffold storage
      */
-    public static Scaffold scaffold = null;
+    public static volatile Scaffold scaffold = null;
     public static boolean BUILD_SCAFFOLD;
     public static String SCAFFOLD_PATH;
     public static String SCAFFOLD_DATABASE_NAME;
+    public static boolean USE_SCAFFOLD_FOR_QUERIES;
+    public static int SCAFFOLD_QUEUE_CAPACITY;
+    // Edges for the scaffold. Only created by the Kernel.
+    private static volatile SinkQueue scaffoldQueue = null;
     static
     {
         try
@@ -183,14 +197,9 @@ public abstract class AbstractStorage
             BUILD_SCAFFOLD = Boolean.parseBoolean(databaseConfigs.getProperty("build_scaffold"));
             SCAFFOLD_PATH = Settings.getPathRelativeToSPADERoot(databaseConfigs.getProperty("scaffold_path"));
             SCAFFOLD_DATABASE_NAME = databaseConfigs.getProperty("scaffold_database_name");
-            if(BUILD_SCAFFOLD)
-            {
-                scaffold = ScaffoldFactory.createScaffold(SCAFFOLD_DATABASE_NAME);
-                if(!scaffold.initialize(SCAFFOLD_PATH))
-                {
-                    Logger.getLogger(AbstractStorage.class.getName()).log(Level.WARNING, "Scaffold not set!");
-                }
-            }
+            USE_SCAFFOLD_FOR_QUERIES = Boolean.parseBoolean(databaseConfigs.getProperty("use_scaffold_for_queries"));
+            SCAFFOLD_QUEUE_CAPACITY = Integer.parseInt(
+                    databaseConfigs.getProperty("scaffold_queue_capacity", "100000").trim());
         }
         catch(Exception ex)
         {
@@ -198,21 +207,101 @@ public abstract class AbstractStorage
             BUILD_SCAFFOLD = false;
             SCAFFOLD_PATH = Settings.getPathRelativeToSPADERoot("db", "scaffold");
             SCAFFOLD_DATABASE_NAME = "BerkeleyDB";
+            USE_SCAFFOLD_FOR_QUERIES = false;
+            SCAFFOLD_QUEUE_CAPACITY = 100000;
             Logger.getLogger(AbstractStorage.class.getName()).log(Level.WARNING,
             "Loading scaffold configurations from file '" + configFile + "' " +
                     " unsuccessful! Falling back to default settings", ex);
         }
     }
 
-    protected boolean insertScaffoldEntry(AbstractEdge incomingEdge)
+    /**
+     * Opens the scaffold if it is to be built. Invoked by the Kernel only so that other processes which use storages
+     * (e.g. the client) never open the scaffold of the server.
+     *
+     * The scaffold is updated on the thread of its queue so that the scaffold (which is not thread-safe) is never
+     * locked by the threads passing elements to the storages.
+     */
+    public static synchronized void initializeScaffold()
+    {
+        if(!BUILD_SCAFFOLD || scaffold != null)
+        {
+            return;
+        }
+        final Scaffold newScaffold = ScaffoldFactory.createScaffold(SCAFFOLD_DATABASE_NAME);
+        if(newScaffold == null || !newScaffold.initialize(SCAFFOLD_PATH))
+        {
+            Logger.getLogger(AbstractStorage.class.getName()).log(Level.WARNING, "Scaffold not set!");
+            return;
+        }
+        startScaffold(newScaffold);
+    }
+
+    private static void startScaffold(final Scaffold newScaffold)
     {
-        return scaffold.insertEntry(incomingEdge);
+        scaffold = newScaffold;
+        scaffoldQueue = new SinkQueue(newScaffold.getClass().getSimpleName(),
+                element -> newScaffold.insertEntry((AbstractEdge)element), SCAFFOLD_QUEUE_CAPACITY,
+                SinkQueue.Policy.BLOCK, null, 0);
+    }
+
+    /**
+     * Queues the edge for the scaffold. Invoked by the Kernel (through the FinalCommitFilter) for every edge passed to
+     * the storages.
+     */
+    public static void putScaffoldEntry(final AbstractEdge incomingEdge)
+    {
+        final SinkQueue queue = scaffoldQueue;
+        if(queue == null)
+        {
+            return;
+        }
+        try
+        {
+            queue.put(incomingEdge);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            Logger.getLogger(AbstractStorage.class.getName()).log(Level.WARNING,
+                    "Interrupted while waiting for space in the scaffold queue", e);
+        }
+    }
+
+    /**
+     * Waits until all the queued edges have been passed to the scaffold
+     */
+    public static void awaitScaffoldEntries() throws InterruptedException
+    {
+        final SinkQueue queue = scaffoldQueue;
+        if(queue != null)
+        {
+            queue.awaitDrained();
+        }
+    }
+
+    /**
+     * Passes the queued edges to the scaffold and shuts it down. Invoked by the Kernel after the storages are closed.
+     */
+    public static synchronized void shutdownScaffold()
+    {
+        if(scaffoldQueue != null)
+        {
+            scaffoldQueue.shutdown();
+            scaffoldQueue = null;
+        }
+        if(scaffold != null)
+        {
+            scaffold.shutdown();
+            scaffold = null;
+        }
     }
 
     /* For testing purposes only. Set scaffold through Settings file normally. */
-    public static void setScaffold(Scaffold scaffold)
+    public static synchronized void setScaffold(Scaffold scaffold)
     {
-        AbstractStorage.scaffold = scaffold;
+        shutdownScaffold();
+        startScaffold(scaffold);
         BUILD_SCAFFOLD = true;
     }
 
@@ -232,11 +321,6 @@ public abstract class AbstractStorage
      */
     public boolean shutdown()
     {
-        if(BUILD_SCAFFOLD)
-        {
-            scaffold.shutdown();
-        }
-
         return true;
     }
 
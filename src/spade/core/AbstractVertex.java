@@ -52,6 +52,12 @@ public abstract class AbstractVertex implements Serializable{
      */
     private final String bigHashCode;
 
+    /**
+     * Big hash computed from the annotations map. Reset whenever the annotations change.
+     * Not serialized because the receiver can have a different default hash helper.
+     */
+    private transient volatile String computedBigHashCode;
+
     /**
      * Create a vertex without a fixed big hash.
      */
@@ -120,6 +126,7 @@ public abstract class AbstractVertex implements Serializable{
 				value = "";
 			}
 			annotations.put(key, value);
+			computedBigHashCode = null;
 		}
 	}
 
@@ -144,7 +151,11 @@ public abstract class AbstractVertex implements Serializable{
      * existed.
      */
     public final String removeAnnotation(String key) {
-        return annotations.remove(key);
+        final String removed = annotations.remove(key);
+        if(removed != null){
+        	computedBigHashCode = null;
+        }
+        return removed;
     }
 
     /**
@@ -205,11 +216,16 @@ public abstract class AbstractVertex implements Serializable{
     /**
      * Computes hash of annotations in the vertex according to the default set in spade.core.HashHelper.
      * If the hash was fixed then that is used.
+     * The computed hash is cached until the annotations change.
      */
 	public final String bigHashCode(){
 		if(bigHashCode == null){
-			final String data = annotations.toString();
-			return HashHelper.defaultInstance.hashToHexString(data);
+			String hash = computedBigHashCode;
+			if(hash == null){
+				hash = HashHelper.defaultInstance.hashAnnotationsToHexString(annotations);
+				computedBigHashCode = hash;
+			}
+			return hash;
 		}else{
 			return bigHashCode;
 		}
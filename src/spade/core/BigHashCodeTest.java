@@ -0,0 +1,145 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Checks that the cached big hash of vertices and edges is the same as a freshly computed one after every change
+ * that affects it.
+ *
+ * Usage: java -cp 'build:lib/*' spade.core.BigHashCodeTest
+ */
+public class BigHashCodeTest{
+
+	public static void main(final String[] args) throws Exception{
+		testVertex();
+		testEdgeAnnotations();
+		testEdgeEndpoints();
+		testSerialized();
+		System.out.println(BigHashCodeTest.class.getSimpleName() + ": passed");
+	}
+
+	private static void testVertex(){
+		final AbstractVertex vertex = process("1");
+		final String hash = vertex.bigHashCode();
+		check(hash == vertex.bigHashCode(), "Expected the vertex hash to be cached");
+		check(hash.equals(process("1").bigHashCode()), "Expected the same hash for the same annotations");
+
+		vertex.addAnnotation("name", "bash");
+		check(!hash.equals(vertex.bigHashCode()), "Expected a new hash after an annotation was added");
+		final AbstractVertex same = process("1");
+		same.addAnnotation("name", "bash");
+		check(same.bigHashCode().equals(vertex.bigHashCode()) && same.equals(vertex)
+				&& same.hashCode() == vertex.hashCode(), "Expected the vertex to equal a fresh one");
+
+		vertex.removeAnnotation("name");
+		check(hash.equals(vertex.bigHashCode()), "Expected the original hash after the annotation was removed");
+		vertex.removeAnnotation("missing");
+		check(hash.equals(vertex.bigHashCode()), "Expected the hash to stay after removing a missing annotation");
+
+		final AbstractVertex fixed = new Vertex(hash);
+		fixed.addAnnotation("pid", "2");
+		check(hash.equals(fixed.bigHashCode()), "Expected a given hash not to change with the annotations");
+	}
+
+	private static void testEdgeAnnotations(){
+		final AbstractEdge edge = edge(process("1"), process("2"));
+		final String hash = edge.bigHashCode();
+		check(hash == edge.bigHashCode(), "Expected the edge hash to be cached");
+
+		edge.addAnnotation("time", "1");
+		check(!hash.equals(edge.bigHashCode()), "Expected a new hash after an annotation was added");
+		final AbstractEdge same = edge(process("1"), process("2"));
+		same.addAnnotation("time", "1");
+		check(same.bigHashCode().equals(edge.bigHashCode()) && same.equals(edge),
+				"Expected the edge to equal a fresh one");
+
+		edge.removeAnnotation("time");
+		check(hash.equals(edge.bigHashCode()), "Expected the original hash after the annotation was removed");
+	}
+
+	private static void testEdgeEndpoints(){
+		final AbstractVertex child = process("1");
+		final AbstractEdge edge = edge(child, process("2"));
+		final String hash = edge.bigHashCode();
+
+		// Changed through the endpoint and not through the edge
+		child.addAnnotation("name", "bash");
+		check(!hash.equals(edge.bigHashCode()), "Expected a new hash after the child vertex changed");
+		final AbstractVertex sameChild = process("1");
+		sameChild.addAnnotation("name", "bash");
+		check(edge(sameChild, process("2")).bigHashCode().equals(edge.bigHashCode()),
+				"Expected the edge to equal a fresh one after the child vertex changed");
+
+		edge.setChildVertex(process("1"));
+		check(hash.equals(edge.bigHashCode()), "Expected the original hash after the child vertex was set back");
+		edge.setParentVertex(process("3"));
+		check(edge(process("1"), process("3")).bigHashCode().equals(edge.bigHashCode()),
+				"Expected a new hash after the parent vertex was set");
+	}
+
+	private static void testSerialized() throws Exception{
+		final AbstractEdge edge = edge(process("1"), process("2"));
+		final String hash = edge.bigHashCode();
+		final AbstractEdge copy = deserialize(serialize(edge));
+		check(hash.equals(copy.bigHashCode()), "Expected the same hash after deserialization");
+		copy.getChildVertex().addAnnotation("name", "bash");
+		check(!hash.equals(copy.bigHashCode()), "Expected a new hash after the deserialized child vertex changed");
+	}
+
+	////////////////////
+
+	private static AbstractVertex process(final String pid){
+		final AbstractVertex vertex = new Vertex();
+		vertex.addAnnotation("type", "Process");
+		vertex.addAnnotation("pid", pid);
+		return vertex;
+	}
+
+	private static AbstractEdge edge(final AbstractVertex child, final AbstractVertex parent){
+		final AbstractEdge edge = new Edge(child, parent);
+		edge.addAnnotation("type", "WasTriggeredBy");
+		return edge;
+	}
+
+	private static byte[] serialize(final Object object) throws Exception{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try(final ObjectOutputStream output = new ObjectOutputStream(bytes)){
+			output.writeObject(object);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static AbstractEdge deserialize(final byte[] bytes) throws Exception{
+		try(final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))){
+			return (AbstractEdge)input.readObject();
+		}
+	}
+
+	private static void check(final boolean condition, final String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+}
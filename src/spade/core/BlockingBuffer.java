@@ -20,6 +20,8 @@
 package spade.core;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,22 +29,38 @@ import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
 
+/**
+ * Buffer that blocks the reporter (producer) when the free JVM memory is low, or when the number of buffered
+ * elements or the estimated bytes of the buffered elements exceed the configured bounds.
+ * Blocked producers are woken up as soon as the kernel takes elements out of the buffer.
+ */
 public class BlockingBuffer extends Buffer{
 
 	public static final String keyWorkableFreeMemoryPercentageForBuffer = "workableFreeMemory";
 	private static final String keySleepWaitMillis = "sleepWaitMillis";
 	private static final String keyReportingIntervalSeconds = "reportingIntervalSeconds";
-	
+	private static final String keyMaxElements = "maxElements";
+	private static final String keyMaxBytes = "maxBytes";
+
+	// Rough per-annotation and per-element overheads used for estimating the bytes of an element
+	private static final long bytesPerAnnotationOverhead = 64;
+	private static final long bytesPerElementOverhead = 96;
+
 	private final long sleepWaitMillis;
 	private final long reportingIntervalMillis;
-	
+	private final long maxElements;
+	private final long maxBytes;
+
 	private final Object reportLock = new Object();
-	private final Object putLock = new Object();
-	private final Object getLock = new Object();
 	private final long createdAtMillis = System.currentTimeMillis();
-	private long putCount = 0;
-	private long getCount = 0;
-	
+	private final LongAdder putCount = new LongAdder();
+	private final LongAdder getCount = new LongAdder();
+	private final AtomicLong bufferedBytes = new AtomicLong(0);
+
+	// Producers wait on this when the buffer is full
+	private final Object spaceLock = new Object();
+	private volatile int waitingProducers = 0;
+
 	private long lastReportedAtMillis = System.currentTimeMillis();
 
 	private final Logger logger = Logger.getLogger(this.getClass().getName());
@@ -76,14 +94,33 @@ public class BlockingBuffer extends Buffer{
 			throw new RuntimeException("Invalid value for '"+keyReportingIntervalSeconds+"' in file '"+configFilePath+"'. " 
 					+ reportingIntervalSecondsResult.errorMessage);
 		}
+
+		this.maxElements = parseOptionalBound(map, keyMaxElements, configFilePath);
+		this.maxBytes = parseOptionalBound(map, keyMaxBytes, configFilePath);
 		
 		this.sleepWaitMillis = sleepWaitMillisResult.result;
 		this.reportingIntervalMillis = reportingIntervalSecondsResult.result.intValue() * 1000;
 		
-		log(Level.INFO, String.format("%s=%.3f%%, %s=%s, %s=%s", 
+		log(Level.INFO, String.format("%s=%.3f%%, %s=%s, %s=%s, %s=%s, %s=%s", 
 				keyWorkableFreeMemoryPercentageForBuffer, getFreeWorkableMemoryPercentage(),
 				keyReportingIntervalSeconds, reportingIntervalSecondsResult.result.intValue() + "("+getReportingEnableDisableString()+")",
-				keySleepWaitMillis, this.sleepWaitMillis));
+				keySleepWaitMillis, this.sleepWaitMillis,
+				keyMaxElements, this.maxElements > 0 ? this.maxElements : "unbounded",
+				keyMaxBytes, this.maxBytes > 0 ? this.maxBytes : "unbounded"));
+	}
+
+	// Missing or non-positive value means unbounded
+	private static final long parseOptionalBound(final Map<String, String> map, final String key, final String configFilePath){
+		final String valueString = map.get(key);
+		if(HelperFunctions.isNullOrEmpty(valueString)){
+			return 0;
+		}
+		final Result<Long> result = HelperFunctions.parseLong(valueString, 10, Long.MIN_VALUE, Long.MAX_VALUE);
+		if(result.error){
+			throw new RuntimeException("Invalid value for '"+key+"' in file '"+configFilePath+"'. " 
+					+ result.errorMessage);
+		}
+		return result.result <= 0 ? 0 : result.result;
 	}
 	
 	private final String getReportingEnableDisableString(){
@@ -111,7 +148,7 @@ public class BlockingBuffer extends Buffer{
 		report();
 		final boolean added = super.putVertex(vertex);
 		if(added){
-			put();
+			put(maxBytes > 0 ? estimateBytes(vertex) : 0);
 		}
 		return added;
 	}
@@ -121,7 +158,7 @@ public class BlockingBuffer extends Buffer{
 		report();
 		final boolean added = super.putEdge(edge);
 		if(added){
-			put();
+			put(maxBytes > 0 ? estimateBytes(edge) : 0);
 		}
 		return added;
 	}
@@ -131,76 +168,125 @@ public class BlockingBuffer extends Buffer{
 		report();
 		final Object result = super.getBufferElement();
 		if(result != null){
-			synchronized(getLock){
-				getCount++;
+			getCount.increment();
+			if(maxBytes > 0){
+				if(result instanceof AbstractVertex){
+					bufferedBytes.addAndGet(-estimateBytes((AbstractVertex)result));
+				}else if(result instanceof AbstractEdge){
+					bufferedBytes.addAndGet(-estimateBytes((AbstractEdge)result));
+				}
+			}
+			if(waitingProducers > 0){
+				synchronized(spaceLock){
+					spaceLock.notifyAll();
+				}
 			}
 		}
 		return result;
 	}
-	
-	private final void put(){
-		synchronized(putLock){
-			putCount++;
+
+	@Override
+	final void wakeUpOnShutdown(){
+		synchronized(spaceLock){
+			spaceLock.notifyAll();
+		}
+	}
+
+	private final boolean isFull(){
+		return (maxElements > 0 && size() > maxElements)
+				|| (maxBytes > 0 && bufferedBytes.get() > maxBytes);
+	}
+
+	private final boolean isMemoryLow(){
+		return HelperFunctions.getFreeMemoryPercentage() <= getFreeWorkableMemoryPercentage();
+	}
+
+	private final void put(final long elementBytes){
+		putCount.increment();
+		if(elementBytes > 0){
+			bufferedBytes.addAndGet(elementBytes);
 		}
 		if(isShutdown()){
 			return;
 		}
-		boolean slept = false;
+		final boolean memoryLow = isMemoryLow();
+		if(!memoryLow && !isFull()){
+			return;
+		}
+
+		// Blocking on a full buffer is the normal back-pressure. Only blocking on memory is logged.
 		final long waitStartMillis = System.currentTimeMillis();
-		
-		final double freeWorkableMemoryPercentageSpecified = getFreeWorkableMemoryPercentage();
-		
-		if(HelperFunctions.getFreeMemoryPercentage() <= freeWorkableMemoryPercentageSpecified){
-			if(reportingIntervalMillis > 0){
-				log(Level.INFO, String.format("Blocking until free memory percentage rises above min. (current) %.3f <= (specified) %.3f" 
-					, HelperFunctions.getFreeMemoryPercentage(), freeWorkableMemoryPercentageSpecified), null);
-			}
+		if(memoryLow && reportingIntervalMillis > 0){
+			log(Level.INFO, String.format("Blocking until free memory percentage rises above min. (current) %.3f <= (specified) %.3f" 
+					, HelperFunctions.getFreeMemoryPercentage(), getFreeWorkableMemoryPercentage()), null);
 		}
-		
-		while(HelperFunctions.getFreeMemoryPercentage() <= freeWorkableMemoryPercentageSpecified){
-			slept = true;
-			
-			if(isShutdown()){ // If shutdown has been called then break out
-				break;
+
+		synchronized(spaceLock){
+			waitingProducers++;
+			try{
+				// Woken up by the consumer when elements are taken out. Timed wait only to re-check the free memory.
+				while(!isShutdown() && (isFull() || isMemoryLow())){
+					spaceLock.wait(sleepWaitMillis);
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}finally{
+				waitingProducers--;
 			}
-			
-			HelperFunctions.sleepSafe(sleepWaitMillis);
 		}
-		
-		if(slept){
-			if(reportingIntervalMillis > 0){
-				final long waitEndMillis = System.currentTimeMillis() - waitStartMillis;
-				log(Level.INFO, "Blocked for " + (waitEndMillis) 
-						+ " millis for free memory percentage to rise above min.", null);
-			}
+
+		if(memoryLow && reportingIntervalMillis > 0){
+			final long waitEndMillis = System.currentTimeMillis() - waitStartMillis;
+			log(Level.INFO, "Blocked for " + (waitEndMillis) 
+					+ " millis for free memory percentage to rise above min.", null);
+		}
+	}
+
+	private static final long estimateBytes(final AbstractVertex vertex){
+		long bytes = bytesPerElementOverhead;
+		for(final String key : vertex.getAnnotationKeys()){
+			final String value = vertex.getAnnotation(key);
+			bytes += bytesPerAnnotationOverhead + 2L * (key.length() + (value == null ? 0 : value.length()));
+		}
+		return bytes;
+	}
+
+	private static final long estimateBytes(final AbstractEdge edge){
+		long bytes = bytesPerElementOverhead;
+		for(final String key : edge.getAnnotationKeys()){
+			final String value = edge.getAnnotation(key);
+			bytes += bytesPerAnnotationOverhead + 2L * (key.length() + (value == null ? 0 : value.length()));
+		}
+		if(edge.getChildVertex() != null){
+			bytes += estimateBytes(edge.getChildVertex());
+		}
+		if(edge.getParentVertex() != null){
+			bytes += estimateBytes(edge.getParentVertex());
 		}
+		return bytes;
 	}
 	
 	public final double getPutRate(){
-		synchronized(putLock){
-			return getRate(putCount);
-		}
+		return getRate(putCount.sum());
 	}
 	
 	public final double getGetRate(){
-		synchronized(getLock){
-			return getRate(getCount);
-		}
+		return getRate(getCount.sum());
 	}
 	
 	public final long getPutCount(){
-		synchronized(putLock){
-			return putCount;
-		}
+		return putCount.sum();
 	}
 	
 	public final long getGetCount(){
-		synchronized(getLock){
-			return getCount;
-		}
+		return getCount.sum();
+	}
+
+	public final long getBufferedBytes(){
+		return bufferedBytes.get();
 	}
 	
-	private final synchronized double getRate(final long count){
+	private final double getRate(final long count){
 		return count / ((System.currentTimeMillis() - createdAtMillis) / (1000.0 * 60.0));
 	}
 	
@@ -213,13 +299,13 @@ public class BlockingBuffer extends Buffer{
 	}
 	
 	private final void report(){
-		synchronized(reportLock){
-			if(reportingIntervalMillis > 0){
+		if(reportingIntervalMillis > 0){
+			synchronized(reportLock){
 				if((System.currentTimeMillis() - lastReportedAtMillis) > reportingIntervalMillis){
 					lastReportedAtMillis = System.currentTimeMillis();
 					log(Level.INFO, 
-							String.format("Size=%s, Get-count=%s, Put-count=%s, Free-mem=%.3f percent", 
-									size(), getGetCount(), getPutCount(), HelperFunctions.getFreeMemoryPercentage())
+							String.format("Size=%s, Bytes=%s, Get-count=%s, Put-count=%s, Free-mem=%.3f percent", 
+									size(), bufferedBytes.get(), getGetCount(), getPutCount(), HelperFunctions.getFreeMemoryPercentage())
 							);
 				}
 			}
@@ -21,6 +21,7 @@ package spade.core;
 
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the buffer class which is used by reporters to send provenance
@@ -34,6 +35,11 @@ public class Buffer {
 	private volatile boolean shutdown = false;
 
     private final Queue<Object> queue;
+    // Kept separately because ConcurrentLinkedQueue.size() is O(n)
+    private final AtomicInteger queueSize = new AtomicInteger(0);
+
+    // Used to wake up the consumer (kernel) when an element is added
+    private volatile BufferSignal signal;
 
     /**
      * Empty constructor for this class.
@@ -53,7 +59,7 @@ public class Buffer {
         if (incomingVertex == null) {
             return false;
         } else {
-            return queue.add(incomingVertex);
+            return add(incomingVertex);
         }
     }
 
@@ -69,8 +75,29 @@ public class Buffer {
                 || (incomingEdge.getParentVertex() == null)) {
             return false;
         } else {
-            return queue.add(incomingEdge);
+            return add(incomingEdge);
+        }
+    }
+
+    private boolean add(Object element) {
+        final boolean added = queue.add(element);
+        if (added) {
+            queueSize.incrementAndGet();
+            final BufferSignal currentSignal = signal;
+            if (currentSignal != null) {
+                currentSignal.signal();
+            }
         }
+        return added;
+    }
+
+    /**
+     * This method is used by the kernel to get notified when an element is added to this buffer.
+     *
+     * @param signal The signal shared by all the buffers being consumed by the kernel.
+     */
+    final void setSignal(BufferSignal signal) {
+        this.signal = signal;
     }
 
     /**
@@ -79,7 +106,11 @@ public class Buffer {
      * @return The provenance element from the head of the queue.
      */
     public Object getBufferElement() {
-        return queue.poll();
+        final Object element = queue.poll();
+        if (element != null) {
+            queueSize.decrementAndGet();
+        }
+        return element;
     }
 
     /**
@@ -98,7 +129,7 @@ public class Buffer {
      * @return the number of elements in the buffer
      */
     public int size() {
-        return queue.size();
+        return queueSize.get();
     }
 
 	/**
@@ -110,6 +141,13 @@ public class Buffer {
 		synchronized(shutdownLock){
 			this.shutdown = true;
 		}
+		wakeUpOnShutdown();
+	}
+
+	/**
+	 * Called after shutdown has been set. Implementations that block producers must wake them up.
+	 */
+	void wakeUpOnShutdown(){
 	}
 
 	/**
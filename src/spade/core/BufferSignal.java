@@ -0,0 +1,64 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Wakes up the consumer of one or more buffers when an element is added.
+ *
+ * Producers only take the lock when the consumer is actually waiting so the common (busy) path is lock-free.
+ */
+final class BufferSignal{
+
+	private final Object lock = new Object();
+	private volatile boolean waiting = false;
+
+	/**
+	 * Called by the producers after adding an element.
+	 */
+	final void signal(){
+		if(waiting){
+			synchronized(lock){
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Called by the consumer to wait until there is work to do.
+	 *
+	 * @param workAvailable Checked after registering as waiting so that no signal is missed
+	 * @param timeoutMillis Maximum time to wait
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	final void await(final BooleanSupplier workAvailable, final long timeoutMillis) throws InterruptedException{
+		synchronized(lock){
+			waiting = true;
+			try{
+				if(!workAvailable.getAsBoolean()){
+					lock.wait(timeoutMillis);
+				}
+			}finally{
+				waiting = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,377 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Hands the elements drained from the reporter buffers to the filter list.
+ *
+ * With one worker (default) the elements are passed to the first filter on the calling thread, exactly like
+ * the main SPADE thread always did. With more than one worker, each element is put into the queue of the worker
+ * selected by its partition key (vertex hash, or child vertex hash for edges) so that all elements of one entity
+ * are processed in order by the same worker. An edge whose parent vertex is still queued for another worker is only
+ * dispatched once that worker has processed the parent vertex, so that both endpoints of an edge always pass through
+ * the filters before the edge. Filters that are not thread-safe are serialized by AbstractFilter.
+ *
+ * Once shut down, the elements still dispatched are passed to the first filter on the calling thread.
+ */
+public class Dispatcher{
+
+	private static final String keyWorkers = "workers";
+	private static final String keyWorkerQueueCapacity = "workerQueueCapacity";
+	private static final String keyReportingIntervalSeconds = "reportingIntervalSeconds";
+
+	private static final Object POISON = new Object();
+
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private final List<AbstractFilter> filters;
+	private final int firstFilterIndex;
+
+	private final int workerCount;
+	private final int workerQueueCapacity;
+	private final long reportingIntervalMillis;
+
+	private final List<Worker> workers = new ArrayList<Worker>();
+	// Held while dispatching so that the workers are not stopped in the middle of a dispatch
+	private final Object dispatchLock = new Object();
+	private boolean workersStopped = false;
+
+	private final LongAdder submittedCount = new LongAdder();
+	private final Object pendingLock = new Object();
+	private final AtomicLong pendingCount = new AtomicLong(0);
+
+	private final Object reportLock = new Object();
+	private final long createdAtMillis = System.currentTimeMillis();
+	private long lastReportedAtMillis = System.currentTimeMillis();
+
+	public Dispatcher(final List<AbstractFilter> filters, final int firstFilterIndex){
+		this.filters = filters;
+		this.firstFilterIndex = firstFilterIndex;
+
+		final String configFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+
+		final Map<String, String> map;
+		try{
+			map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+		}catch(Throwable t){
+			throw new RuntimeException("Failed to read file '"+configFilePath+"'. " + t.getMessage(), t);
+		}
+
+		final Result<Long> workersResult = HelperFunctions.parseLong(map.get(keyWorkers), 10, 1, Short.MAX_VALUE);
+		if(workersResult.error){
+			throw new RuntimeException("Invalid value for '"+keyWorkers+"' in file '"+configFilePath+"'. "
+					+ workersResult.errorMessage);
+		}
+
+		final Result<Long> queueCapacityResult = HelperFunctions.parseLong(map.get(keyWorkerQueueCapacity), 10, 1, Integer.MAX_VALUE);
+		if(queueCapacityResult.error){
+			throw new RuntimeException("Invalid value for '"+keyWorkerQueueCapacity+"' in file '"+configFilePath+"'. "
+					+ queueCapacityResult.errorMessage);
+		}
+
+		final Result<Long> reportingIntervalSecondsResult = HelperFunctions.parseLong(map.get(keyReportingIntervalSeconds), 10, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		if(reportingIntervalSecondsResult.error){
+			throw new RuntimeException("Invalid value for '"+keyReportingIntervalSeconds+"' in file '"+configFilePath+"'. "
+					+ reportingIntervalSecondsResult.errorMessage);
+		}
+
+		this.workerCount = workersResult.result.intValue();
+		this.workerQueueCapacity = queueCapacityResult.result.intValue();
+		this.reportingIntervalMillis = reportingIntervalSecondsResult.result.intValue() * 1000L;
+
+		if(this.workerCount > 1){
+			for(int i = 0; i < this.workerCount; i++){
+				final Worker worker = new Worker(i);
+				workers.add(worker);
+				worker.thread.start();
+			}
+		}
+
+		logger.log(Level.INFO, String.format("%s=%s, %s=%s, %s=%s",
+				keyWorkers, this.workerCount,
+				keyWorkerQueueCapacity, this.workerQueueCapacity,
+				keyReportingIntervalSeconds, reportingIntervalSecondsResult.result.intValue()
+					+ "(" + (this.reportingIntervalMillis > 0 ? "enabled" : "disabled") + ")"));
+	}
+
+	public final int getWorkerCount(){
+		return workerCount;
+	}
+
+	/**
+	 * Passes the element to the filter list. Blocks if the queue of the selected worker is full.
+	 *
+	 * @param element Vertex or edge taken from a reporter buffer
+	 * @throws InterruptedException if interrupted while waiting for space in a worker queue
+	 */
+	public final void dispatch(final Object element) throws InterruptedException{
+		report();
+		synchronized(dispatchLock){
+			if(element instanceof AbstractVertex){
+				submittedCount.increment();
+				if(workers.isEmpty() || workersStopped){
+					filters.get(firstFilterIndex).receiveVertex((AbstractVertex)element);
+				}else{
+					final AbstractVertex vertex = (AbstractVertex)element;
+					final Worker worker = getWorker(vertex.hashCode());
+					worker.vertexEnqueued(vertex.bigHashCode());
+					enqueue(worker, element);
+				}
+			}else if(element instanceof AbstractEdge){
+				submittedCount.increment();
+				if(workers.isEmpty() || workersStopped){
+					filters.get(firstFilterIndex).receiveEdge((AbstractEdge)element);
+				}else{
+					final AbstractEdge edge = (AbstractEdge)element;
+					final Worker childWorker = getWorker(edge.getChildVertex().hashCode());
+					final Worker parentWorker = getWorker(edge.getParentVertex().hashCode());
+					if(parentWorker != childWorker){
+						// The child vertex is ahead of the edge in the same queue. Wait for the parent vertex only.
+						parentWorker.awaitVertexProcessed(edge.getParentVertex().bigHashCode());
+					}
+					enqueue(childWorker, element);
+				}
+			}
+		}
+	}
+
+	private final Worker getWorker(final int partitionKey){
+		final int spread = partitionKey ^ (partitionKey >>> 16);
+		return workers.get((spread & Integer.MAX_VALUE) % workers.size());
+	}
+
+	private final void enqueue(final Worker worker, final Object element) throws InterruptedException{
+		pendingCount.incrementAndGet();
+		worker.queue.put(element);
+	}
+
+	private final void completed(){
+		if(pendingCount.decrementAndGet() == 0){
+			synchronized(pendingLock){
+				pendingLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until no element handed to the workers is left to pass through the filter list. Can be called from any
+	 * thread. Elements dispatched while waiting are waited for too, so the dispatching thread (or shutdown) is the one
+	 * which can make sure that nothing new is dispatched in the meantime.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public final void awaitDrained() throws InterruptedException{
+		synchronized(pendingLock){
+			while(pendingCount.get() > 0){
+				pendingLock.wait();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the queued elements to be processed and then stops the workers. Safe to call from a thread other than
+	 * the dispatching one: the elements dispatched afterwards are passed on the dispatching thread.
+	 */
+	public final void shutdown(){
+		synchronized(dispatchLock){
+			workersStopped = true;
+		}
+		try{
+			awaitDrained();
+		}catch(InterruptedException e){
+			logger.log(Level.WARNING, "Interrupted while waiting for workers to drain", e);
+		}
+		for(final Worker worker : workers){
+			try{
+				worker.queue.put(POISON);
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, "Interrupted while stopping worker: " + worker.thread.getName(), e);
+			}
+		}
+		for(final Worker worker : workers){
+			try{
+				worker.thread.join();
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, "Interrupted while waiting for worker to stop: " + worker.thread.getName(), e);
+			}
+		}
+		logger.log(Level.INFO, getStats());
+	}
+
+	/**
+	 * Throughput of each stage: dispatcher, workers, and filters (in order, including the final commit filter).
+	 *
+	 * @return Stats as a printable string
+	 */
+	public final String getStats(){
+		final double elapsedMinutes = (System.currentTimeMillis() - createdAtMillis) / (1000.0 * 60.0);
+		final StringBuilder str = new StringBuilder();
+		str.append(String.format("Dispatched=%s (%.3f per minute)", submittedCount.sum(), getRate(submittedCount.sum(), elapsedMinutes)));
+		for(final Worker worker : workers){
+			final long processed = worker.processedCount.sum();
+			str.append(String.format(", %s[processed=%s (%.3f per minute), queued=%s]",
+					worker.thread.getName(), processed, getRate(processed, elapsedMinutes), worker.queue.size()));
+		}
+		final List<AbstractFilter> filtersCopy;
+		synchronized(filters){
+			filtersCopy = new ArrayList<AbstractFilter>(filters);
+		}
+		for(final AbstractFilter filter : filtersCopy){
+			final long received = filter.getReceivedCount();
+			str.append(String.format(", %s[received=%s (%.3f per minute)]",
+					filter.getClass().getSimpleName(), received, getRate(received, elapsedMinutes)));
+		}
+		return str.toString();
+	}
+
+	private static final double getRate(final long count, final double elapsedMinutes){
+		return elapsedMinutes <= 0 ? 0 : count / elapsedMinutes;
+	}
+
+	private final void report(){
+		if(reportingIntervalMillis > 0){
+			synchronized(reportLock){
+				if((System.currentTimeMillis() - lastReportedAtMillis) > reportingIntervalMillis){
+					lastReportedAtMillis = System.currentTimeMillis();
+					logger.log(Level.INFO, getStats());
+				}
+			}
+		}
+	}
+
+	private final class Worker implements Runnable{
+		private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(workerQueueCapacity);
+		private final LongAdder processedCount = new LongAdder();
+		private final Thread thread;
+
+		private long enqueuedVertexCount = 0; // Only used by the dispatching thread
+		// Sequence number of the vertices enqueued and not yet processed, by hash, in the order enqueued.
+		// Only used by the dispatching thread.
+		private final LinkedHashMap<String, Long> enqueuedVertexSequences = new LinkedHashMap<String, Long>();
+		private final AtomicLong processedVertexCount = new AtomicLong(0);
+		private volatile boolean dispatcherWaiting = false;
+
+		private Worker(final int index){
+			this.thread = new Thread(this, "dispatchSPADE-Thread-" + index);
+		}
+
+		private void vertexEnqueued(final String hashCode){
+			final long sequence = ++enqueuedVertexCount;
+			// Forget the vertices already processed (the oldest first)
+			final long processed = processedVertexCount.get();
+			final Iterator<Long> iterator = enqueuedVertexSequences.values().iterator();
+			while(iterator.hasNext() && iterator.next() <= processed){
+				iterator.remove();
+			}
+			if(hashCode != null){
+				// Re-inserted to keep the map in the order of the sequence numbers
+				enqueuedVertexSequences.remove(hashCode);
+				enqueuedVertexSequences.put(hashCode, sequence);
+			}
+		}
+
+		/**
+		 * Waits until the last vertex with the hash handed to this worker has passed through the filter list. No
+		 * wait if no such vertex is queued.
+		 */
+		private void awaitVertexProcessed(final String hashCode) throws InterruptedException{
+			final Long sequence = hashCode == null ? null : enqueuedVertexSequences.get(hashCode);
+			if(sequence != null){
+				awaitVerticesProcessed(sequence);
+			}
+		}
+
+		/**
+		 * Waits until the given number of vertices handed to this worker have passed through the filter list
+		 */
+		private void awaitVerticesProcessed(final long count) throws InterruptedException{
+			if(processedVertexCount.get() >= count){
+				return;
+			}
+			synchronized(this){
+				dispatcherWaiting = true;
+				try{
+					while(processedVertexCount.get() < count){
+						wait();
+					}
+				}finally{
+					dispatcherWaiting = false;
+				}
+			}
+		}
+
+		private void vertexProcessed(){
+			processedVertexCount.incrementAndGet();
+			if(dispatcherWaiting){
+				synchronized(this){
+					notifyAll();
+				}
+			}
+		}
+
+		@Override
+		public void run(){
+			while(true){
+				final Object element;
+				try{
+					element = queue.take();
+				}catch(InterruptedException e){
+					logger.log(Level.WARNING, "Worker interrupted: " + thread.getName(), e);
+					break;
+				}
+				if(element == POISON){
+					break;
+				}
+				final boolean isVertex = element instanceof AbstractVertex;
+				try{
+					if(isVertex){
+						filters.get(firstFilterIndex).receiveVertex((AbstractVertex)element);
+					}else{
+						filters.get(firstFilterIndex).receiveEdge((AbstractEdge)element);
+					}
+				}catch(Throwable t){
+					logger.log(Level.SEVERE, "Failed to process element in worker: " + thread.getName(), t);
+				}finally{
+					if(isVertex){
+						vertexProcessed();
+					}
+					processedCount.increment();
+					completed();
+				}
+			}
+		}
+	}
+}
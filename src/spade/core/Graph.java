@@ -529,10 +529,41 @@ public class Graph implements Serializable{
 			final boolean closeWriter) throws Exception{
 		if(graph == null){
 			throw new RuntimeException("Cannot export NULL graph");
-		}else if(format == null){
+		}else{
+			final AbstractStorage storage = createExportStorage(format, writer, closeWriter);
+
+			try{
+				for(AbstractVertex vertex : graph.vertexSet()){
+					storage.putVertex(vertex);
+				}
+				
+				for(AbstractEdge edge : graph.edgeSet()){
+					storage.putEdge(edge);
+				}
+			}catch(Exception e){
+				throw e;
+			}finally{
+				try{
+					storage.shutdown();
+				}catch(Exception e){
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Storage which writes the vertices and edges put into it to the writer in the given format.
+	 * 
+	 * Used to export a graph a part at a time. The footer is written on storage shutdown.
+	 */
+	public static final AbstractStorage createExportStorage(
+			final SaveGraph.Format format,
+			final BufferedWriter writer,
+			final boolean closeWriter) throws Exception{
+		if(format == null){
 			throw new RuntimeException("Cannot export to NULL format");
 		}else{
-			final AbstractStorage storage;
 			final boolean printHeader = true, printFooter = true;
 			
 			switch(format){
@@ -543,8 +574,7 @@ public class Graph implements Serializable{
 							writer,  
 							printHeader, printFooter, printRecordSeparator,
 							System.lineSeparator(), closeWriter);
-					storage = jsonStorage;
-					break;
+					return jsonStorage;
 				case kDot:
 					final Graphviz dotStorage = new Graphviz();
 					dotStorage.initializeUnsafe(
@@ -552,28 +582,9 @@ public class Graph implements Serializable{
 							DotConfiguration.getDefaultConfigFilePath(), 
 							printHeader, printFooter, System.lineSeparator(),
 							closeWriter);
-					storage = dotStorage;
-					break;
+					return dotStorage;
 				default: throw new RuntimeException("Unhandled graph export format: " + format);
 			}
-
-			try{
-				for(AbstractVertex vertex : graph.vertexSet()){
-					storage.putVertex(vertex);
-				}
-				
-				for(AbstractEdge edge : graph.edgeSet()){
-					storage.putEdge(edge);
-				}
-			}catch(Exception e){
-				throw e;
-			}finally{
-				try{
-					storage.shutdown();
-				}catch(Exception e){
-					// ignore
-				}
-			}
 		}
 	}
 
@@ -19,20 +19,77 @@
  */
 package spade.core;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import spade.utility.FileUtility;
+
 /*
  * This is the class that should contains all the functions that can be required for
  * hashing of vertices and edges.
+ * 
+ * The default hasher is selected by the 'algorithm' key in the config file. The hash algorithm must not be changed
+ * for an existing database because the stored hashes would no longer match. Storages record the name of the
+ * algorithm and check it with checkRecordedAlgorithm to detect that.
  */
 public abstract class HashHelper{
 
+	public static final String keyAlgorithm = "algorithm";
+
+	public static final String algorithmMD5 = "md5";
+	public static final String algorithmMurmur3 = "murmur3_128";
+	public static final String algorithmMurmur3Streaming = "murmur3_128_streaming";
+
 	// Default hasher
-	public final static HashHelper defaultInstance = new MD5HashHelper();
+	public final static HashHelper defaultInstance = createDefaultInstance();
+
+	private static HashHelper createDefaultInstance(){
+		final String configFilePath = Settings.getDefaultConfigFilePath(HashHelper.class);
+		String algorithm = algorithmMD5;
+		try{
+			final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+			if(map.get(keyAlgorithm) != null){
+				algorithm = map.get(keyAlgorithm).trim();
+			}
+		}catch(Throwable t){
+			Logger.getLogger(HashHelper.class.getName()).log(Level.WARNING, 
+					"Failed to read file '" + configFilePath + "'. Using default hash algorithm: " + algorithm, t);
+		}
+		final HashHelper hashHelper = createInstance(algorithm);
+		if(hashHelper == null){
+			throw new RuntimeException("Unknown value for '" + keyAlgorithm + "' in file '" + configFilePath + "': '" + algorithm + "'. "
+					+ "Expected one of: " + algorithmMD5 + ", " + algorithmMurmur3 + ", " + algorithmMurmur3Streaming);
+		}
+		Logger.getLogger(HashHelper.class.getName()).log(Level.INFO, "Hash algorithm: " + hashHelper);
+		return hashHelper;
+	}
+
+	/**
+	 * @param algorithm Name of the hash algorithm
+	 * @return The hasher for the algorithm or null if unknown
+	 */
+	public static HashHelper createInstance(final String algorithm){
+		if(algorithm == null){
+			return null;
+		}
+		switch(algorithm.toLowerCase()){
+			case algorithmMD5: return new MD5HashHelper();
+			case algorithmMurmur3: return new Murmur3HashHelper(algorithmMurmur3);
+			case algorithmMurmur3Streaming: return new StreamingMurmur3HashHelper();
+			default: return null;
+		}
+	}
 	
 	public final String hashAlgorithmName;
 	public final int bytesInHash;
@@ -48,8 +105,54 @@ public abstract class HashHelper{
 		this.bytesInHash = bytesInHash;
 	}
 	
+	/**
+	 * Checks the hash algorithm recorded by a storage against this one.
+	 * 
+	 * @param recordedAlgorithm Name of the algorithm recorded by the storage. Null if none recorded yet.
+	 * @param populated True if the storage already has vertices. Vertices stored before the algorithm was recorded
+	 * are assumed to be hashed with md5.
+	 * @return The name of the algorithm to record if none recorded yet, otherwise null
+	 * @throws Exception if the recorded algorithm is different from this one
+	 */
+	public final String checkRecordedAlgorithm(final String recordedAlgorithm, final boolean populated) throws Exception{
+		final String algorithm;
+		if(recordedAlgorithm == null){
+			algorithm = populated ? algorithmMD5 : hashAlgorithmName;
+		}else{
+			algorithm = recordedAlgorithm;
+		}
+		if(!algorithm.equalsIgnoreCase(hashAlgorithmName)){
+			throw new Exception("Database hash algorithm '" + algorithm + "' is different from the "
+					+ "configured hash algorithm '" + hashAlgorithmName + "'. Change the configuration of "
+					+ HashHelper.class.getName() + " or reset the database");
+		}
+		return recordedAlgorithm == null ? algorithm : null;
+	}
+
 	public abstract byte[] hashToByteArray(final String data);
 	public abstract String hashToHexString(final String data);
+
+	/**
+	 * Hash of the annotations of a vertex.
+	 * 
+	 * @param annotations Must iterate in sorted key order
+	 * @return Hex string of the hash
+	 */
+	public String hashAnnotationsToHexString(final Map<String, String> annotations){
+		return hashToHexString(annotations.toString());
+	}
+
+	/**
+	 * Hash of the annotations and the endpoints of an edge.
+	 * 
+	 * @param childHash Hex string of the child vertex hash or "(null)"
+	 * @param annotations Must iterate in sorted key order
+	 * @param parentHash Hex string of the parent vertex hash or "(null)"
+	 * @return Hex string of the hash
+	 */
+	public String hashEdgeToHexString(final String childHash, final Map<String, String> annotations, final String parentHash){
+		return hashToHexString(childHash + "," + annotations.toString() + "," + parentHash);
+	}
 	
 	public final boolean isValidHashByteArray(final byte[] hash){
 		if(hash != null){
@@ -126,6 +229,66 @@ public abstract class HashHelper{
 
 	}
 	
+	/**
+	 * Non-cryptographic 128-bit hash. Same number of bytes as md5 so no change needed in the storage schemas.
+	 */
+	public static class Murmur3HashHelper extends HashHelper{
+
+		protected final HashFunction hashFunction = Hashing.murmur3_128();
+
+		private Murmur3HashHelper(final String hashAlgorithmName){
+			super(hashAlgorithmName, 16);
+		}
+
+		@Override
+		public byte[] hashToByteArray(String data){
+			return hashFunction.hashString(data, StandardCharsets.UTF_8).asBytes();
+		}
+
+		@Override
+		public String hashToHexString(String data){
+			return hashFunction.hashString(data, StandardCharsets.UTF_8).toString();
+		}
+	}
+
+	/**
+	 * Same as murmur3 but the annotations of vertices and edges are fed directly into the hash instead of
+	 * building the string of the annotations map first.
+	 */
+	public static final class StreamingMurmur3HashHelper extends Murmur3HashHelper{
+
+		private StreamingMurmur3HashHelper(){
+			super(algorithmMurmur3Streaming);
+		}
+
+		// Lengths are included so that the boundaries between keys and values are unambiguous
+		private static void putAnnotations(final Hasher hasher, final Map<String, String> annotations){
+			hasher.putInt(annotations.size());
+			for(final Map.Entry<String, String> entry : annotations.entrySet()){
+				final String key = entry.getKey();
+				final String value = entry.getValue();
+				hasher.putInt(key.length()).putUnencodedChars(key);
+				hasher.putInt(value.length()).putUnencodedChars(value);
+			}
+		}
+
+		@Override
+		public String hashAnnotationsToHexString(final Map<String, String> annotations){
+			final Hasher hasher = hashFunction.newHasher();
+			putAnnotations(hasher, annotations);
+			return hasher.hash().toString();
+		}
+
+		@Override
+		public String hashEdgeToHexString(final String childHash, final Map<String, String> annotations, final String parentHash){
+			final Hasher hasher = hashFunction.newHasher();
+			hasher.putInt(childHash.length()).putUnencodedChars(childHash);
+			putAnnotations(hasher, annotations);
+			hasher.putInt(parentHash.length()).putUnencodedChars(parentHash);
+			return hasher.hash().toString();
+		}
+	}
+
 	private static List<Byte> toList(final byte[] bytes){
 		List<Byte> bytesList = new ArrayList<Byte>();
 		for(byte b : bytes){
@@ -162,6 +162,19 @@ public class Kernel
      * Set of filters active on the local SPADE instance.
      */
     private static List<AbstractFilter> filters;
+    /**
+     * Hands the elements from the reporter buffers to the filters (on one or more worker threads).
+     */
+    private static Dispatcher dispatcher;
+    private static FinalCommitFilter commitFilter;
+    /**
+     * Signalled by the reporter buffers when an element is added so that the main thread doesn't poll.
+     */
+    private static final BufferSignal bufferSignal = new BufferSignal();
+    /**
+     * Signalled by the main thread when a pass over the reporter buffers found nothing to drain.
+     */
+    private static final BufferSignal drainedSignal = new BufferSignal();
     /**
      * Set of transformers active on the local SPADE instance.
      */
@@ -205,7 +218,7 @@ public class Kernel
     private static Set<AbstractAnalyzer> removeAnalyzers;
 
     private static final int BATCH_BUFFER_ELEMENTS = 1000000;
-    private static final int MAIN_THREAD_SLEEP_DELAY = 10;
+    private static final int MAIN_THREAD_IDLE_WAIT_TIMEOUT = 1000;
     private static final int REMOVE_WAIT_DELAY = 100;
     private static final int FIRST_FILTER = 0;
     private static Logger logger;
@@ -418,11 +431,14 @@ public class Kernel
         // and also maintains a pointer to the list of active storages to which
         // the provenance data is finally passed. It also has a reference to
         // the SketchManager and triggers its putVertex() and putEdge() methods
-        FinalCommitFilter commitFilter = new FinalCommitFilter();
+        AbstractStorage.initializeScaffold();
+        commitFilter = new FinalCommitFilter();
         commitFilter.storages = storages;
         commitFilter.sketches = sketches;
         filters.add(commitFilter);
 
+        dispatcher = new Dispatcher(filters, FIRST_FILTER);
+
         // The final transformer is used to send vertex and edge objects to
         // their corresponding result Graph.
         // FinalTransformer finalTransformer = new FinalTransformer();
@@ -466,12 +482,17 @@ public class Kernel
 
                         if (!removeStorages.isEmpty())
                         {
+                            // Let the workers finish the elements already handed to them before the
+                            // storage goes away.
+                            dispatcher.awaitDrained();
                             // Check if a storage is marked for removal.
                             // If it is, shut it down and remove it from the list.
                             Iterator<AbstractStorage> iterator = removeStorages.iterator();
                             while(iterator.hasNext())
                             {
                                 AbstractStorage currentStorage = iterator.next();
+                                // Pass the elements still in the queue of the storage (if any)
+                                commitFilter.closeSink(currentStorage);
                                 AbstractScreen.shutdownScreens(currentStorage.getScreens());
                                 currentStorage.shutdown();
                                 iterator.remove();
@@ -490,27 +511,23 @@ public class Kernel
                             }
                         }
 
+                        boolean drainedAny = false;
                         for (AbstractReporter reporter : reporters)
                         {
                             // This loop performs the actual task of committing provenance data to
                             // the storages. Each reporter is selected and the nested loop is used to
                             // extract buffer elements in a batch manner for increased efficiency.
-                            // The elements are then passed to the filter list.
+                            // The elements are then passed to the filter list through the dispatcher.
                             Buffer buffer = reporter.getBuffer();
                             for (int i = 0; i < BATCH_BUFFER_ELEMENTS; i++)
                             {
                                 Object bufferElement = buffer.getBufferElement();
-                                if (bufferElement instanceof AbstractVertex)
-                                {
-                                    AbstractVertex tempVertex = (AbstractVertex) bufferElement;
-                                    filters.get(FIRST_FILTER).putVertex(tempVertex);
-                                }
-                                else if (bufferElement instanceof AbstractEdge)
+                                if (bufferElement != null)
                                 {
-                                    AbstractEdge tempEdge = (AbstractEdge) bufferElement;
-                                    filters.get(FIRST_FILTER).putEdge(tempEdge);
+                                    drainedAny = true;
+                                    dispatcher.dispatch(bufferElement);
                                 }
-                                else if (bufferElement == null)
+                                else
                                 {
                                     if (removeReporters.contains(reporter))
                                     {
@@ -520,7 +537,13 @@ public class Kernel
                                 }
                             }
                         }
-                        Thread.sleep(MAIN_THREAD_SLEEP_DELAY);
+                        if (!drainedAny)
+                        {
+                            drainedSignal.signal();
+                            // Nothing in any buffer. Wait until a reporter adds an element or a
+                            // module is marked for removal.
+                            bufferSignal.await(Kernel::isMainThreadWorkAvailable, MAIN_THREAD_IDLE_WAIT_TIMEOUT);
+                        }
                     }
                 }
                 catch (Exception exception)
@@ -533,6 +556,40 @@ public class Kernel
         mainThread.start();
     }
 
+    private static boolean isMainThreadWorkAvailable()
+    {
+        if (!removeStorages.isEmpty() || !removeAnalyzers.isEmpty() || !removeReporters.isEmpty())
+        {
+            return true;
+        }
+        synchronized (reporters)
+        {
+            for (AbstractReporter reporter : reporters)
+            {
+                if (!reporter.getBuffer().isEmpty())
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAnyReporterBufferEmpty()
+    {
+        synchronized (reporters)
+        {
+            for (AbstractReporter reporter : reporters)
+            {
+                if (reporter.getBuffer().isEmpty())
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Register a SHUTDOWN hook to terminate gracefully
      */
@@ -941,6 +998,7 @@ public class Kernel
 		}
 
 		reporter.setBuffer(buffer);
+		buffer.setSignal(bufferSignal);
 
 		final boolean launchResult;
 
@@ -1293,6 +1351,21 @@ public class Kernel
         }
     }
 
+	/**
+	 * @return Hit and miss counts of the QuickGrail query cache of the storage or null if the storage cannot be queried
+	 */
+	private static String getQueryCacheStats(final AbstractStorage storage){
+		try{
+			final QueryInstructionExecutor queryInstructionExecutor = storage.getQueryInstructionExecutor();
+			if(queryInstructionExecutor == null || queryInstructionExecutor.getQueryEnvironment() == null){
+				return null;
+			}
+			return queryInstructionExecutor.getQueryEnvironment().getQueryCache().getStats();
+		}catch(Throwable t){
+			return null;
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private static void setQueryStorageCommand(String line, PrintStream outputStream){
 		final String tokens[] = line.split("\\s+", 3);
@@ -1496,6 +1569,14 @@ public class Kernel
                     if(storage == Kernel.getDefaultQueryStorage()){
                     	outputStream.print(" [ Querying default ]");
                     }
+                    String queueStats = commitFilter.getSinkStats(storage);
+                    if(queueStats != null){
+                    	outputStream.print(" [ Queue: " + queueStats + " ]");
+                    }
+                    String queryCacheStats = getQueryCacheStats(storage);
+                    if(queryCacheStats != null){
+                    	outputStream.print(" [ Query cache: " + queryCacheStats + " ]");
+                    }
                     outputStream.println();
                     count++;
                 }
@@ -1566,7 +1647,12 @@ public class Kernel
                 count = 1;
                 for (AbstractSketch sketch : sketches)
                 {
-                    outputStream.println("\t" + count + ". " + sketch.getClass().getName().split("\\.")[2]);
+                    outputStream.print("\t" + count + ". " + sketch.getClass().getName().split("\\.")[2]);
+                    String queueStats = commitFilter.getSinkStats(sketch);
+                    if(queueStats != null){
+                    	outputStream.print(" [ Queue: " + queueStats + " ]");
+                    }
+                    outputStream.println();
                     count++;
                 }
 
@@ -1600,6 +1686,7 @@ public class Kernel
 					long vertexCount = storage.vertexCount;
 					long edgeCount = storage.edgeCount;
 					removeStorages.add(storage);
+					bufferSignal.signal();
 					found = true;
 					logger.log(Level.INFO, "Shutting down storage: {0}", className);
 					outputStream.print("Shutting down storage " + className + "... ");
@@ -1693,6 +1780,7 @@ public class Kernel
                         	reporter.getBuffer().shutdown();
                             reporter.shutdown();
                             removeReporters.add(reporter);
+                            bufferSignal.signal();
                             found = true;
                             logger.log(Level.INFO, "Shutting down reporter: {0}", className);
                             outputStream.print("Shutting down reporter " + className + "... ");
@@ -1726,6 +1814,7 @@ public class Kernel
                             // This will enable the main SPADE thread to safely commit any transactions
                             // and then remove the analyzer.
                             removeAnalyzers.add(analyzer);
+                            bufferSignal.signal();
                             found = true;
                             logger.log(Level.INFO, "Shutting down analyzer: {0}", className);
                             outputStream.print("Shutting down analyzer " + className + "... ");
@@ -1825,6 +1914,7 @@ public class Kernel
                             logger.log(Level.INFO, "Removing sketch {0}", className);
                             outputStream.print("Removing sketch: " + className + "... ");
                             sketchIterator.remove();
+                            commitFilter.closeSink(sketch);
                             logger.log(Level.INFO, "Sketch removed: {0}", className);
                             outputStream.println("done");
                             break;
@@ -1878,12 +1968,18 @@ public class Kernel
                 }
             }
             try {
-                Thread.sleep(MAIN_THREAD_SLEEP_DELAY);
+                // Woken up by the main thread once it finds the buffers empty.
+                drainedSignal.await(Kernel::isAnyReporterBufferEmpty, MAIN_THREAD_IDLE_WAIT_TIMEOUT);
             } catch (InterruptedException ex) {
                 logger.log(Level.WARNING, null, ex);
             }
         }
 
+        // Wait for the dispatcher workers to pass on all the elements handed to them.
+        dispatcher.shutdown();
+        // Pass the elements still in the queues to the storages and sketches.
+        commitFilter.shutdown();
+
         // Shut down filters.
         for (int i = 0; i < filters.size() - 1; i++)
         {
@@ -1904,6 +2000,7 @@ public class Kernel
             logger.log(Level.INFO, "Storage shut down: {0} ({1} vertices and {2} edges were added)",
                     new Object[]{storage.getClass().getSimpleName(), vertexCount, edgeCount});
         }
+        AbstractStorage.shutdownScaffold();
         // Shut down analzers.
         for(AbstractAnalyzer analyzer: analyzers)
         {
@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 
 public class Query implements Serializable{
 
@@ -40,13 +41,30 @@ public class Query implements Serializable{
 	 */
 	public final String queryNonce;
 
+	/*
+	 * Unique id of this query. Known only to the client that created the query so it is also the capability to cancel
+	 * the query (with the command 'cancel <query id>' on another query connection) while it runs.
+	 */
+	private final String queryId = UUID.randomUUID().toString();
+
 	private boolean success = false;
 	// only one of the following non-null at a time
 	private Serializable error;
 	private Serializable result;
 
+	// Resource usage of the query at the server. -1 if not known
+	private long elapsedMillis = -1;
+	private long rowsTouched = -1;
+	private long scratchBytes = -1;
+
 	private List<Query> remoteSubqueries = new ArrayList<Query>();
 
+	/*
+	 * Set by a client which can read a graph result as a sequence of graph chunks written ahead of this query.
+	 * Results of such queries are not transformed and are never held by the server as a whole.
+	 */
+	private boolean acceptsGraphChunks = false;
+
 	// Only required for local transformation of queries
 	private final AbstractTransformer.ExecutionContext transformerExecutionContext = new AbstractTransformer.ExecutionContext();
 
@@ -80,11 +98,47 @@ public class Query implements Serializable{
 	public Serializable getResult(){
 		return this.result;
 	}
+
+	public String getQueryId(){
+		return this.queryId;
+	}
+
+	public void setResourceUsage(final long elapsedMillis, final long rowsTouched, final long scratchBytes){
+		this.elapsedMillis = elapsedMillis;
+		this.rowsTouched = rowsTouched;
+		this.scratchBytes = scratchBytes;
+	}
+
+	public long getElapsedMillis(){
+		return this.elapsedMillis;
+	}
+
+	/**
+	 * @return Rows (vertices, edges or annotations) read or written by the storage. -1 if not known
+	 */
+	public long getRowsTouched(){
+		return this.rowsTouched;
+	}
+
+	/**
+	 * @return Size of the graphs created by the query in the storage. -1 if not known
+	 */
+	public long getScratchBytes(){
+		return this.scratchBytes;
+	}
 	
 	public void updateGraphResult(final Graph graph){
 		this.result = graph;
 	}
 
+	public void setAcceptsGraphChunks(final boolean acceptsGraphChunks){
+		this.acceptsGraphChunks = acceptsGraphChunks;
+	}
+
+	public boolean acceptsGraphChunks(){
+		return this.acceptsGraphChunks;
+	}
+
 	public void addRemoteSubquery(Query subquery){
 		if(subquery != null){
 			remoteSubqueries.add(subquery);
@@ -106,9 +160,13 @@ public class Query implements Serializable{
 				+ ", remoteName=" + remoteName 
 				+ ", query=" + query
 				+ ", queryNonce=" + queryNonce
+				+ ", queryId=" + queryId
 				+ ", success=" + success
 				+ ", error=" + error 
 				+ ", result=" + result
+				+ ", elapsedMillis=" + elapsedMillis
+				+ ", rowsTouched=" + rowsTouched
+				+ ", scratchBytes=" + scratchBytes
 				+ ", remoteSubqueries=" + remoteSubqueries 
 //				+ ", transformerExecutionContext=" + transformerExecutionContext
 				+ "]";
@@ -0,0 +1,348 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded queue in front of a single sink (storage or sketch) with its own consumer thread.
+ *
+ * The policy decides what happens when the queue is full:
+ * BLOCK waits for space, DROP_OLDEST discards the oldest queued element, and SPILL writes the elements to
+ * segment files on disk until the consumer catches up. Elements are always passed to the sink in the order
+ * in which they were put.
+ */
+public class SinkQueue{
+
+	public static enum Policy{ BLOCK, DROP_OLDEST, SPILL }
+
+	// Number of elements taken from the memory queue at a time by the consumer
+	private static final int CONSUMER_BATCH_SIZE = 1000;
+
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private final String name;
+	private final Consumer<Object> sink;
+	private final int capacity;
+	private final Policy policy;
+	private final File spillDirectory;
+	private final int spillSegmentSize;
+
+	private final Object lock = new Object();
+	private final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+	private final ArrayDeque<File> spillSegments = new ArrayDeque<File>();
+	private File openSpillSegmentFile = null;
+	private ObjectOutputStream openSpillSegment = null;
+	private int openSpillSegmentSize = 0;
+	private long spilledPendingCount = 0;
+	private boolean consumerBusy = false;
+	private boolean closed = false;
+
+	private final LongAdder putCount = new LongAdder();
+	private final LongAdder processedCount = new LongAdder();
+	private final LongAdder droppedCount = new LongAdder();
+	private final LongAdder spilledCount = new LongAdder();
+	private final LongAdder totalLatencyNanos = new LongAdder();
+	private volatile long maxLatencyNanos = 0;
+
+	private final Thread thread;
+
+	/**
+	 * @param name Name of the sink used in the thread name and stats
+	 * @param sink Called on the consumer thread for each element
+	 * @param capacity Maximum number of elements in memory
+	 * @param policy What to do when the queue is full
+	 * @param spillDirectory Directory for the segment files. Only used by SPILL
+	 * @param spillSegmentSize Maximum number of elements in a segment file. Only used by SPILL
+	 */
+	public SinkQueue(final String name, final Consumer<Object> sink, final int capacity, final Policy policy,
+			final File spillDirectory, final int spillSegmentSize){
+		if(capacity <= 0){
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		if(policy == null){
+			throw new IllegalArgumentException("NULL policy");
+		}
+		if(policy == Policy.SPILL){
+			if(spillDirectory == null){
+				throw new IllegalArgumentException("NULL spill directory");
+			}
+			if(spillSegmentSize <= 0){
+				throw new IllegalArgumentException("Spill segment size must be positive: " + spillSegmentSize);
+			}
+			if(!spillDirectory.isDirectory() && !spillDirectory.mkdirs()){
+				throw new IllegalArgumentException("Failed to create spill directory: " + spillDirectory.getAbsolutePath());
+			}
+		}
+		this.name = name;
+		this.sink = sink;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.spillDirectory = spillDirectory;
+		this.spillSegmentSize = spillSegmentSize;
+		this.thread = new Thread(this::consume, "sinkSPADE-Thread-" + name);
+		this.thread.start();
+	}
+
+	public final String getName(){
+		return name;
+	}
+
+	/**
+	 * Adds the element to the queue according to the policy. Ignored if the queue has been shut down.
+	 *
+	 * @param element Vertex or edge
+	 * @throws InterruptedException if interrupted while waiting for space (BLOCK policy)
+	 */
+	public final void put(final Object element) throws InterruptedException{
+		final Entry entry = new Entry(element, System.nanoTime());
+		synchronized(lock){
+			if(closed){
+				return;
+			}
+			putCount.increment();
+			if(isSpilling()){
+				// Elements already on disk are older than this one
+				spill(entry);
+				lock.notifyAll();
+				return;
+			}
+			while(queue.size() >= capacity && !closed){
+				switch(policy){
+					case BLOCK:
+						lock.wait();
+						break;
+					case DROP_OLDEST:
+						queue.pollFirst();
+						droppedCount.increment();
+						break;
+					case SPILL:
+						spill(entry);
+						lock.notifyAll();
+						return;
+				}
+			}
+			if(closed){
+				return;
+			}
+			queue.addLast(entry);
+			lock.notifyAll();
+		}
+	}
+
+	// Must be called with the lock held
+	private final boolean isSpilling(){
+		return openSpillSegment != null || !spillSegments.isEmpty();
+	}
+
+	// Must be called with the lock held
+	private final void spill(final Entry entry){
+		try{
+			if(openSpillSegment == null){
+				openSpillSegmentFile = File.createTempFile("spill-" + name + "-", ".bin", spillDirectory);
+				openSpillSegment = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(openSpillSegmentFile)));
+				openSpillSegmentSize = 0;
+			}
+			openSpillSegment.writeObject(entry);
+			openSpillSegmentSize++;
+			spilledPendingCount++;
+			spilledCount.increment();
+			if(openSpillSegmentSize >= spillSegmentSize){
+				closeOpenSpillSegment();
+			}
+		}catch(Exception e){
+			droppedCount.increment();
+			logger.log(Level.SEVERE, "Failed to spill element to disk for sink: " + name + ". Element dropped", e);
+		}
+	}
+
+	// Must be called with the lock held
+	private final void closeOpenSpillSegment(){
+		if(openSpillSegment != null){
+			try{
+				openSpillSegment.close();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to close spill segment: " + openSpillSegmentFile.getAbsolutePath(), e);
+			}
+			spillSegments.addLast(openSpillSegmentFile);
+			openSpillSegment = null;
+			openSpillSegmentFile = null;
+			openSpillSegmentSize = 0;
+		}
+	}
+
+	private final List<Entry> readSpillSegment(final File file){
+		final List<Entry> entries = new ArrayList<Entry>();
+		try(final ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))){
+			while(true){
+				entries.add((Entry)input.readObject());
+			}
+		}catch(EOFException eof){
+			// End of segment
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to read spill segment: " + file.getAbsolutePath()
+					+ ". Read " + entries.size() + " element(s)", e);
+		}
+		if(!file.delete()){
+			logger.log(Level.WARNING, "Failed to delete spill segment: " + file.getAbsolutePath());
+		}
+		return entries;
+	}
+
+	private final void consume(){
+		final List<Entry> entries = new ArrayList<Entry>();
+		while(true){
+			File segment = null;
+			synchronized(lock){
+				while(queue.isEmpty() && !isSpilling() && !closed){
+					try{
+						lock.wait();
+					}catch(InterruptedException e){
+						logger.log(Level.WARNING, "Consumer interrupted for sink: " + name, e);
+						return;
+					}
+				}
+				if(!queue.isEmpty()){
+					// The elements in memory are older than the elements on disk
+					while(!queue.isEmpty() && entries.size() < CONSUMER_BATCH_SIZE){
+						entries.add(queue.pollFirst());
+					}
+				}else if(isSpilling()){
+					if(spillSegments.isEmpty()){
+						closeOpenSpillSegment();
+					}
+					segment = spillSegments.pollFirst();
+				}else{
+					// Closed and nothing left
+					return;
+				}
+				consumerBusy = true;
+				lock.notifyAll();
+			}
+
+			if(segment != null){
+				entries.addAll(readSpillSegment(segment));
+			}
+
+			for(final Entry entry : entries){
+				try{
+					sink.accept(entry.element);
+				}catch(Throwable t){
+					logger.log(Level.SEVERE, "Failed to pass element to sink: " + name, t);
+				}
+				final long latencyNanos = System.nanoTime() - entry.enqueuedAtNanos;
+				totalLatencyNanos.add(latencyNanos);
+				if(latencyNanos > maxLatencyNanos){
+					maxLatencyNanos = latencyNanos;
+				}
+				processedCount.increment();
+			}
+
+			synchronized(lock){
+				if(segment != null){
+					spilledPendingCount -= entries.size();
+				}
+				consumerBusy = false;
+				lock.notifyAll();
+			}
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Waits until all the elements put so far have been passed to the sink.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public final void awaitDrained() throws InterruptedException{
+		synchronized(lock){
+			while((!queue.isEmpty() || isSpilling() || consumerBusy) && thread.isAlive()){
+				lock.wait(1000);
+			}
+		}
+	}
+
+	/**
+	 * Passes all the queued elements to the sink and then stops the consumer thread.
+	 * Elements put after this call are ignored.
+	 */
+	public final void shutdown(){
+		synchronized(lock){
+			closed = true;
+			lock.notifyAll();
+		}
+		try{
+			thread.join();
+		}catch(InterruptedException e){
+			logger.log(Level.WARNING, "Interrupted while waiting for consumer to stop for sink: " + name, e);
+		}
+		synchronized(lock){
+			closeOpenSpillSegment();
+			for(final File segment : spillSegments){
+				logger.log(Level.WARNING, "Unprocessed spill segment left for sink: " + name + ": " + segment.getAbsolutePath());
+			}
+		}
+		logger.log(Level.INFO, getStats());
+	}
+
+	/**
+	 * @return Queue depth, spilled, dropped, processed, and the latency from put to sink
+	 */
+	public final String getStats(){
+		final int queued;
+		final long spilledPending;
+		synchronized(lock){
+			queued = queue.size();
+			spilledPending = spilledPendingCount;
+		}
+		final long processed = processedCount.sum();
+		final double averageLatencyMillis = processed == 0 ? 0 : (totalLatencyNanos.sum() / (double)processed) / 1000000.0;
+		return String.format("%s[policy=%s, capacity=%s, queued=%s, onDisk=%s, put=%s, processed=%s, dropped=%s, spilled=%s, "
+				+ "averageLatency=%.3f ms, maxLatency=%.3f ms]",
+				name, policy, capacity, queued, spilledPending, putCount.sum(), processed, droppedCount.sum(), spilledCount.sum(),
+				averageLatencyMillis, maxLatencyNanos / 1000000.0);
+	}
+
+	private static final class Entry implements Serializable{
+		private static final long serialVersionUID = -1757394628392187450L;
+		private final Object element;
+		private final long enqueuedAtNanos;
+
+		private Entry(final Object element, final long enqueuedAtNanos){
+			this.element = element;
+			this.enqueuedAtNanos = enqueuedAtNanos;
+		}
+	}
+}
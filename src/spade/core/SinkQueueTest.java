@@ -0,0 +1,174 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Checks the overflow policies of SinkQueue. The sink is held on the first element so that the queue fills up in a
+ * known state.
+ *
+ * Usage: java -cp 'build:lib/*' spade.core.SinkQueueTest
+ */
+public class SinkQueueTest{
+
+	// Sink which records the elements and blocks on the first one until released
+	private static final class GatedSink implements Consumer<Object>{
+		private final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public void accept(final Object element){
+			received.add(element);
+			entered.countDown();
+			try{
+				released.await();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void awaitEntered() throws InterruptedException{
+			check(entered.await(10, TimeUnit.SECONDS), "Sink not called");
+		}
+
+		private List<Object> getReceived(){
+			synchronized(received){
+				return new ArrayList<Object>(received);
+			}
+		}
+	}
+
+	public static void main(final String[] args) throws Exception{
+		testBlock();
+		testDropOldest();
+		testSpill();
+		testPutAfterShutdown();
+		System.out.println(SinkQueueTest.class.getSimpleName() + ": passed");
+	}
+
+	private static void testBlock() throws Exception{
+		final GatedSink sink = new GatedSink();
+		final SinkQueue queue = new SinkQueue("block", sink, 1, SinkQueue.Policy.BLOCK, null, 0);
+		queue.put(0);
+		sink.awaitEntered();
+		queue.put(1);
+
+		final Thread producer = new Thread(() -> {
+			try{
+				queue.put(2);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+		producer.join(500);
+		check(producer.isAlive(), "BLOCK: put returned while the queue was full");
+
+		sink.released.countDown();
+		producer.join(10000);
+		check(!producer.isAlive(), "BLOCK: put still waiting after the sink was released");
+		queue.awaitDrained();
+		queue.shutdown();
+		checkEquals(Arrays.asList(0, 1, 2), sink.getReceived(), "BLOCK: elements passed to the sink");
+		checkStat(queue, "dropped=0");
+	}
+
+	private static void testDropOldest() throws Exception{
+		final GatedSink sink = new GatedSink();
+		final SinkQueue queue = new SinkQueue("dropOldest", sink, 2, SinkQueue.Policy.DROP_OLDEST, null, 0);
+		queue.put(0);
+		sink.awaitEntered();
+		// 1 and 2 are queued, then 3 and 4 push them out
+		for(int i = 1; i <= 4; i++){
+			queue.put(i);
+		}
+		sink.released.countDown();
+		queue.awaitDrained();
+		queue.shutdown();
+		checkEquals(Arrays.asList(0, 3, 4), sink.getReceived(), "DROP_OLDEST: elements passed to the sink");
+		checkStat(queue, "put=5");
+		checkStat(queue, "dropped=2");
+	}
+
+	private static void testSpill() throws Exception{
+		final File spillDirectory = Files.createTempDirectory("sinkqueuetest").toFile();
+		try{
+			final GatedSink sink = new GatedSink();
+			final SinkQueue queue = new SinkQueue("spill", sink, 2, SinkQueue.Policy.SPILL, spillDirectory, 2);
+			queue.put(0);
+			sink.awaitEntered();
+			// 1 and 2 are queued. 3 to 6 go to disk (two segments) and 7 follows them while spilling.
+			for(int i = 1; i <= 7; i++){
+				queue.put(i);
+			}
+			check(spillDirectory.list().length == 3, "SPILL: expected 3 segment files but found "
+					+ spillDirectory.list().length);
+			sink.released.countDown();
+			queue.awaitDrained();
+			queue.shutdown();
+			checkEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7), sink.getReceived(),
+					"SPILL: elements passed to the sink");
+			checkStat(queue, "spilled=5");
+			checkStat(queue, "dropped=0");
+			check(spillDirectory.list().length == 0, "SPILL: segment files not deleted after reading");
+		}finally{
+			FileUtils.deleteQuietly(spillDirectory);
+		}
+	}
+
+	private static void testPutAfterShutdown() throws Exception{
+		final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+		final SinkQueue queue = new SinkQueue("shutdown", received::add, 10, SinkQueue.Policy.BLOCK, null, 0);
+		queue.put(0);
+		queue.shutdown();
+		queue.put(1);
+		checkEquals(Arrays.asList(0), new ArrayList<Object>(received), "Shutdown: elements passed to the sink");
+		checkStat(queue, "put=1");
+	}
+
+	////////////////////
+
+	private static void checkStat(final SinkQueue queue, final String expected){
+		final String stats = queue.getStats();
+		check(stats.contains(expected), queue.getName() + ": expected '" + expected + "' in stats: " + stats);
+	}
+
+	private static void checkEquals(final Object expected, final Object actual, final String message){
+		check(expected.equals(actual), message + ". Expected: " + expected + ", actual: " + actual);
+	}
+
+	private static void check(final boolean condition, final String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -66,6 +66,11 @@ public class AddAnnotation extends AbstractFilter{
 		return true;
 	}
 
+	@Override
+	public Concurrency getConcurrency(){
+		return Concurrency.THREAD_SAFE;
+	}
+
 	@Override
 	public void putVertex(AbstractVertex incomingVertex){
 		if(incomingVertex != null){
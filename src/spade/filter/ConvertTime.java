@@ -56,6 +56,11 @@ public class ConvertTime extends AbstractFilter{
 	private String newNameInEdge;
 	private DateTimeFormatter newPatternInEdge;
 	
+	@Override
+	public Concurrency getConcurrency(){
+		return Concurrency.THREAD_SAFE;
+	}
+
 	@Override
 	public boolean initialize(final String arguments){
 		try{
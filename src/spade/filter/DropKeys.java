@@ -97,6 +97,11 @@ public class DropKeys extends AbstractFilter{
 		
 	}
 
+	@Override
+	public Concurrency getConcurrency(){
+		return Concurrency.THREAD_SAFE;
+	}
+
 	@Override
 	public void putVertex(AbstractVertex incomingVertex) {
 		if(incomingVertex != null){
@@ -19,45 +19,303 @@
  */
 package spade.filter;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractFilter;
 import spade.core.AbstractSketch;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.Settings;
+import spade.core.SinkQueue;
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
 
 public class FinalCommitFilter extends AbstractFilter{
 
+	private static final String keyAsynchronous = "asynchronous";
+	private static final String keyCapacity = "capacity";
+	private static final String keyPolicy = "policy";
+	private static final String keySpillDirectory = "spillDirectory";
+	private static final String keySpillSegmentSize = "spillSegmentSize";
+
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+
 	// Reference to the set of storages maintained by the Kernel.
 	public Set<AbstractStorage> storages = new HashSet<>();
 	public Set<AbstractSketch> sketches = new HashSet<>();
 
+	private final String configFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+	private final Map<String, String> configMap;
+	private final boolean asynchronous;
+
+	// Keyed by instance. Created when the first element is passed to the storage or sketch.
+	private final Map<Object, SinkQueue> sinkQueues = new IdentityHashMap<>();
+	// Storages and sketches which must not get a queue again after being closed
+	private final Set<Object> closedSinks = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	public FinalCommitFilter(){
+		try{
+			configMap = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+		}catch(Throwable t){
+			throw new RuntimeException("Failed to read file '"+configFilePath+"'. " + t.getMessage(), t);
+		}
+		final String asynchronousValue = configMap.get(keyAsynchronous);
+		final Result<Boolean> asynchronousResult = HelperFunctions.parseBoolean(asynchronousValue);
+		if(asynchronousResult.error){
+			throw new RuntimeException("Invalid value for '"+keyAsynchronous+"' in file '"+configFilePath+"'. "
+					+ asynchronousResult.errorMessage);
+		}
+		this.asynchronous = asynchronousResult.result;
+		if(this.asynchronous){
+			// Fail early on invalid defaults
+			getSinkQueueSettings(null);
+		}
+		logger.log(Level.INFO, keyAsynchronous + "=" + this.asynchronous);
+	}
+
+	// Storages and sketches are not thread-safe. Each one is locked individually so that
+	// the dispatcher workers can write to different storages at the same time.
+	@Override
+	public Concurrency getConcurrency(){
+		return Concurrency.THREAD_SAFE;
+	}
+
 	// This filter is the last filter in the list so any vertices or edges
 	// received by it need to be passed to the storages. On receiving any
 	// provenance elements, it is passed to all storages.
 	@Override
 	public void putVertex(AbstractVertex incomingVertex){
-		for(final AbstractStorage storage : storages){
-			if(storage.putVertex(incomingVertex)){
-				incrementStorageVertexCount(storage);
+		for(final AbstractStorage storage : copyOf(storages)){
+			if(asynchronous){
+				putInSinkQueue(storage, incomingVertex);
+			}else{
+				putInStorage(storage, incomingVertex);
 			}
 		}
-		for(AbstractSketch sketch : sketches){
-			sketch.putVertex(incomingVertex);
+		for(final AbstractSketch sketch : copyOf(sketches)){
+			if(asynchronous){
+				putInSinkQueue(sketch, incomingVertex);
+			}else{
+				putInSketch(sketch, incomingVertex);
+			}
 		}
 	}
 
 	@Override
 	public void putEdge(AbstractEdge incomingEdge){
-		for(AbstractStorage storage : storages){
-			if(storage.putEdge(incomingEdge)){
-				incrementStorageEdgeCount(storage);
+		final List<AbstractStorage> storagesCopy = copyOf(storages);
+		for(final AbstractStorage storage : storagesCopy){
+			if(asynchronous){
+				putInSinkQueue(storage, incomingEdge);
+			}else{
+				putInStorage(storage, incomingEdge);
+			}
+		}
+		for(final AbstractSketch sketch : copyOf(sketches)){
+			if(asynchronous){
+				putInSinkQueue(sketch, incomingEdge);
+			}else{
+				putInSketch(sketch, incomingEdge);
+			}
+		}
+		// The scaffold indexes the edges of the storages of the Kernel only
+		if(!storagesCopy.isEmpty()){
+			AbstractStorage.putScaffoldEntry(incomingEdge);
+		}
+	}
+
+	// The sets are synchronized by the Kernel and must be locked while iterating. Only the copy is iterated
+	// so that the set is not locked while putting.
+	private static <T> List<T> copyOf(final Set<T> set){
+		synchronized(set){
+			return new ArrayList<T>(set);
+		}
+	}
+
+	private void putInStorage(final AbstractStorage storage, final Object element){
+		synchronized(storage){
+			if(element instanceof AbstractVertex){
+				if(storage.putVertex((AbstractVertex)element)){
+					incrementStorageVertexCount(storage);
+				}
+			}else if(element instanceof AbstractEdge){
+				if(storage.putEdge((AbstractEdge)element)){
+					incrementStorageEdgeCount(storage);
+				}
+			}
+		}
+	}
+
+	private void putInSketch(final AbstractSketch sketch, final Object element){
+		synchronized(sketch){
+			if(element instanceof AbstractVertex){
+				sketch.putVertex((AbstractVertex)element);
+			}else if(element instanceof AbstractEdge){
+				sketch.putEdge((AbstractEdge)element);
+			}
+		}
+	}
+
+	private void putInSinkQueue(final Object sink, final Object element){
+		final SinkQueue sinkQueue = getSinkQueue(sink);
+		if(sinkQueue != null){
+			try{
+				sinkQueue.put(element);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				logger.log(Level.WARNING, "Interrupted while waiting for space in queue for: " + sinkQueue.getName(), e);
+			}
+		}
+	}
+
+	private SinkQueue getSinkQueue(final Object sink){
+		synchronized(sinkQueues){
+			if(closedSinks.contains(sink)){
+				return null;
+			}
+			SinkQueue sinkQueue = sinkQueues.get(sink);
+			if(sinkQueue == null){
+				sinkQueue = createSinkQueue(sink);
+				sinkQueues.put(sink, sinkQueue);
+			}
+			return sinkQueue;
+		}
+	}
+
+	private SinkQueue createSinkQueue(final Object sink){
+		final String name = sink.getClass().getSimpleName();
+		final SinkQueueSettings settings = getSinkQueueSettings(name);
+		final SinkQueue sinkQueue;
+		if(sink instanceof AbstractStorage){
+			final AbstractStorage storage = (AbstractStorage)sink;
+			sinkQueue = new SinkQueue(name, element -> putInStorage(storage, element),
+					settings.capacity, settings.policy, settings.spillDirectory, settings.spillSegmentSize);
+		}else{
+			final AbstractSketch sketch = (AbstractSketch)sink;
+			sinkQueue = new SinkQueue(name, element -> putInSketch(sketch, element),
+					settings.capacity, settings.policy, settings.spillDirectory, settings.spillSegmentSize);
+		}
+		logger.log(Level.INFO, "Created queue: " + sinkQueue.getStats());
+		return sinkQueue;
+	}
+
+	/*
+	 * Each key can be overridden for a specific storage or sketch by prefixing it with the simple class name.
+	 * For example: 'PostgreSQL.policy=spill'.
+	 */
+	private String getConfigValue(final String sinkName, final String key){
+		if(sinkName != null){
+			final String value = configMap.get(sinkName + "." + key);
+			if(value != null){
+				return value;
 			}
 		}
-		for(AbstractSketch sketch : sketches){
-			sketch.putEdge(incomingEdge);
+		return configMap.get(key);
+	}
+
+	private SinkQueueSettings getSinkQueueSettings(final String sinkName){
+		final String capacityKey = (sinkName == null ? "" : sinkName + ".") + keyCapacity;
+		final Result<Long> capacityResult = HelperFunctions.parseLong(getConfigValue(sinkName, keyCapacity), 10, 1, Integer.MAX_VALUE);
+		if(capacityResult.error){
+			throw new RuntimeException("Invalid value for '"+capacityKey+"' in file '"+configFilePath+"'. "
+					+ capacityResult.errorMessage);
+		}
+
+		final String policyKey = (sinkName == null ? "" : sinkName + ".") + keyPolicy;
+		final String policyValue = getConfigValue(sinkName, keyPolicy);
+		final SinkQueue.Policy policy;
+		try{
+			policy = SinkQueue.Policy.valueOf(policyValue.trim().toUpperCase());
+		}catch(Exception e){
+			throw new RuntimeException("Invalid value for '"+policyKey+"' in file '"+configFilePath+"': '" + policyValue + "'. "
+					+ "Expected one of: block, drop_oldest, spill");
+		}
+
+		final String spillSegmentSizeKey = (sinkName == null ? "" : sinkName + ".") + keySpillSegmentSize;
+		final Result<Long> spillSegmentSizeResult = HelperFunctions.parseLong(getConfigValue(sinkName, keySpillSegmentSize), 10, 1, Integer.MAX_VALUE);
+		if(spillSegmentSizeResult.error){
+			throw new RuntimeException("Invalid value for '"+spillSegmentSizeKey+"' in file '"+configFilePath+"'. "
+					+ spillSegmentSizeResult.errorMessage);
+		}
+
+		final String spillDirectoryKey = (sinkName == null ? "" : sinkName + ".") + keySpillDirectory;
+		final String spillDirectoryValue = getConfigValue(sinkName, keySpillDirectory);
+		if(HelperFunctions.isNullOrEmpty(spillDirectoryValue)){
+			throw new RuntimeException("Invalid value for '"+spillDirectoryKey+"' in file '"+configFilePath+"'. NULL/Empty");
+		}
+		final File spillDirectory = new File(spillDirectoryValue.trim(), sinkName == null ? "" : sinkName);
+
+		return new SinkQueueSettings(capacityResult.result.intValue(), policy, spillDirectory,
+				spillSegmentSizeResult.result.intValue());
+	}
+
+	/**
+	 * Waits for the queued elements of the storage or sketch to be passed to it and then stops its queue.
+	 * No elements are passed to it afterwards. Must be called before shutting down a storage or sketch.
+	 *
+	 * @param sink Storage or sketch
+	 */
+	public void closeSink(final Object sink){
+		final SinkQueue sinkQueue;
+		synchronized(sinkQueues){
+			closedSinks.add(sink);
+			sinkQueue = sinkQueues.remove(sink);
+		}
+		if(sinkQueue != null){
+			sinkQueue.shutdown();
+		}
+	}
+
+	/**
+	 * @param sink Storage or sketch
+	 * @return Stats of the queue of the storage or sketch. Null if not asynchronous or no elements passed yet.
+	 */
+	public String getSinkStats(final Object sink){
+		final SinkQueue sinkQueue;
+		synchronized(sinkQueues){
+			sinkQueue = sinkQueues.get(sink);
+		}
+		return sinkQueue == null ? null : sinkQueue.getStats();
+	}
+
+	/**
+	 * Passes all the queued elements to the storages and sketches and stops the queues.
+	 */
+	@Override
+	public boolean shutdown(){
+		final List<Object> sinks;
+		synchronized(sinkQueues){
+			sinks = new ArrayList<Object>(sinkQueues.keySet());
+		}
+		for(final Object sink : sinks){
+			closeSink(sink);
+		}
+		return true;
+	}
+
+	private static final class SinkQueueSettings{
+		private final int capacity;
+		private final SinkQueue.Policy policy;
+		private final File spillDirectory;
+		private final int spillSegmentSize;
+
+		private SinkQueueSettings(final int capacity, final SinkQueue.Policy policy, final File spillDirectory,
+				final int spillSegmentSize){
+			this.capacity = capacity;
+			this.policy = policy;
+			this.spillDirectory = spillDirectory;
+			this.spillSegmentSize = spillSegmentSize;
 		}
 	}
 }
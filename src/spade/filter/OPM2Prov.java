@@ -48,6 +48,11 @@ public class OPM2Prov extends OPM2ProvVertexEdge{
 		}
 	}
 
+	@Override
+	public Concurrency getConcurrency(){
+		return Concurrency.THREAD_SAFE;
+	}
+
 	@Override
 	public void putVertex(AbstractVertex incomingVertex) {
 		if(incomingVertex != null){
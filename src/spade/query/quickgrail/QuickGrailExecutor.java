@@ -22,16 +22,28 @@ package spade.query.quickgrail;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import spade.core.AbstractTransformer;
 import spade.core.Query;
 import spade.core.Settings;
-import spade.query.quickgrail.core.Instruction;
+import spade.query.quickgrail.core.AbstractQueryEnvironment;
+import spade.query.quickgrail.core.EnvironmentVariable;
+import spade.query.quickgrail.core.EnvironmentVariableManager;
+import spade.query.quickgrail.core.InstructionScheduler;
 import spade.query.quickgrail.core.Program;
+import spade.query.quickgrail.core.QueryCache;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.query.quickgrail.core.QueryMonitor;
+import spade.query.quickgrail.core.QuickGrailProgramOptimizer;
 import spade.query.quickgrail.core.QuickGrailQueryResolver;
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.CreateEmptyGraph;
+import spade.query.quickgrail.instruction.ExportGraph;
 import spade.query.quickgrail.parser.DSLParserWrapper;
 import spade.query.quickgrail.parser.ParseProgram;
 import spade.utility.ArgumentFunctions;
@@ -44,62 +56,157 @@ public class QuickGrailExecutor{
 
 	private final Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private final String keyDebug = "debug";
-	private boolean debug;
+	private final String keyDebug = "debug", keyOptimize = "optimize", keyParallelism = "parallelism";
+	private boolean debug, optimize;
 
 	private final QueryInstructionExecutor instructionExecutor;
+	private final InstructionScheduler instructionScheduler;
 
 	public QuickGrailExecutor(final QueryInstructionExecutor instructionExecutor) throws Exception{
-		this.instructionExecutor = instructionExecutor;
-		if(this.instructionExecutor == null){
+		if(instructionExecutor == null){
 			throw new IllegalArgumentException("NULL instruction executor");
 		}
-		if(this.instructionExecutor.getQueryEnvironment() == null){
+		if(instructionExecutor.getQueryEnvironment() == null){
 			throw new IllegalArgumentException("NULL query environment");
 		}
+		this.instructionExecutor = instructionExecutor.openSession();
 
 		final String configFile = Settings.getDefaultConfigFilePath(this.getClass());
 		try{
 			final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFile, "=");
 			debug = ArgumentFunctions.mustParseBoolean(keyDebug, map);
+			optimize = ArgumentFunctions.mustParseBoolean(keyOptimize, map);
+			final int parallelism = ArgumentFunctions.mustParseInteger(keyParallelism, map);
+			this.instructionScheduler = new InstructionScheduler(this.instructionExecutor, parallelism);
 		}catch(Exception e){
 			throw new Exception("Failed to parse configuration file: '" + configFile + "'", e);
 		}
 	}
 
+	/**
+	 * Releases the session of the instruction executor
+	 */
+	public void shutdown() throws Exception{
+		instructionScheduler.shutdown();
+		instructionExecutor.closeSession();
+	}
+
 	public Query execute(Query query){
+		return execute(query, null);
+	}
+
+	/**
+	 * If the query ends in a graph export and 'graphChunkConsumer' is not null then the graph is handed to the consumer
+	 * in chunks and the query result is only the count of the exported vertices and edges.
+	 *
+	 * The query can be cancelled by its id (see QueryMonitor.cancelQuery) from the time this is called, and is cancelled
+	 * when the deadline in the environment variable 'timeout' is exceeded. The resources used by the query are set in
+	 * the query whether it succeeds or not.
+	 */
+	public Query execute(Query query, final QueryInstructionExecutor.GraphChunkConsumer graphChunkConsumer){
+		final QueryMonitor queryMonitor = new QueryMonitor();
+		queryMonitor.start(query.getQueryId(), getTimeoutMillis());
 		try{
-			final DSLParserWrapper parserWrapper = new DSLParserWrapper();
+			// Only serializes queries when the instruction executor is shared by sessions
+			synchronized(instructionExecutor){
+				instructionExecutor.setQueryMonitor(queryMonitor);
+				return executeInSession(query, graphChunkConsumer, queryMonitor);
+			}
+		}finally{
+			queryMonitor.finish();
+		}
+	}
 
-			final ParseProgram parseProgram = parserWrapper.fromText(query.query);
+	private long getTimeoutMillis(){
+		final EnvironmentVariable timeoutVar = instructionExecutor.getQueryEnvironment().getEnvVarManager()
+				.get(EnvironmentVariableManager.Name.timeout);
+		if(timeoutVar == null || timeoutVar.getValue() == null){
+			return 0;
+		}
+		return ((Integer)timeoutVar.getValue()) * 1000L;
+	}
+
+	private Query executeInSession(Query query, final QueryInstructionExecutor.GraphChunkConsumer graphChunkConsumer,
+			final QueryMonitor queryMonitor){
+		final AbstractQueryEnvironment queryEnvironment = instructionExecutor.getQueryEnvironment();
+		queryEnvironment.queryStarted();
+		// Graphs created by the query. Their size is the scratch space used by the query.
+		final List<Graph> scratchGraphs = new ArrayList<Graph>();
+		try{
+			instructionExecutor.beforeQuery();
+			final QueryCache queryCache = queryEnvironment.getQueryCache();
+			final long writeWatermarkBefore = instructionExecutor.getStorage().getWriteWatermark();
+			final Map<String, String> environmentVariablesBefore = QueryCache.getEnvironmentVariables(queryEnvironment);
+			final Map<String, String> symbolsBefore = QueryCache.getSymbols(queryEnvironment);
+
+			final QueryCache.Entry cacheEntry = queryCache.lookup(query.query, writeWatermarkBefore,
+					environmentVariablesBefore, symbolsBefore);
+			if(cacheEntry != null && cacheEntry.result != null){
+				queryCache.rebind(cacheEntry, queryEnvironment);
+				if(debug){
+					logger.log(Level.INFO, "Result from query cache for: " + query.query);
+				}
+				query.querySucceeded(cacheEntry.result);
+				return query;
+			}
+
+			final ParseProgram parseProgram;
+			if(cacheEntry != null){
+				parseProgram = cacheEntry.parseProgram;
+			}else{
+				final DSLParserWrapper parserWrapper = new DSLParserWrapper();
+				parseProgram = parserWrapper.fromText(query.query);
+			}
 
 			final QuickGrailQueryResolver resolver = new QuickGrailQueryResolver();
-			final Program program = resolver.resolveProgram(parseProgram, instructionExecutor.getQueryEnvironment());
+			final Program resolvedProgram = resolver.resolveProgram(parseProgram, queryEnvironment);
 
 			if(debug){
 				logger.log(Level.INFO, "Parse tree:\n" + parseProgram.toString());
-				logger.log(Level.INFO, "Execution plan:\n" + program.toString());
+				logger.log(Level.INFO, "Execution plan:\n" + resolvedProgram.toString());
 			}
 
-			try{
-				final int instructionsSize = program.getInstructionsSize();
-				for(int i = 0; i < instructionsSize; i++){
-					final Instruction<? extends Serializable> instruction = program.getInstruction(i);
-					try{
-						instruction.updateTransformerExecutionContext(instructionExecutor,
-								query.getTransformerExecutionContext());
-						final Serializable instructionResult = instruction.execute(instructionExecutor);
-						instruction.setResult(instructionResult);
-						instruction.postExecute(instructionExecutor);
-					}catch(Exception e){
-						throw e;
-					}
+			final Program program;
+			if(optimize){
+				final QuickGrailProgramOptimizer optimizer = new QuickGrailProgramOptimizer();
+				program = optimizer.optimizeProgram(resolvedProgram, queryEnvironment);
+				if(debug){
+					logger.log(Level.INFO, "Optimized execution plan:\n" + program.toString());
 				}
+			}else{
+				program = resolvedProgram;
+			}
 
-			}finally{
-				instructionExecutor.getQueryEnvironment().doGarbageCollection();
+			for(int i = 0; i < program.getInstructionsSize(); i++){
+				if(program.getInstruction(i) instanceof CreateEmptyGraph){
+					scratchGraphs.add(((CreateEmptyGraph)program.getInstruction(i)).graph);
+				}
 			}
 
+			final int instructionsSize = program.getInstructionsSize();
+			final AbstractTransformer.ExecutionContext transformerExecutionContext = query.getTransformerExecutionContext();
+			// Index of the instruction which last updated the transformer execution context
+			final int[] contextUpdateIndex = {-1};
+			instructionScheduler.execute(program, (i, instruction, executor) -> {
+				if(instruction.updatesTransformerExecutionContext()){
+					synchronized(contextUpdateIndex){
+						// The result must be the same as when the instructions are run in order
+						if(i > contextUpdateIndex[0]){
+							instruction.updateTransformerExecutionContext(executor, transformerExecutionContext);
+							contextUpdateIndex[0] = i;
+						}
+					}
+				}
+				final Serializable instructionResult;
+				if(graphChunkConsumer != null && i == instructionsSize - 1 && instruction instanceof ExportGraph){
+					instructionResult = ((ExportGraph)instruction).stream(executor, graphChunkConsumer);
+				}else{
+					instructionResult = instruction.execute(executor);
+				}
+				instruction.setResult(instructionResult);
+				instruction.postExecute(executor);
+			});
+
 			Serializable result = "OK";
 			// Only here if success
 			if(program.getInstructionsSize() > 0){
@@ -111,19 +218,63 @@ public class QuickGrailExecutor{
 			}
 			query.querySucceeded(result);
 
+			queryCache.put(query.query, parseProgram, program,
+					writeWatermarkBefore, instructionExecutor.getStorage().getWriteWatermark(),
+					environmentVariablesBefore, QueryCache.getEnvironmentVariables(queryEnvironment),
+					symbolsBefore, QueryCache.getSymbols(queryEnvironment), result);
+
 			return query;
 		}catch(Exception e){
-			logger.log(Level.SEVERE, null, e);
+			// The storage reports a cancelled statement in its own words
+			final String message;
+			if(queryMonitor.isCancelled()){
+				message = "Query cancelled: " + queryMonitor.getCancelReason();
+				logger.log(Level.INFO, message + ". Query: " + query.query);
+			}else{
+				message = e.getMessage();
+				logger.log(Level.SEVERE, null, e);
+			}
 
 			final StringWriter stackTrace = new StringWriter();
 			final PrintWriter pw = new PrintWriter(stackTrace);
 			pw.println("Error evaluating QuickGrail command:");
 			pw.println("------------------------------------------------------------");
-			pw.println(e.getMessage());
+			pw.println(message);
 			pw.println("------------------------------------------------------------");
 
 			query.queryFailed(new Exception(stackTrace.toString(), e));
 			return query;
+		}finally{
+			// Before garbage collection drops the scratch graphs
+			setResourceUsage(query, queryMonitor, scratchGraphs);
+			queryEnvironment.queryFinished();
+		}
+	}
+
+	private void setResourceUsage(final Query query, final QueryMonitor queryMonitor, final List<Graph> scratchGraphs){
+		final long elapsedMillis = queryMonitor.getElapsedMillis();
+		final long rowsTouched = queryMonitor.getRowsTouched();
+		// The sizes are read even if the query was cancelled, and are not counted as rows touched by the query
+		instructionExecutor.setQueryMonitor(new QueryMonitor());
+		long scratchBytes = scratchGraphs.isEmpty() ? -1 : 0;
+		for(final Graph graph : scratchGraphs){
+			try{
+				final long graphBytes = instructionExecutor.getGraphSizeInBytes(graph);
+				if(graphBytes < 0){
+					scratchBytes = -1;
+					break;
+				}
+				scratchBytes += graphBytes;
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to get size of graph: " + graph.name, e);
+				scratchBytes = -1;
+				break;
+			}
+		}
+		query.setResourceUsage(elapsedMillis, rowsTouched, scratchBytes);
+		if(debug){
+			logger.log(Level.INFO, "Resources used: elapsed=" + query.getElapsedMillis() + " ms, rows="
+					+ query.getRowsTouched() + ", scratch=" + query.getScratchBytes() + " bytes. Query: " + query.query);
 		}
 	}
 
@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import spade.query.quickgrail.entities.Graph;
@@ -44,14 +45,19 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 	private final String prefixGraphSymbol = "$", prefixMetadataSymbol = "@", prefixPredicateSymbol = "%";
 	
 	private int idCounter = -1;
-	private final Map<String, Graph> symbolsGraph = new HashMap<String, Graph>();
-	private final Map<String, GraphMetadata> symbolsMetadata = new HashMap<String, GraphMetadata>();
-	private final Map<String, GraphPredicate> symbolsPredicate = new HashMap<String, GraphPredicate>();
+	// Concurrent because the environment is shared by the query sessions
+	private final Map<String, Graph> symbolsGraph = new ConcurrentHashMap<String, Graph>();
+	private final Map<String, GraphMetadata> symbolsMetadata = new ConcurrentHashMap<String, GraphMetadata>();
+	private final Map<String, GraphPredicate> symbolsPredicate = new ConcurrentHashMap<String, GraphPredicate>();
+
+	private int runningQueries = 0;
 
 	private final String baseGraphSymbol = prefixGraphSymbol+"base";
 	private final Graph baseGraph;
 
 	private final EnvironmentVariableManager envVarManager = new EnvironmentVariableManager();
+	// Shared by the query sessions
+	private final QueryCache queryCache = new QueryCache();
 	// START - Differential privacy related state
 	private final AggregationState aggregationState = new AggregationState();
 	public final AggregationState getAggregationState(){
@@ -71,6 +77,10 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		return envVarManager;
 	}
 
+	public final QueryCache getQueryCache(){
+		return queryCache;
+	}
+
 	public final void initialize(){
 		initialize(false);
 	}
@@ -78,6 +88,7 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 	// Step 2
 	private final void initialize(boolean reset){
 		envVarManager.initialize();
+		queryCache.clear();
 
 		if(reset){
 			try{
@@ -198,6 +209,21 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 	}
 	
 	public abstract void doGarbageCollection();
+
+	public final synchronized void queryStarted(){
+		runningQueries++;
+	}
+
+	/**
+	 * Garbage collection is done when the last running query finishes because the intermediate graphs of a running
+	 * query are not referenced by any symbol.
+	 */
+	public final synchronized void queryFinished(){
+		runningQueries--;
+		if(runningQueries == 0){
+			doGarbageCollection();
+		}
+	}
 	
 	public abstract void createSymbolStorageIfNotPresent();
 	public abstract void deleteSymbolStorageIfPresent(); // delete everything
@@ -33,7 +33,10 @@ public class EnvironmentVariableManager{
 		maxDepth(Integer.class), 
 		limit(Integer.class),
 		precision(Integer.class),
-		exportLimit(Integer.class);
+		exportLimit(Integer.class),
+		exportChunkSize(Integer.class),
+		approximate(Integer.class),
+		timeout(Integer.class);
 		
 		private final Class<?> type;
 		private Name(final Class<?> type){
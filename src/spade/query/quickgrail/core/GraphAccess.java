@@ -0,0 +1,265 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.CollapseEdge;
+import spade.query.quickgrail.instruction.DistinctifyGraph;
+import spade.query.quickgrail.instruction.GetAdjacentVertex;
+import spade.query.quickgrail.instruction.GetEdge;
+import spade.query.quickgrail.instruction.GetEdgeEndpoint;
+import spade.query.quickgrail.instruction.GetLineage;
+import spade.query.quickgrail.instruction.GetLink;
+import spade.query.quickgrail.instruction.GetRemoteLineage;
+import spade.query.quickgrail.instruction.GetShortestPath;
+import spade.query.quickgrail.instruction.GetSimplePath;
+import spade.query.quickgrail.instruction.GetSubgraph;
+import spade.query.quickgrail.instruction.GetVertex;
+import spade.query.quickgrail.instruction.GetWhereAnnotationsExist;
+import spade.query.quickgrail.instruction.IntersectGraph;
+import spade.query.quickgrail.instruction.LimitGraph;
+import spade.query.quickgrail.instruction.RemoteVariableOperation;
+import spade.query.quickgrail.instruction.SubtractGraph;
+import spade.query.quickgrail.instruction.UnionGraph;
+
+/**
+ * The graphs read and written by an instruction which does nothing else than add to one graph from other graphs.
+ *
+ * Used to rewrite and schedule programs. Instructions which are not known here (e.g. the ones that bind symbols or
+ * return a result) must be treated as reading and writing every graph that they mention.
+ */
+public final class GraphAccess{
+
+	public final Graph output;
+	public final List<Graph> inputs;
+	// Reads or writes the remote symbols of the graphs
+	public final boolean remote;
+
+	private GraphAccess(final Graph output, final boolean remote, final Graph... inputs){
+		this.output = output;
+		this.inputs = Arrays.asList(inputs);
+		this.remote = remote;
+	}
+
+	/**
+	 * @return True if the name of the graph is in the description of the instruction
+	 */
+	public static boolean mentions(final Instruction<? extends Serializable> instruction, final Graph graph){
+		return Pattern.compile("\\b" + Pattern.quote(graph.name) + "\\b").matcher(instruction.toString()).find();
+	}
+
+	/**
+	 * @return NULL if the instruction is not known
+	 */
+	public static GraphAccess of(final Instruction<? extends Serializable> instruction){
+		if(instruction instanceof GetVertex){
+			final GetVertex i = (GetVertex)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph);
+		}else if(instruction instanceof GetEdge){
+			final GetEdge i = (GetEdge)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph);
+		}else if(instruction instanceof GetRemoteLineage){
+			final GetRemoteLineage i = (GetRemoteLineage)instruction;
+			return new GraphAccess(i.targetGraph, true, i.subjectGraph, i.startGraph);
+		}else if(instruction instanceof GetLineage){
+			final GetLineage i = (GetLineage)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph, i.startGraph);
+		}else if(instruction instanceof GetAdjacentVertex){
+			final GetAdjacentVertex i = (GetAdjacentVertex)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph, i.sourceGraph);
+		}else if(instruction instanceof GetEdgeEndpoint){
+			final GetEdgeEndpoint i = (GetEdgeEndpoint)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph);
+		}else if(instruction instanceof GetWhereAnnotationsExist){
+			final GetWhereAnnotationsExist i = (GetWhereAnnotationsExist)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph);
+		}else if(instruction instanceof GetSubgraph){
+			final GetSubgraph i = (GetSubgraph)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph, i.skeletonGraph);
+		}else if(instruction instanceof GetLink){
+			final GetLink i = (GetLink)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph, i.srcGraph, i.dstGraph);
+		}else if(instruction instanceof GetShortestPath){
+			final GetShortestPath i = (GetShortestPath)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph, i.srcGraph, i.dstGraph);
+		}else if(instruction instanceof GetSimplePath){
+			final GetSimplePath i = (GetSimplePath)instruction;
+			return new GraphAccess(i.targetGraph, false, i.subjectGraph, i.srcGraph, i.dstGraph);
+		}else if(instruction instanceof CollapseEdge){
+			final CollapseEdge i = (CollapseEdge)instruction;
+			return new GraphAccess(i.targetGraph, false, i.sourceGraph);
+		}else if(instruction instanceof IntersectGraph){
+			final IntersectGraph i = (IntersectGraph)instruction;
+			return new GraphAccess(i.outputGraph, false, i.lhsGraph, i.rhsGraph);
+		}else if(instruction instanceof UnionGraph){
+			final UnionGraph i = (UnionGraph)instruction;
+			return new GraphAccess(i.targetGraph, false, i.sourceGraph);
+		}else if(instruction instanceof SubtractGraph){
+			final SubtractGraph i = (SubtractGraph)instruction;
+			return new GraphAccess(i.outputGraph, false, i.minuendGraph, i.subtrahendGraph);
+		}else if(instruction instanceof LimitGraph){
+			final LimitGraph i = (LimitGraph)instruction;
+			return new GraphAccess(i.targetGraph, false, i.sourceGraph);
+		}else if(instruction instanceof DistinctifyGraph){
+			final DistinctifyGraph i = (DistinctifyGraph)instruction;
+			return new GraphAccess(i.targetGraph, false, i.sourceGraph);
+		}else if(instruction instanceof RemoteVariableOperation.Copy){
+			final RemoteVariableOperation.Copy i = (RemoteVariableOperation.Copy)instruction;
+			return new GraphAccess(i.dstGraph, true, i.srcGraph);
+		}else if(instruction instanceof RemoteVariableOperation.Intersect){
+			final RemoteVariableOperation.Intersect i = (RemoteVariableOperation.Intersect)instruction;
+			return new GraphAccess(i.resultGraph, true, i.lhsGraph, i.rhsGraph);
+		}else if(instruction instanceof RemoteVariableOperation.Subtract){
+			final RemoteVariableOperation.Subtract i = (RemoteVariableOperation.Subtract)instruction;
+			return new GraphAccess(i.resultGraph, true, i.lhsGraph, i.rhsGraph);
+		}
+		return null;
+	}
+
+	/**
+	 * Compares every field of the two instructions instead of their descriptions since a description does not have to
+	 * include every field. Graphs are equal if their names are equal.
+	 *
+	 * @return True if the instructions are of the same class and all their fields are equal
+	 */
+	public static boolean isSame(final Instruction<? extends Serializable> a, final Instruction<? extends Serializable> b){
+		if(a.getClass() != b.getClass()){
+			return false;
+		}
+		for(Class<?> c = a.getClass(); c != Instruction.class; c = c.getSuperclass()){
+			for(final Field field : c.getDeclaredFields()){
+				if(Modifier.isStatic(field.getModifiers()) || field.isSynthetic()){
+					continue;
+				}
+				try{
+					field.setAccessible(true);
+					if(!Objects.deepEquals(field.get(a), field.get(b))){
+						return false;
+					}
+				}catch(Exception e){
+					throw new RuntimeException("Failed to compare field '" + field.getName() + "' of instruction: "
+							+ a.getLabel(), e);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return A copy of the known instruction with the graphs in the map replaced
+	 */
+	public static Instruction<? extends Serializable> rebuild(final Instruction<? extends Serializable> instruction,
+			final Map<Graph, Graph> replacements){
+		if(instruction instanceof GetVertex){
+			final GetVertex i = (GetVertex)instruction;
+			return i.hasArguments()
+					? new GetVertex(r(replacements, i.targetGraph), r(replacements, i.subjectGraph), i.annotationKey,
+							i.operator, i.annotationValue)
+					: new GetVertex(r(replacements, i.targetGraph), r(replacements, i.subjectGraph));
+		}else if(instruction instanceof GetEdge){
+			final GetEdge i = (GetEdge)instruction;
+			return i.hasArguments()
+					? new GetEdge(r(replacements, i.targetGraph), r(replacements, i.subjectGraph), i.annotationKey,
+							i.operator, i.annotationValue)
+					: new GetEdge(r(replacements, i.targetGraph), r(replacements, i.subjectGraph));
+		}else if(instruction instanceof GetRemoteLineage){
+			final GetRemoteLineage i = (GetRemoteLineage)instruction;
+			return new GetRemoteLineage(r(replacements, i.targetGraph), r(replacements, i.subjectGraph),
+					r(replacements, i.startGraph), i.depth, i.direction);
+		}else if(instruction instanceof GetLineage){
+			final GetLineage i = (GetLineage)instruction;
+			return new GetLineage(r(replacements, i.targetGraph), r(replacements, i.subjectGraph),
+					r(replacements, i.startGraph), i.depth, i.direction);
+		}else if(instruction instanceof GetAdjacentVertex){
+			final GetAdjacentVertex i = (GetAdjacentVertex)instruction;
+			return new GetAdjacentVertex(r(replacements, i.targetGraph), r(replacements, i.subjectGraph),
+					r(replacements, i.sourceGraph), i.direction);
+		}else if(instruction instanceof GetEdgeEndpoint){
+			final GetEdgeEndpoint i = (GetEdgeEndpoint)instruction;
+			return new GetEdgeEndpoint(r(replacements, i.targetGraph), r(replacements, i.subjectGraph), i.component);
+		}else if(instruction instanceof GetWhereAnnotationsExist){
+			final GetWhereAnnotationsExist i = (GetWhereAnnotationsExist)instruction;
+			return new GetWhereAnnotationsExist(r(replacements, i.targetGraph), r(replacements, i.subjectGraph),
+					i.getAnnotationKeys());
+		}else if(instruction instanceof GetSubgraph){
+			final GetSubgraph i = (GetSubgraph)instruction;
+			return new GetSubgraph(r(replacements, i.targetGraph), r(replacements, i.subjectGraph),
+					r(replacements, i.skeletonGraph));
+		}else if(instruction instanceof GetLink){
+			final GetLink i = (GetLink)instruction;
+			return new GetLink(r(replacements, i.targetGraph), r(replacements, i.subjectGraph),
+					r(replacements, i.srcGraph), r(replacements, i.dstGraph), i.maxDepth);
+		}else if(instruction instanceof GetShortestPath){
+			final GetShortestPath i = (GetShortestPath)instruction;
+			return new GetShortestPath(r(replacements, i.targetGraph), r(replacements, i.subjectGraph),
+					r(replacements, i.srcGraph), r(replacements, i.dstGraph), i.maxDepth);
+		}else if(instruction instanceof GetSimplePath){
+			final GetSimplePath i = (GetSimplePath)instruction;
+			return new GetSimplePath(r(replacements, i.targetGraph), r(replacements, i.subjectGraph),
+					r(replacements, i.srcGraph), r(replacements, i.dstGraph), i.maxDepth);
+		}else if(instruction instanceof CollapseEdge){
+			final CollapseEdge i = (CollapseEdge)instruction;
+			return new CollapseEdge(r(replacements, i.targetGraph), r(replacements, i.sourceGraph), i.getFields());
+		}else if(instruction instanceof IntersectGraph){
+			final IntersectGraph i = (IntersectGraph)instruction;
+			return new IntersectGraph(r(replacements, i.outputGraph), r(replacements, i.lhsGraph),
+					r(replacements, i.rhsGraph));
+		}else if(instruction instanceof UnionGraph){
+			final UnionGraph i = (UnionGraph)instruction;
+			return new UnionGraph(r(replacements, i.targetGraph), r(replacements, i.sourceGraph));
+		}else if(instruction instanceof SubtractGraph){
+			final SubtractGraph i = (SubtractGraph)instruction;
+			return new SubtractGraph(r(replacements, i.outputGraph), r(replacements, i.minuendGraph),
+					r(replacements, i.subtrahendGraph), i.component);
+		}else if(instruction instanceof LimitGraph){
+			final LimitGraph i = (LimitGraph)instruction;
+			return new LimitGraph(r(replacements, i.targetGraph), r(replacements, i.sourceGraph), i.limit);
+		}else if(instruction instanceof DistinctifyGraph){
+			final DistinctifyGraph i = (DistinctifyGraph)instruction;
+			return new DistinctifyGraph(r(replacements, i.targetGraph), r(replacements, i.sourceGraph));
+		}else if(instruction instanceof RemoteVariableOperation.Copy){
+			final RemoteVariableOperation.Copy i = (RemoteVariableOperation.Copy)instruction;
+			return new RemoteVariableOperation.Copy(r(replacements, i.dstGraph), r(replacements, i.srcGraph));
+		}else if(instruction instanceof RemoteVariableOperation.Intersect){
+			final RemoteVariableOperation.Intersect i = (RemoteVariableOperation.Intersect)instruction;
+			return new RemoteVariableOperation.Intersect(r(replacements, i.resultGraph), r(replacements, i.lhsGraph),
+					r(replacements, i.rhsGraph));
+		}else if(instruction instanceof RemoteVariableOperation.Subtract){
+			final RemoteVariableOperation.Subtract i = (RemoteVariableOperation.Subtract)instruction;
+			return new RemoteVariableOperation.Subtract(r(replacements, i.resultGraph), r(replacements, i.lhsGraph),
+					r(replacements, i.rhsGraph));
+		}
+		throw new RuntimeException("Unexpected instruction to rebuild: " + instruction.getLabel());
+	}
+
+	private static Graph r(final Map<Graph, Graph> replacements, final Graph graph){
+		final Graph replacement = replacements.get(graph);
+		return replacement == null ? graph : replacement;
+	}
+}
@@ -35,6 +35,8 @@ public abstract class GraphStatistic implements Serializable{
 
 	private int precisionScale;
 	private final DecimalFormat df = new DecimalFormat("#");
+	// Only set if the statistic is an estimate
+	private Approximation approximation;
 
 	public int getPrecisionScale(){
 		return precisionScale;
@@ -53,13 +55,60 @@ public abstract class GraphStatistic implements Serializable{
 		return df.format(value);
 	}
 
+	public Approximation getApproximation(){
+		return approximation;
+	}
+
+	public void setApproximation(final Approximation approximation){
+		this.approximation = approximation;
+	}
+
+	public boolean isApproximate(){
+		return approximation != null;
+	}
+
 	public abstract void privatize(final double epsilon);
 	public abstract ResultTable getAsResultTable();
 
+	protected String getApproximationSummary(){
+		return approximation.toString();
+	}
+
 	@Override
 	public String toString(){
 		final ResultTable table = getAsResultTable();
-		return table.toString();
+		if(approximation == null){
+			return table.toString();
+		}
+		return table.toString() + getApproximationSummary() + "\n";
+	}
+
+	/**
+	 * How an approximate statistic was estimated. The errors in the statistic are the half-widths of the confidence
+	 * intervals.
+	 */
+	public static class Approximation implements Serializable{
+		private static final long serialVersionUID = -2619528452031977370L;
+		public final long sampleSize;
+		public final long populationSize;
+		public final double confidence;
+
+		public Approximation(final long sampleSize, final long populationSize, final double confidence){
+			this.sampleSize = sampleSize;
+			this.populationSize = populationSize;
+			this.confidence = confidence;
+		}
+
+		@Override
+		public String toString(){
+			return "Approximate: estimated from a sample of " + sampleSize + " of ~" + populationSize
+					+ " values. Errors are at " + Math.round(confidence * 100) + "% confidence.";
+		}
+	}
+
+	private static <K> double getErrorOrZero(final Map<K, Double> errors, final K key){
+		final Double error = errors.get(key);
+		return error == null ? 0 : error;
 	}
 
 	public static class Count extends GraphStatistic{
@@ -131,21 +180,61 @@ public abstract class GraphStatistic implements Serializable{
 	public static class Histogram extends GraphStatistic{
 		private static final long serialVersionUID = 6008488148398456093L;
 		private SortedMap<String, Double> histogram = new TreeMap<>();
+		// Only for approximate histograms
+		private SortedMap<String, Double> errors = new TreeMap<>();
+		private long distinctValues = -1;
+		private double distinctValuesError;
 
 		public Histogram(){
 			this(null);
 		}
 
 		public Histogram(final SortedMap<String, Double> histogram){
+			this(histogram, null);
+		}
+
+		public Histogram(final SortedMap<String, Double> histogram, final SortedMap<String, Double> errors){
 			if(histogram != null){
 				this.histogram.putAll(histogram);
 			}
+			if(errors != null){
+				this.errors.putAll(errors);
+			}
 		}
 
 		public SortedMap<String, Double> getHistogram(){
 			return new TreeMap<>(this.histogram);
 		}
 
+		public SortedMap<String, Double> getErrors(){
+			return new TreeMap<>(this.errors);
+		}
+
+		/**
+		 * @return Estimated number of distinct values or -1 if not estimated
+		 */
+		public long getDistinctValues(){
+			return distinctValues;
+		}
+
+		public double getDistinctValuesError(){
+			return distinctValuesError;
+		}
+
+		public void setDistinctValues(final long distinctValues, final double distinctValuesError){
+			this.distinctValues = distinctValues;
+			this.distinctValuesError = distinctValuesError;
+		}
+
+		@Override
+		protected String getApproximationSummary(){
+			String summary = super.getApproximationSummary();
+			if(distinctValues >= 0){
+				summary += " Distinct values: " + distinctValues + " (+/- " + scaleDouble(distinctValuesError) + ").";
+			}
+			return summary;
+		}
+
 		@Override
 		public void privatize(final double epsilon){
 			for(final Map.Entry<String, Double> entry : this.histogram.entrySet()){
@@ -164,11 +253,17 @@ public abstract class GraphStatistic implements Serializable{
 				final ResultTable.Row row = new ResultTable.Row();
 				row.add(entry.getKey());
 				row.add(scaleDouble(entry.getValue()));
+				if(isApproximate()){
+					row.add(scaleDouble(getErrorOrZero(errors, entry.getKey())));
+				}
 				table.addRow(row);
 			}
 			final Schema schema = new Schema();
 			schema.addColumn("Value", StringType.GetInstance());
 			schema.addColumn("Count", StringType.GetInstance());
+			if(isApproximate()){
+				schema.addColumn("Error (+/-)", StringType.GetInstance());
+			}
 
 			table.setSchema(schema);
 
@@ -179,19 +274,30 @@ public abstract class GraphStatistic implements Serializable{
 	public static class StandardDeviation extends GraphStatistic{
 		private static final long serialVersionUID = -1464752101315726846L;
 		private double standardDeviation;
+		// Only for approximate standard deviations
+		private double error;
 
 		public StandardDeviation(){
 			this(0);
 		}
 
 		public StandardDeviation(final double standardDeviation){
+			this(standardDeviation, 0);
+		}
+
+		public StandardDeviation(final double standardDeviation, final double error){
 			this.standardDeviation = standardDeviation;
+			this.error = error;
 		}
 
 		public double getStandardDeviation(){
 			return standardDeviation;
 		}
 
+		public double getError(){
+			return error;
+		}
+
 		@Override
 		public void privatize(final double epsilon){
 			standardDeviation = HelperFunctions.differentiallyPrivatize(standardDeviation, epsilon);
@@ -203,12 +309,18 @@ public abstract class GraphStatistic implements Serializable{
 			final ResultTable.Row row = new ResultTable.Row();
 			row.add("Standard Deviation");
 			row.add(scaleDouble(standardDeviation));
+			if(isApproximate()){
+				row.add(scaleDouble(error));
+			}
 
 			table.addRow(row);
 
 			final Schema schema = new Schema();
 			schema.addColumn("Statistic", StringType.GetInstance());
 			schema.addColumn("Value", StringType.GetInstance());
+			if(isApproximate()){
+				schema.addColumn("Error (+/-)", StringType.GetInstance());
+			}
 
 			table.setSchema(schema);
 
@@ -219,19 +331,30 @@ public abstract class GraphStatistic implements Serializable{
 	public static class Mean extends GraphStatistic{
 		private static final long serialVersionUID = 6992349772700489521L;
 		private double mean;
+		// Only for approximate means
+		private double error;
 
 		public Mean(){
 			this(0);
 		}
 
 		public Mean(final double mean){
+			this(mean, 0);
+		}
+
+		public Mean(final double mean, final double error){
 			this.mean = mean;
+			this.error = error;
 		}
 
 		public double getMean(){
 			return mean;
 		}
 
+		public double getError(){
+			return error;
+		}
+
 		@Override
 		public void privatize(final double epsilon){
 			mean = HelperFunctions.differentiallyPrivatize(mean, epsilon);
@@ -243,12 +366,18 @@ public abstract class GraphStatistic implements Serializable{
 			final ResultTable.Row row = new ResultTable.Row();
 			row.add("Mean");
 			row.add(scaleDouble(mean));
+			if(isApproximate()){
+				row.add(scaleDouble(error));
+			}
 
 			table.addRow(row);
 
 			final Schema schema = new Schema();
 			schema.addColumn("Statistic", StringType.GetInstance());
 			schema.addColumn("Value", StringType.GetInstance());
+			if(isApproximate()){
+				schema.addColumn("Error (+/-)", StringType.GetInstance());
+			}
 
 			table.setSchema(schema);
 
@@ -259,21 +388,34 @@ public abstract class GraphStatistic implements Serializable{
 	public static class Distribution extends GraphStatistic{
 		private static final long serialVersionUID = 8394823240406671826L;
 		private SortedMap<Interval, Double> distribution = new TreeMap<>();
+		// Only for approximate distributions
+		private SortedMap<Interval, Double> errors = new TreeMap<>();
 
 		public Distribution(){
 			this(null);
 		}
 
 		public Distribution(final SortedMap<Interval, Double> distribution){
+			this(distribution, null);
+		}
+
+		public Distribution(final SortedMap<Interval, Double> distribution, final SortedMap<Interval, Double> errors){
 			if(distribution != null){
 				this.distribution.putAll(distribution);
 			}
+			if(errors != null){
+				this.errors.putAll(errors);
+			}
 		}
 
 		public SortedMap<Interval, Double> getDistribution(){
 			return new TreeMap<>(this.distribution);
 		}
 
+		public SortedMap<Interval, Double> getErrors(){
+			return new TreeMap<>(this.errors);
+		}
+
 		@Override
 		public void privatize(final double epsilon){
 			for(final Map.Entry<Interval, Double> entry : this.distribution.entrySet()){
@@ -294,12 +436,18 @@ public abstract class GraphStatistic implements Serializable{
 				row.add(scaleDouble(intervalKey.from));
 				row.add(scaleDouble(intervalKey.to));
 				row.add(scaleDouble(entry.getValue()));
+				if(isApproximate()){
+					row.add(scaleDouble(getErrorOrZero(errors, intervalKey)));
+				}
 				table.addRow(row);
 			}
 			final Schema schema = new Schema();
 			schema.addColumn("From", StringType.GetInstance());
 			schema.addColumn("To", StringType.GetInstance());
 			schema.addColumn("Count", StringType.GetInstance());
+			if(isApproximate()){
+				schema.addColumn("Error (+/-)", StringType.GetInstance());
+			}
 
 			table.setSchema(schema);
 
@@ -0,0 +1,328 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import spade.query.quickgrail.core.GraphStatistic.Interval;
+import spade.query.quickgrail.utility.HyperLogLog;
+import spade.query.quickgrail.utility.QuantileSketch;
+import spade.query.quickgrail.utility.ReservoirSample;
+
+/**
+ * Bounded memory summary of the values of an annotation in a graph from which approximate statistics are estimated.
+ *
+ * The storage picks a sampling fraction from the number of elements in the graph (see chooseSamplingFraction), then
+ * offers the non-empty values of (a sample with that fraction of) the elements. The values go into:
+ * 1) A reservoir sample of fixed size for histograms, means and standard deviations.
+ * 2) A KLL sketch for distributions (numeric values only).
+ * 3) The number of distinct values (histograms only). A HyperLogLog sketch if all values are offered. Otherwise the
+ * GEE estimate (Charikar et al., "Towards estimation error guarantees for distinct values") from the counts of the
+ * values in the sample: sqrt(1/q) * f1 + (d - f1), where q is the sampling fraction, d the number of distinct values
+ * in the sample and f1 the number of those seen once.
+ *
+ * Errors are the half-widths of 95% confidence intervals from the normal approximation, with the uncertainty in the
+ * population size included when the elements were sampled. Distribution errors add the 99% rank error of the KLL
+ * sketch. The error of the GEE estimate is not a confidence interval: it covers the range from d (each value seen
+ * once is the only one of its kind) to f1 / q + (d - f1) (each value seen once stands for 1 / q values). The errors
+ * assume that the elements were sampled independently.
+ */
+public class GraphStatisticSketch{
+
+	public static final double confidence = 0.95;
+	private static final double z = 1.96;
+
+	private static final int distinctValuesPrecision = 14;
+	private static final int quantileSketchSize = 256;
+	// Elements to sample per wanted value because not all elements have the annotation
+	private static final int oversampling = 2;
+
+	private final int sampleSize;
+	private final boolean numeric;
+	private double samplingFraction = 1;
+
+	private long values = 0;
+	private double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+	private final ReservoirSample<String> reservoir;
+	private final ReservoirSample<Double> numericReservoir;
+	private final QuantileSketch quantiles;
+	private HyperLogLog distinctValues;
+	// Counts of the values in the sample if the elements are sampled (non-numeric only)
+	private Map<String, Long> sampledValueCounts;
+
+	/**
+	 * @param sampleSize Number of values to keep in the reservoir
+	 * @param numeric True if the statistic is over numbers. Values that are not numbers are then skipped.
+	 */
+	public GraphStatisticSketch(final int sampleSize, final boolean numeric){
+		if(sampleSize < 1){
+			throw new IllegalArgumentException("Sample size must be positive: " + sampleSize);
+		}
+		this.sampleSize = sampleSize;
+		this.numeric = numeric;
+		if(numeric){
+			this.reservoir = null;
+			this.numericReservoir = new ReservoirSample<Double>(sampleSize);
+			this.quantiles = new QuantileSketch(quantileSketchSize);
+			this.distinctValues = null;
+		}else{
+			this.reservoir = new ReservoirSample<String>(sampleSize);
+			this.numericReservoir = null;
+			this.quantiles = null;
+			this.distinctValues = createDistinctValuesSketch();
+		}
+	}
+
+	public static HyperLogLog createDistinctValuesSketch(){
+		return new HyperLogLog(distinctValuesPrecision);
+	}
+
+	public int getSampleSize(){
+		return sampleSize;
+	}
+
+	public boolean isNumeric(){
+		return numeric;
+	}
+
+	public double getSamplingFraction(){
+		return samplingFraction;
+	}
+
+	/**
+	 * Must be called before any value is offered
+	 *
+	 * @param elementCount Number of vertices (or edges) in the graph. Can be an estimate.
+	 * @return The fraction of the elements to sample. 1 if all the values must be offered.
+	 */
+	public double chooseSamplingFraction(final long elementCount){
+		if(values > 0){
+			throw new IllegalStateException("Sampling fraction must be chosen before the values are offered");
+		}
+		if(elementCount <= 0){
+			samplingFraction = 1;
+		}else{
+			samplingFraction = Math.min(1.0, ((double)sampleSize * oversampling) / elementCount);
+		}
+		if(samplingFraction < 1 && !numeric){
+			// The distinct values of a sample are estimated from the counts of the values in it instead
+			distinctValues = null;
+			sampledValueCounts = new HashMap<String, Long>();
+		}
+		return samplingFraction;
+	}
+
+	/**
+	 * @param value Value of the annotation. Null and empty values are ignored.
+	 */
+	public void offer(final String value){
+		if(value == null || value.isEmpty()){
+			return;
+		}
+		if(numeric){
+			final double number;
+			try{
+				number = Double.parseDouble(value);
+			}catch(NumberFormatException e){
+				return;
+			}
+			values++;
+			numericReservoir.offer(number);
+			quantiles.offer(number);
+			min = Math.min(min, number);
+			max = Math.max(max, number);
+		}else{
+			values++;
+			reservoir.offer(value);
+			if(samplingFraction == 1){
+				distinctValues.offer(value);
+			}else{
+				final Long count = sampledValueCounts.get(value);
+				sampledValueCounts.put(value, count == null ? 1 : count + 1);
+			}
+		}
+	}
+
+	/**
+	 * @return Estimated number of values in the graph
+	 */
+	public long getPopulationSize(){
+		return Math.round(values / samplingFraction);
+	}
+
+	////////////////////
+
+	public GraphStatistic.Histogram toHistogram(){
+		if(numeric){
+			throw new IllegalStateException("Histogram needs a non-numeric sketch");
+		}
+		final List<String> items = reservoir.getItems();
+		final Map<String, Long> counts = new HashMap<String, Long>();
+		for(final String item : items){
+			final Long count = counts.get(item);
+			counts.put(item, count == null ? 1 : count + 1);
+		}
+		final SortedMap<String, Double> histogram = new TreeMap<String, Double>();
+		final SortedMap<String, Double> errors = new TreeMap<String, Double>();
+		final long population = getPopulationSize();
+		for(final Map.Entry<String, Long> entry : counts.entrySet()){
+			final double proportion = (double)entry.getValue() / items.size();
+			histogram.put(entry.getKey(), proportion * population);
+			errors.put(entry.getKey(), getProportionError(proportion, items.size(), population));
+		}
+		final GraphStatistic.Histogram result = new GraphStatistic.Histogram(histogram, errors);
+		if(distinctValues != null){
+			final long estimate = distinctValues.estimate();
+			result.setDistinctValues(estimate, z * distinctValues.getRelativeStandardError() * estimate);
+		}else if(sampledValueCounts != null && !sampledValueCounts.isEmpty()){
+			setSampledDistinctValues(result, population);
+		}
+		return setApproximation(result, items.size());
+	}
+
+	// GEE estimate with the error covering the range of the estimators at both extremes (see the class comment)
+	private void setSampledDistinctValues(final GraphStatistic.Histogram histogram, final long population){
+		final long sampledDistinct = sampledValueCounts.size();
+		long seenOnce = 0;
+		for(final long count : sampledValueCounts.values()){
+			if(count == 1){
+				seenOnce++;
+			}
+		}
+		final double estimate = Math.sqrt(1 / samplingFraction) * seenOnce + (sampledDistinct - seenOnce);
+		final double upperBound = Math.min(Math.max(population, sampledDistinct),
+				seenOnce / samplingFraction + (sampledDistinct - seenOnce));
+		final long roundedEstimate = Math.min(Math.round(estimate), Math.round(upperBound));
+		histogram.setDistinctValues(roundedEstimate,
+				Math.max(roundedEstimate - sampledDistinct, upperBound - roundedEstimate));
+	}
+
+	public GraphStatistic.Mean toMean(){
+		final List<Double> items = getNumericItems();
+		if(items.isEmpty()){
+			return new GraphStatistic.Mean();
+		}
+		final double mean = getMean(items);
+		final double error = z * getStandardDeviation(items, mean) / Math.sqrt(items.size())
+				* Math.sqrt(getFinitePopulationCorrection(items.size(), getPopulationSize()));
+		return setApproximation(new GraphStatistic.Mean(mean, error), items.size());
+	}
+
+	public GraphStatistic.StandardDeviation toStandardDeviation(){
+		final List<Double> items = getNumericItems();
+		if(items.isEmpty()){
+			return new GraphStatistic.StandardDeviation();
+		}
+		final double standardDeviation = getStandardDeviation(items, getMean(items));
+		final double error = items.size() < 2 ? 0
+				: z * standardDeviation / Math.sqrt(2.0 * (items.size() - 1))
+						* Math.sqrt(getFinitePopulationCorrection(items.size(), getPopulationSize()));
+		return setApproximation(new GraphStatistic.StandardDeviation(standardDeviation, error), items.size());
+	}
+
+	/**
+	 * Same bins as the exact distribution over the minimum and the maximum value seen
+	 */
+	public GraphStatistic.Distribution toDistribution(final int binCount){
+		final List<Double> items = getNumericItems();
+		if(items.isEmpty()){
+			return new GraphStatistic.Distribution();
+		}
+		final double range = max - min + 1;
+		final double step = range / binCount;
+		final List<Interval> intervals = new ArrayList<Interval>();
+		double begin = min;
+		while(begin + step < max){
+			intervals.add(new Interval(begin, begin + step));
+			begin += step;
+		}
+		intervals.add(new Interval(begin, max));
+
+		final long population = getPopulationSize();
+		final double sketchCount = quantiles.getCount();
+		final double rankError = 2 * quantiles.getNormalizedRankError() * population;
+		final SortedMap<Interval, Double> distribution = new TreeMap<Interval, Double>();
+		final SortedMap<Interval, Double> errors = new TreeMap<Interval, Double>();
+		for(int i = 0; i < intervals.size(); i++){
+			final Interval interval = intervals.get(i);
+			// All bins are [from, to) except the last which is [from, to]
+			final double upperRank = i == intervals.size() - 1 ? quantiles.rank(interval.to)
+					: quantiles.strictRank(interval.to);
+			final double count = Math.max(0, upperRank - quantiles.strictRank(interval.from)) / sketchCount * population;
+			distribution.put(interval, count);
+			errors.put(interval, rankError + z * Math.sqrt(count * (1 - samplingFraction) / samplingFraction));
+		}
+		return setApproximation(new GraphStatistic.Distribution(distribution, errors), items.size());
+	}
+
+	////////////////////
+
+	private List<Double> getNumericItems(){
+		if(!numeric){
+			throw new IllegalStateException("Statistic needs a numeric sketch");
+		}
+		return numericReservoir.getItems();
+	}
+
+	private <S extends GraphStatistic> S setApproximation(final S statistic, final long sampled){
+		statistic.setApproximation(new GraphStatistic.Approximation(sampled, getPopulationSize(), confidence));
+		return statistic;
+	}
+
+	// Error of (proportion * population) where both are estimates
+	private double getProportionError(final double proportion, final int sampled, final long population){
+		final double proportionVariance = proportion * (1 - proportion) / sampled
+				* getFinitePopulationCorrection(sampled, population);
+		final double populationRelativeVariance = values == 0 ? 0 : (1 - samplingFraction) / values;
+		return z * population * Math.sqrt(proportionVariance + proportion * proportion * populationRelativeVariance);
+	}
+
+	private static double getFinitePopulationCorrection(final long sampled, final long population){
+		if(population <= 1 || sampled >= population){
+			return 0;
+		}
+		return (double)(population - sampled) / (population - 1);
+	}
+
+	private static double getMean(final List<Double> items){
+		double sum = 0;
+		for(final double item : items){
+			sum += item;
+		}
+		return sum / items.size();
+	}
+
+	// Sample standard deviation
+	private static double getStandardDeviation(final List<Double> items, final double mean){
+		if(items.size() < 2){
+			return 0;
+		}
+		double sum = 0;
+		for(final double item : items){
+			sum += (item - mean) * (item - mean);
+		}
+		return Math.sqrt(sum / (items.size() - 1));
+	}
+}
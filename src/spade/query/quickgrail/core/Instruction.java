@@ -39,6 +39,14 @@ public abstract class Instruction<R extends Serializable>extends TreeStringSeria
 		this.result = result;
 	}
 
+	/**
+	 * Must be true if updateTransformerExecutionContext is overridden. When instructions are run concurrently, only the
+	 * last instruction in the program which updates the context is allowed to have the final say.
+	 */
+	public boolean updatesTransformerExecutionContext(){
+		return false;
+	}
+
 	// Pre-execution
 	public void updateTransformerExecutionContext(final QueryInstructionExecutor executor,
 			final AbstractTransformer.ExecutionContext context){
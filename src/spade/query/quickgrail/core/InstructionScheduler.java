@@ -0,0 +1,285 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.CreateEmptyGraph;
+
+/**
+ * Runs the instructions of a program in the order of their data dependencies instead of one at a time.
+ *
+ * An instruction depends on an earlier one if one of them writes a graph that the other reads or writes. Instructions
+ * not known to GraphAccess (symbols, results, exports, etc.) depend on all earlier instructions and all later
+ * instructions depend on them. They are run on the executor of the session by the calling thread.
+ *
+ * Independent instructions are run on a bounded pool of threads. Each thread uses an executor from openSession of the
+ * session's executor (i.e. its own connection where the storage supports it). The executors are opened when first
+ * needed and kept until shutdown. If the storage does not support concurrent instructions or the program has no
+ * independent instructions then the instructions are run one at a time by the calling thread.
+ *
+ * The query monitor of the session's executor is handed to the worker executors and no instruction is started after
+ * the query is cancelled.
+ */
+public class InstructionScheduler{
+
+	private static final Logger logger = Logger.getLogger(InstructionScheduler.class.getName());
+
+	public static interface InstructionRunner{
+		public void run(final int index, final Instruction<? extends Serializable> instruction,
+				final QueryInstructionExecutor executor) throws Exception;
+	}
+
+	private final QueryInstructionExecutor sessionExecutor;
+	private final int parallelism;
+
+	private ExecutorService threadPool;
+	private final List<QueryInstructionExecutor> workerExecutors = new ArrayList<QueryInstructionExecutor>();
+	private final BlockingQueue<QueryInstructionExecutor> idleWorkerExecutors = new LinkedBlockingQueue<QueryInstructionExecutor>();
+
+	public InstructionScheduler(final QueryInstructionExecutor sessionExecutor, final int parallelism){
+		if(sessionExecutor == null){
+			throw new IllegalArgumentException("NULL session executor");
+		}
+		if(parallelism < 1){
+			throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+		}
+		this.sessionExecutor = sessionExecutor;
+		this.parallelism = parallelism;
+	}
+
+	public void execute(final Program program, final InstructionRunner runner) throws Exception{
+		final int size = program.getInstructionsSize();
+		if(parallelism == 1 || size < 2 || !sessionExecutor.supportsConcurrentInstructions()){
+			executeSequentially(program, runner);
+			return;
+		}
+
+		final List<List<Integer>> dependents = new ArrayList<List<Integer>>();
+		final int[] dependencyCounts = new int[size];
+		final boolean[] barriers = new boolean[size];
+		boolean independent = false;
+		buildDependencies(program, dependents, dependencyCounts, barriers);
+		for(int i = 1; i < size && !independent; i++){
+			independent = !dependents.get(i - 1).contains(i);
+		}
+		if(!independent){
+			executeSequentially(program, runner);
+			return;
+		}
+
+		openWorkers();
+
+		final ExecutorCompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(threadPool);
+		final List<Integer> ready = new ArrayList<Integer>();
+		for(int i = 0; i < size; i++){
+			if(dependencyCounts[i] == 0){
+				ready.add(i);
+			}
+		}
+
+		int running = 0, finished = 0;
+		Exception failure = null;
+		while(finished < size && failure == null){
+			// Barriers only become ready when nothing else is running because everything before them is done and
+			// everything after them waits for them
+			final List<Integer> readyNow = new ArrayList<Integer>(ready);
+			ready.clear();
+			for(final int index : readyNow){
+				if(barriers[index]){
+					try{
+						sessionExecutor.getQueryMonitor().checkCancelled();
+						runner.run(index, program.getInstruction(index), sessionExecutor);
+					}catch(Exception e){
+						failure = e;
+						break;
+					}
+					finished++;
+					release(index, dependents, dependencyCounts, ready);
+				}else{
+					completionService.submit(() -> {
+						final QueryInstructionExecutor workerExecutor = idleWorkerExecutors.take();
+						try{
+							workerExecutor.setQueryMonitor(sessionExecutor.getQueryMonitor());
+							workerExecutor.getQueryMonitor().checkCancelled();
+							runner.run(index, program.getInstruction(index), workerExecutor);
+						}finally{
+							idleWorkerExecutors.put(workerExecutor);
+						}
+						return index;
+					});
+					running++;
+				}
+			}
+			if(failure != null || !ready.isEmpty()){
+				continue;
+			}
+			if(running == 0){
+				break;
+			}
+			final Future<Integer> future = completionService.take();
+			running--;
+			try{
+				final int index = future.get();
+				finished++;
+				release(index, dependents, dependencyCounts, ready);
+			}catch(ExecutionException e){
+				failure = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+			}
+		}
+
+		// Let the instructions that already started finish before reporting the failure
+		while(running > 0){
+			try{
+				completionService.take().get();
+			}catch(ExecutionException e){
+				// All running instructions stop when the query is cancelled
+				if(!(e.getCause() instanceof QueryMonitor.CancelledException)){
+					logger.log(Level.WARNING, "Instruction failed after an earlier failure", e.getCause());
+				}
+			}
+			running--;
+		}
+		if(failure != null){
+			throw failure;
+		}
+		if(finished < size){
+			throw new RuntimeException("Unexpected cycle in instruction dependencies. Finished " + finished + " of "
+					+ size + " instructions");
+		}
+	}
+
+	private void executeSequentially(final Program program, final InstructionRunner runner) throws Exception{
+		for(int i = 0; i < program.getInstructionsSize(); i++){
+			sessionExecutor.getQueryMonitor().checkCancelled();
+			runner.run(i, program.getInstruction(i), sessionExecutor);
+		}
+	}
+
+	private static void release(final int index, final List<List<Integer>> dependents, final int[] dependencyCounts,
+			final List<Integer> ready){
+		for(final int dependent : dependents.get(index)){
+			dependencyCounts[dependent]--;
+			if(dependencyCounts[dependent] == 0){
+				ready.add(dependent);
+			}
+		}
+	}
+
+	private static void buildDependencies(final Program program, final List<List<Integer>> dependents,
+			final int[] dependencyCounts, final boolean[] barriers){
+		final int size = program.getInstructionsSize();
+		final List<Set<Graph>> reads = new ArrayList<Set<Graph>>();
+		final List<Set<Graph>> writes = new ArrayList<Set<Graph>>();
+		for(int i = 0; i < size; i++){
+			final Instruction<? extends Serializable> instruction = program.getInstruction(i);
+			final Set<Graph> read = new HashSet<Graph>();
+			final Set<Graph> write = new HashSet<Graph>();
+			if(instruction instanceof CreateEmptyGraph){
+				write.add(((CreateEmptyGraph)instruction).graph);
+			}else{
+				final GraphAccess access = GraphAccess.of(instruction);
+				if(access == null){
+					barriers[i] = true;
+				}else{
+					read.addAll(access.inputs);
+					write.add(access.output);
+				}
+			}
+			reads.add(read);
+			writes.add(write);
+			dependents.add(new ArrayList<Integer>());
+		}
+		for(int i = 0; i < size; i++){
+			for(int j = 0; j < i; j++){
+				if(barriers[i] || barriers[j] || intersects(writes.get(j), reads.get(i))
+						|| intersects(writes.get(j), writes.get(i)) || intersects(reads.get(j), writes.get(i))){
+					dependents.get(j).add(i);
+					dependencyCounts[i]++;
+				}
+			}
+		}
+	}
+
+	private static boolean intersects(final Set<Graph> a, final Set<Graph> b){
+		for(final Graph graph : a){
+			if(b.contains(graph)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void openWorkers() throws Exception{
+		if(threadPool != null){
+			return;
+		}
+		try{
+			for(int i = 0; i < parallelism; i++){
+				final QueryInstructionExecutor workerExecutor = sessionExecutor.openSession();
+				workerExecutors.add(workerExecutor);
+				idleWorkerExecutors.add(workerExecutor);
+			}
+		}catch(Exception e){
+			closeWorkers();
+			throw new Exception("Failed to open executors for concurrent instructions", e);
+		}
+		threadPool = Executors.newFixedThreadPool(parallelism);
+	}
+
+	private void closeWorkers(){
+		for(final QueryInstructionExecutor workerExecutor : workerExecutors){
+			if(workerExecutor != sessionExecutor){
+				try{
+					workerExecutor.closeSession();
+				}catch(Exception e){
+					logger.log(Level.WARNING, "Failed to close executor for concurrent instructions", e);
+				}
+			}
+		}
+		workerExecutors.clear();
+		idleWorkerExecutors.clear();
+	}
+
+	/**
+	 * Stops the threads and closes the executors opened for concurrent instructions
+	 */
+	public synchronized void shutdown(){
+		if(threadPool != null){
+			threadPool.shutdownNow();
+			threadPool = null;
+		}
+		closeWorkers();
+	}
+}
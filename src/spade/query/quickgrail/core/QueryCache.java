@@ -0,0 +1,315 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import spade.core.Settings;
+import spade.query.quickgrail.instruction.EnvironmentVariableOperation;
+import spade.query.quickgrail.instruction.EraseSymbols;
+import spade.query.quickgrail.instruction.EvaluateQuery;
+import spade.query.quickgrail.instruction.GetList;
+import spade.query.quickgrail.instruction.GetRandomSample;
+import spade.query.quickgrail.instruction.GetRemoteLineage;
+import spade.query.quickgrail.instruction.RefineDependencies;
+import spade.query.quickgrail.instruction.SaveGraph;
+import spade.query.quickgrail.instruction.TransformGraph;
+import spade.query.quickgrail.parser.ParseAssignment;
+import spade.query.quickgrail.parser.ParseCommand;
+import spade.query.quickgrail.parser.ParseExpression;
+import spade.query.quickgrail.parser.ParseOperation;
+import spade.query.quickgrail.parser.ParseProgram;
+import spade.query.quickgrail.parser.ParseStatement;
+import spade.query.quickgrail.parser.ParseVariable;
+import spade.utility.ArgumentFunctions;
+import spade.utility.FileUtility;
+
+/**
+ * Bounded LRU cache from the text of a QuickGrail query to its parse tree and, where possible, its result.
+ *
+ * An entry can be used only while nothing it depends on has changed:
+ * 1) The storage has not been written to i.e. the write watermark of the storage is the same.
+ * 2) The environment variables have the same values.
+ * 3) The symbols read by the query are bound to what they were bound to when the query ran.
+ *
+ * The only side effect of a cacheable query is the binding of the graph symbols that it assigns to. On a hit with a
+ * result, those symbols are bound again to the graphs that the query produced. On a hit without a result, only the
+ * parsing is skipped. The parse tree is resolved again so that the new program gets its own graphs.
+ */
+public class QueryCache{
+
+	private static final String keyMaxEntries = "maxEntries";
+
+	public static class Entry{
+		public final ParseProgram parseProgram;
+		private final long writeWatermark;
+		private final Map<String, String> environmentVariables;
+		private final Map<String, String> readSymbols;
+		private final Map<String, String> assignedGraphSymbols;
+		// NULL if the program has to be executed again
+		public final Serializable result;
+
+		private Entry(final ParseProgram parseProgram, final long writeWatermark, final Map<String, String> environmentVariables,
+				final Map<String, String> readSymbols, final Map<String, String> assignedGraphSymbols,
+				final Serializable result){
+			this.parseProgram = parseProgram;
+			this.writeWatermark = writeWatermark;
+			this.environmentVariables = environmentVariables;
+			this.readSymbols = readSymbols;
+			this.assignedGraphSymbols = assignedGraphSymbols;
+			this.result = result;
+		}
+
+		private boolean isValid(final long writeWatermark, final Map<String, String> environmentVariables,
+				final Map<String, String> symbols){
+			if(this.writeWatermark != writeWatermark || !this.environmentVariables.equals(environmentVariables)){
+				return false;
+			}
+			for(final Map.Entry<String, String> readSymbol : readSymbols.entrySet()){
+				if(!Objects.equals(readSymbol.getValue(), symbols.get(readSymbol.getKey()))){
+					return false;
+				}
+			}
+			if(result != null){
+				// The assigned graphs are not produced again so they must not have been garbage collected
+				for(final String graphName : assignedGraphSymbols.values()){
+					if(!symbols.containsValue(graphName)){
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	private final int maxEntries;
+	private final Map<String, Entry> entries;
+
+	private long hits = 0, misses = 0;
+
+	public QueryCache(){
+		this(readMaxEntries());
+	}
+
+	QueryCache(final int maxEntries){
+		if(maxEntries < 0){
+			throw new RuntimeException("'" + keyMaxEntries + "' must be non-negative: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest){
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	private static int readMaxEntries(){
+		final String configFilePath = Settings.getDefaultConfigFilePath(QueryCache.class);
+		try{
+			final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+			return ArgumentFunctions.mustParseInteger(keyMaxEntries, map);
+		}catch(Exception e){
+			throw new RuntimeException("Failed to parse configuration file: '" + configFilePath + "'", e);
+		}
+	}
+
+	/**
+	 * Counts a hit if there is a usable entry for the query and a miss otherwise
+	 *
+	 * @return The usable entry or null
+	 */
+	public synchronized Entry lookup(final String queryText, final long writeWatermark,
+			final Map<String, String> environmentVariables, final Map<String, String> symbols){
+		final Entry entry = entries.get(queryText);
+		if(entry != null && entry.isValid(writeWatermark, environmentVariables, symbols)){
+			hits++;
+			return entry;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Binds the graph symbols assigned by the query of the entry
+	 */
+	public void rebind(final Entry entry, final AbstractQueryEnvironment queryEnvironment){
+		for(final Map.Entry<String, String> assignment : entry.assignedGraphSymbols.entrySet()){
+			final String symbol = assignment.getKey();
+			final String graphName = assignment.getValue();
+			if(!graphName.equals(queryEnvironment.getCurrentGraphSymbolsStringMap().get(symbol))){
+				queryEnvironment.setGraphSymbol(symbol, new spade.query.quickgrail.entities.Graph(graphName));
+			}
+		}
+	}
+
+	/**
+	 * Adds an entry for the query if it is cacheable. The 'before' and 'after' maps are the environment variables and
+	 * the symbols (see getSymbols) before and after the query ran.
+	 */
+	public void put(final String queryText, final ParseProgram parseProgram, final Program program,
+			final long writeWatermarkBefore, final long writeWatermarkAfter,
+			final Map<String, String> environmentVariablesBefore, final Map<String, String> environmentVariablesAfter,
+			final Map<String, String> symbolsBefore, final Map<String, String> symbolsAfter,
+			Serializable result){
+		if(maxEntries == 0){
+			return;
+		}
+		// Written to while the query ran so the result may be from before or after the write
+		if(writeWatermarkBefore != writeWatermarkAfter){
+			return;
+		}
+		if(!environmentVariablesBefore.equals(environmentVariablesAfter)){
+			return;
+		}
+
+		final Set<String> readSymbols = new HashSet<String>();
+		final Set<String> assignedSymbols = new HashSet<String>();
+		for(final ParseStatement statement : parseProgram.getStatements()){
+			collectSymbols(statement, readSymbols, assignedSymbols);
+		}
+
+		// Only assignments to graph symbols by this query are allowed to have changed the symbols
+		final Map<String, String> assignedGraphSymbols = new HashMap<String, String>();
+		final Set<String> changedSymbols = new HashSet<String>(symbolsBefore.keySet());
+		changedSymbols.addAll(symbolsAfter.keySet());
+		for(final String symbol : changedSymbols){
+			final String before = symbolsBefore.get(symbol), after = symbolsAfter.get(symbol);
+			if(Objects.equals(before, after)){
+				continue;
+			}
+			if(after == null || !isGraphSymbol(symbol) || !assignedSymbols.contains(symbol)){
+				return;
+			}
+			assignedGraphSymbols.put(symbol, after);
+		}
+
+		boolean resultCacheable = result != null;
+		for(int i = 0; i < program.getInstructionsSize(); i++){
+			final Instruction<? extends Serializable> instruction = program.getInstruction(i);
+			if(instruction instanceof GetRemoteLineage || instruction instanceof EnvironmentVariableOperation
+					|| instruction instanceof EraseSymbols || instruction instanceof GetRandomSample){
+				// Depend on more than the local storage and symbols, or are not repeatable
+				return;
+			}
+			if(instruction instanceof SaveGraph || instruction instanceof EvaluateQuery
+					|| instruction instanceof RefineDependencies || instruction instanceof GetList
+					|| instruction instanceof TransformGraph){
+				// Must run every time
+				resultCacheable = false;
+			}
+		}
+		// Graphs are transformed and signed per query by the analyzer and a streamed export has no result to keep
+		if(result instanceof spade.core.Graph || result instanceof spade.query.quickgrail.instruction.ExportGraph.Streamed){
+			resultCacheable = false;
+		}
+
+		final Map<String, String> readSymbolsBefore = new HashMap<String, String>();
+		for(final String readSymbol : readSymbols){
+			readSymbolsBefore.put(readSymbol, symbolsBefore.get(readSymbol));
+		}
+
+		final Entry entry = new Entry(parseProgram, writeWatermarkBefore, environmentVariablesBefore,
+				Collections.unmodifiableMap(readSymbolsBefore), Collections.unmodifiableMap(assignedGraphSymbols),
+				resultCacheable ? result : null);
+		synchronized(this){
+			entries.put(queryText, entry);
+		}
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+	}
+
+	public synchronized String getStats(){
+		final long lookups = hits + misses;
+		final String hitRate = lookups == 0 ? "-" : String.format("%.1f%%", (hits * 100.0) / lookups);
+		return "hits=" + hits + ", misses=" + misses + ", hit rate=" + hitRate + ", entries=" + entries.size() + "/"
+				+ maxEntries;
+	}
+
+	////////////////////
+
+	/**
+	 * @return Graph, metadata and predicate symbols with their current values
+	 */
+	public static Map<String, String> getSymbols(final AbstractQueryEnvironment queryEnvironment){
+		final Map<String, String> symbols = new HashMap<String, String>();
+		symbols.putAll(queryEnvironment.getCurrentGraphSymbolsStringMap());
+		symbols.putAll(queryEnvironment.getCurrentMetadataSymbolsStringMap());
+		symbols.putAll(queryEnvironment.getCurrentPredicateSymbolsStringMap());
+		return symbols;
+	}
+
+	public static Map<String, String> getEnvironmentVariables(final AbstractQueryEnvironment queryEnvironment){
+		final Map<String, String> environmentVariables = new HashMap<String, String>();
+		for(final EnvironmentVariable environmentVariable : queryEnvironment.getEnvVarManager().getAll()){
+			environmentVariables.put(environmentVariable.name, String.valueOf(environmentVariable.getValue()));
+		}
+		return environmentVariables;
+	}
+
+	private static boolean isGraphSymbol(final String symbol){
+		return symbol.startsWith("$");
+	}
+
+	private static void collectSymbols(final ParseStatement statement, final Set<String> readSymbols,
+			final Set<String> assignedSymbols){
+		if(statement instanceof ParseAssignment){
+			final ParseAssignment assignment = (ParseAssignment)statement;
+			final String lhs = assignment.getLhs().getName().getValue();
+			assignedSymbols.add(lhs);
+			if(assignment.getAssignmentType() != ParseAssignment.AssignmentType.kEqual){
+				readSymbols.add(lhs);
+			}
+			collectSymbols(assignment.getRhs(), readSymbols);
+		}else if(statement instanceof ParseCommand){
+			collectSymbols(((ParseCommand)statement).getArguments(), readSymbols);
+		}
+	}
+
+	private static void collectSymbols(final List<ParseExpression> expressions, final Set<String> readSymbols){
+		for(final ParseExpression expression : expressions){
+			collectSymbols(expression, readSymbols);
+		}
+	}
+
+	private static void collectSymbols(final ParseExpression expression, final Set<String> readSymbols){
+		if(expression instanceof ParseVariable){
+			readSymbols.add(((ParseVariable)expression).getName().getValue());
+		}else if(expression instanceof ParseOperation){
+			final ParseOperation operation = (ParseOperation)expression;
+			if(operation.getSubject() != null){
+				collectSymbols(operation.getSubject(), readSymbols);
+			}
+			collectSymbols(operation.getOperands(), readSymbols);
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.GetRandomSample;
+import spade.query.quickgrail.instruction.GetVertex;
+import spade.query.quickgrail.instruction.SaveGraph;
+import spade.query.quickgrail.parser.DSLParserWrapper;
+import spade.query.quickgrail.parser.ParseProgram;
+
+/**
+ * Checks when the entries of QueryCache can be used and when they are invalidated.
+ *
+ * Usage: java -cp 'build:lib/*' spade.query.quickgrail.core.QueryCacheTest
+ */
+public class QueryCacheTest{
+
+	private static final String query = "$x = $base.getVertex(type = 'Process')";
+	private static final String result = "result";
+
+	private static final Graph baseGraph = new Graph("spade_base");
+	private static final Graph outputGraph = new Graph("spade_graph_1");
+
+	public static void main(final String[] args) throws Exception{
+		testHit();
+		testWriteInvalidates();
+		testEnvironmentVariableInvalidates();
+		testReadSymbolInvalidates();
+		testCollectedGraphInvalidates();
+		testNotCached();
+		testResultNotCached();
+		testEviction();
+		System.out.println(QueryCacheTest.class.getSimpleName() + ": passed");
+	}
+
+	private static void testHit(){
+		final QueryCache cache = new QueryCache(10);
+		put(cache, query, 1, 1, program(getVertex()));
+		final QueryCache.Entry entry = cache.lookup(query, 1, environmentVariables("1"), symbolsAfter());
+		check(entry != null && result.equals(entry.result), "Expected a hit with the result");
+		check(cache.lookup("$y = $base.getVertex(type = 'Process')", 1, environmentVariables("1"), symbolsAfter())
+				== null, "Expected a miss for another query");
+		checkStats(cache, "hits=1, misses=1");
+	}
+
+	private static void testWriteInvalidates(){
+		final QueryCache cache = new QueryCache(10);
+		put(cache, query, 1, 1, program(getVertex()));
+		check(cache.lookup(query, 2, environmentVariables("1"), symbolsAfter()) == null,
+				"Expected a miss after a write to the storage");
+
+		// Written to while the query ran
+		final QueryCache writtenCache = new QueryCache(10);
+		put(writtenCache, query, 1, 2, program(getVertex()));
+		check(writtenCache.lookup(query, 1, environmentVariables("1"), symbolsAfter()) == null
+				&& writtenCache.lookup(query, 2, environmentVariables("1"), symbolsAfter()) == null,
+				"Expected no entry for a query that ran during a write");
+	}
+
+	private static void testEnvironmentVariableInvalidates(){
+		final QueryCache cache = new QueryCache(10);
+		put(cache, query, 1, 1, program(getVertex()));
+		check(cache.lookup(query, 1, environmentVariables("2"), symbolsAfter()) == null,
+				"Expected a miss after an environment variable changed");
+	}
+
+	private static void testReadSymbolInvalidates(){
+		final QueryCache cache = new QueryCache(10);
+		put(cache, query, 1, 1, program(getVertex()));
+		final Map<String, String> symbols = symbolsAfter();
+		symbols.put("$base", "spade_graph_2");
+		check(cache.lookup(query, 1, environmentVariables("1"), symbols) == null,
+				"Expected a miss after a symbol read by the query was rebound");
+
+		// A symbol not read by the query
+		final Map<String, String> otherSymbols = symbolsAfter();
+		otherSymbols.put("$other", "spade_graph_2");
+		check(cache.lookup(query, 1, environmentVariables("1"), otherSymbols) != null,
+				"Expected a hit after an unrelated symbol was bound");
+	}
+
+	private static void testCollectedGraphInvalidates(){
+		final QueryCache cache = new QueryCache(10);
+		put(cache, query, 1, 1, program(getVertex()));
+		final Map<String, String> symbols = symbolsAfter();
+		symbols.put("$x", "spade_graph_2");
+		check(cache.lookup(query, 1, environmentVariables("1"), symbols) == null,
+				"Expected a miss with a result after the assigned graph was garbage collected");
+	}
+
+	private static void testNotCached(){
+		final QueryCache cache = new QueryCache(10);
+		put(cache, query, 1, 1, program(getVertex(),
+				new GetRandomSample(outputGraph, baseGraph, 10, Graph.Component.kVertex)));
+		check(cache.lookup(query, 1, environmentVariables("1"), symbolsAfter()) == null,
+				"Expected no entry for a query with a random sample");
+
+		// Binds a symbol that the query does not assign
+		final QueryCache symbolCache = new QueryCache(10);
+		final Map<String, String> symbolsAfter = symbolsAfter();
+		symbolsAfter.put("$other", "spade_graph_2");
+		symbolCache.put(query, parse(query), program(getVertex()), 1, 1, environmentVariables("1"),
+				environmentVariables("1"), symbolsBefore(), symbolsAfter, result);
+		check(symbolCache.lookup(query, 1, environmentVariables("1"), symbolsAfter) == null,
+				"Expected no entry for a query that changed a symbol it does not assign");
+
+		final QueryCache disabledCache = new QueryCache(0);
+		put(disabledCache, query, 1, 1, program(getVertex()));
+		check(disabledCache.lookup(query, 1, environmentVariables("1"), symbolsAfter()) == null,
+				"Expected no entry with a maximum of zero entries");
+	}
+
+	private static void testResultNotCached(){
+		final QueryCache cache = new QueryCache(10);
+		put(cache, query, 1, 1, program(getVertex(), new SaveGraph(outputGraph, SaveGraph.Format.kJson, true, "x")));
+		final QueryCache.Entry entry = cache.lookup(query, 1, environmentVariables("1"), symbolsAfter());
+		check(entry != null && entry.parseProgram != null && entry.result == null,
+				"Expected a hit with the parse tree only for a query that saves a graph");
+
+		// Without the result the assigned graph does not have to exist
+		final Map<String, String> symbols = symbolsAfter();
+		symbols.put("$x", "spade_graph_2");
+		check(cache.lookup(query, 1, environmentVariables("1"), symbols) != null,
+				"Expected a hit without a result after the assigned graph changed");
+	}
+
+	private static void testEviction(){
+		final QueryCache cache = new QueryCache(2);
+		final List<String> queries = Arrays.asList(query, query + " ", query + "  ");
+		put(cache, queries.get(0), 1, 1, program(getVertex()));
+		put(cache, queries.get(1), 1, 1, program(getVertex()));
+		// The first one is the most recently used now
+		check(cache.lookup(queries.get(0), 1, environmentVariables("1"), symbolsAfter()) != null, "Expected a hit");
+		put(cache, queries.get(2), 1, 1, program(getVertex()));
+		check(cache.lookup(queries.get(1), 1, environmentVariables("1"), symbolsAfter()) == null,
+				"Expected the least recently used entry to be evicted");
+		check(cache.lookup(queries.get(0), 1, environmentVariables("1"), symbolsAfter()) != null
+				&& cache.lookup(queries.get(2), 1, environmentVariables("1"), symbolsAfter()) != null,
+				"Expected the other entries to be kept");
+		cache.clear();
+		check(cache.lookup(queries.get(0), 1, environmentVariables("1"), symbolsAfter()) == null,
+				"Expected a miss after clear");
+	}
+
+	////////////////////
+
+	private static void put(final QueryCache cache, final String queryText, final long writeWatermarkBefore,
+			final long writeWatermarkAfter, final Program program){
+		cache.put(queryText, parse(queryText), program, writeWatermarkBefore, writeWatermarkAfter,
+				environmentVariables("1"), environmentVariables("1"), symbolsBefore(), symbolsAfter(), result);
+	}
+
+	private static ParseProgram parse(final String queryText){
+		return new DSLParserWrapper().fromText(queryText);
+	}
+
+	private static GetVertex getVertex(){
+		return new GetVertex(outputGraph, baseGraph, "type", QuickGrailQueryResolver.PredicateOperator.EQUAL,
+				"Process");
+	}
+
+	@SafeVarargs
+	private static Program program(final Instruction<? extends Serializable>... instructions){
+		return new Program(new ArrayList<Instruction<? extends Serializable>>(Arrays.asList(instructions)));
+	}
+
+	private static Map<String, String> environmentVariables(final String maxDepth){
+		final Map<String, String> environmentVariables = new HashMap<String, String>();
+		environmentVariables.put("maxDepth", maxDepth);
+		return environmentVariables;
+	}
+
+	private static Map<String, String> symbolsBefore(){
+		final Map<String, String> symbols = new HashMap<String, String>();
+		symbols.put("$base", baseGraph.name);
+		return symbols;
+	}
+
+	private static Map<String, String> symbolsAfter(){
+		final Map<String, String> symbols = symbolsBefore();
+		symbols.put("$x", outputGraph.name);
+		return symbols;
+	}
+
+	private static void checkStats(final QueryCache cache, final String expected){
+		final String stats = cache.getStats();
+		check(stats.contains(expected), "Expected '" + expected + "' in stats: " + stats);
+	}
+
+	private static void check(final boolean condition, final String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+}
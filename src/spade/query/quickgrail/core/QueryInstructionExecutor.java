@@ -19,6 +19,8 @@
  */
 package spade.query.quickgrail.core;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -54,6 +56,7 @@ import spade.query.quickgrail.instruction.SaveGraph;
 import spade.query.quickgrail.instruction.SetGraphMetadata;
 import spade.query.quickgrail.utility.QuickGrailPredicateTree.PredicateNode;
 import spade.query.quickgrail.utility.ResultTable;
+import spade.query.scaffold.AdjacencyIndex;
 import spade.utility.DiscrepancyDetector;
 import spade.utility.HelperFunctions;
 import spade.utility.RemoteSPADEQueryConnection;
@@ -65,6 +68,10 @@ public abstract class QueryInstructionExecutor{
 
 	private final DiscrepancyDetector discrepancyDetector;
 
+	private volatile QueryMonitor queryMonitor = new QueryMonitor();
+
+	private static final int literalBatchSize = 10000;
+
 	public QueryInstructionExecutor(){
 		try{
 			this.discrepancyDetector = new DiscrepancyDetector();
@@ -77,6 +84,68 @@ public abstract class QueryInstructionExecutor{
 		return discrepancyDetector;
 	}
 
+	/**
+	 * Monitor of the query being executed. Storages register the work in flight with it so that the query can be
+	 * cancelled and add to it the rows they read or write.
+	 */
+	public final QueryMonitor getQueryMonitor(){
+		return queryMonitor;
+	}
+
+	public final void setQueryMonitor(final QueryMonitor queryMonitor){
+		if(queryMonitor == null){
+			throw new IllegalArgumentException("NULL query monitor");
+		}
+		this.queryMonitor = queryMonitor;
+	}
+
+	/**
+	 * @param graph Graph created by the query
+	 * @return Space taken by the graph in the storage in bytes. -1 if not known
+	 */
+	public long getGraphSizeInBytes(final Graph graph){
+		return -1;
+	}
+
+	/**
+	 * Executor for the queries of one session (i.e. one query connection).
+	 *
+	 * By default all sessions share this executor and their queries are run one at a time. Storages which can keep the
+	 * intermediate state of a query private to a session return a new executor so that sessions can run concurrently.
+	 * The query environment (symbols) is shared by all sessions.
+	 *
+	 * @return The executor to use for the session
+	 * @throws Exception
+	 */
+	public QueryInstructionExecutor openSession() throws Exception{
+		return this;
+	}
+
+	/**
+	 * Releases the resources of an executor returned by openSession. Nothing to release for the shared executor.
+	 *
+	 * @throws Exception
+	 */
+	public void closeSession() throws Exception{
+
+	}
+
+	/**
+	 * Called once before the instructions of a query are run. Storages which buffer writes make them visible to the
+	 * query here instead of before every statement.
+	 */
+	public void beforeQuery(){
+
+	}
+
+	/**
+	 * True if the instructions of a query which do not read or write the same graphs can be run at the same time, each
+	 * on an executor returned by openSession.
+	 */
+	public boolean supportsConcurrentInstructions(){
+		return false;
+	}
+
 	public abstract AbstractQueryEnvironment getQueryEnvironment();
 
 	public abstract AbstractStorage getStorage();
@@ -142,6 +211,103 @@ public abstract class QueryInstructionExecutor{
 		return resultGraph;
 	}
 
+	/**
+	 * Receives an exported graph one chunk at a time.
+	 */
+	public static interface GraphChunkConsumer{
+		public void accept(final spade.core.Graph chunk) throws Exception;
+	}
+
+	public final int getExportChunkSize(){
+		final Object chunkSize = getQueryEnvironment().getEnvVarManager().get(Name.exportChunkSize).getValue();
+		if(chunkSize == null || (int)chunkSize < 1){
+			throw new RuntimeException("Environment variable '" + Name.exportChunkSize
+					+ "' must be set to a positive value to export graphs in chunks");
+		}
+		return (int)chunkSize;
+	}
+
+	/**
+	 * Exports the vertices of the graph followed by its edges, in chunks of at most 'chunkSize' vertices or edges each.
+	 * Unlike exportGraph, the whole graph is never held in memory so there is no export limit.
+	 *
+	 * The default implementation pages through the graph with getSubsetVertex and getSubsetEdge into a scratch graph.
+	 * Storages which can iterate over a query result with a cursor should override it.
+	 *
+	 * @return Count of the vertices and the edges exported
+	 */
+	public GraphStatistic.Count exportGraph(final Graph targetGraph, final int chunkSize,
+			final GraphChunkConsumer consumer) throws Exception{
+		final GraphStatistic.Count count = getGraphCount(targetGraph);
+		final Graph chunkGraph = getQueryEnvironment().allocateGraph();
+		// Subset ranks start from 1 in some storages. One extra (empty in the others) chunk covers that
+		for(long from = 0; from <= count.getVertices(); from += chunkSize){
+			createEmptyGraph(chunkGraph);
+			getSubsetVertex(chunkGraph, targetGraph, from, from + chunkSize);
+			exportVertexChunk(exportVertices(chunkGraph), consumer);
+		}
+		for(long from = 0; from <= count.getEdges(); from += chunkSize){
+			createEmptyGraph(chunkGraph);
+			getSubsetEdge(chunkGraph, targetGraph, from, from + chunkSize);
+			exportEdgeChunk(exportEdges(chunkGraph), chunkGraph, consumer);
+		}
+		createEmptyGraph(chunkGraph);
+		return count;
+	}
+
+	protected final void exportVertexChunk(final Map<String, Map<String, String>> queriedVerticesMap,
+			final GraphChunkConsumer consumer) throws Exception{
+		if(queriedVerticesMap.isEmpty()){
+			return;
+		}
+		final spade.core.Graph chunk = new spade.core.Graph();
+		for(Map.Entry<String, Map<String, String>> entry : queriedVerticesMap.entrySet()){
+			AbstractVertex vertex = new Vertex(entry.getKey()); // always create reference vertices
+			vertex.addAnnotations(entry.getValue());
+			chunk.putVertex(vertex);
+		}
+		consumer.accept(chunk);
+	}
+
+	/**
+	 * The endpoints of the edges are looked up (using 'scratchGraph') because the exported edges identify their
+	 * endpoints by the 'id' annotation when the vertices have one. Only that annotation is copied to the endpoints.
+	 */
+	protected final void exportEdgeChunk(final Set<QueriedEdge> queriedEdges, final Graph scratchGraph,
+			final GraphChunkConsumer consumer) throws Exception{
+		if(queriedEdges.isEmpty()){
+			return;
+		}
+		final Set<String> endpointHashes = new HashSet<String>();
+		for(final QueriedEdge queriedEdge : queriedEdges){
+			endpointHashes.add(queriedEdge.childHash);
+			endpointHashes.add(queriedEdge.parentHash);
+		}
+		createEmptyGraph(scratchGraph);
+		insertLiteralVertex(scratchGraph, new ArrayList<String>(endpointHashes));
+		final Map<String, Map<String, String>> endpointsMap = exportVertices(scratchGraph);
+		createEmptyGraph(scratchGraph);
+
+		final Map<String, AbstractVertex> endpoints = new HashMap<String, AbstractVertex>();
+		for(final String endpointHash : endpointHashes){
+			final AbstractVertex endpoint = new Vertex(endpointHash);
+			final Map<String, String> annotations = endpointsMap.get(endpointHash);
+			if(annotations != null && annotations.get(AbstractVertex.idKey) != null){
+				endpoint.addAnnotation(AbstractVertex.idKey, annotations.get(AbstractVertex.idKey));
+			}
+			endpoints.put(endpointHash, endpoint);
+		}
+
+		final spade.core.Graph chunk = new spade.core.Graph();
+		for(final QueriedEdge queriedEdge : queriedEdges){
+			final AbstractEdge edge = new Edge(queriedEdge.edgeHash, endpoints.get(queriedEdge.childHash),
+					endpoints.get(queriedEdge.parentHash));
+			edge.addAnnotations(queriedEdge.getCopyOfAnnotations());
+			chunk.putEdge(edge);
+		}
+		consumer.accept(chunk);
+	}
+
 	public abstract void getAdjacentVertex(Graph targetGraph, Graph subjectGraph, Graph sourceGraph, GetLineage.Direction direction);
 
 	public abstract void getEdge(Graph targetGraph, Graph subjectGraph, String annotationKey, PredicateOperator operator,
@@ -164,8 +330,87 @@ public abstract class QueryInstructionExecutor{
 	public abstract long getGraphStatisticSize(final Graph graph, final ElementType elementType,
 			final String annotationKey);
 
+	/**
+	 * Offers the values of the annotation in the graph to the sketch for approximate statistics. The storage must
+	 * choose the sampling fraction of the sketch first and can then offer the values of a sample of the elements.
+	 */
+	public void sketchGraphStatistic(final Graph graph, final ElementType elementType, final String annotationKey,
+			final GraphStatisticSketch sketch){
+		throw new RuntimeException("Approximate graph statistics not supported by the storage. Unset environment "
+				+ "variable '" + Name.approximate + "' for exact statistics");
+	}
+
 	public abstract void getLineage(Graph targetGraph, Graph subjectGraph, Graph startGraph, int depth, Direction direction);
 
+	/**
+	 * False if the storage has a better way to traverse the base graph than the adjacency index (i.e. it is already
+	 * in memory).
+	 */
+	public boolean prefersAdjacencyIndex(){
+		return true;
+	}
+
+	/**
+	 * Gets the lineage in the base graph from the adjacency index (instead of joining the edge table once per level) if
+	 * the index is used for queries.
+	 *
+	 * @return False if the lineage must be computed by getLineage
+	 */
+	public final boolean getLineageFromAdjacencyIndex(final Graph targetGraph, final Graph subjectGraph,
+			final Graph startGraph, final int depth, final Direction direction){
+		if(!AbstractStorage.USE_SCAFFOLD_FOR_QUERIES || !(AbstractStorage.scaffold instanceof AdjacencyIndex)
+				|| !getQueryEnvironment().isBaseGraph(subjectGraph) || !prefersAdjacencyIndex()){
+			return false;
+		}
+		final boolean ancestors;
+		if(Direction.kAncestor.equals(direction)){
+			ancestors = true;
+		}else if(Direction.kDescendant.equals(direction)){
+			ancestors = false;
+		}else{
+			return false;
+		}
+		final AdjacencyIndex adjacencyIndex = (AdjacencyIndex)AbstractStorage.scaffold;
+		try{
+			AbstractStorage.awaitScaffoldEntries();
+			adjacencyIndex.awaitIndexed();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the adjacency index", e);
+		}
+		final Set<String> startHashes = exportVertices(startGraph).keySet();
+		getQueryMonitor().checkCancelled();
+		final AdjacencyIndex.Lineage lineage = adjacencyIndex.getLineage(startHashes, ancestors, depth);
+		getQueryMonitor().addRowsTouched(lineage.vertices.size() + lineage.edges.size());
+		insertLiteralHashesInBatches(targetGraph, lineage.vertices, true);
+		insertLiteralHashesInBatches(targetGraph, lineage.edges, false);
+		return true;
+	}
+
+	private void insertLiteralHashesInBatches(final Graph targetGraph, final Set<String> hashes,
+			final boolean vertices){
+		final ArrayList<String> batch = new ArrayList<String>();
+		for(final String hash : hashes){
+			batch.add(hash);
+			if(batch.size() >= literalBatchSize){
+				insertLiteralHashes(targetGraph, batch, vertices);
+				batch.clear();
+			}
+		}
+		if(batch.size() > 0){
+			insertLiteralHashes(targetGraph, batch, vertices);
+		}
+	}
+
+	private void insertLiteralHashes(final Graph targetGraph, final ArrayList<String> batch, final boolean vertices){
+		getQueryMonitor().checkCancelled();
+		if(vertices){
+			insertLiteralVertex(targetGraph, batch);
+		}else{
+			insertLiteralEdge(targetGraph, batch);
+		}
+	}
+
 	public abstract void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth);
 
 	public abstract void getMatch(final Graph targetGraph, final Graph graph1, final Graph graph2,
@@ -261,9 +506,23 @@ public abstract class QueryInstructionExecutor{
 	public final void saveGraph(final Graph targetGraph, final SaveGraph.Format format, final boolean force,
 			final String filePath){
 		final boolean verify = false;
-		final spade.core.Graph exportedGraph = new ExportGraph(targetGraph, force, verify).execute(this);
-		try{
-			spade.core.Graph.exportGraphToFile(format, filePath, exportedGraph);
+		try(final BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))){
+			final AbstractStorage exportStorage = spade.core.Graph.createExportStorage(format, writer, false);
+			try{
+				new ExportGraph(targetGraph, force, verify).stream(this, new GraphChunkConsumer(){
+					@Override
+					public void accept(final spade.core.Graph chunk) throws Exception{
+						for(final AbstractVertex vertex : chunk.vertexSet()){
+							exportStorage.putVertex(vertex);
+						}
+						for(final AbstractEdge edge : chunk.edgeSet()){
+							exportStorage.putEdge(edge);
+						}
+					}
+				});
+			}finally{
+				exportStorage.shutdown();
+			}
 		}catch(Exception e){
 			throw new RuntimeException("Failed to save graph to file '" + filePath + "' on SPADE server", e);
 		}
@@ -0,0 +1,193 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cancellation, deadline and resource accounting of one running query.
+ *
+ * A started monitor is registered by the id of its query so that the query can be cancelled from another thread (i.e.
+ * another query connection) with cancelQuery. Cancelling sets a flag which the executor checks between
+ * instructions and calls the cancellables registered by the storage for the work in flight (e.g. the statement being
+ * executed by the database). The deadline, if any, cancels the query the same way.
+ */
+public class QueryMonitor{
+
+	private static final Logger logger = Logger.getLogger(QueryMonitor.class.getName());
+
+	/**
+	 * Work in flight which can be interrupted from another thread
+	 */
+	public static interface Cancellable{
+		public void cancel() throws Exception;
+	}
+
+	/**
+	 * Thrown in the thread running the query once the query has been cancelled
+	 */
+	public static class CancelledException extends RuntimeException{
+		private static final long serialVersionUID = 5924370217351264512L;
+
+		public CancelledException(final String message){
+			super(message);
+		}
+	}
+
+	private static final Map<String, QueryMonitor> running = new ConcurrentHashMap<String, QueryMonitor>();
+
+	private static final ScheduledExecutorService deadlineTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+		final Thread thread = new Thread(r, "QueryDeadlineTimer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private String queryId;
+	private long startMillis = System.currentTimeMillis();
+	private ScheduledFuture<?> deadline;
+
+	private volatile String cancelReason;
+	private final Set<Cancellable> cancellables = ConcurrentHashMap.newKeySet();
+	private final AtomicLong rowsTouched = new AtomicLong();
+
+	/**
+	 * Registers the monitor for the query and schedules the deadline
+	 *
+	 * @param queryId Id of the query. Can be null if the query cannot be cancelled by id.
+	 * @param timeoutMillis Time after which the query is cancelled. No deadline if not positive.
+	 */
+	public void start(final String queryId, final long timeoutMillis){
+		this.queryId = queryId;
+		this.startMillis = System.currentTimeMillis();
+		if(queryId != null){
+			running.put(queryId, this);
+		}
+		if(timeoutMillis > 0){
+			deadline = deadlineTimer.schedule(() -> {
+				cancel("Deadline of " + timeoutMillis + " millisecond(s) exceeded");
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Unregisters the monitor and cancels the deadline
+	 */
+	public void finish(){
+		if(deadline != null){
+			deadline.cancel(false);
+			deadline = null;
+		}
+		if(queryId != null){
+			running.remove(queryId, this);
+		}
+		cancellables.clear();
+	}
+
+	/**
+	 * @param queryId Id of the query
+	 * @return True if the query was running
+	 */
+	public static boolean cancelQuery(final String queryId){
+		final QueryMonitor monitor = queryId == null ? null : running.get(queryId);
+		if(monitor == null){
+			return false;
+		}
+		monitor.cancel("Cancelled by client");
+		return true;
+	}
+
+	public void cancel(final String reason){
+		synchronized(this){
+			if(cancelReason != null){
+				return;
+			}
+			cancelReason = reason;
+		}
+		for(final Cancellable cancellable : cancellables){
+			cancelQuietly(cancellable);
+		}
+	}
+
+	public boolean isCancelled(){
+		return cancelReason != null;
+	}
+
+	/**
+	 * @return Null if not cancelled
+	 */
+	public String getCancelReason(){
+		return cancelReason;
+	}
+
+	/**
+	 * @throws CancelledException If the query has been cancelled
+	 */
+	public void checkCancelled(){
+		final String reason = cancelReason;
+		if(reason != null){
+			throw new CancelledException("Query cancelled: " + reason);
+		}
+	}
+
+	/**
+	 * Cancelled immediately if the query has already been cancelled
+	 */
+	public void register(final Cancellable cancellable){
+		cancellables.add(cancellable);
+		if(isCancelled()){
+			cancelQuietly(cancellable);
+		}
+	}
+
+	public void unregister(final Cancellable cancellable){
+		cancellables.remove(cancellable);
+	}
+
+	public void addRowsTouched(final long rows){
+		if(rows > 0){
+			rowsTouched.addAndGet(rows);
+		}
+	}
+
+	public long getRowsTouched(){
+		return rowsTouched.get();
+	}
+
+	public long getElapsedMillis(){
+		return System.currentTimeMillis() - startMillis;
+	}
+
+	private void cancelQuietly(final Cancellable cancellable){
+		try{
+			cancellable.cancel();
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to cancel work in flight for query: " + queryId, e);
+		}
+	}
+}
@@ -0,0 +1,479 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.CreateEmptyGraph;
+import spade.query.quickgrail.instruction.GetEdge;
+import spade.query.quickgrail.instruction.GetVertex;
+import spade.query.quickgrail.instruction.IntersectGraph;
+import spade.query.quickgrail.instruction.LimitGraph;
+import spade.query.quickgrail.instruction.UnionGraph;
+
+/**
+ * Rule-based rewriter of a resolved QuickGrail program. The rules are applied until none of them applies:
+ *
+ * 1) Predicate fusion: a vertex (or edge) predicate on the base graph that is only intersected with another graph is
+ * evaluated on that graph instead of on the whole base graph.
+ * 2) Limit merging: a limit of a limit is one limit with the smaller count.
+ * 3) Limit pushdown: a limit of a union is also applied to each input of the union so that the union does not
+ * materialize more than it needs to. The limit keeps the smallest ids so it can be applied on both sides.
+ * 4) Common subexpression elimination: graphs produced by the same instructions from the same unchanged inputs are
+ * computed once, and an instruction that repeats an earlier write to the same graph is dropped.
+ * 5) Copy elimination: a graph that is only an empty graph with one other graph unioned into it is replaced by that
+ * other graph.
+ * 6) Dead graph elimination: graphs that are never read (e.g. a symbol assigned twice in the same query) are not
+ * computed.
+ *
+ * Only the graphs which are created by the program and are not bound to a symbol after resolution are rewritten.
+ * Instructions that the optimizer does not know are never changed and every graph they mention is treated as read and
+ * written by them.
+ */
+public class QuickGrailProgramOptimizer{
+
+	// Guard against rules undoing each other. Each rule makes the program smaller or is applied once per graph.
+	private static final int maxRewrites = 10000;
+
+	private static final Graph placeholderGraph = new Graph("_");
+
+	private ArrayList<Instruction<? extends Serializable>> instructions;
+	private AbstractQueryEnvironment env;
+	private Set<String> boundGraphNames;
+
+	public Program optimizeProgram(final Program program, final AbstractQueryEnvironment env){
+		this.instructions = new ArrayList<Instruction<? extends Serializable>>();
+		for(int i = 0; i < program.getInstructionsSize(); i++){
+			this.instructions.add(program.getInstruction(i));
+		}
+		this.env = env;
+		this.boundGraphNames = new HashSet<String>(env.getCurrentGraphSymbolsStringMap().values());
+		this.boundGraphNames.add(env.getBaseGraph().name);
+
+		int rewrites = 0;
+		while(rewrites < maxRewrites && (fusePredicate() || mergeLimit() || pushDownLimit()
+				|| eliminateCommonSubexpression() || eliminateCopy() || eliminateDeadGraph())){
+			rewrites++;
+		}
+
+		final Program optimizedProgram = new Program(this.instructions);
+
+		this.instructions = null;
+		this.env = null;
+		this.boundGraphNames = null;
+		return optimizedProgram;
+	}
+
+	////////////////////
+	// Rules
+
+	private boolean fusePredicate(){
+		for(int i = 0; i < instructions.size(); i++){
+			if(instructions.get(i) instanceof IntersectGraph){
+				final IntersectGraph intersect = (IntersectGraph)instructions.get(i);
+				Instruction<? extends Serializable> fused = fusePredicate(i, intersect.outputGraph, intersect.lhsGraph,
+						intersect.rhsGraph);
+				if(fused == null){
+					fused = fusePredicate(i, intersect.outputGraph, intersect.rhsGraph, intersect.lhsGraph);
+				}
+				if(fused != null){
+					instructions.set(i, fused);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private Instruction<? extends Serializable> fusePredicate(final int intersectIndex, final Graph outputGraph,
+			final Graph graph, final Graph filterGraph){
+		if(graph.equals(filterGraph) || !isLocal(filterGraph)
+				|| !getReaders(filterGraph).equals(Collections.singletonList(intersectIndex))){
+			return null;
+		}
+		final List<Integer> writers = getWriters(filterGraph);
+		if(writers.size() != 1){
+			return null;
+		}
+		final Instruction<? extends Serializable> writer = instructions.get(writers.get(0));
+		if(writer instanceof GetVertex){
+			final GetVertex getVertex = (GetVertex)writer;
+			if(env.isBaseGraph(getVertex.subjectGraph)){
+				return getVertex.hasArguments()
+						? new GetVertex(outputGraph, graph, getVertex.annotationKey, getVertex.operator,
+								getVertex.annotationValue)
+						: new GetVertex(outputGraph, graph);
+			}
+		}else if(writer instanceof GetEdge){
+			final GetEdge getEdge = (GetEdge)writer;
+			if(env.isBaseGraph(getEdge.subjectGraph)){
+				return getEdge.hasArguments()
+						? new GetEdge(outputGraph, graph, getEdge.annotationKey, getEdge.operator,
+								getEdge.annotationValue)
+						: new GetEdge(outputGraph, graph);
+			}
+		}
+		return null;
+	}
+
+	private boolean mergeLimit(){
+		for(int i = 0; i < instructions.size(); i++){
+			if(instructions.get(i) instanceof LimitGraph){
+				final LimitGraph outer = (LimitGraph)instructions.get(i);
+				final LimitGraph inner = getOnlyLimit(outer.sourceGraph, i);
+				if(inner != null){
+					final int innerIndex = getWriters(outer.sourceGraph).get(0);
+					if(isUnchangedBetween(inner.sourceGraph, innerIndex, i)){
+						instructions.set(i, new LimitGraph(outer.targetGraph, inner.sourceGraph,
+								Math.min(outer.limit, inner.limit)));
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean pushDownLimit(){
+		for(int i = 0; i < instructions.size(); i++){
+			if(instructions.get(i) instanceof LimitGraph){
+				final LimitGraph limit = (LimitGraph)instructions.get(i);
+				final Graph unionGraph = limit.sourceGraph;
+				if(!isLocal(unionGraph) || !getReaders(unionGraph).equals(Collections.singletonList(i))){
+					continue;
+				}
+				final List<Integer> writers = getWriters(unionGraph);
+				if(writers.size() < 2){
+					continue;
+				}
+				boolean allUnions = true, allLimited = true;
+				for(final int writer : writers){
+					if(!(instructions.get(writer) instanceof UnionGraph)){
+						allUnions = false;
+						break;
+					}
+					final UnionGraph union = (UnionGraph)instructions.get(writer);
+					final LimitGraph sourceLimit = getOnlyLimit(union.sourceGraph, writer);
+					if(sourceLimit == null || sourceLimit.limit > limit.limit){
+						allLimited = false;
+					}
+				}
+				if(!allUnions || allLimited){
+					continue;
+				}
+				// In reverse so that the indices of the remaining writers do not change
+				for(int w = writers.size() - 1; w >= 0; w--){
+					final int writer = writers.get(w);
+					final UnionGraph union = (UnionGraph)instructions.get(writer);
+					final LimitGraph sourceLimit = getOnlyLimit(union.sourceGraph, writer);
+					if(sourceLimit != null && sourceLimit.limit <= limit.limit){
+						continue;
+					}
+					final Graph limitedGraph = env.allocateGraph();
+					instructions.set(writer, new UnionGraph(unionGraph, limitedGraph));
+					instructions.add(writer, new LimitGraph(limitedGraph, union.sourceGraph, limit.limit));
+					instructions.add(writer, new CreateEmptyGraph(limitedGraph));
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean eliminateCommonSubexpression(){
+		// Writing the same thing again to a graph does not change it
+		for(int j = 0; j < instructions.size(); j++){
+			final GraphAccess operation = GraphAccess.of(instructions.get(j));
+			if(operation == null){
+				continue;
+			}
+			for(int i = 0; i < j; i++){
+				if(!GraphAccess.isSame(instructions.get(j), instructions.get(i))
+						|| !isUnchangedBetween(operation.output, i, j, false)){
+					continue;
+				}
+				boolean inputsUnchanged = true;
+				for(final Graph input : operation.inputs){
+					inputsUnchanged = inputsUnchanged && isUnchangedBetween(input, i, j);
+				}
+				if(inputsUnchanged){
+					instructions.remove(j);
+					return true;
+				}
+			}
+		}
+
+		final List<Graph> graphs = getLocalGraphs();
+		final Map<Graph, List<Instruction<? extends Serializable>>> definitions
+				= new HashMap<Graph, List<Instruction<? extends Serializable>>>();
+		for(final Graph graph : graphs){
+			final List<Instruction<? extends Serializable>> definition = getDefinition(graph);
+			if(definition != null){
+				definitions.put(graph, definition);
+			}
+		}
+		for(int g1 = 0; g1 < graphs.size(); g1++){
+			final Graph graph1 = graphs.get(g1);
+			final List<Instruction<? extends Serializable>> definition1 = definitions.get(graph1);
+			if(definition1 == null){
+				continue;
+			}
+			final List<Integer> writers1 = getWriters(graph1);
+			for(int g2 = g1 + 1; g2 < graphs.size(); g2++){
+				final Graph graph2 = graphs.get(g2);
+				if(!isSameDefinition(definition1, definitions.get(graph2))){
+					continue;
+				}
+				final List<Integer> writers2 = getWriters(graph2);
+				final List<Integer> readers2 = getReaders(graph2);
+				final int firstWriter1 = writers1.get(0), lastWriter1 = writers1.get(writers1.size() - 1);
+				final int firstWriter2 = writers2.get(0), lastWriter2 = writers2.get(writers2.size() - 1);
+				if(lastWriter1 >= firstWriter2 || readers2.isEmpty() || readers2.get(0) <= lastWriter2
+						|| !areKnown(readers2)){
+					continue;
+				}
+				boolean inputsUnchanged = true;
+				for(final int writer : writers1){
+					for(final Graph input : GraphAccess.of(instructions.get(writer)).inputs){
+						if(!isUnchangedBetween(input, firstWriter1, lastWriter2)){
+							inputsUnchanged = false;
+						}
+					}
+				}
+				if(inputsUnchanged){
+					replaceInputs(readers2, graph2, graph1);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean eliminateCopy(){
+		for(final Graph graph : getLocalGraphs()){
+			final List<Integer> writers = getWriters(graph);
+			if(writers.size() != 1 || !(instructions.get(writers.get(0)) instanceof UnionGraph)){
+				continue;
+			}
+			final int writer = writers.get(0);
+			final Graph sourceGraph = ((UnionGraph)instructions.get(writer)).sourceGraph;
+			final List<Integer> readers = getReaders(graph);
+			if(sourceGraph.equals(graph) || readers.isEmpty() || readers.get(0) <= writer || !areKnown(readers)
+					|| !isUnchangedBetween(sourceGraph, writer, readers.get(readers.size() - 1))){
+				continue;
+			}
+			boolean remoteReader = false;
+			for(final int reader : readers){
+				// The copy does not have the remote symbols of the source
+				remoteReader = remoteReader || GraphAccess.of(instructions.get(reader)).remote;
+			}
+			if(!remoteReader){
+				replaceInputs(readers, graph, sourceGraph);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean eliminateDeadGraph(){
+		for(final Graph graph : getLocalGraphs()){
+			if(getReaders(graph).isEmpty()){
+				final List<Integer> removed = new ArrayList<Integer>(getWriters(graph));
+				removed.add(getCreator(graph));
+				Collections.sort(removed, Collections.reverseOrder());
+				for(final int index : removed){
+					instructions.remove(index);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	////////////////////
+	// Analysis
+
+	/**
+	 * @return Graphs created once by the program and not bound to any symbol in the order of creation
+	 */
+	private List<Graph> getLocalGraphs(){
+		final Map<Graph, Integer> creations = new HashMap<Graph, Integer>();
+		final List<Graph> graphs = new ArrayList<Graph>();
+		for(final Instruction<? extends Serializable> instruction : instructions){
+			if(instruction instanceof CreateEmptyGraph){
+				final Graph graph = ((CreateEmptyGraph)instruction).graph;
+				if(creations.merge(graph, 1, Integer::sum) == 1){
+					graphs.add(graph);
+				}
+			}
+		}
+		final List<Graph> localGraphs = new ArrayList<Graph>();
+		for(final Graph graph : graphs){
+			if(creations.get(graph) == 1 && !boundGraphNames.contains(graph.name)){
+				localGraphs.add(graph);
+			}
+		}
+		return localGraphs;
+	}
+
+	private boolean isLocal(final Graph graph){
+		return getLocalGraphs().contains(graph);
+	}
+
+	private int getCreator(final Graph graph){
+		for(int i = 0; i < instructions.size(); i++){
+			if(instructions.get(i) instanceof CreateEmptyGraph && ((CreateEmptyGraph)instructions.get(i)).graph.equals(graph)){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private List<Integer> getWriters(final Graph graph){
+		final List<Integer> writers = new ArrayList<Integer>();
+		for(int i = 0; i < instructions.size(); i++){
+			final Instruction<? extends Serializable> instruction = instructions.get(i);
+			if(instruction instanceof CreateEmptyGraph){
+				continue;
+			}
+			final GraphAccess operation = GraphAccess.of(instruction);
+			if(operation == null ? GraphAccess.mentions(instruction, graph) : operation.output.equals(graph)){
+				writers.add(i);
+			}
+		}
+		return writers;
+	}
+
+	private List<Integer> getReaders(final Graph graph){
+		final List<Integer> readers = new ArrayList<Integer>();
+		for(int i = 0; i < instructions.size(); i++){
+			final Instruction<? extends Serializable> instruction = instructions.get(i);
+			if(instruction instanceof CreateEmptyGraph){
+				continue;
+			}
+			final GraphAccess operation = GraphAccess.of(instruction);
+			if(operation == null ? GraphAccess.mentions(instruction, graph) : operation.inputs.contains(graph)){
+				readers.add(i);
+			}
+		}
+		return readers;
+	}
+
+	private boolean areKnown(final List<Integer> indices){
+		for(final int index : indices){
+			if(GraphAccess.of(instructions.get(index)) == null){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return True if the graph is not written after 'fromExclusive' up to and including 'toInclusive'
+	 */
+	private boolean isUnchangedBetween(final Graph graph, final int fromExclusive, final int toInclusive){
+		return isUnchangedBetween(graph, fromExclusive, toInclusive, true);
+	}
+
+	/**
+	 * @param checkWriters False to only check that the graph is not created again
+	 */
+	private boolean isUnchangedBetween(final Graph graph, final int fromExclusive, final int toInclusive,
+			final boolean checkWriters){
+		if(env.isBaseGraph(graph)){
+			return true;
+		}
+		if(checkWriters){
+			for(final int writer : getWriters(graph)){
+				if(writer > fromExclusive && writer <= toInclusive){
+					return false;
+				}
+			}
+		}
+		for(int i = fromExclusive + 1; i <= toInclusive; i++){
+			if(instructions.get(i) instanceof CreateEmptyGraph && ((CreateEmptyGraph)instructions.get(i)).graph.equals(graph)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The limit if it is the only writer of the local graph and the graph is only read at 'readerIndex'
+	 */
+	private LimitGraph getOnlyLimit(final Graph graph, final int readerIndex){
+		if(!isLocal(graph) || !getReaders(graph).equals(Collections.singletonList(readerIndex))){
+			return null;
+		}
+		final List<Integer> writers = getWriters(graph);
+		if(writers.size() == 1 && instructions.get(writers.get(0)) instanceof LimitGraph){
+			return (LimitGraph)instructions.get(writers.get(0));
+		}
+		return null;
+	}
+
+	/**
+	 * @return Instructions that write the graph (with the graph replaced by a placeholder) or null if any of those is
+	 * not known
+	 */
+	private List<Instruction<? extends Serializable>> getDefinition(final Graph graph){
+		final List<Integer> writers = getWriters(graph);
+		if(writers.isEmpty()){
+			return null;
+		}
+		final List<Instruction<? extends Serializable>> definition = new ArrayList<Instruction<? extends Serializable>>();
+		for(final int writer : writers){
+			final Instruction<? extends Serializable> instruction = instructions.get(writer);
+			if(GraphAccess.of(instruction) == null){
+				return null;
+			}
+			definition.add(GraphAccess.rebuild(instruction, Collections.singletonMap(graph, placeholderGraph)));
+		}
+		return definition;
+	}
+
+	private boolean isSameDefinition(final List<Instruction<? extends Serializable>> definition1,
+			final List<Instruction<? extends Serializable>> definition2){
+		if(definition2 == null || definition1.size() != definition2.size()){
+			return false;
+		}
+		for(int i = 0; i < definition1.size(); i++){
+			if(!GraphAccess.isSame(definition1.get(i), definition2.get(i))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void replaceInputs(final List<Integer> indices, final Graph graph, final Graph replacement){
+		final Map<Graph, Graph> replacements = Collections.singletonMap(graph, replacement);
+		for(final int index : indices){
+			instructions.set(index, GraphAccess.rebuild(instructions.get(index), replacements));
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.CreateEmptyGraph;
+import spade.query.quickgrail.instruction.GetVertex;
+import spade.query.quickgrail.instruction.IntersectGraph;
+import spade.query.quickgrail.instruction.LimitGraph;
+import spade.query.quickgrail.instruction.SaveGraph;
+import spade.query.quickgrail.instruction.UnionGraph;
+import spade.storage.csr.CSRGraph;
+import spade.storage.csr.CSRQueryEnvironment;
+
+/**
+ * Checks each rewrite of QuickGrailProgramOptimizer on a small program and that the programs it must not change are
+ * left as they are. Programs are compared by their tree strings.
+ *
+ * The in-memory CSR query environment provides the symbols and the graph names. The graphs bound to symbols are the
+ * inputs and the outputs, and the others are created by the program.
+ *
+ * Usage: java -cp 'build:lib/*' spade.query.quickgrail.core.QuickGrailProgramOptimizerTest
+ */
+public class QuickGrailProgramOptimizerTest{
+
+	private static final String baseGraphName = "spade_base";
+
+	private AbstractQueryEnvironment env;
+	private Graph base, input, otherInput, output;
+
+	public static void main(final String[] args) throws Exception{
+		new QuickGrailProgramOptimizerTest().run();
+		System.out.println(QuickGrailProgramOptimizerTest.class.getSimpleName() + ": passed");
+	}
+
+	private void run(){
+		testPredicateFusion();
+		testLimitMerging();
+		testLimitPushdown();
+		testCommonSubexpressionElimination();
+		testCopyElimination();
+		testDeadGraphElimination();
+		testUnchanged();
+	}
+
+	// Fresh environment with $input, $otherInput and $output bound to graphs
+	private void setUp(){
+		env = new CSRQueryEnvironment(baseGraphName, new CSRGraph(4096, "MD5"));
+		env.initialize();
+		base = env.getBaseGraph();
+		input = bind("$input");
+		otherInput = bind("$otherInput");
+		output = bind("$output");
+	}
+
+	private Graph bind(final String symbol){
+		final Graph graph = env.allocateGraph();
+		((CSRQueryEnvironment)env).createGraph(graph);
+		env.setGraphSymbol(symbol, graph);
+		return graph;
+	}
+
+	private void testPredicateFusion(){
+		setUp();
+		final Graph local = env.allocateGraph();
+		// $output = $input & $base.getVertex(type = 'Process')
+		final Program program = program(
+				new CreateEmptyGraph(local),
+				getVertex(local, base),
+				new CreateEmptyGraph(output),
+				new IntersectGraph(output, input, local));
+		checkOptimized("Predicate fusion", program(
+				new CreateEmptyGraph(output),
+				getVertex(output, input)), program);
+	}
+
+	private void testLimitMerging(){
+		setUp();
+		final Graph local = env.allocateGraph();
+		final Program program = program(
+				new CreateEmptyGraph(local),
+				new LimitGraph(local, input, 10),
+				new CreateEmptyGraph(output),
+				new LimitGraph(output, local, 5));
+		checkOptimized("Limit merging", program(
+				new CreateEmptyGraph(output),
+				new LimitGraph(output, input, 5)), program);
+	}
+
+	private void testLimitPushdown(){
+		setUp();
+		final Graph union = env.allocateGraph();
+		// $output = ($input + $otherInput).limit(5)
+		final Program program = program(
+				new CreateEmptyGraph(union),
+				new UnionGraph(union, input),
+				new UnionGraph(union, otherInput),
+				new CreateEmptyGraph(output),
+				new LimitGraph(output, union, 5));
+		final Program optimized = new QuickGrailProgramOptimizer().optimizeProgram(program, env);
+		// Graphs allocated by the optimizer for the limited inputs
+		final Graph limitedInput = getCreatedGraph(optimized, 1);
+		final Graph limitedOtherInput = getCreatedGraph(optimized, 4);
+		final List<Graph> existing = Arrays.asList(base, input, otherInput, output, union);
+		check(!limitedInput.equals(limitedOtherInput) && !existing.contains(limitedInput)
+				&& !existing.contains(limitedOtherInput),
+				"Limit pushdown. Expected new graphs for the limited inputs: " + optimized);
+		checkEquals("Limit pushdown", program(
+				new CreateEmptyGraph(union),
+				new CreateEmptyGraph(limitedInput),
+				new LimitGraph(limitedInput, input, 5),
+				new UnionGraph(union, limitedInput),
+				new CreateEmptyGraph(limitedOtherInput),
+				new LimitGraph(limitedOtherInput, otherInput, 5),
+				new UnionGraph(union, limitedOtherInput),
+				new CreateEmptyGraph(output),
+				new LimitGraph(output, union, 5)), optimized);
+	}
+
+	private void testCommonSubexpressionElimination(){
+		setUp();
+		final Graph first = env.allocateGraph();
+		final Graph second = env.allocateGraph();
+		// $output = $base.getVertex(type = 'Process') + $base.getVertex(type = 'Process')
+		final Program program = program(
+				new CreateEmptyGraph(first),
+				getVertex(first, base),
+				new CreateEmptyGraph(second),
+				getVertex(second, base),
+				new CreateEmptyGraph(output),
+				new UnionGraph(output, first),
+				new UnionGraph(output, second));
+		checkOptimized("Common subexpression elimination", program(
+				new CreateEmptyGraph(first),
+				getVertex(first, base),
+				new CreateEmptyGraph(output),
+				new UnionGraph(output, first)), program);
+	}
+
+	private void testCopyElimination(){
+		setUp();
+		final Graph copy = env.allocateGraph();
+		final Program program = program(
+				new CreateEmptyGraph(copy),
+				new UnionGraph(copy, input),
+				new CreateEmptyGraph(output),
+				getVertex(output, copy));
+		checkOptimized("Copy elimination", program(
+				new CreateEmptyGraph(output),
+				getVertex(output, input)), program);
+	}
+
+	private void testDeadGraphElimination(){
+		setUp();
+		final Graph dead = env.allocateGraph();
+		// $output assigned twice in the same query
+		final Program program = program(
+				new CreateEmptyGraph(dead),
+				getVertex(dead, base),
+				new CreateEmptyGraph(output),
+				getVertex(output, input));
+		checkOptimized("Dead graph elimination", program(
+				new CreateEmptyGraph(output),
+				getVertex(output, input)), program);
+	}
+
+	private void testUnchanged(){
+		setUp();
+		// Only graphs bound to symbols
+		final Program boundOnly = program(
+				new CreateEmptyGraph(output),
+				new IntersectGraph(output, input, otherInput),
+				new LimitGraph(output, output, 5));
+		checkOptimized("Bound graphs", boundOnly, boundOnly);
+
+		// Read by an instruction the optimizer does not know
+		setUp();
+		final Graph saved = env.allocateGraph();
+		final Program unknownReader = program(
+				new CreateEmptyGraph(saved),
+				new UnionGraph(saved, input),
+				new SaveGraph(saved, SaveGraph.Format.kJson, true, "saved.json"));
+		checkOptimized("Unknown reader", unknownReader, unknownReader);
+
+		// The predicate is not on the base graph so it cannot be evaluated on the other side instead
+		setUp();
+		final Graph filter = env.allocateGraph();
+		final Program notOnBase = program(
+				new CreateEmptyGraph(filter),
+				getVertex(filter, otherInput),
+				new CreateEmptyGraph(output),
+				new IntersectGraph(output, input, filter));
+		checkOptimized("Predicate not on the base graph", notOnBase, notOnBase);
+	}
+
+	////////////////////
+
+	private static GetVertex getVertex(final Graph target, final Graph subject){
+		return new GetVertex(target, subject, "type", QuickGrailQueryResolver.PredicateOperator.EQUAL, "Process");
+	}
+
+	@SafeVarargs
+	private static Program program(final Instruction<? extends Serializable>... instructions){
+		return new Program(new ArrayList<Instruction<? extends Serializable>>(Arrays.asList(instructions)));
+	}
+
+	private static Graph getCreatedGraph(final Program program, final int index){
+		final Instruction<? extends Serializable> instruction = program.getInstruction(index);
+		check(instruction instanceof CreateEmptyGraph, "Expected a graph to be created at " + index + ": " + program);
+		return ((CreateEmptyGraph)instruction).graph;
+	}
+
+	private void checkOptimized(final String rule, final Program expected, final Program program){
+		checkEquals(rule, expected, new QuickGrailProgramOptimizer().optimizeProgram(program, env));
+	}
+
+	private static void checkEquals(final String rule, final Program expected, final Program actual){
+		check(expected.toString().equals(actual.toString()), rule + ". Expected:\n" + expected + "\nActual:\n" + actual);
+	}
+
+	private static void check(final boolean condition, final String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -435,6 +435,16 @@ public class QuickGrailQueryResolver{
 				precisionScale = (Integer)envVar.getValue();
 			}
 			graphStatisticInstruction.setPrecisionScale(precisionScale);
+			final EnvironmentVariable approximateVar = env.getEnvVarManager().get(EnvironmentVariableManager.Name.approximate);
+			if(approximateVar != null && approximateVar.getValue() != null){
+				final int sampleSize = (Integer)approximateVar.getValue();
+				if(sampleSize < 0){
+					throw new RuntimeException("Approximate environment variable must be non-negative: " + sampleSize);
+				}
+				if(sampleSize > 0){
+					graphStatisticInstruction.setSampleSize(sampleSize);
+				}
+			}
 			instructions.add(graphStatisticInstruction);
 		}
 	}
@@ -19,8 +19,10 @@
  */
 package spade.query.quickgrail.instruction;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 
+import spade.query.quickgrail.core.GraphStatistic;
 import spade.query.quickgrail.core.Instruction;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.query.quickgrail.core.RemoteGraph;
@@ -72,4 +74,40 @@ public class ExportGraph extends Instruction<spade.core.Graph>{
 
 		return resultGraph;
 	}
+
+	/**
+	 * Same as execute except that the graph is handed to the consumer in chunks instead of being returned whole. The
+	 * export limit does not apply.
+	 */
+	public final Streamed stream(final QueryInstructionExecutor executor,
+			final QueryInstructionExecutor.GraphChunkConsumer consumer) throws Exception{
+		final GraphStatistic.Count count = executor.exportGraph(targetGraph, executor.getExportChunkSize(), consumer);
+
+		final boolean verifyRemote = false;
+		final RemoteGraph remoteGraph = new RemoteVariableOperation.Export(targetGraph, force, verifyRemote).execute(executor);
+		if(!remoteGraph.vertexSet().isEmpty() || !remoteGraph.edgeSet().isEmpty()){
+			consumer.accept(remoteGraph);
+		}
+
+		return new Streamed(count.getVertices() + remoteGraph.vertexSet().size(),
+				count.getEdges() + remoteGraph.edgeSet().size());
+	}
+
+	/**
+	 * Result of a streamed export. Sent after all the chunks.
+	 */
+	public static class Streamed implements Serializable{
+		private static final long serialVersionUID = -2460725129453532811L;
+		public final long vertices, edges;
+
+		public Streamed(final long vertices, final long edges){
+			this.vertices = vertices;
+			this.edges = edges;
+		}
+
+		@Override
+		public String toString(){
+			return "Streamed graph [vertices=" + vertices + ", edges=" + edges + "]";
+		}
+	}
 }
@@ -56,10 +56,23 @@ public class GetAdjacentVertex extends Instruction<String>{
 		inline_field_values.add(subjectGraph.name);
 		inline_field_names.add("sourceGraph");
 		inline_field_values.add(sourceGraph.name);
+		inline_field_names.add("direction");
+		inline_field_values.add(direction.name().substring(1));
 	}
 
 	@Override
 	public final String execute(final QueryInstructionExecutor executor){
+		// Adjacent vertices are the lineage of depth 1
+		if(GetLineage.Direction.kBoth.equals(direction)){
+			if(executor.getLineageFromAdjacencyIndex(targetGraph, subjectGraph, sourceGraph, 1,
+					GetLineage.Direction.kAncestor)){
+				executor.getLineageFromAdjacencyIndex(targetGraph, subjectGraph, sourceGraph, 1,
+						GetLineage.Direction.kDescendant);
+				return null;
+			}
+		}else if(executor.getLineageFromAdjacencyIndex(targetGraph, subjectGraph, sourceGraph, 1, direction)){
+			return null;
+		}
 		executor.getAdjacentVertex(targetGraph, subjectGraph, sourceGraph, direction);
 		return null;
 	}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 
 import spade.query.quickgrail.core.GraphRemoteCount;
 import spade.query.quickgrail.core.GraphStatistic;
+import spade.query.quickgrail.core.GraphStatisticSketch;
 import spade.query.quickgrail.core.Instruction;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.query.quickgrail.entities.Graph;
@@ -37,6 +38,8 @@ public abstract class GetGraphStatistic<R extends GraphStatistic> extends Instru
 
 	public final Graph graph;
 	private int precisionScale;
+	// Null for the exact statistic. Otherwise, the number of values to estimate the statistic from.
+	private Integer sampleSize;
 
 	public GetGraphStatistic(final Graph graph){
 		this.graph = graph;
@@ -50,6 +53,33 @@ public abstract class GetGraphStatistic<R extends GraphStatistic> extends Instru
 		this.precisionScale = precisionScale;
 	}
 
+	public Integer getSampleSize(){
+		return sampleSize;
+	}
+
+	public void setSampleSize(final Integer sampleSize){
+		this.sampleSize = sampleSize;
+	}
+
+	public boolean isApproximate(){
+		return sampleSize != null;
+	}
+
+	protected final GraphStatisticSketch sketch(final QueryInstructionExecutor executor, final ElementType elementType,
+			final String annotationKey, final boolean numeric){
+		final GraphStatisticSketch sketch = new GraphStatisticSketch(sampleSize, numeric);
+		executor.sketchGraphStatistic(graph, elementType, annotationKey, sketch);
+		return sketch;
+	}
+
+	protected final void addSampleSizeField(final ArrayList<String> inline_field_names,
+			final ArrayList<String> inline_field_values){
+		if(isApproximate()){
+			inline_field_names.add("sampleSize");
+			inline_field_values.add(Integer.toString(sampleSize));
+		}
+	}
+
 	public void postExecute(final QueryInstructionExecutor executor){
 		final Serializable resultObject = getResult();
 		if(resultObject instanceof GraphStatistic){
@@ -127,10 +157,14 @@ public abstract class GetGraphStatistic<R extends GraphStatistic> extends Instru
 			inline_field_values.add(elementType.toString());
 			inline_field_names.add("annotationKey");
 			inline_field_values.add(annotationKey);
+			addSampleSizeField(inline_field_names, inline_field_values);
 		}
 
 		@Override
 		public final GraphStatistic.Histogram execute(final QueryInstructionExecutor executor){
+			if(isApproximate()){
+				return sketch(executor, elementType, annotationKey, false).toHistogram();
+			}
 			return executor.getGraphHistogram(graph, elementType, annotationKey);
 		}
 	}
@@ -162,10 +196,14 @@ public abstract class GetGraphStatistic<R extends GraphStatistic> extends Instru
 			inline_field_values.add(elementType.toString());
 			inline_field_names.add("annotationKey");
 			inline_field_values.add(annotationKey);
+			addSampleSizeField(inline_field_names, inline_field_values);
 		}
 
 		@Override
 		public final GraphStatistic.Mean execute(final QueryInstructionExecutor executor){
+			if(isApproximate()){
+				return sketch(executor, elementType, annotationKey, true).toMean();
+			}
 			return executor.getGraphMean(graph, elementType, annotationKey);
 		}
 	}
@@ -197,10 +235,14 @@ public abstract class GetGraphStatistic<R extends GraphStatistic> extends Instru
 			inline_field_values.add(elementType.toString());
 			inline_field_names.add("annotationKey");
 			inline_field_values.add(annotationKey);
+			addSampleSizeField(inline_field_names, inline_field_values);
 		}
 
 		@Override
 		public final GraphStatistic.StandardDeviation execute(final QueryInstructionExecutor executor){
+			if(isApproximate()){
+				return sketch(executor, elementType, annotationKey, true).toStandardDeviation();
+			}
 			return executor.getGraphStandardDeviation(graph, elementType, annotationKey);
 		}
 	}
@@ -237,10 +279,14 @@ public abstract class GetGraphStatistic<R extends GraphStatistic> extends Instru
 			inline_field_values.add(annotationKey);
 			inline_field_names.add("binCount");
 			inline_field_values.add(Integer.toString(binCount));
+			addSampleSizeField(inline_field_names, inline_field_values);
 		}
 
 		@Override
 		public final GraphStatistic.Distribution execute(final QueryInstructionExecutor executor){
+			if(isApproximate()){
+				return sketch(executor, elementType, annotationKey, true).toDistribution(binCount);
+			}
 			return executor.getGraphDistribution(graph, elementType, annotationKey, binCount);
 		}
 	}
@@ -80,6 +80,11 @@ public class GetLineage extends Instruction<String>{
 		inline_field_values.add(direction.name().substring(1));
 	}
 
+	@Override
+	public boolean updatesTransformerExecutionContext(){
+		return true;
+	}
+
 	@Override
 	public void updateTransformerExecutionContext(final QueryInstructionExecutor executor,
 			final AbstractTransformer.ExecutionContext context){
@@ -101,10 +106,10 @@ public class GetLineage extends Instruction<String>{
 		}
 
 		if(Direction.kAncestor.equals(direction) || Direction.kDescendant.equals(direction)){
-			executor.getLineage(targetGraph, subjectGraph, startGraph, depth, direction);
+			getLineage(executor, direction);
 		}else if(Direction.kBoth.equals(direction)){
-			executor.getLineage(targetGraph, subjectGraph, startGraph, depth, Direction.kAncestor);
-			executor.getLineage(targetGraph, subjectGraph, startGraph, depth, Direction.kDescendant);
+			getLineage(executor, Direction.kAncestor);
+			getLineage(executor, Direction.kDescendant);
 		}else{
 			throw new RuntimeException(
 					"Unexpected direction: '" + direction + "'. Expected: Ancestor, Descendant or Both");
@@ -113,4 +118,9 @@ public class GetLineage extends Instruction<String>{
 		return null;
 	}
 
+	private void getLineage(final QueryInstructionExecutor executor, final Direction direction){
+		if(!executor.getLineageFromAdjacencyIndex(targetGraph, subjectGraph, startGraph, depth, direction)){
+			executor.getLineage(targetGraph, subjectGraph, startGraph, depth, direction);
+		}
+	}
 }
@@ -0,0 +1,88 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.utility;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Estimates the number of distinct values in a stream with 2^precision registers of one byte each.
+ *
+ * The low 'precision' bits of the 64-bit hash of a value select the register and the register keeps the maximum of
+ * (number of leading zeros of the hash + 1), capped at (64 - precision + 1).
+ */
+public class HyperLogLog{
+
+	private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+	private final int precision;
+	private final byte[] registers;
+
+	public HyperLogLog(final int precision){
+		if(precision < 4 || precision > 18){
+			throw new IllegalArgumentException("Precision must be in range [4, 18]: " + precision);
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	public void offer(final String value){
+		final long hash = hashFunction.hashString(value, StandardCharsets.UTF_8).asLong();
+		final int index = (int)(hash & (registers.length - 1));
+		final int rank = Math.min(Long.numberOfLeadingZeros(hash) + 1, 64 - precision + 1);
+		if(rank > registers[index]){
+			registers[index] = (byte)rank;
+		}
+	}
+
+	public long estimate(){
+		final int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for(final byte register : registers){
+			sum += Math.pow(2, -register);
+			if(register == 0){
+				zeros++;
+			}
+		}
+		final double alpha;
+		switch(m){
+			case 16: alpha = 0.673; break;
+			case 32: alpha = 0.697; break;
+			case 64: alpha = 0.709; break;
+			default: alpha = 0.7213 / (1 + 1.079 / m); break;
+		}
+		final double estimate = alpha * m * m / sum;
+		// Linear counting for small cardinalities. No large range correction needed with a 64-bit hash.
+		if(estimate <= 2.5 * m && zeros > 0){
+			return Math.round(m * Math.log((double)m / zeros));
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * @return Standard error of the estimate relative to the number of distinct values
+	 */
+	public double getRelativeStandardError(){
+		return 1.04 / Math.sqrt(registers.length);
+	}
+}
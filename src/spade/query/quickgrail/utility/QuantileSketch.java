@@ -0,0 +1,158 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.utility;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * KLL quantile sketch. Answers rank queries over a stream of numbers in O(k) memory.
+ *
+ * Level h holds items which each stand for 2^h items of the stream. When the sketch is full, the lowest level over
+ * its capacity is sorted and every other item (starting at a random offset) is promoted to the next level.
+ */
+public class QuantileSketch{
+
+	private static final double capacityDecay = 2.0 / 3.0;
+
+	private final int k;
+	private final Random random = new Random();
+
+	private double[][] levels = new double[1][];
+	private int[] sizes = new int[1];
+	private long count = 0;
+
+	public QuantileSketch(final int k){
+		if(k < 8){
+			throw new IllegalArgumentException("Sketch size must be at least 8: " + k);
+		}
+		this.k = k;
+		this.levels[0] = new double[k];
+	}
+
+	public long getCount(){
+		return count;
+	}
+
+	public void offer(final double value){
+		add(0, value);
+		count++;
+		while(getRetainedCount() > getTotalCapacity()){
+			compress();
+		}
+	}
+
+	/**
+	 * @return Approximate number of items in the stream less than or equal to the value
+	 */
+	public double rank(final double value){
+		double rank = 0;
+		for(int h = 0; h < levels.length; h++){
+			final long weight = 1L << h;
+			for(int i = 0; i < sizes[h]; i++){
+				if(levels[h][i] <= value){
+					rank += weight;
+				}
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * @return Approximate number of items in the stream less than the value
+	 */
+	public double strictRank(final double value){
+		double rank = 0;
+		for(int h = 0; h < levels.length; h++){
+			final long weight = 1L << h;
+			for(int i = 0; i < sizes[h]; i++){
+				if(levels[h][i] < value){
+					rank += weight;
+				}
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * Error of a rank relative to the count with 99% confidence (empirical bound for KLL)
+	 */
+	public double getNormalizedRankError(){
+		if(levels.length == 1){
+			// Nothing compacted yet so the ranks are exact
+			return 0;
+		}
+		return 2.296 / Math.pow(k, 0.9723);
+	}
+
+	private int getCapacity(final int level){
+		final int depth = levels.length - 1 - level;
+		return Math.max(2, (int)Math.ceil(k * Math.pow(capacityDecay, depth)));
+	}
+
+	private int getTotalCapacity(){
+		int capacity = 0;
+		for(int h = 0; h < levels.length; h++){
+			capacity += getCapacity(h);
+		}
+		return capacity;
+	}
+
+	private int getRetainedCount(){
+		int retained = 0;
+		for(final int size : sizes){
+			retained += size;
+		}
+		return retained;
+	}
+
+	private void add(final int level, final double value){
+		if(sizes[level] == levels[level].length){
+			levels[level] = Arrays.copyOf(levels[level], Math.max(2, levels[level].length * 2));
+		}
+		levels[level][sizes[level]++] = value;
+	}
+
+	private void compress(){
+		for(int h = 0; h < levels.length; h++){
+			if(sizes[h] >= getCapacity(h)){
+				if(h + 1 == levels.length){
+					levels = Arrays.copyOf(levels, levels.length + 1);
+					sizes = Arrays.copyOf(sizes, sizes.length + 1);
+					levels[h + 1] = new double[2];
+				}
+				final double[] items = levels[h];
+				final int size = sizes[h];
+				Arrays.sort(items, 0, size);
+				// An odd item out stays in this level
+				final int compacted = size - (size % 2);
+				final int offset = random.nextBoolean() ? 1 : 0;
+				for(int i = offset; i < compacted; i += 2){
+					add(h + 1, items[i]);
+				}
+				if(compacted < size){
+					items[0] = items[size - 1];
+				}
+				sizes[h] = size - compacted;
+				return;
+			}
+		}
+	}
+}
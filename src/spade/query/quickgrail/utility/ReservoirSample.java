@@ -0,0 +1,88 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.utility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Uniform random sample of fixed size from a stream of unknown length.
+ *
+ * Algorithm L: after the reservoir is full, the number of items to skip until the next replacement is drawn directly
+ * so that random numbers are only needed for the items that are kept.
+ */
+public class ReservoirSample<T>{
+
+	private final int capacity;
+	private final List<T> items;
+	private final Random random = new Random();
+
+	private long seen = 0;
+	private double w;
+	private long next;
+
+	public ReservoirSample(final int capacity){
+		if(capacity < 1){
+			throw new IllegalArgumentException("Sample size must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.items = new ArrayList<T>(Math.min(capacity, 1 << 16));
+		this.w = Math.exp(Math.log(nextOpenDouble()) / capacity);
+		this.next = capacity + skip() + 1;
+	}
+
+	public void offer(final T item){
+		seen++;
+		if(seen <= capacity){
+			items.add(item);
+		}else if(seen == next){
+			items.set(random.nextInt(capacity), item);
+			w *= Math.exp(Math.log(nextOpenDouble()) / capacity);
+			next += skip() + 1;
+		}
+	}
+
+	/**
+	 * @return Number of items offered
+	 */
+	public long getSeen(){
+		return seen;
+	}
+
+	public List<T> getItems(){
+		return Collections.unmodifiableList(items);
+	}
+
+	private long skip(){
+		final double skip = Math.floor(Math.log(nextOpenDouble()) / Math.log(1 - w));
+		return skip >= Long.MAX_VALUE / 2 || Double.isNaN(skip) ? Long.MAX_VALUE / 2 : (long)skip;
+	}
+
+	// In (0, 1) so that the logarithms are finite
+	private double nextOpenDouble(){
+		double value;
+		do{
+			value = random.nextDouble();
+		}while(value == 0);
+		return value;
+	}
+}
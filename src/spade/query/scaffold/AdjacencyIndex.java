@@ -0,0 +1,811 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.scaffold;
+
+import static spade.core.AbstractStorage.DIRECTION_ANCESTORS;
+import static spade.core.AbstractStorage.DIRECTION_DESCENDANTS;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.io.CountingInputStream;
+
+import spade.core.AbstractEdge;
+import spade.core.Graph;
+
+/**
+ * Adjacency index of all the edges put in the storages.
+ *
+ * Vertex and edge hashes are interned to dense integer ids. The parents and the children of each vertex are kept as
+ * lists of (neighbor id, edge id) pairs encoded as varints, so a neighbor usually takes 2 to 6 bytes instead of two
+ * hash strings.
+ *
+ * Edges are handed over by the ingest thread through a bounded queue and indexed by a background thread so that
+ * ingest only waits when the queue is full. The index is persisted as an append-only log of new vertices and new
+ * edges which is replayed on initialization. A partially written record at the end of the log (after a crash) is
+ * discarded.
+ *
+ * Queries wait for the edges put before them to be indexed (see AbstractStorage.awaitScaffoldEntries and awaitIndexed).
+ */
+public class AdjacencyIndex extends Scaffold
+{
+    private static final Logger logger = Logger.getLogger(AdjacencyIndex.class.getName());
+
+    private static final String LOG_FILE_NAME = "adjacency.log";
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int BATCH_SIZE = 4096;
+    private static final int INITIAL_VERTEX_CAPACITY = 1024;
+
+    private static final byte RECORD_VERTEX = 1;
+    private static final byte RECORD_EDGE = 2;
+
+    /**
+     * Vertices and edges reached by a traversal
+     */
+    public static final class Lineage
+    {
+        public final Set<String> vertices = new HashSet<>();
+        public final Set<String> edges = new HashSet<>();
+    }
+
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> vertexIds = new HashMap<>();
+    private final List<String> vertexHashes = new ArrayList<>();
+    private final Map<String, Integer> edgeIds = new HashMap<>();
+    private final List<String> edgeHashes = new ArrayList<>();
+    private NeighborList[] parentLists = new NeighborList[INITIAL_VERTEX_CAPACITY];
+    private NeighborList[] childLists = new NeighborList[INITIAL_VERTEX_CAPACITY];
+
+    // Entries are {child vertex hash, parent vertex hash, edge hash}
+    private final BlockingQueue<String[]> pendingEntries = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong offeredCount = new AtomicLong(0);
+    private final Object appliedLock = new Object();
+    private long appliedCount = 0;
+
+    private Thread indexerThread;
+    private volatile boolean shuttingDown = false;
+
+    private FileOutputStream logFileStream;
+    private DataOutputStream logStream;
+    private boolean logDirty = false;
+
+    /**
+     * This method is invoked by the AbstractStorage to initialize the index.
+     *
+     * @param arguments The directory path of the index. The scaffold path if empty.
+     * @return True if the index was initialized successfully.
+     */
+    @Override
+    public boolean initialize(String arguments)
+    {
+        try
+        {
+            directoryPath = (arguments == null || arguments.trim().isEmpty())
+                    ? spade.core.AbstractStorage.SCAFFOLD_PATH : arguments.trim();
+            final File directory = new File(directoryPath);
+            if(!directory.isDirectory() && !directory.mkdirs())
+            {
+                logger.log(Level.SEVERE, "Failed to create adjacency index directory: " + directoryPath);
+                return false;
+            }
+            final File logFile = new File(directory, LOG_FILE_NAME);
+            if(logFile.exists())
+            {
+                replayLog(logFile);
+            }
+            logFileStream = new FileOutputStream(logFile, true);
+            logStream = new DataOutputStream(new BufferedOutputStream(logFileStream, 64 * 1024));
+            lastFlushTime = new Date();
+
+            indexerThread = new Thread(this::indexPendingEntries, "adjacency-index");
+            indexerThread.setDaemon(true);
+            indexerThread.start();
+
+            logger.log(Level.INFO, "Adjacency index initialized with " + vertexHashes.size() + " vertices and "
+                    + edgeHashes.size() + " edges from: " + logFile.getAbsolutePath());
+            return true;
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Failed to initialize adjacency index", ex);
+            return false;
+        }
+    }
+
+    private void replayLog(final File logFile) throws IOException
+    {
+        long goodLength = 0;
+        try(final CountingInputStream countingStream = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(logFile), 64 * 1024));
+                final DataInputStream input = new DataInputStream(countingStream))
+        {
+            while(true)
+            {
+                final int recordType = input.read();
+                if(recordType < 0)
+                {
+                    break;
+                }
+                if(recordType == RECORD_VERTEX)
+                {
+                    internVertex(readHash(input));
+                }
+                else if(recordType == RECORD_EDGE)
+                {
+                    final String edgeHash = readHash(input);
+                    final int childId = readVarint(input);
+                    final int parentId = readVarint(input);
+                    if(childId >= vertexHashes.size() || parentId >= vertexHashes.size())
+                    {
+                        throw new IOException("Edge refers to an undefined vertex");
+                    }
+                    addEdge(edgeHash, childId, parentId);
+                }
+                else
+                {
+                    throw new IOException("Unexpected record type: " + recordType);
+                }
+                goodLength = countingStream.getCount();
+            }
+        }
+        catch(EOFException ex)
+        {
+            // Partially written record
+        }
+        catch(IOException ex)
+        {
+            logger.log(Level.WARNING, "Adjacency index log corrupted after byte " + goodLength
+                    + ". Discarding the rest", ex);
+        }
+        if(logFile.length() > goodLength)
+        {
+            try(final RandomAccessFile file = new RandomAccessFile(logFile, "rw"))
+            {
+                file.setLength(goodLength);
+            }
+        }
+    }
+
+    @Override
+    protected void globalTxCheckin(boolean forcedFlush)
+    {
+        if(!logDirty)
+        {
+            return;
+        }
+        final Date now = new Date();
+        if(forcedFlush || now.getTime() - lastFlushTime.getTime() >= MAX_WAIT_TIME_BEFORE_FLUSH)
+        {
+            try
+            {
+                logStream.flush();
+                logFileStream.getFD().sync();
+                logDirty = false;
+            }
+            catch(IOException ex)
+            {
+                logger.log(Level.SEVERE, "Failed to flush adjacency index log", ex);
+            }
+            lastFlushTime = now;
+        }
+    }
+
+    /**
+     * This method is invoked by the AbstractStorage to shut down the index. Pending edges are indexed first.
+     *
+     * @return True if the index was shut down successfully.
+     */
+    @Override
+    public boolean shutdown()
+    {
+        shuttingDown = true;
+        try
+        {
+            if(indexerThread != null)
+            {
+                indexerThread.join();
+            }
+            if(logStream != null)
+            {
+                globalTxCheckin(true);
+                logStream.close();
+            }
+            return true;
+        }
+        catch(Exception ex)
+        {
+            logger.log(Level.SEVERE, "Failed to shut down adjacency index", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Queues the edge to be indexed. Blocks only if the queue is full.
+     *
+     * @param incomingEdge edge whose end points to insert into the index
+     * @return false if the index is not running
+     */
+    @Override
+    public boolean insertEntry(AbstractEdge incomingEdge)
+    {
+        if(indexerThread == null || shuttingDown)
+        {
+            return false;
+        }
+        final String[] entry = {incomingEdge.getChildVertex().bigHashCode(),
+                incomingEdge.getParentVertex().bigHashCode(), incomingEdge.bigHashCode()};
+        // Counted before it is queued so that a waiting query never misses it
+        offeredCount.incrementAndGet();
+        try
+        {
+            pendingEntries.put(entry);
+            return true;
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            markApplied(1);
+            return false;
+        }
+    }
+
+    private void indexPendingEntries()
+    {
+        final List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+        while(true)
+        {
+            try
+            {
+                final String[] first = pendingEntries.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null)
+                {
+                    if(shuttingDown)
+                    {
+                        break;
+                    }
+                    globalTxCheckin(false);
+                    continue;
+                }
+                batch.add(first);
+                pendingEntries.drainTo(batch, BATCH_SIZE - 1);
+                indexLock.writeLock().lock();
+                try
+                {
+                    for(final String[] entry : batch)
+                    {
+                        indexEntry(entry[0], entry[1], entry[2]);
+                    }
+                }
+                finally
+                {
+                    indexLock.writeLock().unlock();
+                }
+                globalTxCheckin(false);
+            }
+            catch(InterruptedException ex)
+            {
+                if(shuttingDown)
+                {
+                    break;
+                }
+            }
+            catch(Exception ex)
+            {
+                logger.log(Level.SEVERE, "Failed to index " + batch.size() + " edges", ex);
+            }
+            finally
+            {
+                markApplied(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    private void markApplied(final long count)
+    {
+        synchronized(appliedLock)
+        {
+            appliedCount += count;
+            appliedLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until all the edges inserted before this call have been indexed
+     */
+    public void awaitIndexed() throws InterruptedException
+    {
+        final long target = offeredCount.get();
+        synchronized(appliedLock)
+        {
+            while(appliedCount < target && indexerThread != null && indexerThread.isAlive())
+            {
+                appliedLock.wait(100);
+            }
+        }
+    }
+
+    // Writer thread only and under the write lock
+    private void indexEntry(final String childHash, final String parentHash, final String edgeHash) throws IOException
+    {
+        if(edgeIds.containsKey(edgeHash))
+        {
+            return;
+        }
+        final int childId = internVertexAndLog(childHash);
+        final int parentId = internVertexAndLog(parentHash);
+        addEdge(edgeHash, childId, parentId);
+        logStream.writeByte(RECORD_EDGE);
+        writeHash(logStream, edgeHash);
+        writeVarint(logStream, childId);
+        writeVarint(logStream, parentId);
+        logDirty = true;
+    }
+
+    private int internVertexAndLog(final String hash) throws IOException
+    {
+        final Integer existingId = vertexIds.get(hash);
+        if(existingId != null)
+        {
+            return existingId;
+        }
+        logStream.writeByte(RECORD_VERTEX);
+        writeHash(logStream, hash);
+        return internVertex(hash);
+    }
+
+    private int internVertex(final String hash)
+    {
+        final Integer existingId = vertexIds.get(hash);
+        if(existingId != null)
+        {
+            return existingId;
+        }
+        final int id = vertexHashes.size();
+        vertexHashes.add(hash);
+        vertexIds.put(hash, id);
+        if(id == parentLists.length)
+        {
+            parentLists = Arrays.copyOf(parentLists, id * 2);
+            childLists = Arrays.copyOf(childLists, id * 2);
+        }
+        return id;
+    }
+
+    private void addEdge(final String edgeHash, final int childId, final int parentId)
+    {
+        if(edgeIds.containsKey(edgeHash))
+        {
+            return;
+        }
+        final int edgeId = edgeHashes.size();
+        edgeHashes.add(edgeHash);
+        edgeIds.put(edgeHash, edgeId);
+        if(parentLists[childId] == null)
+        {
+            parentLists[childId] = new NeighborList();
+        }
+        parentLists[childId].add(parentId, edgeId);
+        if(childLists[parentId] == null)
+        {
+            childLists[parentId] = new NeighborList();
+        }
+        childLists[parentId].add(childId, edgeId);
+    }
+
+    ////////////////
+
+    public long getVertexCount()
+    {
+        indexLock.readLock().lock();
+        try
+        {
+            return vertexHashes.size();
+        }
+        finally
+        {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    public long getEdgeCount()
+    {
+        indexLock.readLock().lock();
+        try
+        {
+            return edgeHashes.size();
+        }
+        finally
+        {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Breadth-first traversal from the start vertices. The edges followed from every vertex reached in less than
+     * 'maxDepth' steps are included, like the lineage computed by the query executors.
+     *
+     * @param startHashes Hashes of the start vertices. Included in the result even if not in the index.
+     * @param ancestors True to follow edges from child to parent, false for parent to child
+     * @param maxDepth Maximum number of steps
+     * @return Vertices and edges reached
+     */
+    public Lineage getLineage(final Collection<String> startHashes, final boolean ancestors, final int maxDepth)
+    {
+        final Lineage lineage = new Lineage();
+        lineage.vertices.addAll(startHashes);
+        indexLock.readLock().lock();
+        try
+        {
+            final NeighborList[] lists = ancestors ? parentLists : childLists;
+            final BitSet visited = new BitSet(vertexHashes.size());
+            final BitSet edges = new BitSet(edgeHashes.size());
+            IntList frontier = new IntList();
+            for(final String hash : startHashes)
+            {
+                final Integer id = vertexIds.get(hash);
+                if(id != null && !visited.get(id))
+                {
+                    visited.set(id);
+                    frontier.add(id);
+                }
+            }
+            final int[] pair = new int[2];
+            for(int depth = 0; depth < maxDepth && frontier.size > 0; depth++)
+            {
+                final IntList next = new IntList();
+                for(int i = 0; i < frontier.size; i++)
+                {
+                    final NeighborList list = lists[frontier.values[i]];
+                    if(list == null)
+                    {
+                        continue;
+                    }
+                    for(int offset = 0; offset < list.size; )
+                    {
+                        offset = list.read(offset, pair);
+                        edges.set(pair[1]);
+                        if(!visited.get(pair[0]))
+                        {
+                            visited.set(pair[0]);
+                            next.add(pair[0]);
+                        }
+                    }
+                }
+                frontier = next;
+            }
+            for(int id = visited.nextSetBit(0); id >= 0; id = visited.nextSetBit(id + 1))
+            {
+                lineage.vertices.add(vertexHashes.get(id));
+            }
+            for(int id = edges.nextSetBit(0); id >= 0; id = edges.nextSetBit(id + 1))
+            {
+                lineage.edges.add(edgeHashes.get(id));
+            }
+        }
+        finally
+        {
+            indexLock.readLock().unlock();
+        }
+        return lineage;
+    }
+
+    private Set<String> getNeighborHashes(final String hash, final boolean parents, final boolean children)
+    {
+        indexLock.readLock().lock();
+        try
+        {
+            final Integer id = vertexIds.get(hash);
+            if(id == null)
+            {
+                return null;
+            }
+            final Set<String> neighbors = new HashSet<>();
+            final int[] pair = new int[2];
+            for(final NeighborList list : new NeighborList[]{parents ? parentLists[id] : null,
+                    children ? childLists[id] : null})
+            {
+                if(list != null)
+                {
+                    for(int offset = 0; offset < list.size; )
+                    {
+                        offset = list.read(offset, pair);
+                        neighbors.add(vertexHashes.get(pair[0]));
+                    }
+                }
+            }
+            return neighbors;
+        }
+        finally
+        {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getChildren(String parentHash)
+    {
+        return getNeighborHashes(parentHash, false, true);
+    }
+
+    @Override
+    public Set<String> getParents(String childHash)
+    {
+        return getNeighborHashes(childHash, true, false);
+    }
+
+    @Override
+    public Set<String> getNeighbors(String hash)
+    {
+        return getNeighborHashes(hash, true, true);
+    }
+
+    /**
+     * @return Map from each vertex visited in less than 'maxDepth' steps to its neighbors in the direction. Null if
+     * the vertex is not in the index.
+     */
+    @Override
+    public Map<String, Set<String>> getLineage(String hash, String direction, int maxDepth)
+    {
+        final boolean ancestors;
+        if(DIRECTION_ANCESTORS.startsWith(direction.toLowerCase()))
+        {
+            ancestors = true;
+        }
+        else if(DIRECTION_DESCENDANTS.startsWith(direction.toLowerCase()))
+        {
+            ancestors = false;
+        }
+        else
+        {
+            return null;
+        }
+        if(getNeighborHashes(hash, true, true) == null)
+        {
+            return null;
+        }
+        final Map<String, Set<String>> lineageMap = new HashMap<>();
+        Set<String> remainingVertices = new HashSet<>();
+        remainingVertices.add(hash);
+        final Set<String> visitedVertices = new HashSet<>();
+        for(int depth = 0; depth < maxDepth && !remainingVertices.isEmpty(); depth++)
+        {
+            visitedVertices.addAll(remainingVertices);
+            final Set<String> nextVertices = new HashSet<>();
+            for(final String currentHash : remainingVertices)
+            {
+                final Set<String> neighbors = getNeighborHashes(currentHash, ancestors, !ancestors);
+                if(neighbors != null)
+                {
+                    lineageMap.put(currentHash, neighbors);
+                    for(final String neighbor : neighbors)
+                    {
+                        if(!visitedVertices.contains(neighbor))
+                        {
+                            nextVertices.add(neighbor);
+                        }
+                    }
+                }
+            }
+            remainingVertices = nextVertices;
+        }
+        return lineageMap;
+    }
+
+    /**
+     * @return Map from each vertex on a path from the source to the destination to its parents on those paths
+     */
+    @Override
+    public Map<String, Set<String>> getPaths(String source_hash, String destination_hash, int maxLength)
+    {
+        final Set<String> fromSource = getLineage(Arrays.asList(source_hash), true, maxLength).vertices;
+        final Set<String> toDestination = getLineage(Arrays.asList(destination_hash), false, maxLength).vertices;
+        fromSource.retainAll(toDestination);
+        final Map<String, Set<String>> paths = new HashMap<>();
+        for(final String hash : fromSource)
+        {
+            final Set<String> parents = getParents(hash);
+            if(parents != null)
+            {
+                parents.retainAll(fromSource);
+                paths.put(hash, parents);
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public Graph queryManager(Map<String, List<String>> params)
+    {
+        return null;
+    }
+
+    ////////////////
+
+    // Hex hashes (the default) take 16 bytes, anything else is written as UTF-8
+    private static void writeHash(final DataOutputStream output, final String hash) throws IOException
+    {
+        if(hash.length() == 32 && isLowerHex(hash))
+        {
+            output.writeByte(0);
+            for(int i = 0; i < 32; i += 2)
+            {
+                output.writeByte(Integer.parseInt(hash.substring(i, i + 2), 16));
+            }
+        }
+        else
+        {
+            final byte[] bytes = hash.getBytes(StandardCharsets.UTF_8);
+            writeVarint(output, bytes.length + 1);
+            output.write(bytes);
+        }
+    }
+
+    private static String readHash(final DataInputStream input) throws IOException
+    {
+        final int length = readVarint(input);
+        if(length == 0)
+        {
+            final char[] hex = new char[32];
+            for(int i = 0; i < 16; i++)
+            {
+                final int b = input.readUnsignedByte();
+                hex[2 * i] = Character.forDigit(b >>> 4, 16);
+                hex[2 * i + 1] = Character.forDigit(b & 0xF, 16);
+            }
+            return new String(hex);
+        }
+        final byte[] bytes = new byte[length - 1];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isLowerHex(final String value)
+    {
+        for(int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeVarint(final DataOutputStream output, int value) throws IOException
+    {
+        while((value & ~0x7F) != 0)
+        {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int readVarint(final DataInputStream input) throws IOException
+    {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7)
+        {
+            final int b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * (neighbor id, edge id) pairs encoded as unsigned varints
+     */
+    private static final class NeighborList
+    {
+        private byte[] bytes = new byte[8];
+        private int size = 0;
+
+        private void add(final int neighborId, final int edgeId)
+        {
+            if(size + 10 > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + 10));
+            }
+            size = write(size, neighborId);
+            size = write(size, edgeId);
+        }
+
+        private int write(int offset, int value)
+        {
+            while((value & ~0x7F) != 0)
+            {
+                bytes[offset++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[offset++] = (byte)value;
+            return offset;
+        }
+
+        /**
+         * @param pair Set to {neighbor id, edge id}
+         * @return Offset of the next pair
+         */
+        private int read(int offset, final int[] pair)
+        {
+            for(int i = 0; i < 2; i++)
+            {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do
+                {
+                    b = bytes[offset++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                }
+                while((b & 0x80) != 0);
+                pair[i] = value;
+            }
+            return offset;
+        }
+    }
+
+    private static final class IntList
+    {
+        private int[] values = new int[16];
+        private int size = 0;
+
+        private void add(final int value)
+        {
+            if(size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
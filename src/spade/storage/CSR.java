@@ -0,0 +1,145 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.HashHelper;
+import spade.core.Settings;
+import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.storage.csr.CSRGraph;
+import spade.storage.csr.CSRInstructionExecutor;
+import spade.storage.csr.CSRQueryEnvironment;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * In-memory storage which keeps the graph in compressed sparse row form and answers QuickGrail queries on it
+ * directly.
+ *
+ * Nothing is persisted. The graph and the query symbols are lost on shutdown.
+ */
+public final class CSR extends AbstractStorage{
+
+	private static final Logger logger = Logger.getLogger(CSR.class.getName());
+
+	private static final String keyAnnotationBlockSize = "annotationBlockSize";
+
+	private static final String baseGraphName = "spade_base_graph";
+
+	private CSRGraph csrGraph;
+	private CSRQueryEnvironment queryEnvironment;
+	private CSRInstructionExecutor queryInstructionExecutor;
+
+	@Override
+	public final synchronized boolean initialize(final String arguments){
+		final Map<String, String> map = new HashMap<String, String>();
+		try{
+			final String configFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+			map.putAll(HelperFunctions.parseKeyValuePairsFrom(arguments, configFilePath, null));
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to parse arguments and/or storage config file", e);
+			return false;
+		}
+
+		final String annotationBlockSizeString = map.remove(keyAnnotationBlockSize);
+		final Result<Long> annotationBlockSizeResult = HelperFunctions.parseLong(annotationBlockSizeString, 10, 1024, Integer.MAX_VALUE);
+		if(annotationBlockSizeResult.error){
+			logger.log(Level.SEVERE, "Invalid value for '" + keyAnnotationBlockSize + "': '" + annotationBlockSizeString + "'. "
+					+ annotationBlockSizeResult.errorMessage);
+			return false;
+		}
+
+		if(HashHelper.defaultInstance.bytesInHash != 16){
+			logger.log(Level.SEVERE, "CSR storage only supports 16 byte hashes. Hash algorithm: " + HashHelper.defaultInstance);
+			return false;
+		}
+
+		try{
+			this.csrGraph = new CSRGraph(annotationBlockSizeResult.result.intValue(), HashHelper.defaultInstance.hashAlgorithmName);
+			// The graph is created empty on every start so it always records the configured algorithm
+			HashHelper.defaultInstance.checkRecordedAlgorithm(csrGraph.getHashAlgorithm(), csrGraph.getVertexCount() > 0);
+			this.queryEnvironment = new CSRQueryEnvironment(baseGraphName, csrGraph);
+			this.queryEnvironment.initialize();
+			this.queryInstructionExecutor = new CSRInstructionExecutor(this, csrGraph, queryEnvironment);
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to initialize storage", e);
+			return false;
+		}
+
+		logger.log(Level.INFO, "Arguments [" + keyAnnotationBlockSize + "=" + annotationBlockSizeResult.result + "]");
+		return true;
+	}
+
+	@Override
+	public final synchronized boolean shutdown(){
+		if(csrGraph != null){
+			logger.log(Level.INFO, "Discarding in-memory graph: " + csrGraph);
+		}
+		return super.shutdown();
+	}
+
+	@Override
+	public final boolean storeVertex(final AbstractVertex vertex){
+		try{
+			if(csrGraph.putVertex(vertex.bigHashCode(), vertex.getCopyOfAnnotations())){
+				synchronized(this){
+					vertexCount++;
+				}
+				return true;
+			}
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to store vertex: " + vertex, e);
+		}
+		return false;
+	}
+
+	@Override
+	public final boolean storeEdge(final AbstractEdge edge){
+		try{
+			if(csrGraph.putEdge(edge.bigHashCode(), edge.getChildVertex().bigHashCode(),
+					edge.getParentVertex().bigHashCode(), edge.getCopyOfAnnotations())){
+				synchronized(this){
+					edgeCount++;
+				}
+				return true;
+			}
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to store edge: " + edge, e);
+		}
+		return false;
+	}
+
+	@Override
+	public final Object executeQuery(final String query){
+		throw new RuntimeException("CSR storage does NOT support native queries");
+	}
+
+	@Override
+	public final QueryInstructionExecutor getQueryInstructionExecutor(){
+		return queryInstructionExecutor;
+	}
+}
@@ -24,6 +24,7 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -133,6 +134,8 @@ public class H2 extends SQL
             }
             dbStatement.close();
 
+            checkHashAlgorithm(dbConnection);
+
             return true;
 
         }
@@ -154,6 +157,7 @@ public class H2 extends SQL
     {
         try
         {
+            flushInserts();
             dbConnection.commit();
             dbConnection.close();
             return true;
@@ -284,9 +288,9 @@ public class H2 extends SQL
             else
                 newAnnotationKey = annotationKey;
 
-            // As the annotation keys are being iterated, add them as new
-            // columns to the table_name if they do not already exist
-            addColumn(EDGE_TABLE, newAnnotationKey);
+            // As the annotation keys are being iterated, collect the ones
+            // which are not columns in the table_name yet
+            deferNewColumns(EDGE_TABLE, Collections.singleton(newAnnotationKey), edgeAnnotations);
 
             insertStringBuilder.append("\"");
             insertStringBuilder.append(newAnnotationKey);
@@ -324,20 +328,8 @@ public class H2 extends SQL
         }
         insertString = insertStringBuilder.substring(0, insertStringBuilder.length() - 2) + ")";
 
-        try
-        {
-            Statement s = dbConnection.createStatement();
-            s.execute(insertString);
-            if(BUILD_SCAFFOLD)
-            {
-                insertScaffoldEntry(incomingEdge);
-            }
-            s.close();
-        }
-        catch (Exception e)
-        {
-            logger.log(Level.SEVERE, null, e);
-        }
+        // Run with its batch, after the new columns (if any) are added
+        bufferInsert(insertString);
 
         return true;
     }
@@ -377,9 +369,9 @@ public class H2 extends SQL
             else
                 newAnnotationKey = annotationKey;
 
-            // As the annotation keys are being iterated, add them as new
-            // columns to the table if they do not already exist
-            addColumn(VERTEX_TABLE, newAnnotationKey);
+            // As the annotation keys are being iterated, collect the ones
+            // which are not columns in the table yet
+            deferNewColumns(VERTEX_TABLE, Collections.singleton(newAnnotationKey), vertexAnnotations);
 
             insertStringBuilder.append("\"");
             insertStringBuilder.append(newAnnotationKey);
@@ -408,20 +400,10 @@ public class H2 extends SQL
         }
         insertString = insertStringBuilder.substring(0, insertStringBuilder.length() - 2) + ")";
 
-        try
-        {
-            dbConnection.commit();
-            Statement s = dbConnection.createStatement();
-            s.execute(insertString);
-            s.close();
-        }
-        catch (Exception e)
-        {
-            logger.log(Level.SEVERE, null, e);
-            return false;
-        }
+        // Run with its batch, after the new columns (if any) are added
+        bufferInsert(insertString);
 
-        // cache the vertex successfully inserted in the storage
+        // cache the vertex buffered for the storage
         Cache.addItem(incomingVertex);
         return true;
     }
@@ -432,6 +414,7 @@ public class H2 extends SQL
         ResultSet result = null;
         try
         {
+            flushInserts();
             dbConnection.commit();
             Statement queryStatement = dbConnection.createStatement();
             if(CURSOR_FETCH_SIZE > 0)
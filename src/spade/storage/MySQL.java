@@ -24,6 +24,7 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -136,6 +137,8 @@ public class MySQL extends SQL
             }
             dbStatement.close();
 
+            checkHashAlgorithm(dbConnection);
+
             return true;
 
         }
@@ -157,6 +160,7 @@ public class MySQL extends SQL
     {
         try
         {
+            flushInserts();
             dbConnection.commit();
             dbConnection.close();
             return true;
@@ -281,9 +285,9 @@ public class MySQL extends SQL
             else
                 newAnnotationKey = annotationKey;
 
-            // As the annotation keys are being iterated, add them as new
-            // columns to the table_name if they do not already exist
-            addColumn(EDGE_TABLE, newAnnotationKey);
+            // As the annotation keys are being iterated, collect the ones
+            // which are not columns in the table_name yet
+            deferNewColumns(EDGE_TABLE, Collections.singleton(newAnnotationKey), edgeAnnotations);
 
             insertStringBuilder.append("`");
             insertStringBuilder.append(newAnnotationKey);
@@ -321,20 +325,8 @@ public class MySQL extends SQL
         }
         insertString = insertStringBuilder.substring(0, insertStringBuilder.length() - 2) + ")";
 
-        try
-        {
-            Statement s = dbConnection.createStatement();
-            s.execute(insertString);
-            if(BUILD_SCAFFOLD)
-            {
-                insertScaffoldEntry(incomingEdge);
-            }
-            s.close();
-        }
-        catch (Exception e)
-        {
-            logger.log(Level.SEVERE, null, e);
-        }
+        // Run with its batch, after the new columns (if any) are added
+        bufferInsert(insertString);
 
         return true;
     }
@@ -372,9 +364,9 @@ public class MySQL extends SQL
             else
                 newAnnotationKey = annotationKey;
 
-            // As the annotation keys are being iterated, add them as new
-            // columns to the table if they do not already exist
-            addColumn(VERTEX_TABLE, newAnnotationKey);
+            // As the annotation keys are being iterated, collect the ones
+            // which are not columns in the table yet
+            deferNewColumns(VERTEX_TABLE, Collections.singleton(newAnnotationKey), vertexAnnotations);
 
             insertStringBuilder.append("`");
             insertStringBuilder.append(newAnnotationKey);
@@ -403,20 +395,10 @@ public class MySQL extends SQL
         }
         insertString = insertStringBuilder.substring(0, insertStringBuilder.length() - 2) + ")";
 
-        try
-        {
-            dbConnection.commit();
-            Statement s = dbConnection.createStatement();
-            s.execute(insertString);
-            s.close();
-        }
-        catch (Exception e)
-        {
-            logger.log(Level.SEVERE, null, e);
-            return false;
-        }
+        // Run with its batch, after the new columns (if any) are added
+        bufferInsert(insertString);
 
-        // cache the vertex successfully inserted in the storage
+        // cache the vertex buffered for the storage
         Cache.addItem(incomingVertex);
 
 
@@ -429,6 +411,7 @@ public class MySQL extends SQL
         ResultSet result = null;
         try
         {
+            flushInserts();
             dbConnection.commit();
             Statement queryStatement = dbConnection.createStatement();
             if(CURSOR_FETCH_SIZE > 0)
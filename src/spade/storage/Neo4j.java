@@ -19,15 +19,16 @@
  */
 package spade.storage;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,9 +39,11 @@ import org.neo4j.graphdb.schema.IndexDefinition;
 import spade.core.AbstractEdge;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.HashHelper;
 import spade.core.Settings;
 import spade.query.quickgrail.core.QueriedEdge;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.storage.neo4j.BulkImporter;
 import spade.storage.neo4j.CacheManager;
 import spade.storage.neo4j.Configuration;
 import spade.storage.neo4j.Configuration.IndexMode;
@@ -48,8 +51,11 @@ import spade.storage.neo4j.Configuration.VertexCacheMode;
 import spade.storage.neo4j.DatabaseManager;
 import spade.storage.neo4j.Neo4jInstructionExecutor;
 import spade.storage.neo4j.Neo4jQueryEnvironment;
+import spade.storage.neo4j.PendingTaskQueue;
+import spade.storage.neo4j.PendingTaskQueue.Priority;
 import spade.storage.neo4j.StorageStats;
 import spade.storage.neo4j.StorageTask;
+import spade.storage.neo4j.TaskPutBatch;
 import spade.storage.neo4j.StorageTest;
 import spade.storage.neo4j.TaskCreateIndex;
 import spade.storage.neo4j.TaskExecuteQuery;
@@ -80,6 +86,16 @@ public class Neo4j extends AbstractStorage{
 	private volatile boolean shutdown = false;
 	private final Object mainThreadRunningLock = new Object();
 	private volatile boolean mainThreadRunning = false;
+
+	// Not null only while the database is being built offline
+	private final Object bulkImportLock = new Object();
+	private volatile BulkImporter bulkImporter;
+	private Timer bulkImportIdleTimer;
+	// True while the spooled vertices and edges are imported (outside the lock)
+	private boolean bulkImportFinishing = false;
+	private boolean bulkImportSucceeded = true;
+	// Vertices and edges put while the import runs. Stored transactionally after it
+	private final List<Object> bulkImportBacklog = new ArrayList<Object>();
 	
 	public final DatabaseManager getDatabaseManager(){
 		return databaseManager;
@@ -107,6 +123,12 @@ public class Neo4j extends AbstractStorage{
 		synchronized(shutdownLock){
 			this.shutdown = shutdown;
 		}
+		final PendingTaskQueue pendingTasks = this.pendingTasks;
+		if(shutdown && pendingTasks != null){
+			// Let the main thread see the shutdown and the writers stop waiting for space
+			pendingTasks.releaseWriteLimit();
+			pendingTasks.wakeUp();
+		}
 	}
 	
 	public final boolean isMainThreadRunning(){
@@ -123,6 +145,10 @@ public class Neo4j extends AbstractStorage{
 
 	@Override
 	public final QueryInstructionExecutor getQueryInstructionExecutor(){
+		if(isBulkImporting()){
+			throw new RuntimeException("Querying not available during bulk import. "
+					+ "Available after the import is finished (on shutdown, forced flush, or idle timeout)");
+		}
 		return queryInstructionExecutor;
 	}
 	
@@ -161,7 +187,7 @@ public class Neo4j extends AbstractStorage{
 			notIndexedKeys.removeAll(nodePropertyNamesIndexed);
 			for(final String notIndexedKey : notIndexedKeys){
 				nodePropertyNamesIndexed.add(notIndexedKey); // add to the main list
-				prependCreateIndexPendingTask(true, notIndexedKey);
+				addCreateIndexPendingTask(true, notIndexedKey);
 			}
 		}
 	}
@@ -176,7 +202,7 @@ public class Neo4j extends AbstractStorage{
 			notIndexedKeys.removeAll(relationshipPropertyNamesIndexed);
 			for(final String notIndexedKey : notIndexedKeys){
 				relationshipPropertyNamesIndexed.add(notIndexedKey); // add to the main list
-				prependCreateIndexPendingTask(false, notIndexedKey);
+				addCreateIndexPendingTask(false, notIndexedKey);
 			}
 		}
 	}
@@ -321,52 +347,75 @@ public class Neo4j extends AbstractStorage{
 
 	//////////////////////////////////
 
-	private final LinkedList<StorageTask<?>> neo4jDbTasksPending = new LinkedList<StorageTask<?>>();
+	// Created when the database is started
+	private volatile PendingTaskQueue pendingTasks;
+	private Thread pendingTasksRunnerThread;
 
 	public final int getPendingTasksSize(){
-		synchronized(neo4jDbTasksPending){
-			return neo4jDbTasksPending.size();
-		}
+		final PendingTaskQueue pendingTasks = this.pendingTasks;
+		return pendingTasks == null ? 0 : pendingTasks.size();
 	}
 
-	private final StorageTask<?> removeFirstPendingTask(){
-		if(isMainThreadRunning()){
-			synchronized(neo4jDbTasksPending){
-				final StorageTask<?> task = neo4jDbTasksPending.pollFirst();
-				if(task != null){
-					getStorageStats().pendingTasksOutgoing.increment();
-				}
-				return task;
-			}
+	/**
+	 * @param timeoutMillis Maximum time to wait for a task. Wait until a task is added or a wake up if negative.
+	 */
+	private final StorageTask<?> takePendingTask(final long timeoutMillis) throws InterruptedException{
+		final StorageTask<?> task = pendingTasks.poll(timeoutMillis);
+		if(task != null){
+			getStorageStats().pendingTasksOutgoing.increment();
 		}
-		return null;
+		return task;
 	}
 
-	private final void appendPendingTask(final StorageTask<?> task){
-		if(task != null){
-			if(isMainThreadRunning()){
-				enforceBufferLimit();
-				synchronized(neo4jDbTasksPending){
-					getStorageStats().pendingTasksIncoming.increment();
-					neo4jDbTasksPending.addLast(task);
-				}
-			}
+	/**
+	 * Groups the writes following the given write into one task (see 'batchWrites')
+	 *
+	 * @param max Maximum number of writes in the batch
+	 */
+	private final StorageTask<?> takeWriteBatch(final StorageTask<?> write, final int max){
+		final List<StorageTask<?>> tasks = new ArrayList<StorageTask<?>>();
+		tasks.add(write);
+		final int drained = pendingTasks.drainWrites(tasks, max - 1);
+		for(int i = 0; i < drained; i++){
+			getStorageStats().pendingTasksOutgoing.increment();
 		}
+		return new TaskPutBatch(tasks);
 	}
 
-	private final void prependPendingTask(final StorageTask<?> task){
-		if(task != null){
-			if(isMainThreadRunning()){
-				// Don't enforce limit here because of high priority
-				synchronized(neo4jDbTasksPending){
-					getStorageStats().pendingTasksIncoming.increment();
-					neo4jDbTasksPending.addFirst(task);
-				}
-			}
+	/**
+	 * Writes wait for space in the buffer (see 'bufferLimit'). Queries and index creation do not.
+	 *
+	 * @return True if the task was added. If not added then the task is not completed unless the queue is closed.
+	 */
+	private final boolean addPendingTask(final StorageTask<?> task, final Priority priority){
+		if(task == null){
+			return false;
+		}
+		final PendingTaskQueue pendingTasks = this.pendingTasks;
+		if(pendingTasks == null || !isMainThreadRunning()){
+			return false;
+		}
+		final long waitStartMillis = System.currentTimeMillis();
+		final boolean added;
+		try{
+			added = pendingTasks.add(task, priority);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			task.setError(e);
+			task.completed();
+			return false;
+		}
+		if(added){
+			getStorageStats().pendingTasksIncoming.increment();
+		}
+		final long diffMillis = System.currentTimeMillis() - waitStartMillis;
+		if(diffMillis >= 10 * 1000){
+			debug("Buffer limit below in: " + diffMillis + " millis.");
 		}
+		return added;
 	}
 
-	private final void prependCreateIndexPendingTask(final boolean forNodes, final String key){
+	private final void addCreateIndexPendingTask(final boolean forNodes, final String key){
 		final IndexMode indexMode;
 		if(forNodes){
 			indexMode = getConfiguration().indexVertexMode;
@@ -376,7 +425,7 @@ public class Neo4j extends AbstractStorage{
 
 		switch(indexMode){
 			case ALL:
-				prependPendingTask(new TaskCreateIndex(key, forNodes));
+				addPendingTask(new TaskCreateIndex(key, forNodes), Priority.SCHEMA);
 				break;
 			case NONE:
 				break;
@@ -389,29 +438,6 @@ public class Neo4j extends AbstractStorage{
 		}
 	}
 
-	private final void enforceBufferLimit(){
-		if(getConfiguration().bufferLimit > -1){
-			long waitStartMillis = 0;
-			boolean needToWait = getPendingTasksSize() > getConfiguration().bufferLimit;
-			if(needToWait){
-				//debug("Buffer limit reached: " + bufferLimit + ". Current buffer size: " + getPendingTasksSize());
-				waitStartMillis = System.currentTimeMillis();
-			}
-			while(getPendingTasksSize() > getConfiguration().bufferLimit){
-				if(isShutdown() || !isMainThreadRunning()){
-					break;
-				}
-				HelperFunctions.sleepSafe(getConfiguration().sleepWaitMillis);
-			}
-			if(needToWait){
-				final long diffMillis = (System.currentTimeMillis() - waitStartMillis);
-				if(diffMillis >= 10 * 1000){
-					debug("Buffer limit below in: " + diffMillis + " millis.");
-				}
-			}
-		}
-	}
-	
 	private final Runnable dbPendingTasksRunner = new Runnable(){
 		// Globals
 		int tasksExecutedSinceLastFlush;
@@ -419,9 +445,11 @@ public class Neo4j extends AbstractStorage{
 
 		private final Transaction getANewTransaction(Transaction tx, final boolean commit) throws Exception{
 			if(tx != null){
+				boolean committed = false;
 				try{
 					if(commit){
 						getDatabaseManager().timedCommit(tx);
+						committed = true;
 					}else{
 						tx.rollback();
 					}
@@ -429,6 +457,12 @@ public class Neo4j extends AbstractStorage{
 					logger.log(Level.WARNING, "Failed to commit/rollback transaction", t);
 					try{ tx.terminate(); }catch(Throwable subT){ }
 				}
+				// Node ids of a rolled back transaction may be reused by the database
+				if(committed){
+					getCacheManager().vertexCacheCommit();
+				}else{
+					getCacheManager().vertexCacheRollback();
+				}
 				try{ tx.close(); }catch(Throwable t){ }
 				tx = null;
 				
@@ -442,6 +476,26 @@ public class Neo4j extends AbstractStorage{
 			return getDatabaseManager().beginANewTransaction();
 		}
 
+		/*
+		 * Until the next flush is due if there are uncommitted tasks, otherwise until a task is added. Not at all when
+		 * shutting down.
+		 */
+		private final long getPendingTaskWaitMillis(){
+			if(isShutdown()){
+				return 0;
+			}
+			long waitMillis = -1;
+			if(tasksExecutedSinceLastFlush > 0){
+				waitMillis = Math.max(0, timeInMillisOfLastFlush + (getConfiguration().flushAfterSeconds * 1000L)
+						- System.currentTimeMillis() + 1);
+			}
+			if(getConfiguration().reportingEnabled){
+				final long reportingMillis = getConfiguration().reportingIntervalSeconds * 1000L;
+				waitMillis = waitMillis < 0 ? reportingMillis : Math.min(waitMillis, reportingMillis);
+			}
+			return waitMillis;
+		}
+
 		@Override
 		public void run(){
 			boolean runTheMainLoop;
@@ -494,8 +548,15 @@ public class Neo4j extends AbstractStorage{
 							}
 						}
 
-						task = removeFirstPendingTask();
-						if(task != null){
+						task = takePendingTask(getPendingTaskWaitMillis());
+						if(task != null && getConfiguration().batchWrites && TaskPutBatch.isBatchable(task)){
+							// Up to the number of tasks left until the next flush
+							task = takeWriteBatch(task, Math.max(1, getConfiguration().flushBufferSize + 1 - tasksExecutedSinceLastFlush));
+						}
+						if(task != null && task.isCancelled()){
+							task.setError(new RuntimeException("Task cancelled before execution"));
+							task.completed();
+						}else if(task != null){
 							Timer timer = null;
 							try{
 								if(task.commitBeforeExecution){
@@ -518,11 +579,14 @@ public class Neo4j extends AbstractStorage{
 									
 								}
 								getStorageStats().startActionTimer("EXECUTE-" + task.getClass().getSimpleName());
+								task.setRunningTransaction(tx);
 								task.execute(Neo4j.this, tx);
+								task.setRunningTransaction(null);
 								if(task.commitAfterExecution){
 									tx = getANewTransaction(tx, true);
 								}
 							}catch(Throwable t){
+								task.setRunningTransaction(null);
 								task.setError(t);
 								
 								tx = getANewTransaction(tx, false);
@@ -537,8 +601,13 @@ public class Neo4j extends AbstractStorage{
 									}
 								}
 								getStorageStats().stopActionTimer("EXECUTE-" + task.getClass().getSimpleName());
-								tasksExecutedSinceLastFlush++;
 								task.completed();
+								if(task instanceof TaskPutBatch){
+									tasksExecutedSinceLastFlush += ((TaskPutBatch)task).size();
+									((TaskPutBatch)task).completeBatchedTasks();
+								}else{
+									tasksExecutedSinceLastFlush++;
+								}
 							}
 						}
 						fatalErrorCount = 0;
@@ -555,13 +624,11 @@ public class Neo4j extends AbstractStorage{
 						if(fatalErrorCount >= getConfiguration().maxRetries){
 							logger.log(Level.SEVERE, "Max retries (" + getConfiguration().maxRetries + ") exhausted. " + "Discarding "
 									+ getPendingTasksSize() + " tasks and shutting down.");
-							synchronized(neo4jDbTasksPending){
-								neo4jDbTasksPending.clear();
-							}
+							pendingTasks.close();
 							break;
 						}
 					}
-					if(getConfiguration().mainThreadSleepWaitMillis > 0){
+					if(task != null && getConfiguration().mainThreadSleepWaitMillis > 0){
 						HelperFunctions.sleepSafe(getConfiguration().mainThreadSleepWaitMillis);
 					}
 				}
@@ -569,6 +636,7 @@ public class Neo4j extends AbstractStorage{
 				if(tx != null){
 					try{
 						getDatabaseManager().timedCommit(tx);
+						getCacheManager().vertexCacheCommit();
 					}catch(Throwable t){
 						logger.log(Level.SEVERE, "Failed to commit data in the buffer", t);
 					}finally{
@@ -580,6 +648,9 @@ public class Neo4j extends AbstractStorage{
 
 			getStorageStats().print(logger, true);
 
+			// Fail the tasks left (and the ones added later) so that nobody waits for them
+			pendingTasks.close();
+
 			setMainThreadRunning(false);
 
 			logger.log(Level.INFO, "Exited main DB task executor thread");
@@ -591,21 +662,27 @@ public class Neo4j extends AbstractStorage{
 	@Override
 	public synchronized final boolean shutdown(){
 		if(!isShutdown()){
+			if(isBulkImporting()){
+				finishBulkImport();
+			}
+
 			setShutdown(true);
 
 			logger.log(Level.INFO,
 					"Shutdown called. Waiting for " + getPendingTasksSize() + " pending task(s) to complete");
 			// wait for main thread to exit
-			while(true){
-				if(!isMainThreadRunning()){
-					break;
+			if(pendingTasksRunnerThread != null){
+				try{
+					pendingTasksRunnerThread.join();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					logger.log(Level.WARNING, "Interrupted while waiting for main DB task executor thread to exit");
 				}
-				HelperFunctions.sleepSafe(getConfiguration().sleepWaitMillis);
 			}
 			logger.log(Level.INFO, "Pending tasks going to be discarded: '" + getPendingTasksSize() + "'. Continuing with shutdown ...");
 
-			synchronized(neo4jDbTasksPending){
-				neo4jDbTasksPending.clear();
+			if(pendingTasks != null){
+				pendingTasks.close();
 			}
 			
 			try{
@@ -641,47 +718,17 @@ public class Neo4j extends AbstractStorage{
 			this.neo4jStats = new StorageStats(
 					configuration.reportingEnabled, configuration.reportingIntervalSeconds, configuration.timeMe);
 
-			this.databaseManager = new DatabaseManager(this);
-			
-			this.databaseManager.initialize();
-			
-			this.cacheManager = new CacheManager(this);
-
-			logger.log(Level.INFO, "Database absolute path: " + configuration.finalConstructedDbPath.getAbsolutePath());
-			
-			if(configuration.reset){
-				final String resetTimerKey = "DATABASE-RESET";
-				try{
-					neo4jStats.startActionTimer(resetTimerKey);
-					databaseManager.resetDatabase();
-				}catch(Exception e){
-					throw new Exception("Failed to reset database", e);
-				}finally{
-					neo4jStats.stopActionTimer(resetTimerKey);
+			if(configuration.bulkImport){
+				if(isExistingDatabaseNonEmpty()){
+					logger.log(Level.WARNING, "Bulk import only done into an empty database. Database not empty at path '"
+							+ configuration.finalConstructedDbPath.getAbsolutePath() + "'. Using transactional ingest");
+				}else{
+					startBulkImport();
+					return true;
 				}
 			}
-			
-			final Thread thread = new Thread(dbPendingTasksRunner, "db-pending-task-runner");
-			thread.start();
 
-			// Wait for the main thread to reach a stable state
-			while(!isMainThreadRunning()){
-				if(isShutdown()){
-					throw new RuntimeException("Failed to start the main thread successfully");
-				}
-				HelperFunctions.sleepSafe(getConfiguration().sleepWaitMillis);
-			}
-			
-			if(configuration.test){
-				final StorageTest storageTest = new StorageTest();
-				storageTest.test(this);
-				//throw new RuntimeException("Shutting down after completing the test!");
-			}
-			
-			this.queryEnvironment = new Neo4jQueryEnvironment(configuration.nodePrimaryLabelName, this, configuration.edgeSymbolsPropertyName,
-					configuration.querySymbolsNodeLabelName);
-			queryEnvironment.initialize();
-			this.queryInstructionExecutor = new Neo4jInstructionExecutor(this, queryEnvironment, configuration.hashPropertyName);
+			startDatabase(false);
 
 			return true;
 		}catch(Exception e){
@@ -691,11 +738,242 @@ public class Neo4j extends AbstractStorage{
 		}
 	}
 
+	private final boolean isExistingDatabaseNonEmpty(){
+		final String[] children = configuration.finalConstructedDbPath.list();
+		return children != null && children.length > 0;
+	}
+
+	/**
+	 * @param imported True if the database was just populated by the bulk importer
+	 */
+	private final void startDatabase(final boolean imported) throws Exception{
+		this.databaseManager = new DatabaseManager(this);
+		
+		this.databaseManager.initialize();
+		
+		this.cacheManager = new CacheManager(this);
+
+		logger.log(Level.INFO, "Database absolute path: " + configuration.finalConstructedDbPath.getAbsolutePath());
+		
+		if(configuration.reset){
+			final String resetTimerKey = "DATABASE-RESET";
+			try{
+				neo4jStats.startActionTimer(resetTimerKey);
+				databaseManager.resetDatabase();
+			}catch(Exception e){
+				throw new Exception("Failed to reset database", e);
+			}finally{
+				neo4jStats.stopActionTimer(resetTimerKey);
+			}
+		}
+
+		databaseManager.checkHashAlgorithm(imported);
+		logger.log(Level.INFO, "Database hash algorithm: " + HashHelper.defaultInstance.hashAlgorithmName);
+		
+		this.pendingTasks = new PendingTaskQueue(configuration.bufferLimit);
+		this.pendingTasksRunnerThread = new Thread(dbPendingTasksRunner, "db-pending-task-runner");
+		pendingTasksRunnerThread.start();
+
+		// Wait for the main thread to reach a stable state
+		while(!isMainThreadRunning()){
+			if(isShutdown()){
+				throw new RuntimeException("Failed to start the main thread successfully");
+			}
+			HelperFunctions.sleepSafe(getConfiguration().sleepWaitMillis);
+		}
+		
+		if(configuration.test){
+			final StorageTest storageTest = new StorageTest();
+			storageTest.test(this);
+			//throw new RuntimeException("Shutting down after completing the test!");
+		}
+		
+		this.queryEnvironment = new Neo4jQueryEnvironment(configuration.nodePrimaryLabelName, this, configuration.edgeSymbolsPropertyName,
+				configuration.querySymbolsNodeLabelName);
+		queryEnvironment.initialize();
+		this.queryInstructionExecutor = new Neo4jInstructionExecutor(this, queryEnvironment, configuration.hashPropertyName);
+	}
+
+	public final boolean isBulkImporting(){
+		return bulkImporter != null;
+	}
+
+	private final void startBulkImport() throws Exception{
+		synchronized(bulkImportLock){
+			final BulkImporter importer = new BulkImporter(this);
+			importer.start();
+			bulkImporter = importer;
+		}
+		if(configuration.bulkImportFinishAfterIdleSeconds > 0){
+			final long idleMillis = configuration.bulkImportFinishAfterIdleSeconds * 1000L;
+			bulkImportIdleTimer = new Timer("neo4j-bulk-import-idle", true);
+			bulkImportIdleTimer.schedule(new TimerTask(){
+				@Override
+				public void run(){
+					final BulkImporter importer = bulkImporter;
+					if(importer != null && System.currentTimeMillis() - importer.getLastPutMillis() >= idleMillis){
+						logger.log(Level.INFO, "No vertex/edge put for " + configuration.bulkImportFinishAfterIdleSeconds
+								+ " second(s). Finishing bulk import");
+						finishBulkImport();
+					}
+				}
+			}, 1000, 1000);
+		}
+	}
+
+	/**
+	 * Imports the spooled vertices and edges, starts the database, and queues the creation of the indexes. The import
+	 * runs without the lock held. Vertices and edges put in the meantime are kept (up to 'bufferLimit', after which
+	 * the puts wait), and are stored transactionally afterwards. Concurrent calls wait for the first one to finish.
+	 *
+	 * @return True if the import succeeded or there was no bulk import to finish
+	 */
+	public final boolean finishBulkImport(){
+		final BulkImporter importer;
+		synchronized(bulkImportLock){
+			try{
+				while(bulkImportFinishing){
+					bulkImportLock.wait();
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				logger.log(Level.WARNING, "Interrupted while waiting for bulk import to finish");
+				return false;
+			}
+			importer = bulkImporter;
+			if(importer == null){
+				return bulkImportSucceeded;
+			}
+			if(bulkImportIdleTimer != null){
+				bulkImportIdleTimer.cancel();
+				bulkImportIdleTimer = null;
+			}
+			bulkImportFinishing = true;
+		}
+		boolean succeeded = false;
+		try{
+			succeeded = importAndStartDatabase(importer);
+		}finally{
+			synchronized(bulkImportLock){
+				if(succeeded){
+					// Queued while holding the lock so that the puts waiting for it come after
+					for(final Object element : bulkImportBacklog){
+						if(element instanceof AbstractVertex){
+							addPendingTask(new TaskPutVertex((AbstractVertex)element), Priority.WRITE);
+						}else{
+							addPendingTask(new TaskPutEdge((AbstractEdge)element), Priority.WRITE);
+						}
+					}
+					if(!bulkImportBacklog.isEmpty()){
+						logger.log(Level.INFO, bulkImportBacklog.size()
+								+ " vertex/edge put(s) during the import queued for transactional ingest");
+					}
+				}else if(!bulkImportBacklog.isEmpty()){
+					logger.log(Level.WARNING, bulkImportBacklog.size()
+							+ " vertex/edge put(s) during the failed import discarded");
+				}
+				bulkImportBacklog.clear();
+				bulkImporter = null;
+				bulkImportSucceeded = succeeded;
+				bulkImportFinishing = false;
+				bulkImportLock.notifyAll();
+			}
+		}
+		if(succeeded){
+			logger.log(Level.INFO, "Bulk import finished. Transactional ingest resumed");
+		}
+		return succeeded;
+	}
+
+	private final boolean importAndStartDatabase(final BulkImporter importer){
+		final String importTimerKey = "BULK-IMPORT";
+		try{
+			neo4jStats.startActionTimer(importTimerKey);
+			importer.finish();
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to bulk import. Storage not in usable state", e);
+			setShutdown(true);
+			return false;
+		}finally{
+			neo4jStats.stopActionTimer(importTimerKey);
+		}
+		try{
+			startDatabase(true);
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to start database after bulk import. Storage not in usable state", e);
+			setShutdown(true);
+			return false;
+		}
+		// Indexes on all the imported keys (according to the indexing mode)
+		final Set<String> nodeKeys = new HashSet<String>(importer.getNodePropertyNames());
+		nodeKeys.add(configuration.hashPropertyName);
+		updateNodePropertyNames(nodeKeys);
+		final Set<String> relationshipKeys = new HashSet<String>(importer.getRelationshipPropertyNames());
+		relationshipKeys.add(configuration.hashPropertyName);
+		updateRelationshipPropertyNames(relationshipKeys);
+		return true;
+	}
+
+	/**
+	 * Spools the vertex or edge, or keeps it for later if the import is running.
+	 *
+	 * @return Null if the bulk import is over and the vertex or edge is to be stored transactionally
+	 */
+	private final Boolean putDuringBulkImport(final Object element){
+		synchronized(bulkImportLock){
+			try{
+				while(bulkImportFinishing && configuration.bufferLimit >= 0
+						&& bulkImportBacklog.size() >= configuration.bufferLimit){
+					bulkImportLock.wait();
+				}
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				logger.log(Level.WARNING, "Interrupted while waiting for bulk import to finish. Discarded: " + element);
+				return false;
+			}
+			if(bulkImportFinishing){
+				bulkImportBacklog.add(element);
+				return true;
+			}
+			if(bulkImporter == null){
+				return null;
+			}
+			try{
+				if(element instanceof AbstractVertex){
+					bulkImporter.putVertex((AbstractVertex)element);
+				}else{
+					bulkImporter.putEdge((AbstractEdge)element);
+				}
+				return true;
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to spool for bulk import: " + element, e);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * A forced flush finishes the bulk import (if any)
+	 */
+	@Override
+	public final boolean flushTransactions(final boolean force){
+		if(force && isBulkImporting()){
+			return finishBulkImport();
+		}
+		return true;
+	}
+
 	// start - public
 	@Override
 	public final boolean storeVertex(final AbstractVertex vertex){
+		if(isBulkImporting()){
+			final Boolean result = putDuringBulkImport(vertex);
+			if(result != null){
+				return result;
+			}
+		}
 		if(!isShutdown() && isMainThreadRunning()){
-			appendPendingTask(new TaskPutVertex(vertex));
+			addPendingTask(new TaskPutVertex(vertex), Priority.WRITE);
 		}else{
 			debug("Storage already shutdown. Vertex discarded: " + vertex);
 		}
@@ -704,8 +982,14 @@ public class Neo4j extends AbstractStorage{
 
 	@Override
 	public final boolean storeEdge(final AbstractEdge edge){
+		if(isBulkImporting()){
+			final Boolean result = putDuringBulkImport(edge);
+			if(result != null){
+				return result;
+			}
+		}
 		if(!isShutdown() && isMainThreadRunning()){
-			appendPendingTask(new TaskPutEdge(edge));
+			addPendingTask(new TaskPutEdge(edge), Priority.WRITE);
 		}else{
 			debug("Storage already shutdown. Edge discarded: " + edge);
 		}
@@ -743,13 +1027,18 @@ public class Neo4j extends AbstractStorage{
 
 		if(!isShutdown() && isMainThreadRunning()){
 			queryObject.setTransactionTimeoutInSeconds(getConfiguration().transactionTimeoutInSeconds);
-			prependPendingTask(queryObject);
-			// Block until complete
-			while(!queryObject.isCompleted()){
-				if(!isMainThreadRunning()){
-					throw new RuntimeException("Task execution thread exited. Failed to execute query: " + queryObject);
-				}
-				HelperFunctions.sleepSafe(configuration.sleepWaitMillis);
+			if(!addPendingTask(queryObject, Priority.QUERY) && !queryObject.isCompleted()){
+				throw new RuntimeException("Task execution thread exited. Failed to execute query: " + queryObject);
+			}
+			// Block until complete. The task is completed even if discarded by the main thread.
+			try{
+				queryObject.getFuture().get();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				queryObject.cancel();
+				throw new RuntimeException("Interrupted while waiting for query: " + queryObject, e);
+			}catch(ExecutionException e){
+				// The error of the task is thrown below
 			}
 			if(queryObject.getError() != null){
 				throw new RuntimeException(queryObject.getError().getMessage(), queryObject.getError());
@@ -19,20 +19,27 @@
  */
 package spade.storage;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.postgresql.copy.CopyManager;
@@ -42,7 +49,9 @@ import spade.core.AbstractEdge;
 import spade.core.AbstractVertex;
 import spade.core.Settings;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.query.quickgrail.core.QueryMonitor;
 import spade.storage.postgresql.Configuration;
+import spade.storage.postgresql.CopyEncoder;
 import spade.storage.postgresql.PostgreSQLInstructionExecutor;
 import spade.storage.postgresql.PostgreSQLQueryEnvironment;
 import spade.utility.GraphBuffer;
@@ -73,6 +82,29 @@ public class PostgreSQL extends SQL{
 
 	private Connection connection = null;
 
+	/*
+	 * Full buffers are persisted by the loader threads. Each loader has its own connection and encoder.
+	 * The vertex and edge COPYs of a batch (and of consecutive batches) run in parallel. Each base table COPY follows
+	 * the COPY of its main table.
+	 */
+	private ExecutorService loaderExecutor = null;
+	private final BlockingQueue<Loader> idleLoaders = new LinkedBlockingQueue<>();
+	private final List<Loader> allLoaders = new ArrayList<>();
+	private final ArrayDeque<CompletableFuture<Void>> inFlightBatches = new ArrayDeque<>();
+
+	private static final int copyBufferSize = 64 * 1024;
+	private final Object flushLock = new Object();
+
+	private static final class Loader{
+		private final Connection connection;
+		private final CopyEncoder copyEncoder;
+
+		private Loader(final Connection connection, final CopyEncoder copyEncoder){
+			this.connection = connection;
+			this.copyEncoder = copyEncoder;
+		}
+	}
+
 	@Override
 	public boolean initialize(final String arguments){
 		try{
@@ -90,7 +122,21 @@ public class PostgreSQL extends SQL{
 				resetDatabase(connection);
 			}
 
-			setupDatabase(connection, configuration.isSecondaryIndexes());
+			setupDatabase(connection, configuration.isSecondaryIndexes(), configuration.getPartitions());
+
+			for(int i = 0; i < configuration.getLoaders(); i++){
+				final Loader loader = new Loader(
+						DriverManager.getConnection(connectionURL, configuration.getDbUser(), configuration.getDbPassword()),
+						new CopyEncoder(configuration.getCopyFormat(), copyBufferSize));
+				allLoaders.add(loader);
+				idleLoaders.add(loader);
+			}
+			final AtomicInteger loaderThreadCount = new AtomicInteger(0);
+			loaderExecutor = Executors.newFixedThreadPool(configuration.getLoaders(), runnable -> {
+				final Thread thread = new Thread(runnable, "PostgreSQL-loader-Thread-" + loaderThreadCount.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			});
 
 			logger.info(this.configuration.toString());
 			return true;
@@ -102,7 +148,11 @@ public class PostgreSQL extends SQL{
 
 	@Override
 	public boolean shutdown(){
-		flush();
+		flushAndWait();
+		if(loaderExecutor != null){
+			loaderExecutor.shutdown();
+			loaderExecutor = null;
+		}
 		try{
 			closeConnection();
 		}catch(Exception e){
@@ -115,7 +165,7 @@ public class PostgreSQL extends SQL{
 		this.connection = connection;
 	}
 
-	private CopyManager createCopyManager() throws Exception{
+	private CopyManager createCopyManager(final Connection connection) throws Exception{
 		return new CopyManager((BaseConnection)connection);
 	}
 
@@ -124,6 +174,15 @@ public class PostgreSQL extends SQL{
 	}
 
 	private void closeConnection() throws Exception{
+		for(final Loader loader : allLoaders){
+			try{
+				loader.connection.close();
+			}catch(Exception e){
+				logger.log(Level.WARNING, "Failed to close loader connection", e);
+			}
+		}
+		allLoaders.clear();
+		idleLoaders.clear();
 		this.connection.close();
 	}
 
@@ -178,6 +237,7 @@ public class PostgreSQL extends SQL{
 					, getEdgeTableName()
 					, getBaseVertexTableName()
 					, getBaseEdgeTableName()
+					, METADATA_TABLE
 					}){
 				dropTable(statement, tableName);
 			}
@@ -190,17 +250,18 @@ public class PostgreSQL extends SQL{
 		return '"' + columnName + '"';
 	}
 
-	private String getQueryCreateVertexTable(){
+	private String getQueryCreateVertexTable(final int partitions){
 		final String query = 
 				"create table if not exists " + getVertexTableName()
 				+ "(" 
 				+ formatColumnName(getPrimaryKeyName()) + " UUID"
 				+ ", " + formatColumnName("type") + " VARCHAR(32) not null"
-				+ ")";
+				+ ")"
+				+ getPartitionClause(partitions);
 		return query;
 	}
 
-	private String getQueryCreateEdgeTable(){
+	private String getQueryCreateEdgeTable(final int partitions){
 		final String query = 
 				"create table if not exists " + getEdgeTableName()
 				+ "(" 
@@ -208,25 +269,28 @@ public class PostgreSQL extends SQL{
 				+ ", " + formatColumnName("type") + " VARCHAR(32) not null"
 				+ ", " + formatColumnName(getChildVertexKeyName()) + " UUID not null"
 				+ ", " + formatColumnName(getParentVertexKeyName()) + " UUID not null"
-				+ ")";
+				+ ")"
+				+ getPartitionClause(partitions);
 		return query;
 	}
 
-	private String getQueryCreateVertexBaseTable(){
+	private String getQueryCreateVertexBaseTable(final int partitions){
 		final String query = 
 				"create table if not exists " + getBaseVertexTableName()
 				+ "(" 
 				+ formatColumnName(getPrimaryKeyName()) + " UUID"
-				+ ")";
+				+ ")"
+				+ getPartitionClause(partitions);
 		return query;
 	}
 
-	private String getQueryCreateEdgeBaseTable(){
+	private String getQueryCreateEdgeBaseTable(final int partitions){
 		final String query = 
 				"create table if not exists " + getBaseEdgeTableName()
 				+ "(" 
 				+ formatColumnName(getPrimaryKeyName()) + " UUID"
-				+ ")";
+				+ ")"
+				+ getPartitionClause(partitions);
 		return query;
 	}
 
@@ -247,23 +311,31 @@ public class PostgreSQL extends SQL{
 		}
 	}
 
+	/*
+	 * The column names are read by the ingesting thread and updated by the flushing thread. Therefore, all
+	 * access is synchronized on the set.
+	 */
 	private void addToVertexColumn(final String columnName){
-		getVertexColumnNames().add(columnName);
+		synchronized(getVertexColumnNames()){
+			getVertexColumnNames().add(columnName);
+		}
 	}
 
-	private void addToVertexColumn(final Set<String> columnNames){
-		for(final String columnName : columnNames){
-			addToVertexColumn(columnName);
+	private void addToEdgeColumn(final String columnName){
+		synchronized(getEdgeColumnNames()){
+			getEdgeColumnNames().add(columnName);
 		}
 	}
 
-	private void addToEdgeColumn(final String columnName){
-		getEdgeColumnNames().add(columnName);
+	private Set<String> copyVertexColumnNames(){
+		synchronized(getVertexColumnNames()){
+			return new LinkedHashSet<>(getVertexColumnNames());
+		}
 	}
-	
-	private void addToEdgeColumn(final Set<String> columnNames){
-		for(final String columnName : columnNames){
-			addToEdgeColumn(columnName);
+
+	private Set<String> copyEdgeColumnNames(){
+		synchronized(getEdgeColumnNames()){
+			return new LinkedHashSet<>(getEdgeColumnNames());
 		}
 	}
 
@@ -309,63 +381,74 @@ public class PostgreSQL extends SQL{
 		}
 	}
 
-	private void setupDatabase(final Connection connection, final boolean secondaryIndexes) throws Exception{
+	/*
+	 * Hash partitions on the primary key spread the COPYs of the loaders over multiple tables.
+	 * Only applied when the tables are created.
+	 */
+	private String getPartitionClause(final int partitions){
+		if(partitions <= 0){
+			return "";
+		}
+		return " partition by hash (" + formatColumnName(getPrimaryKeyName()) + ")";
+	}
+
+	private void createPartitions(final Statement statement, final String tableName, final int partitions) throws Exception{
+		for(int i = 0; i < partitions; i++){
+			statement.execute("create table if not exists " + tableName + "_p" + i
+					+ " partition of " + tableName + " for values with (modulus " + partitions + ", remainder " + i + ")");
+		}
+	}
+
+	private void setupDatabase(final Connection connection, final boolean secondaryIndexes, final int partitions) throws Exception{
 		try(final Statement statement = connection.createStatement()){
-			statement.execute(getQueryCreateVertexTable());
+			statement.execute(getQueryCreateVertexTable(partitions));
+			createPartitions(statement, getVertexTableName(), partitions);
 			populateVertexColumnNames(statement);
-			statement.execute(getQueryCreateEdgeTable());
+			statement.execute(getQueryCreateEdgeTable(partitions));
+			createPartitions(statement, getEdgeTableName(), partitions);
 			populateEdgeColumnNames(statement);
-			statement.execute(getQueryCreateVertexBaseTable());
-			statement.execute(getQueryCreateEdgeBaseTable());
+			statement.execute(getQueryCreateVertexBaseTable(partitions));
+			createPartitions(statement, getBaseVertexTableName(), partitions);
+			statement.execute(getQueryCreateEdgeBaseTable(partitions));
+			createPartitions(statement, getBaseEdgeTableName(), partitions);
 			if(secondaryIndexes){
 				createSecondaryIndexes(statement);
 			}
+			checkHashAlgorithm(connection);
 		}catch(Exception e){
 			throw new Exception("Failed to setup database", e);
 		}
 	}
 
-	private Set<String> getNewVertexColumns(final Set<String> columnNames){
-		final Set<String> newColumnNames = new HashSet<String>(columnNames);
-		newColumnNames.removeAll(getVertexColumnNames());
-		return newColumnNames;
-	}
-
-	private Set<String> getNewEdgeColumns(final Set<String> columnNames){
-		final Set<String> newColumnNames = new HashSet<String>(columnNames);
-		newColumnNames.removeAll(getEdgeColumnNames());
-		return newColumnNames;
-	}
-
-	private void updateTableColumns(
-			final Set<String> newColumnNames, final String tableName) throws Exception{
+	/*
+	 * 'if not exists' because a key can be deferred again while its column is being added.
+	 */
+	@Override
+	protected boolean addColumn(final String table_name, final String column_name){
 		try(final Statement statement = createStatement()){
-			String query = "";
-			for(final String newColumnName : newColumnNames){
-				query += "alter table " + tableName + " add column " + formatColumnName(newColumnName) + " varchar;";
-			}
-			statement.execute(query);
-		}catch(Exception e0){
-			throw new Exception("Failed to add columns to " + tableName + " table", e0);
+			statement.execute("alter table " + table_name + " add column if not exists " + formatColumnName(column_name) + " varchar");
+		}catch(Exception e){
+			logger.log(Level.WARNING, "Failed to add column '" + column_name + "' to " + table_name + " table", e);
+			return false;
+		}
+		if(getVertexTableName().equals(table_name)){
+			addToVertexColumn(column_name);
+		}else if(getEdgeTableName().equals(table_name)){
+			addToEdgeColumn(column_name);
 		}
+		return true;
 	}
 
+	/*
+	 * New columns are added by flush() before the buffer is persisted. See SQL.deferNewColumns.
+	 */
 	@Override
 	public boolean storeVertex(final AbstractVertex vertex){
 		if(vertex == null){
 			return false;
 		}
-		final Set<String> newColumnNames = getNewVertexColumns(vertex.getAnnotationKeys());
-		if(!newColumnNames.isEmpty()){
-			// Flush existing data because schema needs to be updated
-			flush();
-			try{
-				updateTableColumns(newColumnNames, getVertexTableName());
-				addToVertexColumn(newColumnNames);
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Vertex discarded because of PostgreSQL error", e);
-				return false;
-			}
+		synchronized(getVertexColumnNames()){
+			deferNewColumns(getVertexTableName(), vertex.getAnnotationKeys(), getVertexColumnNames());
 		}
 		addToBuffer(vertex);
 		return true;
@@ -376,17 +459,8 @@ public class PostgreSQL extends SQL{
 		if(edge == null || edge.getChildVertex() == null || edge.getParentVertex() == null){
 			return false;
 		}
-		final Set<String> newColumnNames = getNewEdgeColumns(edge.getAnnotationKeys());
-		if(!newColumnNames.isEmpty()){
-			// Flush existing data because schema needs to be updated
-			flush();
-			try{
-				updateTableColumns(newColumnNames, getEdgeTableName());
-				addToEdgeColumn(newColumnNames);
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Edge discarded because of PostgreSQL error", e);
-				return false;
-			}
+		synchronized(getEdgeColumnNames()){
+			deferNewColumns(getEdgeTableName(), edge.getAnnotationKeys(), getEdgeColumnNames());
 		}
 		addToBuffer(edge);
 		return true;
@@ -406,135 +480,151 @@ public class PostgreSQL extends SQL{
 		}
 	}
 
-	private void persist(final GraphSnapshot graph){
-		if(graph.vertexSize() > 0){
-			final int vertexBufferSize = graph.vertexSize();
-			try{
-				final StringBuffer csvHashes = new StringBuffer();
-				csvHashes.append(getCSVLine(Arrays.asList(getPrimaryKeyName())));
-	
-				final StringBuffer csvVertices = new StringBuffer();
-				csvVertices.append(getCSVLine(getVertexColumnNames()));
-	
-				final List<String> vertexValues = new ArrayList<>();
-				final Iterator<AbstractVertex> vertices = graph.vertices();
-				while(vertices.hasNext()){
-					final AbstractVertex vertex = vertices.next();
-					for(final String vertexColumnName : getVertexColumnNames()){
-						final String vertexValue;
-						switch(vertexColumnName){
-							case PRIMARY_KEY:{
-								vertexValue = vertex.bigHashCode();
-								csvHashes.append(getCSVLine(Arrays.asList(vertexValue)));
-								break;
-							}
-							default: vertexValue = vertex.getAnnotation(vertexColumnName); break;
-						}
-						vertexValues.add(vertexValue);
-					}
-					csvVertices.append(getCSVLine(vertexValues));
-					vertexValues.clear();
-				}
-	
-				final CopyManager copyManager = createCopyManager();
-				copyManager.copyIn(
-						"copy " + getVertexTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvVertices.toString()))
-						);
-	
-				copyManager.copyIn(
-						"copy " + getBaseVertexTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvHashes.toString()))
-						);
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to persist " + vertexBufferSize + " vertices", e);
+	private String getQueryCopyFrom(final CopyEncoder copyEncoder, final String tableName, final Iterable<String> columnNames){
+		final StringBuilder columns = new StringBuilder();
+		for(final String columnName : columnNames){
+			if(columns.length() > 0){
+				columns.append(", ");
 			}
+			columns.append(formatColumnName(columnName));
 		}
-		
-		if(graph.edgeSize() > 0){
-			final int edgeBufferSize = graph.edgeSize();
-			try{
-				final StringBuffer csvHashes = new StringBuffer();
-				csvHashes.append(getCSVLine(Arrays.asList(getPrimaryKeyName())));
-	
-				final StringBuffer csvData = new StringBuffer();
-				csvData.append(getCSVLine(getEdgeColumnNames()));
-	
-				final List<String> edgesValues = new ArrayList<>();
-				final Iterator<AbstractEdge> edges = graph.edges();
-				while(edges.hasNext()){
-					final AbstractEdge edge = edges.next();
-					for(final String edgeColumnName : getEdgeColumnNames()){
-						final String edgeValue;
-						switch(edgeColumnName){
-							case PRIMARY_KEY:{
-								edgeValue = edge.bigHashCode();
-								csvHashes.append(getCSVLine(Arrays.asList(edgeValue)));
-								break;
-							}
-							case CHILD_VERTEX_KEY: edgeValue = edge.getChildVertex().bigHashCode(); break;
-							case PARENT_VERTEX_KEY: edgeValue = edge.getParentVertex().bigHashCode(); break;
-							default: edgeValue = edge.getAnnotation(edgeColumnName); break;
-						}
-						edgesValues.add(edgeValue);
-					}
-					csvData.append(getCSVLine(edgesValues));
-					edgesValues.clear();
+		return "copy " + tableName + " (" + columns + ") from stdin (" + copyEncoder.getCopyOptions() + ")";
+	}
+
+	/*
+	 * Runs the COPY with an idle loader. There are as many loader threads as loaders so a loader is always
+	 * available to a loader thread.
+	 * 
+	 * Returns false if the COPY failed.
+	 */
+	private boolean copyWithLoader(final String description, final int count, final CopyTask copyTask){
+		Loader loader = null;
+		try{
+			loader = idleLoaders.take();
+			copyTask.copy(loader.connection, loader.copyEncoder);
+			return true;
+		}catch(Exception e){
+			if(loader != null){
+				loader.copyEncoder.abort();
+			}
+			logger.log(Level.WARNING, "Failed to persist " + count + " " + description, e);
+			return false;
+		}finally{
+			if(loader != null){
+				idleLoaders.add(loader);
+			}
+		}
+	}
+
+	private static interface CopyTask{
+		public void copy(final Connection connection, final CopyEncoder copyEncoder) throws Exception;
+	}
+
+	private void copyVertices(final Connection connection, final CopyEncoder copyEncoder,
+			final GraphSnapshot graph, final Set<String> vertexColumnNames) throws Exception{
+		final CopyManager copyManager = createCopyManager(connection);
+		copyEncoder.begin(copyManager.copyIn(getQueryCopyFrom(copyEncoder, getVertexTableName(), vertexColumnNames)));
+		final Iterator<AbstractVertex> vertices = graph.vertices();
+		while(vertices.hasNext()){
+			final AbstractVertex vertex = vertices.next();
+			copyEncoder.beginRow(vertexColumnNames.size());
+			for(final String vertexColumnName : vertexColumnNames){
+				switch(vertexColumnName){
+					case PRIMARY_KEY: copyEncoder.writeHash(vertex.bigHashCode()); break;
+					default: copyEncoder.writeText(vertex.getAnnotation(vertexColumnName)); break;
 				}
-	
-				final CopyManager copyManager = createCopyManager();
-				copyManager.copyIn(
-						"copy " + getEdgeTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvData.toString()))
-						);
-	
-				copyManager.copyIn(
-						"copy " + getBaseEdgeTableName() + " from stdin (format csv, header)", 
-						new BufferedReader(new StringReader(csvHashes.toString()))
-						);
-	
-				if(BUILD_SCAFFOLD){
-					try{
-						final Iterator<AbstractEdge> edgesForScaffold = graph.edges();
-						while(edgesForScaffold.hasNext()){
-							final AbstractEdge edge = edgesForScaffold.next();
-							insertScaffoldEntry(edge);
-						}
-					}catch(Exception e){
-						logger.log(Level.WARNING, "Failed to update scaffold", e);
-					}
+			}
+			copyEncoder.endRow();
+		}
+		copyEncoder.end();
+	}
+
+	private void copyBaseVertices(final Connection connection, final CopyEncoder copyEncoder,
+			final GraphSnapshot graph) throws Exception{
+		final CopyManager copyManager = createCopyManager(connection);
+		copyEncoder.begin(copyManager.copyIn(getQueryCopyFrom(copyEncoder, getBaseVertexTableName(), Arrays.asList(getPrimaryKeyName()))));
+		final Iterator<AbstractVertex> vertices = graph.vertices();
+		while(vertices.hasNext()){
+			copyEncoder.beginRow(1);
+			copyEncoder.writeHash(vertices.next().bigHashCode());
+			copyEncoder.endRow();
+		}
+		copyEncoder.end();
+	}
+
+	private void copyEdges(final Connection connection, final CopyEncoder copyEncoder,
+			final GraphSnapshot graph, final Set<String> edgeColumnNames) throws Exception{
+		final CopyManager copyManager = createCopyManager(connection);
+		copyEncoder.begin(copyManager.copyIn(getQueryCopyFrom(copyEncoder, getEdgeTableName(), edgeColumnNames)));
+		final Iterator<AbstractEdge> edges = graph.edges();
+		while(edges.hasNext()){
+			final AbstractEdge edge = edges.next();
+			copyEncoder.beginRow(edgeColumnNames.size());
+			for(final String edgeColumnName : edgeColumnNames){
+				switch(edgeColumnName){
+					case PRIMARY_KEY: copyEncoder.writeHash(edge.bigHashCode()); break;
+					case CHILD_VERTEX_KEY: copyEncoder.writeHash(edge.getChildVertex().bigHashCode()); break;
+					case PARENT_VERTEX_KEY: copyEncoder.writeHash(edge.getParentVertex().bigHashCode()); break;
+					default: copyEncoder.writeText(edge.getAnnotation(edgeColumnName)); break;
 				}
-			}catch(Exception e){
-				logger.log(Level.WARNING, "Failed to persist " + edgeBufferSize + " edges", e);
 			}
+			copyEncoder.endRow();
+		}
+		copyEncoder.end();
+	}
+
+	private void copyBaseEdges(final Connection connection, final CopyEncoder copyEncoder,
+			final GraphSnapshot graph) throws Exception{
+		final CopyManager copyManager = createCopyManager(connection);
+		copyEncoder.begin(copyManager.copyIn(getQueryCopyFrom(copyEncoder, getBaseEdgeTableName(), Arrays.asList(getPrimaryKeyName()))));
+		final Iterator<AbstractEdge> edges = graph.edges();
+		while(edges.hasNext()){
+			copyEncoder.beginRow(1);
+			copyEncoder.writeHash(edges.next().bigHashCode());
+			copyEncoder.endRow();
 		}
-		graph.clear();
+		copyEncoder.end();
 	}
 
-	private String getCSVLine(final Iterable<String> iterable){
-		final StringBuffer str = new StringBuffer();
-		for(String item : iterable){
-			item = formatToCSV(item);
-			str.append(item).append(",");
+	/*
+	 * The column names are passed in (and not read from the fields) because the fields are updated by the
+	 * ingesting thread while the loaders are running.
+	 * 
+	 * The snapshot is only read by the COPYs so it is safe to share between them. The vertex and the edge COPYs run
+	 * in parallel. The base table COPY only runs after its main table COPY succeeded so that the base tables never
+	 * list vertices or edges which were not stored.
+	 */
+	private CompletableFuture<Void> persist(final GraphSnapshot graph,
+			final Set<String> vertexColumnNames, final Set<String> edgeColumnNames){
+		final List<CompletableFuture<Void>> copies = new ArrayList<>();
+		if(graph.vertexSize() > 0){
+			final int vertexBufferSize = graph.vertexSize();
+			copies.add(CompletableFuture.supplyAsync(() -> copyWithLoader("vertices", vertexBufferSize, 
+					(connection, copyEncoder) -> copyVertices(connection, copyEncoder, graph, vertexColumnNames)), loaderExecutor)
+					.thenAcceptAsync(copied -> copyBaseIfCopied(copied, "base vertices", vertexBufferSize, 
+							(connection, copyEncoder) -> copyBaseVertices(connection, copyEncoder, graph)), loaderExecutor));
 		}
-		if(str.length() > 0){
-			str.setCharAt(str.length() - 1, '\n');
+		if(graph.edgeSize() > 0){
+			final int edgeBufferSize = graph.edgeSize();
+			copies.add(CompletableFuture.supplyAsync(() -> copyWithLoader("edges", edgeBufferSize, 
+					(connection, copyEncoder) -> copyEdges(connection, copyEncoder, graph, edgeColumnNames)), loaderExecutor)
+					.thenAcceptAsync(copied -> copyBaseIfCopied(copied, "base edges", edgeBufferSize, 
+							(connection, copyEncoder) -> copyBaseEdges(connection, copyEncoder, graph)), loaderExecutor));
 		}
-		return str.toString();
+		return CompletableFuture.allOf(copies.toArray(new CompletableFuture<?>[copies.size()]));
 	}
 
-	private String formatToCSV(String item){
-		if(item == null){
-			return ""; // NULL
+	private void copyBaseIfCopied(final boolean copied, final String description, final int count, final CopyTask copyTask){
+		if(copied){
+			copyWithLoader(description, count, copyTask);
+		}else{
+			logger.log(Level.WARNING, "Skipped persisting " + count + " " + description + " because the main table COPY failed");
 		}
-		item = item.replace('"', '\"');
-		item = '"' + item + '"';
-		return item;
 	}
 
 	@Override
 	public ResultSet executeQuery(String query){
-		flush();
+		flushAndWait();
 
 		ResultSet result = null;
 		try(final Statement queryStatement = createStatement()){
@@ -550,16 +640,186 @@ public class PostgreSQL extends SQL{
 	}
 
 	private void flush(){
-		persist(graphBuffer.flush());
+		synchronized(flushLock){
+			final GraphSnapshot graph = graphBuffer.flush();
+			if(graph.size() == 0){
+				return;
+			}
+			// The keys of all the elements in the snapshot were deferred before the elements were buffered.
+			// Schema changes wait for the COPYs in flight (see flushAndWait).
+			if(hasPendingColumns()){
+				waitForInFlightBatches(0);
+				if(!applyPendingColumns()){
+					logger.log(Level.WARNING, "Values of the keys without a column are not stored for the "
+							+ graph.size() + " element(s) of this batch");
+				}
+			}
+			final Set<String> vertexColumnNames = copyVertexColumnNames();
+			final Set<String> edgeColumnNames = copyEdgeColumnNames();
+			// Leave room for this batch
+			waitForInFlightBatches(configuration.getMaxInFlightBatches() - 1);
+			inFlightBatches.addLast(persist(graph, vertexColumnNames, edgeColumnNames));
+			if(!configuration.isAsyncFlush()){
+				waitForInFlightBatches(0);
+			}
+		}
 	}
 
-	public List<List<String>> executeQueryForResult(String query, boolean addColumnNames){
+	/*
+	 * Must be used instead of flush() when the persisted data must be visible on return. For example, before
+	 * queries or schema changes.
+	 */
+	private void flushAndWait(){
 		flush();
+		waitForInFlightBatches(0);
+	}
 
-		try(final Statement queryStatement = createStatement()){
+	private void waitForInFlightBatches(final int maxRemaining){
+		synchronized(flushLock){
+			while(inFlightBatches.size() > maxRemaining){
+				final CompletableFuture<Void> future = inFlightBatches.pollFirst();
+				try{
+					future.get();
+				}catch(Exception e){
+					logger.log(Level.SEVERE, "Failed to wait for batch to be persisted", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Persists the buffered vertices and edges and waits for them to be visible. Called once per QuickGrail query.
+	 */
+	public void flushForQuery(){
+		flushAndWait();
+	}
+
+	/**
+	 * @return A new connection for a query session. Closed by the caller
+	 */
+	public Connection createQueryConnection() throws Exception{
+		return DriverManager.getConnection(configuration.getConnectionURL(), configuration.getDbUser(), configuration.getDbPassword());
+	}
+
+	/**
+	 * Receives the rows of a query result one at a time.
+	 */
+	public static interface RowConsumer{
+		public void accept(final List<String> columnNames, final List<String> row) throws Exception;
+	}
+
+	/**
+	 * Runs the query in a transaction on a connection of its own so that the rows are fetched through a server-side
+	 * cursor, 'fetchSize' rows at a time, instead of all at once. Does not flush the buffers (see flushForQuery).
+	 */
+	public void executeQueryWithCursor(final String query, final int fetchSize, final RowConsumer consumer) throws Exception{
+		try(final Connection cursorConnection = createQueryConnection()){
+			cursorConnection.setAutoCommit(false);
+			try(final Statement queryStatement = cursorConnection.createStatement()){
+				queryStatement.setFetchSize(fetchSize);
+				try(final ResultSet resultSet = queryStatement.executeQuery(query)){
+					final int columnCount = resultSet.getMetaData().getColumnCount();
+					final List<String> columnNames = new ArrayList<String>();
+					for(int i = 0; i < columnCount; i++){
+						columnNames.add(resultSet.getMetaData().getColumnLabel(i + 1));
+					}
+					while(resultSet.next()){
+						final List<String> row = new ArrayList<String>();
+						for(int i = 0; i < columnCount; i++){
+							Object cellObject = resultSet.getObject(i + 1);
+							if(resultSet.wasNull()){
+								row.add(null);
+							}else{
+								row.add(String.valueOf(cellObject));
+							}
+						}
+						consumer.accept(columnNames, row);
+					}
+				}
+			}
+			cursorConnection.commit();
+		}catch(Exception ex){
+			logger.log(Level.SEVERE, "PostgreSQL query execution not successful!", ex);
+			throw new RuntimeException("Query failed: " + query, ex);
+		}
+	}
+
+	public List<List<String>> executeQueryForResult(String query, boolean addColumnNames){
+		flushAndWait();
+		return executeQueryForResult(connection, query, addColumnNames);
+	}
+
+	public List<List<String>> executeQueryForResult(String query, boolean addColumnNames, final QueryMonitor queryMonitor){
+		return executeQueryForResult(connection, query, addColumnNames, queryMonitor);
+	}
+
+	public List<List<String>> executeQueryForResult(final Connection connection, String query, boolean addColumnNames){
+		return executeQueryForResult(connection, query, addColumnNames, null);
+	}
+
+	/**
+	 * Runs the update with the values bound as its only parameter (an array of the given element type) instead of
+	 * written into the statement. Does not flush the buffers (see executeQueryForResult).
+	 *
+	 * @param connection The connection of the query session, or null for the connection of the storage
+	 * @return Number of rows updated
+	 */
+	public int executeUpdateWithArray(final Connection connection, final String query, final String elementType,
+			final Collection<String> values, final QueryMonitor queryMonitor){
+		final Connection queryConnection = connection == null ? this.connection : connection;
+		QueryMonitor.Cancellable cancellable = null;
+		try(final PreparedStatement queryStatement = queryConnection.prepareStatement(query)){
+			if(queryMonitor != null){
+				cancellable = queryStatement::cancel;
+				queryMonitor.register(cancellable);
+				// Cancelling a statement that has not started does nothing in the driver
+				queryMonitor.checkCancelled();
+			}
+			final Array array = queryConnection.createArrayOf(elementType, values.toArray());
+			try{
+				queryStatement.setArray(1, array);
+				final int rows = queryStatement.executeUpdate();
+				if(queryMonitor != null){
+					queryMonitor.addRowsTouched(rows);
+				}
+				return rows;
+			}finally{
+				array.free();
+			}
+		}catch(Exception ex){
+			if(queryMonitor != null && queryMonitor.isCancelled()){
+				queryMonitor.checkCancelled();
+			}
+			logger.log(Level.SEVERE, "PostgreSQL query execution not successful!", ex);
+			throw new RuntimeException("Query failed: " + query, ex);
+		}finally{
+			if(cancellable != null){
+				queryMonitor.unregister(cancellable);
+			}
+		}
+	}
+
+	/**
+	 * Does not flush the buffers. The statements of a QuickGrail query only see the vertices and edges flushed by
+	 * flushForQuery before the query.
+	 *
+	 * @param queryMonitor If not null then the statement is cancelled when the query is cancelled, and the rows
+	 * returned or updated are added to the rows touched by the query
+	 */
+	public List<List<String>> executeQueryForResult(final Connection connection, String query, boolean addColumnNames,
+			final QueryMonitor queryMonitor){
+
+		QueryMonitor.Cancellable cancellable = null;
+		try(final Statement queryStatement = connection.createStatement()){
 			if(configuration.useFetchSize()){
 				queryStatement.setFetchSize(configuration.getFetchSize());
 			}
+			if(queryMonitor != null){
+				cancellable = queryStatement::cancel;
+				queryMonitor.register(cancellable);
+				// Cancelling a statement that has not started does nothing in the driver
+				queryMonitor.checkCancelled();
+			}
 			boolean resultIsResultSet = queryStatement.execute(query);
 			if(resultIsResultSet){
 				ResultSet resultSet = queryStatement.getResultSet();
@@ -587,9 +847,15 @@ public class PostgreSQL extends SQL{
 							}
 						}
 					}
+					if(queryMonitor != null){
+						queryMonitor.addRowsTouched(listOfList.size() - (addColumnNames ? 1 : 0));
+					}
 					return listOfList;
 				}
 			}
+			if(queryMonitor != null){
+				queryMonitor.addRowsTouched(queryStatement.getUpdateCount());
+			}
 			// Check if update count
 			List<List<String>> listOfList = new ArrayList<List<String>>();
 			List<String> sublist0 = new ArrayList<String>();
@@ -600,8 +866,15 @@ public class PostgreSQL extends SQL{
 			listOfList.add(sublist1);
 			return listOfList;
 		}catch(Exception ex){
+			if(queryMonitor != null && queryMonitor.isCancelled()){
+				queryMonitor.checkCancelled();
+			}
 			logger.log(Level.SEVERE, "PostgreSQL query execution not successful!", ex);
 			throw new RuntimeException("Query failed: " + query, ex);
+		}finally{
+			if(cancellable != null){
+				queryMonitor.unregister(cancellable);
+			}
 		}
 	}
 
@@ -620,14 +893,9 @@ public class PostgreSQL extends SQL{
 					this, queryEnvironment, 
 					getPrimaryKeyName(),
 					getChildVertexKeyName(), getParentVertexKeyName(), 
-					getVertexTableName(), getEdgeTableName());
+					getVertexTableName(), getEdgeTableName(),
+					configuration.getTraversal());
 		}
 		return queryInstructionExecutor;
 	}
-
-	@Override
-	protected boolean addColumn(String table_name, String column_name){
-		// TODO Auto-generated method stub
-		return false;
-	}
 }
@@ -24,11 +24,12 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -41,6 +42,7 @@ import spade.core.AbstractEdge;
 import spade.core.AbstractScreen;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.HashHelper;
 import spade.core.Settings;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.screen.Deduplicate;
@@ -52,6 +54,7 @@ import spade.storage.quickstep.QuickstepFailure;
 import spade.storage.quickstep.QuickstepInstructionExecutor;
 import spade.storage.quickstep.QuickstepQueryEnvironment;
 import spade.storage.quickstep.QuickstepUtil;
+import spade.storage.quickstep.VertexIdIndex;
 
 public class Quickstep extends AbstractStorage {
 	private QuickstepInstructionExecutor queryInstructionExecutor = null;
@@ -65,7 +68,9 @@ public class Quickstep extends AbstractStorage {
     		vertexTableName = "vertex",
     		edgeTableName = "edge",
     		vertexAnnotationsTableName = "vertex_anno",
-    		edgeAnnotationTableName = "edge_anno";
+    		edgeAnnotationTableName = "edge_anno",
+    		metadataTableName = "spade_metadata";
+    private final String metadataKeyHashAlgorithm = "hash_algorithm";
 	
   private PrintWriter debugLogWriter = null;
   private long timeExecutionStart;
@@ -76,7 +81,6 @@ public class Quickstep extends AbstractStorage {
 
 	private final Object screenLock = new Object();
 	private Deduplicate deduplicateScreen = null;
-	private final Map<String, Integer> shortLivedVertexHashToIdMap = new HashMap<String, Integer>();
 
 	public int getMaxEdgeValueLength(){
 		return conf.getMaxEdgeValueLength();
@@ -90,95 +94,35 @@ public class Quickstep extends AbstractStorage {
 		return conf.getMaxVertexValueLength();
 	}
 
-	private final void garbageCollectVertexIds(){
-		synchronized(shortLivedVertexHashToIdMap){
-			shortLivedVertexHashToIdMap.clear();
-		}
-	}
-
-	private final Integer getVertexId(final String hashCode){
-		if(hashCode != null){
-			final Integer idInTempMap;
-			synchronized(shortLivedVertexHashToIdMap){
-				idInTempMap = shortLivedVertexHashToIdMap.get(hashCode);
-			}
-			if(idInTempMap != null){
-				putVertexId(hashCode, idInTempMap);
-				return idInTempMap;
-			}
-
-			final Object idObjectInScreen;
-			synchronized(screenLock){
-				if(deduplicateScreen == null){
-					idObjectInScreen = null;
-				}else{
-					idObjectInScreen = deduplicateScreen.getVertexCacheValueForStorage(hashCode);
-				}
-			}
-			
-			if(idObjectInScreen != null){
-				try{
-					return (Integer)idObjectInScreen;
-				}catch(Throwable t){
-					logger.log(Level.WARNING, "Expected int value but got '"+idObjectInScreen+"' with class: " + idObjectInScreen.getClass(), t);
-					return null;
-				}
-			}
-			
-			final String query = "copy select id from " + vertexTableName + " where md5='" + hashCode + "' to stdout;";
-			final String queryResultString;
-			try{
-				queryResultString = executeQuery(query).trim();
-			}catch(Throwable t){
-				logger.log(Level.WARNING, "Failed to execute query to get vertex id from hash. Query:" + query, t);
-				return null;
-			}
-			
-			if(queryResultString.isEmpty()){
-				return null;
-			}else{
-				try{
-					final Integer i = Integer.parseInt(queryResultString);
-					putVertexId(hashCode, i);
-					return i;
-				}catch(Throwable t){
-					logger.log(Level.WARNING, "Failed to parse query result '"+queryResultString+"' to integer (vertex id)", t);
-					return null;
-				}
-			}
-		}else{
-			return null;
-		}
-	}
-
-	private final void putVertexId(final String hashCode, final Integer value){
-		if(hashCode != null){
-			synchronized(shortLivedVertexHashToIdMap){
-				shortLivedVertexHashToIdMap.put(hashCode, value);
-			}
-			synchronized(screenLock){
-				if(deduplicateScreen != null){
-					deduplicateScreen.setVertexCacheValueForStorage(hashCode, value);
-				}
-			}
-		}
-	}
-
   /**
    * Helper class for bulk loading graph data into Quickstep in batches.
+   *
+   * Vertex and edge ids are assigned in this process (vertex ids from an in-process md5 to id index) by a single
+   * thread that prepares the COPY data of a batch. The prepared batches are loaded in parallel over <loaders>
+   * connections so the only round trips for ids are on initialization.
+   *
+   * Ids are in the index as soon as a batch is prepared so that the next batches can refer to its vertices before it
+   * is loaded. If a batch fails to load (after the retries of the executor) then ingest is stopped, since the batches
+   * after it would refer to vertices which were not stored.
    */
   private class CopyManager implements Callable<Void> {
     // Double buffer, simple producer-consumer pattern.
     private GraphBatch batchBuffer = new GraphBatch();
 
-    private StringBuilder vertexMD5 = new StringBuilder();
-    private StringBuilder vertexAnnos = new StringBuilder();
-    private StringBuilder edgeLinks = new StringBuilder();
-    private StringBuilder edgeAnnos = new StringBuilder();
-
     private ExecutorService batchExecutor;
     private Future<Void> batchFuture;
 
+    // Loaders not loading a batch. Taken by the batch thread and given back when the batch is loaded.
+    private BlockingQueue<QuickstepExecutor> idleLoaders;
+    private ExecutorService loaderExecutor;
+    private int numLoaders;
+    private volatile boolean loadFailed = false;
+
+    // Only used by the batch thread after initialization.
+    private final VertexIdIndex vertexIdIndex = new VertexIdIndex();
+    private int vertexIdCounter;
+    private long edgeIdCounter;
+
     private int maxVertexKeyLength;
     private int maxVertexValueLength;
     private int maxEdgeKeyLength;
@@ -186,6 +130,12 @@ public class Quickstep extends AbstractStorage {
 
     public void initialize() {
       batchExecutor = Executors.newSingleThreadExecutor();
+      numLoaders = conf.getNumLoaders();
+      idleLoaders = new ArrayBlockingQueue<QuickstepExecutor>(numLoaders);
+      loaderExecutor = Executors.newFixedThreadPool(numLoaders);
+      for (int i = 0; i < numLoaders; ++i) {
+        idleLoaders.add(createExecutor());
+      }
       maxVertexKeyLength = conf.getMaxVertexKeyLength();
       maxVertexValueLength = conf.getMaxVertexValueLength();
       maxEdgeKeyLength = conf.getMaxEdgeKeyLength();
@@ -196,6 +146,112 @@ public class Quickstep extends AbstractStorage {
       finalizeBatch();
       batchExecutor.shutdown();
       batchExecutor = null;
+      // Wait for the batches being loaded.
+      for (int i = 0; i < numLoaders; ++i) {
+        try {
+          idleLoaders.take().shutdown();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          logger.log(Level.WARNING, "Interrupted while waiting for batches to be loaded");
+          break;
+        }
+      }
+      loaderExecutor.shutdown();
+      loaderExecutor = null;
+    }
+
+    /**
+     * Wait for the submitted batches to be prepared and loaded.
+     */
+    public void awaitLoaded() {
+      finalizeBatch();
+      final ArrayList<QuickstepExecutor> loaders = new ArrayList<QuickstepExecutor>(numLoaders);
+      try {
+        for (int i = 0; i < numLoaders; ++i) {
+          loaders.add(idleLoaders.take());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        logger.log(Level.WARNING, "Interrupted while waiting for batches to be loaded");
+      } finally {
+        idleLoaders.addAll(loaders);
+      }
+    }
+
+    public boolean isLoadFailed() {
+      return loadFailed;
+    }
+
+    /**
+     * Read the id counters and the ids of the existing vertices. Must be called after the tables are created.
+     */
+    public void loadVertexIds() {
+      vertexIdIndex.clear();
+      // The largest ids and not the row counts, in case ids were skipped
+      vertexIdCounter = (int) Math.max(getMaxId(tableNameBaseVertex), getMaxId(vertexTableName));
+      edgeIdCounter = Math.max(getMaxId(tableNameBaseEdge), getMaxId(edgeTableName));
+      if (vertexIdCounter > 0) {
+        String output = qs.executeQuery(
+            "COPY SELECT id, md5 FROM " + vertexTableName + " TO stdout WITH (DELIMITER ',');");
+        int start = 0;
+        while (start < output.length()) {
+          int end = output.indexOf('\n', start);
+          if (end < 0) {
+            end = output.length();
+          }
+          final int comma = output.indexOf(',', start);
+          if (comma > start && comma < end) {
+            final int id = Integer.parseInt(output.substring(start, comma).trim());
+            vertexIdIndex.put(output.substring(comma + 1, end).trim(), id);
+            vertexIdCounter = Math.max(vertexIdCounter, id);
+          }
+          start = end + 1;
+        }
+      }
+      qs.logInfo("Loaded " + vertexIdIndex.size() + " vertex id(s). Next vertex id: " + (vertexIdCounter + 1) +
+                 ". Next edge id: " + (edgeIdCounter + 1));
+    }
+
+    private long getMaxId(final String table) {
+      final String result = qs.executeQuery("COPY SELECT MAX(id) FROM " + table + " TO stdout;").trim();
+      // No value for an empty table
+      if (result.isEmpty() || result.equalsIgnoreCase("NULL")) {
+        return 0;
+      }
+      try {
+        return Long.parseLong(result);
+      } catch (NumberFormatException e) {
+        throw new RuntimeException(
+            "Unexpected result \"" + result + "\" from Quickstep: expecting an integer value");
+      }
+    }
+
+    /**
+     * Record the hash algorithm of the md5 columns in the metadata table, or verify it if already recorded. A
+     * database populated before the metadata table existed is assumed to use md5.
+     */
+    public void checkHashAlgorithm() throws Exception {
+      if (!QuickstepUtil.GetAllTableNames(Quickstep.this).contains(metadataTableName)) {
+        qs.executeQuery("CREATE TABLE "+metadataTableName+" (\n" +
+                        "  metadata_key VARCHAR(64),\n" +
+                        "  metadata_value VARCHAR(256));");
+      }
+      String recordedAlgorithm = qs.executeQuery(
+          "COPY SELECT metadata_value FROM " + metadataTableName +
+          " WHERE metadata_key = '" + metadataKeyHashAlgorithm + "' TO stdout;").trim();
+      boolean populated = false;
+      if (recordedAlgorithm.isEmpty()) {
+        recordedAlgorithm = null;
+        populated = qs.executeQueryForLongResult(
+            "COPY SELECT COUNT(*) FROM " + tableNameBaseVertex + " TO stdout;") > 0;
+      }
+      final String algorithmToRecord =
+          HashHelper.defaultInstance.checkRecordedAlgorithm(recordedAlgorithm, populated);
+      if (algorithmToRecord != null) {
+        qs.executeQuery("INSERT INTO " + metadataTableName + " VALUES ('" +
+                        metadataKeyHashAlgorithm + "', '" + algorithmToRecord + "');");
+      }
+      qs.logInfo("Database hash algorithm: " + HashHelper.defaultInstance.hashAlgorithmName);
     }
 
     public void initStorage() {
@@ -303,113 +359,134 @@ public class Quickstep extends AbstractStorage {
 
     @Override
     public Void call() {
+      if (loadFailed) {
+        logger.log(Level.SEVERE, "Ingest stopped after a failed load. Batch " + batchBuffer.getBatchID() +
+                   " discarded with " + batchBuffer.getVertices().size() + " vertices and " +
+                   batchBuffer.getEdges().size() + " edges");
+        batchBuffer.reset();
+        return null;
+      }
+      Load load = null;
       try {
-    	  garbageCollectVertexIds();
-        processBatch();
+        load = prepareBatch();
       } catch (Exception e) {
         StringWriter sw = new StringWriter();
         e.printStackTrace(new PrintWriter(sw));
         logger.log(Level.SEVERE, sw.toString());
       }
-      garbageCollectVertexIds();
       totalNumVerticesProcessed += batchBuffer.getVertices().size();
       totalNumEdgesProcessed += batchBuffer.getEdges().size();
       qs.logInfo("Total number of vertices processed: " + totalNumVerticesProcessed);
       qs.logInfo("Total number of edges processed: " + totalNumEdgesProcessed);
       batchBuffer.reset();
+      if (load != null && !load.isEmpty()) {
+        // Wait for a loader so that at most <loaders> prepared batches are held in memory.
+        final QuickstepExecutor loader;
+        try {
+          loader = idleLoaders.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          logger.log(Level.SEVERE, "Interrupted while waiting for a loader. Batch " + load.batchID + " not loaded");
+          return null;
+        }
+        final Load preparedLoad = load;
+        loaderExecutor.execute(() -> load(preparedLoad, loader));
+      }
       return null;
     }
 
-    private void processBatch() {
-    	
-      qs.logInfo("Start processing batch " + batchBuffer.getBatchID() + " at " +
+    /**
+     * Assign ids to the new vertices and edges of the batch and build the COPY data.
+     */
+    private Load prepareBatch() {
+      qs.logInfo("Start preparing batch " + batchBuffer.getBatchID() + " at " +
                  formatTime(System.currentTimeMillis() - timeExecutionStart));
 
-      int lastNumVertices;
-      try {
-        String sn = qs.executeQuery("COPY SELECT COUNT(*) FROM "+tableNameBaseVertex+" TO stdout;");
-        lastNumVertices = Integer.parseInt(sn.trim());
-      } catch (Exception e) {
-        logger.log(Level.SEVERE, e.getMessage());
-        return;
-      }
-
-      long lastNumEdges;
-      try {
-        String sn = qs.executeQuery("COPY SELECT COUNT(*) FROM "+tableNameBaseEdge+" TO stdout;");
-        lastNumEdges = Long.parseLong(sn.trim());
-      } catch (Exception e) {
-        logger.log(Level.SEVERE, e.getMessage());
-        return;
-      }
+      final Load load = new Load(batchBuffer.getBatchID(), vertexIdCounter, edgeIdCounter);
 
-      int vertexIdCounter = lastNumVertices;
-      long edgeIdCounter = lastNumEdges;
-
-      vertexMD5.setLength(0);
-      vertexAnnos.setLength(0);
       for (AbstractVertex vertex : batchBuffer.getVertices()) {
         final String md5 = vertex.bigHashCode();
-        if(getVertexId(md5) != null){
-        	continue;
+        if (vertexIdIndex.get(md5) == 0) {
+          appendVertex(load, vertex, md5, ++vertexIdCounter);
         }
-        appendVertex(vertex, md5, ++vertexIdCounter);
       }
 
-      edgeLinks.setLength(0);
-      edgeAnnos.setLength(0);
       for (AbstractEdge edge : batchBuffer.getEdges()) {
-    	  final String md5 = edge.bigHashCode();
+        final String md5 = edge.bigHashCode();
         final AbstractVertex srcVertex = edge.getChildVertex();
         final AbstractVertex dstVertex = edge.getParentVertex();
         final String srcVertexMd5 = srcVertex.bigHashCode();
         final String dstVertexMd5 = dstVertex.bigHashCode();
 
-        Integer srcVertexId = getVertexId(srcVertexMd5);
-        if (srcVertexId == null) {
+        int srcVertexId = vertexIdIndex.get(srcVertexMd5);
+        if (srcVertexId == 0) {
           srcVertexId = ++vertexIdCounter;
-          appendVertex(srcVertex, srcVertexMd5, srcVertexId);
+          appendVertex(load, srcVertex, srcVertexMd5, srcVertexId);
         }
-        Integer dstVertexId = getVertexId(dstVertexMd5);
-        if (dstVertexId == null) {
+        int dstVertexId = vertexIdIndex.get(dstVertexMd5);
+        if (dstVertexId == 0) {
           dstVertexId = ++vertexIdCounter;
-          appendVertex(dstVertex, dstVertexMd5, dstVertexId);
+          appendVertex(load, dstVertex, dstVertexMd5, dstVertexId);
         }
-        appendEdge(edge, md5, ++edgeIdCounter, srcVertexId, dstVertexId);
+        appendEdge(load, edge, md5, ++edgeIdCounter, srcVertexId, dstVertexId);
       }
 
-      if (vertexIdCounter > lastNumVertices) {
-        qs.submitQuery("INSERT INTO "+tableNameBaseVertex+" SELECT idx" +
-                       " FROM generate_series(" + (lastNumVertices + 1) +
-                       ", " + vertexIdCounter +  ") AS t(idx);");
+      load.lastVertexId = vertexIdCounter;
+      load.lastEdgeId = edgeIdCounter;
+
+      qs.logInfo("Done preparing batch " + batchBuffer.getBatchID() + " at " +
+                 formatTime(System.currentTimeMillis() - timeExecutionStart));
+      return load;
+    }
+
+    /**
+     * Load a prepared batch and give the loader back.
+     */
+    private void load(final Load load, final QuickstepExecutor loader) {
+      try {
+        loader.logInfo("Start loading batch " + load.batchID + " at " +
+                       formatTime(System.currentTimeMillis() - timeExecutionStart));
 
-        qs.submitQuery("COPY "+vertexTableName+" FROM stdin WITH (DELIMITER '|');",
-                       vertexMD5.toString());
+        if (load.lastVertexId > load.lastVertexIdBefore) {
+          loader.submitQuery("INSERT INTO "+tableNameBaseVertex+" SELECT idx" +
+                             " FROM generate_series(" + (load.lastVertexIdBefore + 1) +
+                             ", " + load.lastVertexId +  ") AS t(idx);");
 
-        qs.submitQuery("COPY "+vertexAnnotationsTableName+" FROM stdin WITH (DELIMITER '|');",
-                       vertexAnnos.toString());
-      }
+          loader.submitQuery("COPY "+vertexTableName+" FROM stdin WITH (DELIMITER '|');",
+                             load.vertexMD5.toString());
 
-      if (edgeIdCounter > lastNumEdges) {
-        qs.submitQuery("INSERT INTO "+tableNameBaseEdge+" SELECT idx" +
-                       " FROM generate_series(" + (lastNumEdges + 1) +
-                       ", " + edgeIdCounter +  ") AS t(idx);");
+          loader.submitQuery("COPY "+vertexAnnotationsTableName+" FROM stdin WITH (DELIMITER '|');",
+                             load.vertexAnnos.toString());
+        }
 
-        qs.submitQuery("COPY "+edgeTableName+" FROM stdin WITH (DELIMITER '|');",
-                       edgeLinks.toString());
+        if (load.lastEdgeId > load.lastEdgeIdBefore) {
+          loader.submitQuery("INSERT INTO "+tableNameBaseEdge+" SELECT idx" +
+                             " FROM generate_series(" + (load.lastEdgeIdBefore + 1) +
+                             ", " + load.lastEdgeId +  ") AS t(idx);");
 
-        qs.submitQuery("COPY "+edgeAnnotationTableName+" FROM stdin WITH (DELIMITER '|');",
-                       edgeAnnos.toString());
-      }
+          loader.submitQuery("COPY "+edgeTableName+" FROM stdin WITH (DELIMITER '|');",
+                             load.edgeLinks.toString());
+
+          loader.submitQuery("COPY "+edgeAnnotationTableName+" FROM stdin WITH (DELIMITER '|');",
+                             load.edgeAnnos.toString());
+        }
 
-      // For stable measurement of loading time, we just finalize each batch here ...
-      qs.finalizeQuery();
+        loader.finalizeQuery();
 
-      qs.logInfo("Done processing batch " + batchBuffer.getBatchID() + " at " +
-                 formatTime(System.currentTimeMillis() - timeExecutionStart));
+        loader.logInfo("Done loading batch " + load.batchID + " at " +
+                       formatTime(System.currentTimeMillis() - timeExecutionStart));
+      } catch (Exception e) {
+        loadFailed = true;
+        logger.log(Level.SEVERE, "Failed to load batch " + load.batchID + ". Ingest stopped", e);
+      } finally {
+        idleLoaders.add(loader);
+      }
     }
 
-    private void appendVertex(AbstractVertex vertex, String md5, final int vertexId) {
+    private void appendVertex(final Load load, AbstractVertex vertex, String md5, final int vertexId) {
+      final StringBuilder vertexMD5 = load.vertexMD5;
+      final StringBuilder vertexAnnos = load.vertexAnnos;
+
       vertexMD5.append(vertexId);
       vertexMD5.append("|");
       vertexMD5.append(md5);
@@ -424,16 +501,19 @@ public class Quickstep extends AbstractStorage {
         vertexAnnos.append('\n');
       }
 
-      putVertexId(md5, vertexId);
+      vertexIdIndex.put(md5, vertexId);
     }
 
-    private void appendEdge(AbstractEdge edge, final String md5, final long edgeId,
+    private void appendEdge(final Load load, AbstractEdge edge, final String md5, final long edgeId,
                             final int srcVertexId, final int dstVertexId) {
-      edgeLinks.append(String.valueOf(edgeId));
+      final StringBuilder edgeLinks = load.edgeLinks;
+      final StringBuilder edgeAnnos = load.edgeAnnos;
+
+      edgeLinks.append(edgeId);
       edgeLinks.append('|');
-      edgeLinks.append(String.valueOf(srcVertexId));
+      edgeLinks.append(srcVertexId);
       edgeLinks.append('|');
-      edgeLinks.append(String.valueOf(dstVertexId));
+      edgeLinks.append(dstVertexId);
       edgeLinks.append('|');
       edgeLinks.append(md5);
       edgeLinks.append('\n');
@@ -487,6 +567,34 @@ public class Quickstep extends AbstractStorage {
     }
   }
 
+  /**
+   * COPY data of a prepared batch and the ids assigned to it.
+   */
+  private static class Load {
+    private final long batchID;
+    private final int lastVertexIdBefore;
+    private final long lastEdgeIdBefore;
+    private int lastVertexId;
+    private long lastEdgeId;
+
+    private final StringBuilder vertexMD5 = new StringBuilder();
+    private final StringBuilder vertexAnnos = new StringBuilder();
+    private final StringBuilder edgeLinks = new StringBuilder();
+    private final StringBuilder edgeAnnos = new StringBuilder();
+
+    private Load(final long batchID, final int lastVertexIdBefore, final long lastEdgeIdBefore) {
+      this.batchID = batchID;
+      this.lastVertexIdBefore = lastVertexIdBefore;
+      this.lastEdgeIdBefore = lastEdgeIdBefore;
+      this.lastVertexId = lastVertexIdBefore;
+      this.lastEdgeId = lastEdgeIdBefore;
+    }
+
+    private boolean isEmpty() {
+      return lastVertexId == lastVertexIdBefore && lastEdgeId == lastEdgeIdBefore;
+    }
+  }
+
   private Logger logger = Logger.getLogger(Quickstep.class.getName());
   private GraphBatch batch = new GraphBatch();
   private QuickstepExecutor qs;
@@ -526,16 +634,7 @@ public class Quickstep extends AbstractStorage {
 		}
 
     // Initialize Quickstep async executor.
-    QuickstepClient client = new QuickstepClient(conf.getServerIP(), conf.getServerPort());
-    qs = new QuickstepExecutor(client);
-    qs.setLogger(logger);
-    qs.setNumRetriesOnFailure(3);
-    if (debugLogWriter != null) {
-      qs.setPriortizedLogger((String msg) -> {
-        debugLogWriter.println(msg);
-        debugLogWriter.flush();
-      });
-    }
+    qs = createExecutor();
 
     // Initialize copy manager.
     copyManager.initialize();
@@ -546,6 +645,15 @@ public class Quickstep extends AbstractStorage {
     } else {
       copyManager.resetStorageIfInvalid();
     }
+    try {
+      copyManager.checkHashAlgorithm();
+    } catch (Exception e) {
+      logger.log(Level.SEVERE, "Failed to initialize Quickstep storage", e);
+      copyManager.shutdown();
+      qs.shutdown();
+      return false;
+    }
+    copyManager.loadVertexIds();
 
     // Print all configurations for ease of debugging.
     qs.logInfo(conf.dump());
@@ -556,6 +664,25 @@ public class Quickstep extends AbstractStorage {
     return true;
   }
 
+  /**
+   * @return A new executor (with its own connection) to the configured Quickstep server.
+   */
+  private QuickstepExecutor createExecutor() {
+    QuickstepClient client = new QuickstepClient(conf.getServerIP(), conf.getServerPort());
+    QuickstepExecutor executor = new QuickstepExecutor(client);
+    executor.setLogger(logger);
+    executor.setNumRetriesOnFailure(3);
+    if (debugLogWriter != null) {
+      executor.setPriortizedLogger((String msg) -> {
+        synchronized (debugLogWriter) {
+          debugLogWriter.println(msg);
+          debugLogWriter.flush();
+        }
+      });
+    }
+    return executor;
+  }
+
   @Override
   public boolean shutdown() {
     if (!batch.isEmpty()) {
@@ -578,14 +705,29 @@ public class Quickstep extends AbstractStorage {
 				if(batch.getVertices().size() > 0 || batch.getEdges().size() > 0){ // at least vertices or edges should be non-empty
 					copyManager.submitBatch(batch);
 				}
+				if(force){
+					copyManager.awaitLoaded();
+				}
 				resetForceSubmitTimer();
 			}
 		}
-		return true;
+		return !copyManager.isLoadFailed();
+	}
+
+	/**
+	 * Waits for the submitted batches to be loaded, without submitting the current one
+	 */
+	public void awaitLoadedBatches(){
+		synchronized(batch){
+			copyManager.awaitLoaded();
+		}
 	}
 
   @Override
   public synchronized boolean storeEdge(AbstractEdge incomingEdge) {
+    if (copyManager.isLoadFailed()) {
+      return false;
+    }
     synchronized (batch) {
       batch.addEdge(incomingEdge);
       flushTransactions(false);
@@ -595,6 +737,9 @@ public class Quickstep extends AbstractStorage {
 
   @Override
   public synchronized boolean storeVertex(AbstractVertex incomingVertex) {
+    if (copyManager.isLoadFailed()) {
+      return false;
+    }
     synchronized (batch) {
       batch.addVertex(incomingVertex);
       flushTransactions(false);
@@ -20,13 +20,25 @@
 package spade.storage;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.HashHelper;
 
 
 /**
@@ -42,10 +54,26 @@ public abstract class SQL extends AbstractStorage
     protected boolean ENABLE_SANITIZATION = true;
     protected static final String VERTEX_TABLE = "vertex";
     protected static final String EDGE_TABLE = "edge";
+    protected static final String METADATA_TABLE = "spade_metadata";
+    protected static final String METADATA_KEY_HASH_ALGORITHM = "hash_algorithm";
     protected String DUPLICATE_COLUMN_ERROR_CODE;
     protected int CURSOR_FETCH_SIZE = 0;
     public int MAX_COLUMN_VALUE_LENGTH = 256;
 
+    /*
+     * Columns for new annotation keys are not added as soon as the key is seen. They are collected here
+     * and added by applyPendingColumns which the storages call between batches, before the rows which need
+     * them are written. A new key therefore never forces a buffer to be written early.
+     */
+    private final Map<String, Set<String>> pendingColumns = new LinkedHashMap<>();
+
+    /*
+     * Inserts buffered by bufferInsert and run together by flushInserts, once the batch is full, before a
+     * query, and on shutdown. The pending columns are added once per batch, before its inserts run.
+     */
+    private final List<String> bufferedInserts = new ArrayList<>();
+    protected int INSERT_BATCH_SIZE = 1000;
+
     public SQL()
     {
         logger = Logger.getLogger(SQL.class.getName());
@@ -130,6 +158,137 @@ public abstract class SQL extends AbstractStorage
         return string;
     }
 
+    /**
+     *  records the hash algorithm used for the vertex and edge hashes in the metadata
+     * table, or verifies it if already recorded. Hashes computed with a different algorithm
+     * would never match the stored ones.
+     *
+     * A database that was populated before the metadata table existed is assumed to use md5.
+     * Must be called after the vertex table has been created.
+     *
+     * @param connection The connection to the database.
+     *
+     * @throws Exception if the recorded algorithm is different from the current one.
+     */
+    protected void checkHashAlgorithm(Connection connection) throws Exception
+    {
+        try(Statement statement = connection.createStatement())
+        {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + METADATA_TABLE + " ("
+                    + "metadata_key VARCHAR(64) PRIMARY KEY, "
+                    + "metadata_value VARCHAR(256) NOT NULL"
+                    + ")");
+
+            String recordedAlgorithm = null;
+            try(ResultSet result = statement.executeQuery("SELECT metadata_value FROM " + METADATA_TABLE
+                    + " WHERE metadata_key = '" + METADATA_KEY_HASH_ALGORITHM + "'"))
+            {
+                if(result.next())
+                {
+                    recordedAlgorithm = result.getString(1);
+                }
+            }
+
+            boolean populated = false;
+            if(recordedAlgorithm == null)
+            {
+                try(ResultSet result = statement.executeQuery("SELECT 1 FROM " + VERTEX_TABLE + " LIMIT 1"))
+                {
+                    populated = result.next();
+                }
+            }
+
+            final String algorithmToRecord = HashHelper.defaultInstance.checkRecordedAlgorithm(recordedAlgorithm, populated);
+            if(algorithmToRecord != null)
+            {
+                try(PreparedStatement insert = connection.prepareStatement(
+                        "INSERT INTO " + METADATA_TABLE + " (metadata_key, metadata_value) VALUES (?, ?)"))
+                {
+                    insert.setString(1, METADATA_KEY_HASH_ALGORITHM);
+                    insert.setString(2, algorithmToRecord);
+                    insert.executeUpdate();
+                }
+            }
+            logger.log(Level.INFO, "Database hash algorithm: " + HashHelper.defaultInstance.hashAlgorithmName);
+        }
+    }
+
+    /**
+     *  records the columns which are not in the given existing columns to be added
+     * later by applyPendingColumns.
+     *
+     * @param table_name The name of table in database to add columns to.
+     * @param column_names The names of columns needed by a row.
+     * @param existing_column_names The names of columns already in the table.
+     *
+     * @return  returns true if any column was not already existing or pending.
+     */
+    protected final boolean deferNewColumns(String table_name, Collection<String> column_names,
+            Set<String> existing_column_names)
+    {
+        boolean added = false;
+        synchronized(pendingColumns)
+        {
+            Set<String> pending = pendingColumns.get(table_name);
+            for(String column_name : column_names)
+            {
+                if(!existing_column_names.contains(column_name))
+                {
+                    if(pending == null)
+                    {
+                        pending = new LinkedHashSet<>();
+                        pendingColumns.put(table_name, pending);
+                    }
+                    added = pending.add(column_name) || added;
+                }
+            }
+        }
+        return added;
+    }
+
+    protected final boolean hasPendingColumns()
+    {
+        synchronized(pendingColumns)
+        {
+            return !pendingColumns.isEmpty();
+        }
+    }
+
+    /**
+     *  adds all the pending columns (see deferNewColumns) using addColumn,
+     * one table at a time. The columns which could not be added stay pending
+     * and are tried again by the next call.
+     *
+     * @return  returns true if all the pending columns were added.
+     */
+    protected boolean applyPendingColumns()
+    {
+        final Map<String, List<String>> pending = new LinkedHashMap<>();
+        synchronized(pendingColumns)
+        {
+            for(Map.Entry<String, Set<String>> entry : pendingColumns.entrySet())
+            {
+                pending.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+            pendingColumns.clear();
+        }
+        boolean allAdded = true;
+        for(Map.Entry<String, List<String>> entry : pending.entrySet())
+        {
+            for(String column_name : entry.getValue())
+            {
+                if(!addColumn(entry.getKey(), column_name))
+                {
+                    logger.log(Level.WARNING, "Failed to add column '" + column_name + "' to table '" + entry.getKey() + "'. "
+                            + "Kept pending");
+                    deferNewColumns(entry.getKey(), Collections.singleton(column_name), Collections.emptySet());
+                    allAdded = false;
+                }
+            }
+        }
+        return allAdded;
+    }
+
     /**
      *  adds a new column in the database table,
      * if it is not already present.
@@ -141,6 +300,75 @@ public abstract class SQL extends AbstractStorage
      */
     protected abstract boolean addColumn(String table_name, String column_name);
 
+    /**
+     *  buffers the insert statement to be run with the rest of its batch
+     * by flushInserts. The batch is flushed when it is full.
+     *
+     * @param insertString The insert statement.
+     */
+    protected final void bufferInsert(String insertString)
+    {
+        boolean full;
+        synchronized(bufferedInserts)
+        {
+            bufferedInserts.add(insertString);
+            full = bufferedInserts.size() >= INSERT_BATCH_SIZE;
+        }
+        if(full)
+        {
+            flushInserts();
+        }
+    }
+
+    /**
+     *  adds the pending columns (see deferNewColumns) and then runs the
+     * buffered inserts as one batch.
+     *
+     * @return  returns true if the batch was inserted.
+     */
+    protected final boolean flushInserts()
+    {
+        synchronized(bufferedInserts)
+        {
+            if(bufferedInserts.isEmpty())
+            {
+                return true;
+            }
+            if(hasPendingColumns())
+            {
+                applyPendingColumns();
+            }
+            try(Statement statement = dbConnection.createStatement())
+            {
+                for(String insertString : bufferedInserts)
+                {
+                    statement.addBatch(insertString);
+                }
+                statement.executeBatch();
+                dbConnection.commit();
+                return true;
+            }
+            catch(Exception ex)
+            {
+                logger.log(Level.SEVERE, "Failed to insert batch of " + bufferedInserts.size() + " row(s)", ex);
+                return false;
+            }
+            finally
+            {
+                bufferedInserts.clear();
+            }
+        }
+    }
+
+    /**
+     *  a forced flush runs the buffered inserts.
+     */
+    @Override
+    public boolean flushTransactions(boolean force)
+    {
+        return !force || flushInserts();
+    }
+
 
     /**
      * This function inserts the given edge into the underlying storage(s) and
@@ -0,0 +1,176 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Append-only store for annotation maps in direct (off-heap) byte buffers.
+ *
+ * Annotation keys are interned to int ids. Each map is written as one record:
+ * [int count]{[int key id][int value length][value bytes (UTF-8)]}.
+ * A record is addressed by a long: the block index in the high 32 bits and the offset in the block in the low 32 bits.
+ *
+ * Writes are not thread-safe. Reads can run concurrently with each other but not with writes.
+ */
+public final class AnnotationStore{
+
+	private final int blockSize;
+	private final List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+	private ByteBuffer currentBlock = null;
+
+	private final Map<String, Integer> keyIds = new HashMap<String, Integer>();
+	private final List<String> keys = new ArrayList<String>();
+
+	/**
+	 * @param blockSize Size of each direct buffer. A record bigger than the block size gets a block of its own
+	 */
+	public AnnotationStore(final int blockSize){
+		if(blockSize < 1024){
+			throw new IllegalArgumentException("Block size must be at least 1024 bytes: " + blockSize);
+		}
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return Id of the key or -1 if the key has never been stored
+	 */
+	public int getKeyId(final String key){
+		final Integer id = keyIds.get(key);
+		return id == null ? -1 : id.intValue();
+	}
+
+	public Set<String> getKeys(){
+		return new TreeSet<String>(keys);
+	}
+
+	private int internKey(final String key){
+		Integer id = keyIds.get(key);
+		if(id == null){
+			id = keys.size();
+			keys.add(key);
+			keyIds.put(key, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return Address of the record
+	 */
+	public long put(final Map<String, String> annotations){
+		final int count = annotations == null ? 0 : annotations.size();
+		final int[] recordKeyIds = new int[count];
+		final byte[][] recordValues = new byte[count][];
+		int recordSize = Integer.BYTES;
+		if(count > 0){
+			int i = 0;
+			for(final Map.Entry<String, String> entry : annotations.entrySet()){
+				recordKeyIds[i] = internKey(entry.getKey());
+				recordValues[i] = entry.getValue() == null ? new byte[0] : entry.getValue().getBytes(StandardCharsets.UTF_8);
+				recordSize += Integer.BYTES * 2 + recordValues[i].length;
+				i++;
+			}
+		}
+
+		if(currentBlock == null || currentBlock.remaining() < recordSize){
+			currentBlock = ByteBuffer.allocateDirect(Math.max(blockSize, recordSize));
+			blocks.add(currentBlock);
+		}
+		final long address = (((long)(blocks.size() - 1)) << 32) | currentBlock.position();
+		currentBlock.putInt(count);
+		for(int i = 0; i < count; i++){
+			currentBlock.putInt(recordKeyIds[i]);
+			currentBlock.putInt(recordValues[i].length);
+			currentBlock.put(recordValues[i]);
+		}
+		return address;
+	}
+
+	private static String readString(final ByteBuffer block, final int offset, final int length){
+		final byte[] bytes = new byte[length];
+		final ByteBuffer view = block.duplicate();
+		view.position(offset);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return Copy of the annotations in the record
+	 */
+	public Map<String, String> get(final long address){
+		final ByteBuffer block = blocks.get((int)(address >>> 32));
+		int offset = (int)address;
+		final int count = block.getInt(offset);
+		offset += Integer.BYTES;
+		final Map<String, String> annotations = new TreeMap<String, String>();
+		for(int i = 0; i < count; i++){
+			final int keyId = block.getInt(offset);
+			final int length = block.getInt(offset + Integer.BYTES);
+			offset += Integer.BYTES * 2;
+			annotations.put(keys.get(keyId), readString(block, offset, length));
+			offset += length;
+		}
+		return annotations;
+	}
+
+	/**
+	 * Reads a single annotation without decoding the rest of the record.
+	 *
+	 * @return The value or null if the key is not in the record
+	 */
+	public String get(final long address, final int keyId){
+		if(keyId < 0){
+			return null;
+		}
+		final ByteBuffer block = blocks.get((int)(address >>> 32));
+		int offset = (int)address;
+		final int count = block.getInt(offset);
+		offset += Integer.BYTES;
+		for(int i = 0; i < count; i++){
+			final int recordKeyId = block.getInt(offset);
+			final int length = block.getInt(offset + Integer.BYTES);
+			offset += Integer.BYTES * 2;
+			if(recordKeyId == keyId){
+				return readString(block, offset, length);
+			}
+			offset += length;
+		}
+		return null;
+	}
+
+	/**
+	 * @return Bytes allocated off-heap
+	 */
+	public long getAllocatedBytes(){
+		long bytes = 0;
+		for(final ByteBuffer block : blocks){
+			bytes += block.capacity();
+		}
+		return bytes;
+	}
+}
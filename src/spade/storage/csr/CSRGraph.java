@@ -0,0 +1,830 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory provenance graph in compressed sparse row (CSR) form.
+ *
+ * Vertices get dense int ids and edges get dense long ids in the order in which they are first seen. The 128-bit
+ * hashes, the edge endpoints, and the annotation addresses are kept in paged primitive arrays and the annotations
+ * are kept off-heap in an {@link AnnotationStore}.
+ *
+ * The CSR index (edge ids grouped by child vertex and by parent vertex) is rebuilt in O(V + E) by the first
+ * traversal after new edges have been added. Edges point from the child (e.g. process) to the parent
+ * (e.g. the file it read) so the ancestors of a vertex are found by following the outgoing edges.
+ *
+ * A vertex which is only referenced by an edge (and not stored itself) gets an id but is not part of the base graph
+ * until it is stored.
+ */
+public final class CSRGraph{
+
+	private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+	private static final long noAnnotations = -1;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Name of the algorithm of the vertex and edge hashes. Hashes are kept as two longs so they must be 16 bytes.
+	private final String hashAlgorithm;
+
+	private int vertexCount = 0;
+	private long storedVertexCount = 0;
+	private final PagedLongArray vertexHashesHigh = new PagedLongArray();
+	private final PagedLongArray vertexHashesLow = new PagedLongArray();
+	private final HashIndex vertexIndex = new HashIndex(vertexHashesHigh, vertexHashesLow);
+	private final PagedLongArray vertexAnnotations = new PagedLongArray(noAnnotations);
+	private final LongBitSet storedVertices = new LongBitSet();
+	private final AnnotationStore vertexAnnotationStore;
+
+	private long edgeCount = 0;
+	private final PagedLongArray edgeHashesHigh = new PagedLongArray();
+	private final PagedLongArray edgeHashesLow = new PagedLongArray();
+	private final HashIndex edgeIndex = new HashIndex(edgeHashesHigh, edgeHashesLow);
+	private final PagedIntArray edgeChildren = new PagedIntArray();
+	private final PagedIntArray edgeParents = new PagedIntArray();
+	private final PagedLongArray edgeAnnotations = new PagedLongArray(noAnnotations);
+	private final LongBitSet storedEdges = new LongBitSet();
+	private final AnnotationStore edgeAnnotationStore;
+
+	// CSR index. Offsets are indexed by vertex id and the edge arrays hold edge ids.
+	private long indexedEdgeCount = -1;
+	private long[] outOffsets = new long[1], inOffsets = new long[1];
+	private PagedLongArray outEdges = new PagedLongArray(), inEdges = new PagedLongArray();
+
+	// Copies of the stored vertex and edge sets handed out for the base graph
+	private long vertexSnapshotCount = -1, edgeSnapshotCount = -1;
+	private LongBitSet vertexSnapshot = null, edgeSnapshot = null;
+
+	/**
+	 * @param annotationBlockSize Size of the off-heap blocks used to store the annotations
+	 * @param hashAlgorithm Name of the algorithm of the vertex and edge hashes
+	 */
+	public CSRGraph(final int annotationBlockSize, final String hashAlgorithm){
+		this.hashAlgorithm = hashAlgorithm;
+		this.vertexAnnotationStore = new AnnotationStore(annotationBlockSize);
+		this.edgeAnnotationStore = new AnnotationStore(annotationBlockSize);
+	}
+
+	/**
+	 * A set of vertex ids and a set of edge ids.
+	 */
+	public static final class Subgraph{
+		public final LongBitSet vertices;
+		public final LongBitSet edges;
+
+		public Subgraph(){
+			this(new LongBitSet(), new LongBitSet());
+		}
+
+		public Subgraph(final LongBitSet vertices, final LongBitSet edges){
+			this.vertices = vertices;
+			this.edges = edges;
+		}
+	}
+
+	////////////////////
+	// Hashes
+	////////////////////
+
+	public static boolean isValidHash(final String hash){
+		if(hash == null || hash.length() != 32){
+			return false;
+		}
+		for(int i = 0; i < 32; i++){
+			if(Character.digit(hash.charAt(i), 16) < 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long parseHashHigh(final String hash){
+		return Long.parseUnsignedLong(hash.substring(0, 16), 16);
+	}
+
+	private static long parseHashLow(final String hash){
+		return Long.parseUnsignedLong(hash.substring(16, 32), 16);
+	}
+
+	private static String toHash(final long high, final long low){
+		final char[] chars = new char[32];
+		for(int i = 15; i >= 0; i--){
+			chars[i] = hexDigits[(int)((high >>> ((15 - i) * 4)) & 0xf)];
+			chars[16 + i] = hexDigits[(int)((low >>> ((15 - i) * 4)) & 0xf)];
+		}
+		return new String(chars);
+	}
+
+	private static void mustBeValidHash(final String hash){
+		if(!isValidHash(hash)){
+			throw new IllegalArgumentException("Hash must be 32 hex characters: '" + hash + "'");
+		}
+	}
+
+	////////////////////
+	// Writes
+	////////////////////
+
+	private int getOrCreateVertexId(final long high, final long low){
+		final long existingId = vertexIndex.get(high, low);
+		if(existingId >= 0){
+			return (int)existingId;
+		}
+		if(vertexCount == Integer.MAX_VALUE){
+			throw new IllegalStateException("Maximum number of vertices reached: " + vertexCount);
+		}
+		final int id = vertexCount;
+		vertexHashesHigh.set(id, high);
+		vertexHashesLow.set(id, low);
+		vertexIndex.add(id);
+		vertexCount++;
+		return id;
+	}
+
+	/**
+	 * @return False if the vertex was already stored
+	 */
+	public boolean putVertex(final String hash, final Map<String, String> annotations){
+		mustBeValidHash(hash);
+		lock.writeLock().lock();
+		try{
+			final int id = getOrCreateVertexId(parseHashHigh(hash), parseHashLow(hash));
+			if(storedVertices.get(id)){
+				return false;
+			}
+			vertexAnnotations.set(id, vertexAnnotationStore.put(annotations));
+			storedVertices.set(id);
+			storedVertexCount++;
+			return true;
+		}finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return False if the edge was already stored
+	 */
+	public boolean putEdge(final String hash, final String childHash, final String parentHash,
+			final Map<String, String> annotations){
+		mustBeValidHash(hash);
+		mustBeValidHash(childHash);
+		mustBeValidHash(parentHash);
+		lock.writeLock().lock();
+		try{
+			final long high = parseHashHigh(hash);
+			final long low = parseHashLow(hash);
+			if(edgeIndex.get(high, low) >= 0){
+				return false;
+			}
+			final int child = getOrCreateVertexId(parseHashHigh(childHash), parseHashLow(childHash));
+			final int parent = getOrCreateVertexId(parseHashHigh(parentHash), parseHashLow(parentHash));
+			final long id = edgeCount;
+			edgeHashesHigh.set(id, high);
+			edgeHashesLow.set(id, low);
+			edgeIndex.add(id);
+			edgeChildren.set(id, child);
+			edgeParents.set(id, parent);
+			edgeAnnotations.set(id, edgeAnnotationStore.put(annotations));
+			storedEdges.set(id);
+			edgeCount++;
+			return true;
+		}finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	////////////////////
+	// Reads
+	////////////////////
+
+	public String getHashAlgorithm(){
+		return hashAlgorithm;
+	}
+
+	public long getVertexCount(){
+		lock.readLock().lock();
+		try{
+			return storedVertexCount;
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public long getEdgeCount(){
+		lock.readLock().lock();
+		try{
+			return edgeCount;
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Copy of the set of stored vertices
+	 */
+	public LongBitSet getVertices(){
+		lock.readLock().lock();
+		try{
+			// Only stored vertices are counted so the count changes whenever the set changes
+			synchronized(this){
+				if(vertexSnapshotCount != storedVertexCount){
+					vertexSnapshot = new LongBitSet(storedVertices);
+					vertexSnapshotCount = storedVertexCount;
+				}
+				return new LongBitSet(vertexSnapshot);
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Copy of the set of stored edges
+	 */
+	public LongBitSet getEdges(){
+		lock.readLock().lock();
+		try{
+			synchronized(this){
+				if(edgeSnapshotCount != edgeCount){
+					edgeSnapshot = new LongBitSet(storedEdges);
+					edgeSnapshotCount = edgeCount;
+				}
+				return new LongBitSet(edgeSnapshot);
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Id of the stored vertex or -1 if not found
+	 */
+	public int findVertex(final String hash){
+		if(!isValidHash(hash)){
+			return -1;
+		}
+		lock.readLock().lock();
+		try{
+			final long id = vertexIndex.get(parseHashHigh(hash), parseHashLow(hash));
+			return (id >= 0 && storedVertices.get(id)) ? (int)id : -1;
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Id of the edge or -1 if not found
+	 */
+	public long findEdge(final String hash){
+		if(!isValidHash(hash)){
+			return -1;
+		}
+		lock.readLock().lock();
+		try{
+			return edgeIndex.get(parseHashHigh(hash), parseHashLow(hash));
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public String getVertexHash(final int id){
+		lock.readLock().lock();
+		try{
+			return toHash(vertexHashesHigh.get(id), vertexHashesLow.get(id));
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public String getEdgeHash(final long id){
+		lock.readLock().lock();
+		try{
+			return toHash(edgeHashesHigh.get(id), edgeHashesLow.get(id));
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public int getEdgeChild(final long id){
+		lock.readLock().lock();
+		try{
+			return edgeChildren.get(id);
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public int getEdgeParent(final long id){
+		lock.readLock().lock();
+		try{
+			return edgeParents.get(id);
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Copy of the annotations. Empty if the vertex is only referenced by an edge
+	 */
+	public Map<String, String> getVertexAnnotations(final int id){
+		lock.readLock().lock();
+		try{
+			final long address = vertexAnnotations.get(id);
+			return address == noAnnotations ? new TreeMap<String, String>() : vertexAnnotationStore.get(address);
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public Map<String, String> getEdgeAnnotations(final long id){
+		lock.readLock().lock();
+		try{
+			final long address = edgeAnnotations.get(id);
+			return address == noAnnotations ? new TreeMap<String, String>() : edgeAnnotationStore.get(address);
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The value or null if the vertex does not have the annotation
+	 */
+	public String getVertexAnnotation(final int id, final String key){
+		lock.readLock().lock();
+		try{
+			final long address = vertexAnnotations.get(id);
+			return address == noAnnotations ? null : vertexAnnotationStore.get(address, vertexAnnotationStore.getKeyId(key));
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public String getEdgeAnnotation(final long id, final String key){
+		lock.readLock().lock();
+		try{
+			final long address = edgeAnnotations.get(id);
+			return address == noAnnotations ? null : edgeAnnotationStore.get(address, edgeAnnotationStore.getKeyId(key));
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return True if any vertex has ever been stored with the annotation
+	 */
+	public boolean hasVertexAnnotationKey(final String key){
+		lock.readLock().lock();
+		try{
+			return vertexAnnotationStore.getKeyId(key) >= 0;
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean hasEdgeAnnotationKey(final String key){
+		lock.readLock().lock();
+		try{
+			return edgeAnnotationStore.getKeyId(key) >= 0;
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<String> getVertexAnnotationKeys(){
+		lock.readLock().lock();
+		try{
+			return vertexAnnotationStore.getKeys();
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	public Set<String> getEdgeAnnotationKeys(){
+		lock.readLock().lock();
+		try{
+			return edgeAnnotationStore.getKeys();
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	////////////////////
+	// CSR index
+	////////////////////
+
+	/**
+	 * Acquires the read lock with an up-to-date CSR index. Must be followed by lock.readLock().unlock().
+	 */
+	private void readLockWithIndex(){
+		lock.readLock().lock();
+		if(indexedEdgeCount == edgeCount){
+			return;
+		}
+		lock.readLock().unlock();
+		lock.writeLock().lock();
+		try{
+			if(indexedEdgeCount != edgeCount){
+				buildIndex();
+			}
+			lock.readLock().lock(); // Downgrade
+		}finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Must be called with the write lock held
+	private void buildIndex(){
+		final int n = vertexCount;
+		final long m = edgeCount;
+		final long[] out = new long[n + 1];
+		final long[] in = new long[n + 1];
+		// Degrees shifted by one
+		for(long e = 0; e < m; e++){
+			out[edgeChildren.get(e) + 1]++;
+			in[edgeParents.get(e) + 1]++;
+		}
+		for(int v = 0; v < n; v++){
+			out[v + 1] += out[v];
+			in[v + 1] += in[v];
+		}
+		// Fill using offsets as cursors. Each cursor ends at the start of the next vertex
+		final PagedLongArray newOutEdges = new PagedLongArray();
+		final PagedLongArray newInEdges = new PagedLongArray();
+		for(long e = 0; e < m; e++){
+			newOutEdges.set(out[edgeChildren.get(e)]++, e);
+			newInEdges.set(in[edgeParents.get(e)]++, e);
+		}
+		for(int v = n; v > 0; v--){
+			out[v] = out[v - 1];
+			in[v] = in[v - 1];
+		}
+		out[0] = 0;
+		in[0] = 0;
+		this.outOffsets = out;
+		this.inOffsets = in;
+		this.outEdges = newOutEdges;
+		this.inEdges = newInEdges;
+		this.indexedEdgeCount = m;
+	}
+
+	////////////////////
+	// Traversals
+	////////////////////
+
+	private static final class IntList{
+		private int[] values = new int[16];
+		private int size = 0;
+
+		private void add(final int value){
+			if(size == values.length){
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+
+	private static boolean isAllowed(final LongBitSet allowedEdges, final long edge){
+		return allowedEdges == null || allowedEdges.get(edge);
+	}
+
+	// Vertices only referenced by edges are traversed but not returned
+	private void addStoredVertex(final Subgraph result, final long vertex){
+		if(storedVertices.get(vertex)){
+			result.vertices.set(vertex);
+		}
+	}
+
+	/**
+	 * Adds to the result all the vertices and edges on the paths of length at most 'depth' starting from the start
+	 * vertices.
+	 *
+	 * @param allowedEdges Edges which can be followed. Null to follow all
+	 * @param ancestors True to follow edges from child to parent and false to follow from parent to child
+	 */
+	public void getLineage(final Subgraph result, final LongBitSet start, final LongBitSet allowedEdges, final int depth,
+			final boolean ancestors){
+		readLockWithIndex();
+		try{
+			final long[] offsets = ancestors ? outOffsets : inOffsets;
+			final PagedLongArray adjacentEdges = ancestors ? outEdges : inEdges;
+			final PagedIntArray endpoints = ancestors ? edgeParents : edgeChildren;
+
+			final LongBitSet visited = new LongBitSet();
+			IntList frontier = new IntList();
+			for(long v = start.nextSetBit(0); v >= 0 && v < vertexCount; v = start.nextSetBit(v + 1)){
+				visited.set(v);
+				addStoredVertex(result, v);
+				frontier.add((int)v);
+			}
+
+			for(int level = 0; level < depth && frontier.size > 0; level++){
+				final IntList next = new IntList();
+				for(int i = 0; i < frontier.size; i++){
+					final int v = frontier.values[i];
+					if(v + 1 >= offsets.length){
+						continue;
+					}
+					for(long j = offsets[v]; j < offsets[v + 1]; j++){
+						final long e = adjacentEdges.get(j);
+						if(!isAllowed(allowedEdges, e)){
+							continue;
+						}
+						result.edges.set(e);
+						final int w = endpoints.get(e);
+						if(!visited.get(w)){
+							visited.set(w);
+							addStoredVertex(result, w);
+							next.add(w);
+						}
+					}
+				}
+				frontier = next;
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	// Must be called with the read lock and the index. Returns the BFS distance of each vertex (-1 if not reached).
+	// Only the vertices in 'allowedVertices' are visited (null to visit all).
+	private int[] getDistances(final LongBitSet sources, final LongBitSet allowedVertices, final LongBitSet allowedEdges,
+			final int maxDepth, final boolean ancestors){
+		final long[] offsets = ancestors ? outOffsets : inOffsets;
+		final PagedLongArray adjacentEdges = ancestors ? outEdges : inEdges;
+		final PagedIntArray endpoints = ancestors ? edgeParents : edgeChildren;
+
+		final int[] distances = new int[vertexCount];
+		Arrays.fill(distances, -1);
+		IntList frontier = new IntList();
+		for(long v = sources.nextSetBit(0); v >= 0 && v < vertexCount; v = sources.nextSetBit(v + 1)){
+			distances[(int)v] = 0;
+			frontier.add((int)v);
+		}
+		for(int level = 0; level < maxDepth && frontier.size > 0; level++){
+			final IntList next = new IntList();
+			for(int i = 0; i < frontier.size; i++){
+				final int v = frontier.values[i];
+				if(v + 1 >= offsets.length){
+					continue;
+				}
+				for(long j = offsets[v]; j < offsets[v + 1]; j++){
+					final long e = adjacentEdges.get(j);
+					if(isAllowed(allowedEdges, e)){
+						final int w = endpoints.get(e);
+						if(distances[w] < 0 && (allowedVertices == null || allowedVertices.get(w))){
+							distances[w] = level + 1;
+							next.add(w);
+						}
+					}
+				}
+			}
+			frontier = next;
+		}
+		return distances;
+	}
+
+	private static final class SearchSpace{
+		private final LongBitSet vertices = new LongBitSet();
+		// Length of the shortest path found. -1 if the searches did not meet
+		private int shortestDistance = -1;
+	}
+
+	// Adds the start vertices to the search space and returns them as the first frontier
+	private IntList startSearch(final SearchSpace space, final LongBitSet start, final int[] distances,
+			final int[] otherDistances){
+		final IntList frontier = new IntList();
+		for(long v = start.nextSetBit(0); v >= 0 && v < vertexCount; v = start.nextSetBit(v + 1)){
+			distances[(int)v] = 0;
+			space.vertices.set(v);
+			frontier.add((int)v);
+			if(otherDistances[(int)v] == 0){
+				space.shortestDistance = 0;
+			}
+		}
+		return frontier;
+	}
+
+	// Expands the frontier by one level and returns the new frontier
+	private IntList expandSearch(final SearchSpace space, final IntList frontier, final LongBitSet allowedEdges,
+			final int[] distances, final int[] otherDistances, final int depth, final boolean ancestors){
+		final long[] offsets = ancestors ? outOffsets : inOffsets;
+		final PagedLongArray adjacentEdges = ancestors ? outEdges : inEdges;
+		final PagedIntArray endpoints = ancestors ? edgeParents : edgeChildren;
+
+		final IntList next = new IntList();
+		for(int i = 0; i < frontier.size; i++){
+			final int v = frontier.values[i];
+			if(v + 1 >= offsets.length){
+				continue;
+			}
+			for(long j = offsets[v]; j < offsets[v + 1]; j++){
+				final long e = adjacentEdges.get(j);
+				if(isAllowed(allowedEdges, e)){
+					final int w = endpoints.get(e);
+					if(distances[w] < 0){
+						distances[w] = depth;
+						space.vertices.set(w);
+						next.add(w);
+						if(otherDistances[w] >= 0){
+							final int distance = depth + otherDistances[w];
+							if(space.shortestDistance < 0 || distance < space.shortestDistance){
+								space.shortestDistance = distance;
+							}
+						}
+					}
+				}
+			}
+		}
+		return next;
+	}
+
+	/*
+	 * Bidirectional BFS from the sources (child to parent) and from the destinations (parent to child) which always
+	 * expands the smaller frontier. Stops when the depths of the two searches add up to 'maxDepth', when a frontier is
+	 * exhausted, or (if 'stopOnMeet') as soon as the two searches meet.
+	 *
+	 * A vertex on a path of length at most 'maxDepth' is within the searched depth of at least one of the two sides so
+	 * the paths can be found by looking only at the searched vertices. And the distances between them are the same as
+	 * in the whole graph.
+	 */
+	private SearchSpace getSearchSpace(final LongBitSet sources, final LongBitSet destinations,
+			final LongBitSet allowedEdges, final int maxDepth, final boolean stopOnMeet){
+		final SearchSpace space = new SearchSpace();
+		final int[] fromSources = new int[vertexCount];
+		final int[] toDestinations = new int[vertexCount];
+		Arrays.fill(fromSources, -1);
+		Arrays.fill(toDestinations, -1);
+		IntList forward = startSearch(space, sources, fromSources, toDestinations);
+		IntList backward = startSearch(space, destinations, toDestinations, fromSources);
+		int forwardDepth = 0, backwardDepth = 0;
+		while(forwardDepth + backwardDepth < maxDepth && forward.size > 0 && backward.size > 0
+				&& !(stopOnMeet && space.shortestDistance >= 0)){
+			if(forward.size <= backward.size){
+				forward = expandSearch(space, forward, allowedEdges, fromSources, toDestinations, ++forwardDepth, true);
+			}else{
+				backward = expandSearch(space, backward, allowedEdges, toDestinations, fromSources, ++backwardDepth, false);
+			}
+		}
+		return space;
+	}
+
+	private static boolean hasOneVertex(final LongBitSet vertices){
+		final long first = vertices.nextSetBit(0);
+		return first >= 0 && vertices.nextSetBit(first + 1) < 0;
+	}
+
+	/**
+	 * Adds to the result all the vertices and edges on the paths (following edges from child to parent) of length at
+	 * most 'maxDepth' from any source vertex to any destination vertex.
+	 *
+	 * A vertex v is on such a path if distance(source, v) + distance(v, destination) is at most 'maxDepth'. The
+	 * distances are computed only for the vertices found by a bidirectional search so the cost does not depend on
+	 * the number of paths and a query between two nearby vertices does not look at the whole 'maxDepth' neighbourhood
+	 * of either of them.
+	 *
+	 * @param allowedEdges Edges which can be followed. Null to follow all
+	 */
+	public void getPaths(final Subgraph result, final LongBitSet sources, final LongBitSet destinations,
+			final LongBitSet allowedEdges, final int maxDepth){
+		readLockWithIndex();
+		try{
+			final SearchSpace space = getSearchSpace(sources, destinations, allowedEdges, maxDepth, false);
+			if(space.shortestDistance < 0){
+				return;
+			}
+			final int[] fromSources = getDistances(sources, space.vertices, allowedEdges, maxDepth, true);
+			final int[] toDestinations = getDistances(destinations, space.vertices, allowedEdges, maxDepth, false);
+			for(long id = space.vertices.nextSetBit(0); id >= 0; id = space.vertices.nextSetBit(id + 1)){
+				final int v = (int)id;
+				final int fromSource = fromSources[v];
+				if(fromSource < 0 || toDestinations[v] < 0 || fromSource + toDestinations[v] > maxDepth){
+					continue;
+				}
+				addStoredVertex(result, v);
+				if(v + 1 >= outOffsets.length){
+					continue;
+				}
+				for(long j = outOffsets[v]; j < outOffsets[v + 1]; j++){
+					final long e = outEdges.get(j);
+					final int toDestination = toDestinations[edgeParents.get(e)];
+					if(toDestination >= 0 && fromSource + 1 + toDestination <= maxDepth && isAllowed(allowedEdges, e)){
+						result.edges.set(e);
+					}
+				}
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds to the result one shortest path (following edges from child to parent) of length at most 'maxDepth' from
+	 * each source vertex to its nearest destination vertex. Ties are broken by the smallest edge id.
+	 *
+	 * With a single source the bidirectional search stops as soon as it reaches a destination.
+	 *
+	 * @param allowedEdges Edges which can be followed. Null to follow all
+	 */
+	public void getShortestPaths(final Subgraph result, final LongBitSet sources, final LongBitSet destinations,
+			final LongBitSet allowedEdges, final int maxDepth){
+		readLockWithIndex();
+		try{
+			final boolean stopOnMeet = hasOneVertex(sources);
+			final SearchSpace space = getSearchSpace(sources, destinations, allowedEdges, maxDepth, stopOnMeet);
+			if(space.shortestDistance < 0){
+				return;
+			}
+			final int searchDepth = stopOnMeet ? space.shortestDistance : maxDepth;
+			final int[] toDestinations = getDistances(destinations, space.vertices, allowedEdges, searchDepth, false);
+			final LongBitSet walked = new LongBitSet();
+			for(long s = sources.nextSetBit(0); s >= 0 && s < vertexCount; s = sources.nextSetBit(s + 1)){
+				int v = (int)s;
+				if(toDestinations[v] < 0){
+					continue;
+				}
+				// The rest of the path from an already walked vertex has been added
+				while(!walked.get(v)){
+					walked.set(v);
+					addStoredVertex(result, v);
+					if(toDestinations[v] == 0){
+						break;
+					}
+					int nextVertex = -1;
+					for(long j = outOffsets[v]; j < outOffsets[v + 1] && nextVertex < 0; j++){
+						final long e = outEdges.get(j);
+						final int w = edgeParents.get(e);
+						if(toDestinations[w] == toDestinations[v] - 1 && isAllowed(allowedEdges, e)){
+							result.edges.set(e);
+							nextVertex = w;
+						}
+					}
+					v = nextVertex;
+				}
+			}
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	////////////////////
+	// Stats
+	////////////////////
+
+	/**
+	 * @return Bytes allocated on the heap for the arrays and bit sets
+	 */
+	public long getHeapBytes(){
+		lock.readLock().lock();
+		try{
+			return vertexHashesHigh.getAllocatedBytes() + vertexHashesLow.getAllocatedBytes()
+				+ vertexIndex.getAllocatedBytes() + vertexAnnotations.getAllocatedBytes() + storedVertices.getAllocatedBytes()
+				+ edgeHashesHigh.getAllocatedBytes() + edgeHashesLow.getAllocatedBytes() + edgeIndex.getAllocatedBytes()
+				+ edgeChildren.getAllocatedBytes() + edgeParents.getAllocatedBytes() + edgeAnnotations.getAllocatedBytes()
+				+ storedEdges.getAllocatedBytes()
+				+ (long)(outOffsets.length + inOffsets.length) * Long.BYTES
+				+ outEdges.getAllocatedBytes() + inEdges.getAllocatedBytes();
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Bytes allocated off-heap for the annotations
+	 */
+	public long getOffHeapBytes(){
+		lock.readLock().lock();
+		try{
+			return vertexAnnotationStore.getAllocatedBytes() + edgeAnnotationStore.getAllocatedBytes();
+		}finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "CSRGraph[hashAlgorithm=" + hashAlgorithm + ", vertices=" + getVertexCount() + ", edges=" + getEdgeCount()
+			+ ", heapBytes=" + getHeapBytes() + ", offHeapBytes=" + getOffHeapBytes() + "]";
+	}
+}
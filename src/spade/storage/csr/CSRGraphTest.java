@@ -0,0 +1,229 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Checks the stored graph and the traversals of CSRGraph on a small graph:
+ *
+ * <pre>
+ * a -e0-> b -e1-> c -e2-> d -e5-> f -e6-> g
+ * a -e3-> e -e4-> d
+ * </pre>
+ *
+ * Edges point from the child to the parent. 'g' is only referenced by an edge and never stored.
+ *
+ * Usage: java -cp 'build:lib/*' spade.storage.csr.CSRGraphTest
+ */
+public class CSRGraphTest{
+
+	private final CSRGraph graph = new CSRGraph(4096, "MD5");
+
+	public static void main(final String[] args) throws Exception{
+		final CSRGraphTest test = new CSRGraphTest();
+		test.testStore();
+		test.testLineage();
+		test.testPaths();
+		test.testShortestPaths();
+		test.testIndexRebuiltAfterPut();
+		System.out.println(CSRGraphTest.class.getSimpleName() + ": passed");
+	}
+
+	private CSRGraphTest(){
+		for(final String vertex : new String[]{"a", "b", "c", "d", "e", "f"}){
+			graph.putVertex(hash(vertex), Collections.singletonMap("name", vertex));
+		}
+		putEdge("e0", "a", "b");
+		putEdge("e1", "b", "c");
+		putEdge("e2", "c", "d");
+		putEdge("e3", "a", "e");
+		putEdge("e4", "e", "d");
+		putEdge("e5", "d", "f");
+		putEdge("e6", "f", "g");
+	}
+
+	private void testStore(){
+		check(graph.getVertexCount() == 6 && graph.getEdgeCount() == 7,
+				"Expected 6 stored vertices and 7 edges: " + graph);
+		check(!graph.putVertex(hash("a"), Collections.<String, String>emptyMap()), "Expected a duplicate vertex");
+		check(!graph.putEdge(hash("e0"), hash("a"), hash("b"), Collections.<String, String>emptyMap()),
+				"Expected a duplicate edge");
+		check(graph.findVertex(hash("x")) == -1 && graph.findEdge(hash("x")) == -1, "Expected unknown hashes");
+
+		final long e0 = graph.findEdge(hash("e0"));
+		check(graph.getEdgeChild(e0) == v("a") && graph.getEdgeParent(e0) == v("b"), "Wrong endpoints of e0");
+		check(hash("e0").equals(graph.getEdgeHash(e0)) && hash("a").equals(graph.getVertexHash(v("a"))),
+				"Wrong hashes");
+		check("a".equals(graph.getVertexAnnotation(v("a"), "name"))
+				&& "e0".equals(graph.getEdgeAnnotation(e0, "name")), "Wrong annotations");
+		check(graph.getVertexAnnotation(v("a"), "missing") == null, "Expected no value for a missing key");
+
+		// 'g' has an id for the edge but is not part of the base graph
+		final int g = graph.getEdgeParent(graph.findEdge(hash("e6")));
+		check(v("g") == -1 && hash("g").equals(graph.getVertexHash(g)) && graph.getVertexAnnotations(g).isEmpty(),
+				"Expected 'g' to be referenced only");
+		checkEquals("Stored vertices", vertices("a", "b", "c", "d", "e", "f"), toSet(graph.getVertices()));
+		checkEquals("Stored edges", edges("e0", "e1", "e2", "e3", "e4", "e5", "e6"), toSet(graph.getEdges()));
+	}
+
+	private void testLineage(){
+		CSRGraph.Subgraph result = new CSRGraph.Subgraph();
+		graph.getLineage(result, bits(v("a")), null, 1, true);
+		checkResult("Ancestors of a at depth 1", result, vertices("a", "b", "e"), edges("e0", "e3"));
+
+		result = new CSRGraph.Subgraph();
+		graph.getLineage(result, bits(v("a")), null, 2, true);
+		checkResult("Ancestors of a at depth 2", result, vertices("a", "b", "c", "d", "e"),
+				edges("e0", "e1", "e3", "e4"));
+
+		result = new CSRGraph.Subgraph();
+		graph.getLineage(result, bits(v("d")), null, 1, false);
+		checkResult("Descendants of d at depth 1", result, vertices("c", "d", "e"), edges("e2", "e4"));
+
+		// The edge to 'g' is followed but 'g' is not stored
+		result = new CSRGraph.Subgraph();
+		graph.getLineage(result, bits(v("f")), null, 5, true);
+		checkResult("Ancestors of f", result, vertices("f"), edges("e6"));
+
+		// Without e3
+		final LongBitSet allowedEdges = graph.getEdges();
+		allowedEdges.andNot(bits(graph.findEdge(hash("e3"))));
+		result = new CSRGraph.Subgraph();
+		graph.getLineage(result, bits(v("a")), allowedEdges, 3, true);
+		checkResult("Ancestors of a without e3", result, vertices("a", "b", "c", "d"), edges("e0", "e1", "e2"));
+	}
+
+	private void testPaths(){
+		CSRGraph.Subgraph result = new CSRGraph.Subgraph();
+		graph.getPaths(result, bits(v("a")), bits(v("d")), null, 3);
+		checkResult("Paths from a to d of length 3", result, vertices("a", "b", "c", "d", "e"),
+				edges("e0", "e1", "e2", "e3", "e4"));
+
+		result = new CSRGraph.Subgraph();
+		graph.getPaths(result, bits(v("a")), bits(v("d")), null, 2);
+		checkResult("Paths from a to d of length 2", result, vertices("a", "d", "e"), edges("e3", "e4"));
+
+		result = new CSRGraph.Subgraph();
+		graph.getPaths(result, bits(v("a")), bits(v("d")), null, 1);
+		checkResult("Paths from a to d of length 1", result, vertices(), edges());
+
+		// Against the direction of the edges
+		result = new CSRGraph.Subgraph();
+		graph.getPaths(result, bits(v("d")), bits(v("a")), null, 10);
+		checkResult("Paths from d to a", result, vertices(), edges());
+	}
+
+	private void testShortestPaths(){
+		CSRGraph.Subgraph result = new CSRGraph.Subgraph();
+		graph.getShortestPaths(result, bits(v("a")), bits(v("f")), null, 10);
+		checkResult("Shortest path from a to f", result, vertices("a", "d", "e", "f"), edges("e3", "e4", "e5"));
+
+		// From two sources to the nearest of two destinations
+		result = new CSRGraph.Subgraph();
+		graph.getShortestPaths(result, bits(v("b"), v("e")), bits(v("c"), v("f")), null, 10);
+		checkResult("Shortest paths from b and e", result, vertices("b", "c", "d", "e", "f"),
+				edges("e1", "e4", "e5"));
+
+		result = new CSRGraph.Subgraph();
+		graph.getShortestPaths(result, bits(v("a")), bits(v("f")), null, 2);
+		checkResult("Shortest path from a to f of length 2", result, vertices(), edges());
+	}
+
+	private void testIndexRebuiltAfterPut(){
+		// The index is built by the first traversal and must be rebuilt by the next one after the put
+		CSRGraph.Subgraph result = new CSRGraph.Subgraph();
+		graph.getShortestPaths(result, bits(v("a")), bits(v("f")), null, 10);
+		putEdge("e7", "b", "f");
+		result = new CSRGraph.Subgraph();
+		graph.getShortestPaths(result, bits(v("a")), bits(v("f")), null, 10);
+		checkResult("Shortest path from a to f after a new edge", result, vertices("a", "b", "f"), edges("e0", "e7"));
+	}
+
+	////////////////////
+
+	private static String hash(final String name){
+		return DigestUtils.md5Hex(name);
+	}
+
+	private void putEdge(final String name, final String child, final String parent){
+		final Map<String, String> annotations = new HashMap<String, String>();
+		annotations.put("name", name);
+		graph.putEdge(hash(name), hash(child), hash(parent), annotations);
+	}
+
+	private int v(final String name){
+		return graph.findVertex(hash(name));
+	}
+
+	private Set<Long> vertices(final String... names){
+		final Set<Long> ids = new TreeSet<Long>();
+		for(final String name : names){
+			ids.add((long)v(name));
+		}
+		return ids;
+	}
+
+	private Set<Long> edges(final String... names){
+		final Set<Long> ids = new TreeSet<Long>();
+		for(final String name : names){
+			ids.add(graph.findEdge(hash(name)));
+		}
+		return ids;
+	}
+
+	private static LongBitSet bits(final long... ids){
+		final LongBitSet bits = new LongBitSet();
+		for(final long id : ids){
+			bits.set(id);
+		}
+		return bits;
+	}
+
+	private static Set<Long> toSet(final LongBitSet bits){
+		final Set<Long> ids = new TreeSet<Long>();
+		for(long id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)){
+			ids.add(id);
+		}
+		return ids;
+	}
+
+	private static void checkResult(final String traversal, final CSRGraph.Subgraph result,
+			final Set<Long> expectedVertices, final Set<Long> expectedEdges){
+		checkEquals(traversal + ": vertices", expectedVertices, toSet(result.vertices));
+		checkEquals(traversal + ": edges", expectedEdges, toSet(result.edges));
+	}
+
+	private static void checkEquals(final String message, final Object expected, final Object actual){
+		check(expected.equals(actual), message + ". Expected: " + expected + ", actual: " + actual);
+	}
+
+	private static void check(final boolean condition, final String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,959 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+import spade.query.quickgrail.core.EnvironmentVariableManager;
+import spade.query.quickgrail.core.GraphDescription;
+import spade.query.quickgrail.core.GraphStatistic;
+import spade.query.quickgrail.core.GraphStatistic.Interval;
+import spade.query.quickgrail.core.GraphStatisticSketch;
+import spade.query.quickgrail.core.QueriedEdge;
+import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.query.quickgrail.core.QuickGrailQueryResolver.PredicateOperator;
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.entities.GraphMetadata;
+import spade.query.quickgrail.instruction.DescribeGraph;
+import spade.query.quickgrail.instruction.DescribeGraph.ElementType;
+import spade.query.quickgrail.instruction.GetEdgeEndpoint;
+import spade.query.quickgrail.instruction.GetLineage.Direction;
+import spade.query.quickgrail.instruction.SetGraphMetadata;
+import spade.query.quickgrail.utility.ResultTable;
+import spade.storage.CSR;
+
+/**
+ * QuickGrail instructions over the in-memory CSR graph.
+ *
+ * Every graph variable is a pair of bit sets so the set operations are word-wise and the traversals run on the CSR
+ * index without any intermediate tables. Like the other executors, the instructions add to the target graph.
+ */
+public class CSRInstructionExecutor extends QueryInstructionExecutor{
+
+	private static final String wildCard = "*";
+
+	private final CSR storage;
+	private final CSRGraph csrGraph;
+	private final CSRQueryEnvironment queryEnvironment;
+
+	public CSRInstructionExecutor(final CSR storage, final CSRGraph csrGraph, final CSRQueryEnvironment queryEnvironment){
+		this.storage = storage;
+		this.csrGraph = csrGraph;
+		this.queryEnvironment = queryEnvironment;
+		if(this.storage == null){
+			throw new IllegalArgumentException("NULL storage");
+		}
+		if(this.csrGraph == null){
+			throw new IllegalArgumentException("NULL CSR graph");
+		}
+		if(this.queryEnvironment == null){
+			throw new IllegalArgumentException("NULL Query Environment");
+		}
+	}
+
+	@Override
+	public CSRQueryEnvironment getQueryEnvironment(){
+		return queryEnvironment;
+	}
+
+	@Override
+	public AbstractStorage getStorage(){
+		return storage;
+	}
+
+	/**
+	 * The graphs are kept by the synchronized query environment and an instruction only writes the bit sets of its
+	 * target graph
+	 */
+	@Override
+	public boolean supportsConcurrentInstructions(){
+		return true;
+	}
+
+	/**
+	 * The base graph is already an in-memory adjacency structure
+	 */
+	@Override
+	public boolean prefersAdjacencyIndex(){
+		return false;
+	}
+
+	@Override
+	public long getGraphSizeInBytes(final Graph graph){
+		return getVertices(graph).getSizeInBytes() + getEdges(graph).getSizeInBytes();
+	}
+
+	// Checks for cancellation once every 4096 scanned elements
+	private void scanned(final long count){
+		if((count & 0xFFF) == 0){
+			getQueryMonitor().checkCancelled();
+		}
+	}
+
+	private LongBitSet getVertices(final Graph graph){
+		return queryEnvironment.getVertexSet(graph);
+	}
+
+	private LongBitSet getEdges(final Graph graph){
+		return queryEnvironment.getEdgeSet(graph);
+	}
+
+	private CSRGraph.Subgraph getTarget(final Graph graph){
+		return queryEnvironment.getWritableGraph(graph);
+	}
+
+	// Null means that all edges can be followed
+	private LongBitSet getAllowedEdges(final Graph subjectGraph){
+		return queryEnvironment.isBaseGraph(subjectGraph) ? null : getEdges(subjectGraph);
+	}
+
+	private LongBitSet getVerticesInSubject(final Graph graph, final Graph subjectGraph){
+		final LongBitSet vertices = new LongBitSet(getVertices(graph));
+		if(!queryEnvironment.isBaseGraph(subjectGraph)){
+			vertices.and(getVertices(subjectGraph));
+		}
+		return vertices;
+	}
+
+	////////////////////
+	// Annotations
+	////////////////////
+
+	private String getAnnotation(final ElementType elementType, final long id, final String key){
+		switch(elementType){
+			case VERTEX:
+				if(AbstractVertex.hashKey.equals(key)){
+					return csrGraph.getVertexHash((int)id);
+				}
+				return csrGraph.getVertexAnnotation((int)id, key);
+			case EDGE:
+				if(AbstractEdge.hashKey.equals(key)){
+					return csrGraph.getEdgeHash(id);
+				}else if(AbstractStorage.CHILD_VERTEX_KEY.equals(key)){
+					return csrGraph.getVertexHash(csrGraph.getEdgeChild(id));
+				}else if(AbstractStorage.PARENT_VERTEX_KEY.equals(key)){
+					return csrGraph.getVertexHash(csrGraph.getEdgeParent(id));
+				}
+				return csrGraph.getEdgeAnnotation(id, key);
+			default: throw new RuntimeException("Unknown element type");
+		}
+	}
+
+	private Set<String> getAnnotationKeys(final ElementType elementType){
+		final Set<String> keys = new TreeSet<String>();
+		switch(elementType){
+			case VERTEX:
+				keys.add(AbstractVertex.hashKey);
+				keys.addAll(csrGraph.getVertexAnnotationKeys());
+				break;
+			case EDGE:
+				keys.add(AbstractEdge.hashKey);
+				keys.add(AbstractStorage.CHILD_VERTEX_KEY);
+				keys.add(AbstractStorage.PARENT_VERTEX_KEY);
+				keys.addAll(csrGraph.getEdgeAnnotationKeys());
+				break;
+			default: throw new RuntimeException("Unknown element type");
+		}
+		return keys;
+	}
+
+	private static Double parseNumber(final String value){
+		try{
+			return Double.parseDouble(value);
+		}catch(Exception e){
+			return null;
+		}
+	}
+
+	// Numeric comparison if both are numbers otherwise string comparison
+	private static int compareValues(final String a, final String b){
+		final Double x = parseNumber(a);
+		final Double y = parseNumber(b);
+		if(x != null && y != null){
+			return Double.compare(x, y);
+		}
+		return a.compareTo(b);
+	}
+
+	private static Pattern likeToPattern(final String like){
+		final StringBuilder regex = new StringBuilder();
+		for(final char c : like.toCharArray()){
+			if(c == '%'){
+				regex.append(".*");
+			}else if(c == '_'){
+				regex.append('.');
+			}else{
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+
+	private static boolean matches(final String actual, final PredicateOperator operator, final String expected,
+			final Pattern pattern){
+		if(actual == null){
+			return false;
+		}
+		switch(operator){
+			case EQUAL: return compareValues(actual, expected) == 0;
+			case NOT_EQUAL: return compareValues(actual, expected) != 0;
+			case GREATER: return compareValues(actual, expected) > 0;
+			case GREATER_EQUAL: return compareValues(actual, expected) >= 0;
+			case LESSER: return compareValues(actual, expected) < 0;
+			case LESSER_EQUAL: return compareValues(actual, expected) <= 0;
+			case LIKE: return pattern.matcher(actual).matches();
+			case REGEX: return pattern.matcher(actual).find();
+			default: throw new RuntimeException("Unexpected comparison operator");
+		}
+	}
+
+	private void getMatchingElements(final LongBitSet result, final LongBitSet subject, final ElementType elementType,
+			final String annotationKey, final PredicateOperator operator, final String annotationValue){
+		final Set<String> existingKeys = getAnnotationKeys(elementType);
+		if(!annotationKey.equals(wildCard) && !existingKeys.contains(annotationKey)){
+			if(operator.equals(PredicateOperator.NOT_EQUAL)){
+				// Nothing has the annotation so nothing can be equal to the value
+				result.or(subject);
+			}
+			return;
+		}
+
+		final Pattern pattern;
+		switch(operator){
+			case LIKE: pattern = likeToPattern(annotationValue); break;
+			case REGEX: pattern = Pattern.compile(annotationValue); break;
+			default: pattern = null; break;
+		}
+
+		long count = 0;
+		for(long id = subject.nextSetBit(0); id >= 0; id = subject.nextSetBit(id + 1)){
+			scanned(++count);
+			if(annotationKey.equals(wildCard)){
+				for(final String key : existingKeys){
+					if(matches(getAnnotation(elementType, id, key), operator, annotationValue, pattern)){
+						result.set(id);
+						break;
+					}
+				}
+			}else{
+				if(matches(getAnnotation(elementType, id, annotationKey), operator, annotationValue, pattern)){
+					result.set(id);
+				}
+			}
+		}
+		getQueryMonitor().addRowsTouched(count);
+	}
+
+	@Override
+	public void getVertex(final Graph targetGraph, final Graph subjectGraph, final String annotationKey,
+			final PredicateOperator operator, final String annotationValue, final boolean hasArguments){
+		final LongBitSet subject = getVertices(subjectGraph);
+		final LongBitSet target = getTarget(targetGraph).vertices;
+		if(!hasArguments){
+			target.or(subject);
+		}else{
+			getMatchingElements(target, subject, ElementType.VERTEX, annotationKey, operator, annotationValue);
+		}
+	}
+
+	@Override
+	public void getEdge(final Graph targetGraph, final Graph subjectGraph, final String annotationKey,
+			final PredicateOperator operator, final String annotationValue, final boolean hasArguments){
+		final LongBitSet subject = getEdges(subjectGraph);
+		final LongBitSet target = getTarget(targetGraph).edges;
+		if(!hasArguments){
+			target.or(subject);
+		}else{
+			getMatchingElements(target, subject, ElementType.EDGE, annotationKey, operator, annotationValue);
+		}
+	}
+
+	@Override
+	public void getWhereAnnotationsExist(final Graph targetGraph, final Graph subjectGraph,
+			final ArrayList<String> annotationNames){
+		final LongBitSet subject = getVertices(subjectGraph);
+		final LongBitSet target = getTarget(targetGraph).vertices;
+		long count = 0;
+		for(long id = subject.nextSetBit(0); id >= 0; id = subject.nextSetBit(id + 1)){
+			scanned(++count);
+			boolean allExist = true;
+			for(final String annotationName : annotationNames){
+				if(getAnnotation(ElementType.VERTEX, id, annotationName) == null){
+					allExist = false;
+					break;
+				}
+			}
+			if(allExist){
+				target.set(id);
+			}
+		}
+		getQueryMonitor().addRowsTouched(count);
+	}
+
+	@Override
+	public void getMatch(final Graph targetGraph, final Graph graph1, final Graph graph2,
+			final ArrayList<String> annotationKeys){
+		final Graph g1 = createNewGraph();
+		getWhereAnnotationsExist(g1, graph1, annotationKeys);
+		final Graph g2 = createNewGraph();
+		getWhereAnnotationsExist(g2, graph2, annotationKeys);
+
+		final Map<List<String>, List<Long>> valuesToVertices = new HashMap<List<String>, List<Long>>();
+		final LongBitSet vertices1 = getVertices(g1);
+		for(long id = vertices1.nextSetBit(0); id >= 0; id = vertices1.nextSetBit(id + 1)){
+			final List<String> values = new ArrayList<String>();
+			for(final String annotationKey : annotationKeys){
+				values.add(getAnnotation(ElementType.VERTEX, id, annotationKey));
+			}
+			List<Long> ids = valuesToVertices.get(values);
+			if(ids == null){
+				ids = new ArrayList<Long>();
+				valuesToVertices.put(values, ids);
+			}
+			ids.add(id);
+		}
+
+		final LongBitSet target = getTarget(targetGraph).vertices;
+		final LongBitSet vertices2 = getVertices(g2);
+		for(long id = vertices2.nextSetBit(0); id >= 0; id = vertices2.nextSetBit(id + 1)){
+			final List<String> values = new ArrayList<String>();
+			for(final String annotationKey : annotationKeys){
+				values.add(getAnnotation(ElementType.VERTEX, id, annotationKey));
+			}
+			final List<Long> ids = valuesToVertices.get(values);
+			if(ids != null){
+				target.set(id);
+				for(final Long matchedId : ids){
+					target.set(matchedId);
+				}
+			}
+		}
+	}
+
+	@Override
+	public GraphDescription describeGraph(final DescribeGraph instruction){
+		if(instruction.graph == null){
+			throw new RuntimeException("NULL graph");
+		}
+		if(instruction.elementType == null){
+			throw new RuntimeException("NULL element type");
+		}
+		final LongBitSet elements;
+		switch(instruction.elementType){
+			case VERTEX: elements = getVertices(instruction.graph); break;
+			case EDGE: elements = getEdges(instruction.graph); break;
+			default: throw new RuntimeException("Unhandled element type: " + instruction.elementType);
+		}
+
+		if(instruction.all){
+			final Set<String> annotations = new TreeSet<String>();
+			for(long id = elements.nextSetBit(0); id >= 0; id = elements.nextSetBit(id + 1)){
+				final Map<String, String> map = instruction.elementType == ElementType.VERTEX
+						? csrGraph.getVertexAnnotations((int)id) : csrGraph.getEdgeAnnotations(id);
+				annotations.addAll(map.keySet());
+			}
+			final List<String> sorted = new ArrayList<String>(annotations);
+			final GraphDescription desc = new GraphDescription(instruction.elementType);
+			desc.addAnnotations(instruction.limit == null || instruction.limit >= sorted.size()
+					? sorted : sorted.subList(0, instruction.limit));
+			return desc;
+		}else{
+			if(instruction.annotationName == null){
+				throw new RuntimeException("NULL annotation name");
+			}
+			if(instruction.descriptionType == null){
+				throw new RuntimeException("NULL annotation description type");
+			}
+			final GraphDescription desc = new GraphDescription(instruction.elementType, instruction.annotationName,
+					instruction.descriptionType);
+			switch(instruction.descriptionType){
+				case COUNT:{
+					final SortedMap<String, Long> valueToCount = new TreeMap<String, Long>();
+					for(long id = elements.nextSetBit(0); id >= 0; id = elements.nextSetBit(id + 1)){
+						final String value = getAnnotation(instruction.elementType, id, instruction.annotationName);
+						if(value != null){
+							final Long count = valueToCount.get(value);
+							valueToCount.put(value, count == null ? 1L : count + 1);
+						}
+					}
+					int added = 0;
+					for(final Map.Entry<String, Long> entry : valueToCount.entrySet()){
+						if(instruction.limit != null && added >= instruction.limit){
+							break;
+						}
+						desc.putValueToCount(entry.getKey(), entry.getValue());
+						added++;
+					}
+					return desc;
+				}
+				case MINMAX:{
+					String minValue = null, maxValue = null;
+					for(long id = elements.nextSetBit(0); id >= 0; id = elements.nextSetBit(id + 1)){
+						final String value = getAnnotation(instruction.elementType, id, instruction.annotationName);
+						if(value != null){
+							if(minValue == null || compareValues(value, minValue) < 0){
+								minValue = value;
+							}
+							if(maxValue == null || compareValues(value, maxValue) > 0){
+								maxValue = value;
+							}
+						}
+					}
+					if(minValue == null){
+						minValue = EnvironmentVariableManager.getUndefinedConstant();
+					}
+					if(maxValue == null){
+						maxValue = EnvironmentVariableManager.getUndefinedConstant();
+					}
+					desc.setMinMax(minValue, maxValue);
+					return desc;
+				}
+				default: throw new RuntimeException("Unhandled description type: " + instruction.descriptionType);
+			}
+		}
+	}
+
+	@Override
+	public ResultTable evaluateQuery(final String nativeQuery){
+		throw new RuntimeException("CSR storage does NOT support native queries");
+	}
+
+	////////////////////
+	// Set operations
+	////////////////////
+
+	@Override
+	public void createEmptyGraph(final Graph graph){
+		queryEnvironment.createGraph(graph);
+	}
+
+	@Override
+	public void distinctifyGraph(final Graph targetGraph, final Graph sourceGraph){
+		unionGraph(targetGraph, sourceGraph);
+	}
+
+	@Override
+	public void unionGraph(final Graph targetGraph, final Graph sourceGraph){
+		final CSRGraph.Subgraph target = getTarget(targetGraph);
+		target.vertices.or(getVertices(sourceGraph));
+		target.edges.or(getEdges(sourceGraph));
+	}
+
+	@Override
+	public void intersectGraph(final Graph outputGraph, final Graph lhsGraph, final Graph rhsGraph){
+		final LongBitSet vertices = new LongBitSet(getVertices(lhsGraph));
+		vertices.and(getVertices(rhsGraph));
+		final LongBitSet edges = new LongBitSet(getEdges(lhsGraph));
+		edges.and(getEdges(rhsGraph));
+		final CSRGraph.Subgraph output = getTarget(outputGraph);
+		output.vertices.or(vertices);
+		output.edges.or(edges);
+	}
+
+	@Override
+	public void subtractGraph(final Graph outputGraph, final Graph minuendGraph, final Graph subtrahendGraph,
+			final Graph.Component component){
+		final CSRGraph.Subgraph output = getTarget(outputGraph);
+		if(component == null || component == Graph.Component.kVertex){
+			final LongBitSet vertices = new LongBitSet(getVertices(minuendGraph));
+			vertices.andNot(getVertices(subtrahendGraph));
+			output.vertices.or(vertices);
+		}
+		if(component == null || component == Graph.Component.kEdge){
+			final LongBitSet edges = new LongBitSet(getEdges(minuendGraph));
+			edges.andNot(getEdges(subtrahendGraph));
+			output.edges.or(edges);
+		}
+	}
+
+	private static void addFirst(final LongBitSet target, final LongBitSet source, final long fromInclusive,
+			final long toExclusive){
+		long index = 0;
+		for(long id = source.nextSetBit(0); id >= 0 && index < toExclusive; id = source.nextSetBit(id + 1), index++){
+			if(index >= fromInclusive){
+				target.set(id);
+			}
+		}
+	}
+
+	@Override
+	public void limitGraph(final Graph targetGraph, final Graph sourceGraph, final int limit){
+		final CSRGraph.Subgraph target = getTarget(targetGraph);
+		addFirst(target.vertices, getVertices(sourceGraph), 0, limit);
+		addFirst(target.edges, getEdges(sourceGraph), 0, limit);
+	}
+
+	@Override
+	public void getSubsetVertex(final Graph targetGraph, final Graph sourceGraph, final long fromInclusive,
+			final long toExclusive){
+		addFirst(getTarget(targetGraph).vertices, getVertices(sourceGraph), fromInclusive, toExclusive);
+	}
+
+	@Override
+	public void getSubsetEdge(final Graph targetGraph, final Graph sourceGraph, final long fromInclusive,
+			final long toExclusive){
+		addFirst(getTarget(targetGraph).edges, getEdges(sourceGraph), fromInclusive, toExclusive);
+	}
+
+	@Override
+	public void insertLiteralVertex(final Graph targetGraph, final ArrayList<String> vertices){
+		final LongBitSet target = getTarget(targetGraph).vertices;
+		for(final String vertex : vertices){
+			final int id = csrGraph.findVertex(vertex);
+			if(id >= 0){
+				target.set(id);
+			}
+		}
+	}
+
+	@Override
+	public void insertLiteralEdge(final Graph targetGraph, final ArrayList<String> edges){
+		final LongBitSet target = getTarget(targetGraph).edges;
+		for(final String edge : edges){
+			final long id = csrGraph.findEdge(edge);
+			if(id >= 0){
+				target.set(id);
+			}
+		}
+	}
+
+	@Override
+	public void collapseEdge(final Graph targetGraph, final Graph sourceGraph, final ArrayList<String> fields){
+		final CSRGraph.Subgraph target = getTarget(targetGraph);
+		target.vertices.or(getVertices(sourceGraph));
+
+		// Keep the edge with the smallest hash in each group like the SQL storages
+		final Map<List<String>, Long> groupToEdge = new HashMap<List<String>, Long>();
+		final Map<List<String>, String> groupToHash = new HashMap<List<String>, String>();
+		final LongBitSet edges = getEdges(sourceGraph);
+		for(long id = edges.nextSetBit(0); id >= 0; id = edges.nextSetBit(id + 1)){
+			final List<String> group = new ArrayList<String>();
+			group.add(String.valueOf(csrGraph.getEdgeChild(id)));
+			group.add(String.valueOf(csrGraph.getEdgeParent(id)));
+			for(final String field : fields){
+				group.add(getAnnotation(ElementType.EDGE, id, field));
+			}
+			final String hash = csrGraph.getEdgeHash(id);
+			final String existingHash = groupToHash.get(group);
+			if(existingHash == null || hash.compareTo(existingHash) < 0){
+				groupToHash.put(group, hash);
+				groupToEdge.put(group, id);
+			}
+		}
+		for(final Long id : groupToEdge.values()){
+			target.edges.set(id);
+		}
+	}
+
+	////////////////////
+	// Traversals
+	////////////////////
+
+	@Override
+	public void getEdgeEndpoint(final Graph targetGraph, final Graph subjectGraph,
+			final GetEdgeEndpoint.Component component){
+		final LongBitSet base = csrGraph.getVertices();
+		final LongBitSet target = getTarget(targetGraph).vertices;
+		final LongBitSet edges = getEdges(subjectGraph);
+		for(long id = edges.nextSetBit(0); id >= 0; id = edges.nextSetBit(id + 1)){
+			if(component == GetEdgeEndpoint.Component.kSource || component == GetEdgeEndpoint.Component.kBoth){
+				final int child = csrGraph.getEdgeChild(id);
+				if(base.get(child)){
+					target.set(child);
+				}
+			}
+			if(component == GetEdgeEndpoint.Component.kDestination || component == GetEdgeEndpoint.Component.kBoth){
+				final int parent = csrGraph.getEdgeParent(id);
+				if(base.get(parent)){
+					target.set(parent);
+				}
+			}
+		}
+	}
+
+	private static List<Direction> getDirections(final Direction direction){
+		switch(direction){
+			case kAncestor: return Arrays.asList(Direction.kAncestor);
+			case kDescendant: return Arrays.asList(Direction.kDescendant);
+			case kBoth: return Arrays.asList(Direction.kAncestor, Direction.kDescendant);
+			default: throw new RuntimeException("Unexpected direction: " + direction);
+		}
+	}
+
+	@Override
+	public void getLineage(final Graph targetGraph, final Graph subjectGraph, final Graph startGraph, final int depth,
+			final Direction direction){
+		final LongBitSet start = getVerticesInSubject(startGraph, subjectGraph);
+		final LongBitSet allowedEdges = getAllowedEdges(subjectGraph);
+		final CSRGraph.Subgraph target = getTarget(targetGraph);
+		final long edgesBefore = target.edges.cardinality();
+		for(final Direction singleDirection : getDirections(direction)){
+			getQueryMonitor().checkCancelled();
+			csrGraph.getLineage(target, start, allowedEdges, depth, singleDirection == Direction.kAncestor);
+		}
+		getQueryMonitor().addRowsTouched(target.edges.cardinality() - edgesBefore);
+	}
+
+	@Override
+	public void getAdjacentVertex(final Graph targetGraph, final Graph subjectGraph, final Graph sourceGraph,
+			final Direction direction){
+		getLineage(targetGraph, subjectGraph, sourceGraph, 1, direction);
+	}
+
+	@Override
+	public void getSimplePath(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph,
+			final Graph dstGraph, final int maxDepth){
+		csrGraph.getPaths(getTarget(targetGraph), getVerticesInSubject(srcGraph, subjectGraph),
+				getVerticesInSubject(dstGraph, subjectGraph), getAllowedEdges(subjectGraph), maxDepth);
+	}
+
+	@Override
+	public void getShortestPath(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph,
+			final Graph dstGraph, final int maxDepth){
+		csrGraph.getShortestPaths(getTarget(targetGraph), getVerticesInSubject(srcGraph, subjectGraph),
+				getVerticesInSubject(dstGraph, subjectGraph), getAllowedEdges(subjectGraph), maxDepth);
+	}
+
+	@Override
+	public void getLink(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph, final Graph dstGraph,
+			final int maxDepth){
+		final LongBitSet src = getVerticesInSubject(srcGraph, subjectGraph);
+		final LongBitSet dst = getVerticesInSubject(dstGraph, subjectGraph);
+		final LongBitSet allowedEdges = getAllowedEdges(subjectGraph);
+		final CSRGraph.Subgraph target = getTarget(targetGraph);
+		csrGraph.getPaths(target, src, dst, allowedEdges, maxDepth);
+		csrGraph.getPaths(target, dst, src, allowedEdges, maxDepth);
+	}
+
+	@Override
+	public void getSubgraph(final Graph targetGraph, final Graph subjectGraph, final Graph skeletonGraph){
+		final LongBitSet subjectVertices = getVertices(subjectGraph);
+		final LongBitSet answer = new LongBitSet(getVertices(skeletonGraph));
+		answer.and(subjectVertices);
+		final LongBitSet skeletonEdges = getEdges(skeletonGraph);
+		for(long id = skeletonEdges.nextSetBit(0); id >= 0; id = skeletonEdges.nextSetBit(id + 1)){
+			final int child = csrGraph.getEdgeChild(id);
+			if(subjectVertices.get(child)){
+				answer.set(child);
+			}
+			final int parent = csrGraph.getEdgeParent(id);
+			if(subjectVertices.get(parent)){
+				answer.set(parent);
+			}
+		}
+
+		final CSRGraph.Subgraph target = getTarget(targetGraph);
+		final LongBitSet subjectEdges = getEdges(subjectGraph);
+		for(long id = subjectEdges.nextSetBit(0); id >= 0; id = subjectEdges.nextSetBit(id + 1)){
+			if(answer.get(csrGraph.getEdgeChild(id)) && answer.get(csrGraph.getEdgeParent(id))){
+				target.edges.set(id);
+			}
+		}
+		target.vertices.or(answer);
+	}
+
+	////////////////////
+	// Statistics
+	////////////////////
+
+	private LongBitSet getElements(final Graph graph, final ElementType elementType){
+		switch(elementType){
+			case VERTEX: return getVertices(graph);
+			case EDGE: return getEdges(graph);
+			default: throw new RuntimeException("Unknown element type");
+		}
+	}
+
+	private List<Double> getNumericValues(final Graph graph, final ElementType elementType, final String annotationKey){
+		final List<Double> values = new ArrayList<Double>();
+		final LongBitSet elements = getElements(graph, elementType);
+		for(long id = elements.nextSetBit(0); id >= 0; id = elements.nextSetBit(id + 1)){
+			final String value = getAnnotation(elementType, id, annotationKey);
+			if(value != null){
+				final Double number = parseNumber(value);
+				if(number != null){
+					values.add(number);
+				}
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public GraphStatistic.Count getGraphCount(final Graph graph){
+		return new GraphStatistic.Count(getVertices(graph).cardinality(), getEdges(graph).cardinality());
+	}
+
+	@Override
+	public long getGraphStatisticSize(final Graph graph, final ElementType elementType, final String annotationKey){
+		long size = 0;
+		final LongBitSet elements = getElements(graph, elementType);
+		for(long id = elements.nextSetBit(0); id >= 0; id = elements.nextSetBit(id + 1)){
+			final String value = getAnnotation(elementType, id, annotationKey);
+			if(value != null && !value.isEmpty()){
+				size++;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public void sketchGraphStatistic(final Graph graph, final ElementType elementType, final String annotationKey,
+			final GraphStatisticSketch sketch){
+		final LongBitSet elements = getElements(graph, elementType);
+		final double samplingFraction = sketch.chooseSamplingFraction(elements.cardinality());
+		// Bernoulli sample of the elements by skipping a geometrically distributed number of elements at a time so
+		// that the annotations are only read for the sampled elements
+		final Random random = new Random();
+		long skip = nextSkip(random, samplingFraction);
+		for(long id = elements.nextSetBit(0); id >= 0; id = elements.nextSetBit(id + 1)){
+			if(skip > 0){
+				skip--;
+				continue;
+			}
+			sketch.offer(getAnnotation(elementType, id, annotationKey));
+			skip = nextSkip(random, samplingFraction);
+		}
+	}
+
+	private static long nextSkip(final Random random, final double samplingFraction){
+		if(samplingFraction >= 1){
+			return 0;
+		}
+		double uniform;
+		do{
+			uniform = random.nextDouble();
+		}while(uniform == 0);
+		return (long)Math.floor(Math.log(uniform) / Math.log(1 - samplingFraction));
+	}
+
+	@Override
+	public GraphStatistic.Histogram getGraphHistogram(final Graph graph, final ElementType elementType,
+			final String annotationKey){
+		final SortedMap<String, Double> histogram = new TreeMap<String, Double>();
+		final LongBitSet elements = getElements(graph, elementType);
+		for(long id = elements.nextSetBit(0); id >= 0; id = elements.nextSetBit(id + 1)){
+			final String value = getAnnotation(elementType, id, annotationKey);
+			if(value != null && !value.isEmpty()){
+				final Double count = histogram.get(value);
+				histogram.put(value, count == null ? 1.0 : count + 1.0);
+			}
+		}
+		if(histogram.isEmpty()){
+			return new GraphStatistic.Histogram();
+		}
+		return new GraphStatistic.Histogram(histogram);
+	}
+
+	@Override
+	public GraphStatistic.Mean getGraphMean(final Graph graph, final ElementType elementType, final String annotationKey){
+		final List<Double> values = getNumericValues(graph, elementType, annotationKey);
+		if(values.isEmpty()){
+			return new GraphStatistic.Mean();
+		}
+		double sum = 0;
+		for(final double value : values){
+			sum += value;
+		}
+		return new GraphStatistic.Mean(sum / values.size());
+	}
+
+	@Override
+	public GraphStatistic.StandardDeviation getGraphStandardDeviation(final Graph graph, final ElementType elementType,
+			final String annotationKey){
+		final List<Double> values = getNumericValues(graph, elementType, annotationKey);
+		if(values.isEmpty()){
+			return new GraphStatistic.StandardDeviation();
+		}
+		if(values.size() == 1){
+			return new GraphStatistic.StandardDeviation(0);
+		}
+		// Sample standard deviation (same as stddev in PostgreSQL) with Welford's algorithm
+		double mean = 0, m2 = 0;
+		long n = 0;
+		for(final double value : values){
+			n++;
+			final double delta = value - mean;
+			mean += delta / n;
+			m2 += delta * (value - mean);
+		}
+		return new GraphStatistic.StandardDeviation(Math.sqrt(m2 / (n - 1)));
+	}
+
+	@Override
+	public GraphStatistic.Distribution getGraphDistribution(final Graph graph, final ElementType elementType,
+			final String annotationKey, final Integer binCount){
+		final List<Double> values = getNumericValues(graph, elementType, annotationKey);
+		if(values.isEmpty()){
+			return new GraphStatistic.Distribution();
+		}
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for(final double value : values){
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		final double range = max - min + 1;
+		final double step = range / binCount;
+
+		// Same bins as the SQL storages. All bins are [begin, begin + step) except the last which is [begin, max]
+		final List<Interval> intervals = new ArrayList<Interval>();
+		double begin = min;
+		while(begin + step < max){
+			intervals.add(new Interval(begin, begin + step));
+			begin += step;
+		}
+		final double lastBegin = begin;
+		intervals.add(new Interval(lastBegin, max));
+
+		final double[] counts = new double[intervals.size()];
+		for(final double value : values){
+			if(value >= lastBegin){
+				if(value <= max){
+					counts[counts.length - 1]++;
+				}
+			}else{
+				final int bin = Math.min((int)((value - min) / step), counts.length - 2);
+				counts[Math.max(bin, 0)]++;
+			}
+		}
+
+		final SortedMap<Interval, Double> distribution = new TreeMap<Interval, Double>();
+		for(int i = 0; i < intervals.size(); i++){
+			distribution.put(intervals.get(i), counts[i]);
+		}
+		return new GraphStatistic.Distribution(distribution);
+	}
+
+	////////////////////
+	// Export
+	////////////////////
+
+	@Override
+	public Map<String, Map<String, String>> exportVertices(final Graph targetGraph){
+		final Map<String, Map<String, String>> hashToVertexMap = new HashMap<String, Map<String, String>>();
+		final LongBitSet vertices = getVertices(targetGraph);
+		for(long id = vertices.nextSetBit(0); id >= 0; id = vertices.nextSetBit(id + 1)){
+			hashToVertexMap.put(csrGraph.getVertexHash((int)id), csrGraph.getVertexAnnotations((int)id));
+		}
+		return hashToVertexMap;
+	}
+
+	@Override
+	public Set<QueriedEdge> exportEdges(final Graph targetGraph){
+		final Set<QueriedEdge> edgeSet = new HashSet<QueriedEdge>();
+		final LongBitSet edges = getEdges(targetGraph);
+		for(long id = edges.nextSetBit(0); id >= 0; id = edges.nextSetBit(id + 1)){
+			edgeSet.add(new QueriedEdge(csrGraph.getEdgeHash(id),
+					csrGraph.getVertexHash(csrGraph.getEdgeChild(id)),
+					csrGraph.getVertexHash(csrGraph.getEdgeParent(id)),
+					csrGraph.getEdgeAnnotations(id)));
+		}
+		return edgeSet;
+	}
+
+	/**
+	 * Walks the bit sets of the graph directly instead of paging through it
+	 */
+	@Override
+	public GraphStatistic.Count exportGraph(final Graph targetGraph, final int chunkSize,
+			final GraphChunkConsumer consumer) throws Exception{
+		long vertexCount = 0, edgeCount = 0;
+		final LongBitSet vertices = getVertices(targetGraph);
+		spade.core.Graph chunk = new spade.core.Graph();
+		for(long id = vertices.nextSetBit(0); id >= 0; id = vertices.nextSetBit(id + 1)){
+			final AbstractVertex vertex = new Vertex(csrGraph.getVertexHash((int)id));
+			vertex.addAnnotations(csrGraph.getVertexAnnotations((int)id));
+			chunk.putVertex(vertex);
+			vertexCount++;
+			if(chunk.vertexSet().size() == chunkSize){
+				consumer.accept(chunk);
+				chunk = new spade.core.Graph();
+			}
+		}
+		if(!chunk.vertexSet().isEmpty()){
+			consumer.accept(chunk);
+		}
+
+		final LongBitSet edges = getEdges(targetGraph);
+		chunk = new spade.core.Graph();
+		for(long id = edges.nextSetBit(0); id >= 0; id = edges.nextSetBit(id + 1)){
+			final AbstractEdge edge = new Edge(csrGraph.getEdgeHash(id),
+					getExportedEndpoint(csrGraph.getEdgeChild(id)), getExportedEndpoint(csrGraph.getEdgeParent(id)));
+			edge.addAnnotations(csrGraph.getEdgeAnnotations(id));
+			chunk.putEdge(edge);
+			edgeCount++;
+			if(chunk.edgeSet().size() == chunkSize){
+				consumer.accept(chunk);
+				chunk = new spade.core.Graph();
+			}
+		}
+		if(!chunk.edgeSet().isEmpty()){
+			consumer.accept(chunk);
+		}
+		return new GraphStatistic.Count(vertexCount, edgeCount);
+	}
+
+	// Reference vertex with only the 'id' annotation by which the exported edges identify their endpoints
+	private AbstractVertex getExportedEndpoint(final int id){
+		final AbstractVertex vertex = new Vertex(csrGraph.getVertexHash(id));
+		final String exportId = csrGraph.getVertexAnnotations(id).get(AbstractVertex.idKey);
+		if(exportId != null){
+			vertex.addAnnotation(AbstractVertex.idKey, exportId);
+		}
+		return vertex;
+	}
+
+	////////////////////
+	// Metadata
+	////////////////////
+
+	@Override
+	public void createEmptyGraphMetadata(final GraphMetadata metadata){
+		// Unsupported
+	}
+
+	@Override
+	public void overwriteGraphMetadata(final GraphMetadata targetMetadata, final GraphMetadata lhsMetadata,
+			final GraphMetadata rhsMetadata){
+		// Unsupported
+	}
+
+	@Override
+	public void setGraphMetadata(final GraphMetadata targetMetadata, final SetGraphMetadata.Component component,
+			final Graph sourceGraph, final String name, final String value){
+		// Unsupported
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import spade.query.quickgrail.core.AbstractQueryEnvironment;
+import spade.query.quickgrail.entities.Graph;
+
+/**
+ * Query environment for the CSR storage.
+ *
+ * Graph variables are pairs of bit sets (vertex ids and edge ids) and the symbols are kept in memory only, like the
+ * graph itself.
+ */
+public class CSRQueryEnvironment extends AbstractQueryEnvironment{
+
+	private final CSRGraph csrGraph;
+
+	private int idCounter = 0;
+	private final Map<String, String> graphSymbols = new HashMap<String, String>();
+	private final Map<String, String> metadataSymbols = new HashMap<String, String>();
+	private final Map<String, String> predicateSymbols = new HashMap<String, String>();
+	private final Map<String, LinkedHashSet<Graph.Remote>> remoteSymbols = new HashMap<String, LinkedHashSet<Graph.Remote>>();
+
+	private final Map<String, CSRGraph.Subgraph> graphs = new HashMap<String, CSRGraph.Subgraph>();
+
+	public CSRQueryEnvironment(final String baseGraphName, final CSRGraph csrGraph){
+		super(baseGraphName);
+		this.csrGraph = csrGraph;
+		if(this.csrGraph == null){
+			throw new RuntimeException("NULL CSR graph");
+		}
+	}
+
+	////////////////////
+	// Graph variables
+	////////////////////
+
+	public synchronized void createGraph(final Graph graph){
+		if(isBaseGraph(graph)){
+			throw new RuntimeException("Cannot recreate the base graph: '" + graph.name + "'");
+		}
+		graphs.put(graph.name, new CSRGraph.Subgraph());
+	}
+
+	private synchronized CSRGraph.Subgraph getGraph(final Graph graph){
+		final CSRGraph.Subgraph subgraph = graphs.get(graph.name);
+		if(subgraph == null){
+			throw new RuntimeException("Graph does not exist: '" + graph.name + "'");
+		}
+		return subgraph;
+	}
+
+	/**
+	 * @return The vertex set of the graph. A copy in case of the base graph
+	 */
+	public LongBitSet getVertexSet(final Graph graph){
+		return isBaseGraph(graph) ? csrGraph.getVertices() : getGraph(graph).vertices;
+	}
+
+	/**
+	 * @return The edge set of the graph. A copy in case of the base graph
+	 */
+	public LongBitSet getEdgeSet(final Graph graph){
+		return isBaseGraph(graph) ? csrGraph.getEdges() : getGraph(graph).edges;
+	}
+
+	/**
+	 * @return The mutable vertex and edge sets of the graph
+	 */
+	public CSRGraph.Subgraph getWritableGraph(final Graph graph){
+		if(isBaseGraph(graph)){
+			throw new RuntimeException("Cannot modify the base graph: '" + graph.name + "'");
+		}
+		return getGraph(graph);
+	}
+
+	////////////////////
+	// Setup
+	////////////////////
+
+	@Override
+	public synchronized void createSymbolStorageIfNotPresent(){
+		// In memory
+	}
+
+	@Override
+	public synchronized void deleteSymbolStorageIfPresent(){
+		idCounter = 0;
+		graphSymbols.clear();
+		metadataSymbols.clear();
+		predicateSymbols.clear();
+		remoteSymbols.clear();
+	}
+
+	@Override
+	public synchronized final void doGarbageCollection(){
+		final Set<String> referencedGraphNames = new HashSet<String>(getCurrentGraphSymbolsStringMap().values());
+		final Set<String> garbageGraphNames = new HashSet<String>();
+		for(final String graphName : graphs.keySet()){
+			if(isSPADEGraphOrSPADEMetadataName(graphName) && !referencedGraphNames.contains(graphName)){
+				garbageGraphNames.add(graphName);
+			}
+		}
+		for(final String garbageGraphName : garbageGraphNames){
+			graphs.remove(garbageGraphName);
+			remoteSymbols.remove(garbageGraphName);
+		}
+	}
+
+	@Override
+	public synchronized int readIdCount(){
+		return idCounter;
+	}
+
+	@Override
+	public synchronized Map<String, Graph> readGraphSymbols(){
+		final Map<String, Graph> symbolToGraph = new HashMap<String, Graph>();
+		for(final Map.Entry<String, String> entry : graphSymbols.entrySet()){
+			symbolToGraph.put(entry.getKey(), new Graph(entry.getValue()));
+		}
+		return symbolToGraph;
+	}
+
+	@Override
+	public synchronized void readRemoteSymbols(final Graph graph){
+		final LinkedHashSet<Graph.Remote> remotes = remoteSymbols.get(graph.name);
+		if(remotes != null){
+			for(final Graph.Remote remote : remotes){
+				graph.addRemote(remote);
+			}
+		}
+	}
+
+	@Override
+	public synchronized Map<String, String> readMetadataSymbols(){
+		return new HashMap<String, String>(metadataSymbols);
+	}
+
+	@Override
+	public synchronized Map<String, String> readPredicateSymbols(){
+		return new HashMap<String, String>(predicateSymbols);
+	}
+
+	@Override
+	public synchronized void saveIdCounter(final int idCounter){
+		this.idCounter = idCounter;
+	}
+
+	@Override
+	public synchronized void saveGraphSymbol(final String symbol, final String graphName, final boolean symbolNameWasPresent){
+		graphSymbols.put(symbol, graphName);
+	}
+
+	@Override
+	public synchronized void saveRemoteSymbol(final Graph graph, final Graph.Remote remote){
+		LinkedHashSet<Graph.Remote> remotes = remoteSymbols.get(graph.name);
+		if(remotes == null){
+			remotes = new LinkedHashSet<Graph.Remote>();
+			remoteSymbols.put(graph.name, remotes);
+		}
+		remotes.add(remote);
+	}
+
+	@Override
+	public synchronized void saveMetadataSymbol(final String symbol, final String metadataName, final boolean symbolNameWasPresent){
+		metadataSymbols.put(symbol, metadataName);
+	}
+
+	@Override
+	public synchronized void savePredicateSymbol(final String symbol, final String predicate, final boolean symbolNameWasPresent){
+		predicateSymbols.put(symbol, predicate);
+	}
+
+	@Override
+	public synchronized void deleteGraphSymbol(final String symbol){
+		graphSymbols.remove(symbol);
+	}
+
+	@Override
+	public synchronized void deleteRemoteSymbol(final Graph graph, final Graph.Remote remote){
+		final LinkedHashSet<Graph.Remote> remotes = remoteSymbols.get(graph.name);
+		if(remotes != null){
+			remotes.remove(remote);
+		}
+	}
+
+	@Override
+	public synchronized void deleteRemoteSymbols(final Graph graph){
+		remoteSymbols.remove(graph.name);
+	}
+
+	@Override
+	public synchronized void deleteMetadataSymbol(final String symbol){
+		metadataSymbols.remove(symbol);
+	}
+
+	@Override
+	public synchronized void deletePredicateSymbol(final String symbol){
+		predicateSymbols.remove(symbol);
+	}
+}
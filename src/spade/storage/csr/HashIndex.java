@@ -0,0 +1,112 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+/**
+ * Open addressing index from 128-bit hashes to dense ids (0, 1, 2, ...).
+ *
+ * The hashes are not copied. They are read from the arrays (indexed by id) owned by the caller which is why the ids
+ * must be added in order. Not thread-safe.
+ */
+public final class HashIndex{
+
+	private static final long emptySlot = -1;
+
+	private final PagedLongArray hashesHigh;
+	private final PagedLongArray hashesLow;
+
+	private PagedLongArray slots = new PagedLongArray(emptySlot);
+	private long capacity = 1 << 16; // Power of 2
+	private long size = 0;
+
+	/**
+	 * @param hashesHigh High 64 bits of the hash of each id
+	 * @param hashesLow Low 64 bits of the hash of each id
+	 */
+	public HashIndex(final PagedLongArray hashesHigh, final PagedLongArray hashesLow){
+		this.hashesHigh = hashesHigh;
+		this.hashesLow = hashesLow;
+	}
+
+	public long size(){
+		return size;
+	}
+
+	private static long slotOf(final long high, final long low, final long mask){
+		long h = high ^ (low * 0x9E3779B97F4A7C15L);
+		h ^= (h >>> 32);
+		return h & mask;
+	}
+
+	/**
+	 * @return The id or -1 if not found
+	 */
+	public long get(final long high, final long low){
+		final long mask = capacity - 1;
+		long slot = slotOf(high, low, mask);
+		while(true){
+			final long id = slots.get(slot);
+			if(id == emptySlot){
+				return -1;
+			}
+			if(hashesHigh.get(id) == high && hashesLow.get(id) == low){
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Must be called after the hash of the id has been set in the hash arrays.
+	 *
+	 * @param id Must be equal to the current size i.e. ids are added in order
+	 */
+	public void add(final long id){
+		if(id != size){
+			throw new IllegalArgumentException("Ids must be added in order. Expected: " + size + ", Actual: " + id);
+		}
+		if((size + 1) * 2 > capacity){
+			// Rehash all. The ids are dense so the old slots are not needed.
+			capacity = capacity * 2;
+			slots = new PagedLongArray(emptySlot);
+			for(long existingId = 0; existingId < size; existingId++){
+				insert(existingId);
+			}
+		}
+		insert(id);
+		size++;
+	}
+
+	private void insert(final long id){
+		final long mask = capacity - 1;
+		long slot = slotOf(hashesHigh.get(id), hashesLow.get(id), mask);
+		while(slots.get(slot) != emptySlot){
+			slot = (slot + 1) & mask;
+		}
+		slots.set(slot, id);
+	}
+
+	/**
+	 * @return Bytes allocated for the slots
+	 */
+	public long getAllocatedBytes(){
+		return slots.getAllocatedBytes();
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+/**
+ * Bit set indexed by long. Used for the vertex and edge ids of a QuickGrail graph variable.
+ *
+ * Like java.util.BitSet but paged so that it can hold more than Integer.MAX_VALUE bits and can be grown without
+ * copying. Not thread-safe.
+ */
+public final class LongBitSet{
+
+	private static final int pageShift = 14; // words per page
+	private static final int wordsPerPage = 1 << pageShift;
+	private static final int pageMask = wordsPerPage - 1;
+
+	private long[][] pages = new long[0][];
+
+	public LongBitSet(){}
+
+	public LongBitSet(final LongBitSet other){
+		this.pages = new long[other.pages.length][];
+		for(int i = 0; i < other.pages.length; i++){
+			this.pages[i] = other.pages[i] == null ? null : other.pages[i].clone();
+		}
+	}
+
+	private long getWord(final long wordIndex){
+		final int page = (int)(wordIndex >>> pageShift);
+		if(page >= pages.length || pages[page] == null){
+			return 0;
+		}
+		return pages[page][(int)(wordIndex & pageMask)];
+	}
+
+	private long[] getOrCreatePage(final int page){
+		if(page >= pages.length){
+			final long[][] newPages = new long[page + 1][];
+			System.arraycopy(pages, 0, newPages, 0, pages.length);
+			pages = newPages;
+		}
+		if(pages[page] == null){
+			pages[page] = new long[wordsPerPage];
+		}
+		return pages[page];
+	}
+
+	public boolean get(final long index){
+		return (getWord(index >>> 6) & (1L << index)) != 0;
+	}
+
+	public void set(final long index){
+		final long wordIndex = index >>> 6;
+		getOrCreatePage((int)(wordIndex >>> pageShift))[(int)(wordIndex & pageMask)] |= (1L << index);
+	}
+
+	public void clear(){
+		pages = new long[0][];
+	}
+
+	public boolean isEmpty(){
+		return nextSetBit(0) < 0;
+	}
+
+	/**
+	 * @return Memory taken by the allocated pages
+	 */
+	public long getSizeInBytes(){
+		long bytes = 8L * pages.length;
+		for(final long[] page : pages){
+			if(page != null){
+				bytes += 8L * page.length;
+			}
+		}
+		return bytes;
+	}
+
+	public long cardinality(){
+		long count = 0;
+		for(final long[] page : pages){
+			if(page != null){
+				for(final long word : page){
+					count += Long.bitCount(word);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param fromIndex Inclusive
+	 * @return Index of the first set bit at or after fromIndex or -1 if none
+	 */
+	public long nextSetBit(final long fromIndex){
+		if(fromIndex < 0){
+			throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+		}
+		long wordIndex = fromIndex >>> 6;
+		int page = (int)(wordIndex >>> pageShift);
+		if(page >= pages.length){
+			return -1;
+		}
+		long word = getWord(wordIndex) & (-1L << fromIndex);
+		while(true){
+			if(word != 0){
+				return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+			}
+			wordIndex++;
+			page = (int)(wordIndex >>> pageShift);
+			if(page >= pages.length){
+				return -1;
+			}
+			if(pages[page] == null){
+				// Skip the whole page
+				wordIndex = ((long)(page + 1) << pageShift) - 1;
+				word = 0;
+			}else{
+				word = pages[page][(int)(wordIndex & pageMask)];
+			}
+		}
+	}
+
+	/**
+	 * this = this | other
+	 */
+	public void or(final LongBitSet other){
+		for(int page = 0; page < other.pages.length; page++){
+			final long[] otherPage = other.pages[page];
+			if(otherPage != null){
+				final long[] thisPage = getOrCreatePage(page);
+				for(int i = 0; i < wordsPerPage; i++){
+					thisPage[i] |= otherPage[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * this = this & other
+	 */
+	public void and(final LongBitSet other){
+		for(int page = 0; page < pages.length; page++){
+			final long[] thisPage = pages[page];
+			if(thisPage != null){
+				final long[] otherPage = page < other.pages.length ? other.pages[page] : null;
+				if(otherPage == null){
+					pages[page] = null;
+				}else{
+					for(int i = 0; i < wordsPerPage; i++){
+						thisPage[i] &= otherPage[i];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * this = this & ~other
+	 */
+	public void andNot(final LongBitSet other){
+		final int count = Math.min(pages.length, other.pages.length);
+		for(int page = 0; page < count; page++){
+			final long[] thisPage = pages[page];
+			final long[] otherPage = other.pages[page];
+			if(thisPage != null && otherPage != null){
+				for(int i = 0; i < wordsPerPage; i++){
+					thisPage[i] &= ~otherPage[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Bytes allocated for the pages
+	 */
+	public long getAllocatedBytes(){
+		long bytes = 0;
+		for(final long[] page : pages){
+			if(page != null){
+				bytes += (long)wordsPerPage * Long.BYTES;
+			}
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+/**
+ * Growable int array indexed by long. See {@link PagedLongArray}.
+ */
+public final class PagedIntArray{
+
+	private static final int pageShift = 16;
+	private static final int pageSize = 1 << pageShift;
+	private static final int pageMask = pageSize - 1;
+
+	private int[][] pages = new int[0][];
+
+	public int get(final long index){
+		final int page = (int)(index >>> pageShift);
+		if(page >= pages.length){
+			return 0;
+		}
+		return pages[page][(int)(index & pageMask)];
+	}
+
+	public void set(final long index, final int value){
+		final int page = (int)(index >>> pageShift);
+		if(page >= pages.length){
+			final int[][] newPages = new int[page + 1][];
+			System.arraycopy(pages, 0, newPages, 0, pages.length);
+			for(int i = pages.length; i < newPages.length; i++){
+				newPages[i] = new int[pageSize];
+			}
+			pages = newPages;
+		}
+		pages[page][(int)(index & pageMask)] = value;
+	}
+
+	/**
+	 * @return Bytes allocated for the pages
+	 */
+	public long getAllocatedBytes(){
+		return (long)pages.length * pageSize * Integer.BYTES;
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.csr;
+
+import java.util.Arrays;
+
+/**
+ * Growable long array indexed by long. Memory is allocated in fixed size pages so that growing never copies the
+ * existing values and the size is not limited by the maximum Java array length.
+ */
+public final class PagedLongArray{
+
+	private static final int pageShift = 16;
+	private static final int pageSize = 1 << pageShift;
+	private static final int pageMask = pageSize - 1;
+
+	private final long initialValue;
+	private long[][] pages = new long[0][];
+
+	public PagedLongArray(){
+		this(0);
+	}
+
+	/**
+	 * @param initialValue Value of the indices which have not been set
+	 */
+	public PagedLongArray(final long initialValue){
+		this.initialValue = initialValue;
+	}
+
+	public long get(final long index){
+		final int page = (int)(index >>> pageShift);
+		if(page >= pages.length){
+			return initialValue;
+		}
+		return pages[page][(int)(index & pageMask)];
+	}
+
+	public void set(final long index, final long value){
+		final int page = (int)(index >>> pageShift);
+		if(page >= pages.length){
+			grow(page);
+		}
+		pages[page][(int)(index & pageMask)] = value;
+	}
+
+	private void grow(final int page){
+		final long[][] newPages = new long[page + 1][];
+		System.arraycopy(pages, 0, newPages, 0, pages.length);
+		for(int i = pages.length; i < newPages.length; i++){
+			newPages[i] = new long[pageSize];
+			if(initialValue != 0){
+				Arrays.fill(newPages[i], initialValue);
+			}
+		}
+		pages = newPages;
+	}
+
+	/**
+	 * @return Bytes allocated for the pages
+	 */
+	public long getAllocatedBytes(){
+		return (long)pages.length * pageSize * Long.BYTES;
+	}
+}
@@ -0,0 +1,514 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.storage.Neo4j;
+import spade.storage.csr.LongBitSet;
+
+/**
+ * Offline import of vertices and edges into an empty Neo4j database.
+ *
+ * Vertices are given integer node ids in the order they are seen (mapped from the hash off the heap by an unbounded
+ * NodeIdCache) and spooled to a file. A vertex first seen as an edge endpoint is spooled with the annotations of that
+ * copy, and spooled again if it is put later; the copy from putVertex is the one imported. Edges are buffered, sorted
+ * by (start node id, end node id, hash) and spooled in runs. On finish the spooled vertices and the merged runs
+ * (without duplicate edges) are written as CSV files with one column per annotation key seen, and 'neo4j-admin import'
+ * builds the store from them. The database must not be running during the import.
+ *
+ * Node properties, relationship properties and the relationship direction (child to parent) are the same as the ones
+ * written by TaskPutVertex and TaskPutEdge. Indexes are created by the storage after the database is started.
+ */
+public class BulkImporter{
+
+	private static final Logger logger = Logger.getLogger(BulkImporter.class.getName());
+
+	private static final int ioBufferSize = 1 << 20;
+	private static final String nodeSpoolFileName = "nodes.spool";
+	private static final String relationshipRunFilePrefix = "relationships-";
+	private static final String relationshipRunFileSuffix = ".run";
+	private static final String nodesFileName = "nodes.csv";
+	private static final String relationshipsFileName = "relationships.csv";
+	private static final String additionalConfigFileName = "import.conf";
+	private static final String importLogFileName = "import.log";
+
+	private static final class SpooledRelationship{
+		private final long startId;
+		private final long endId;
+		private final String hash;
+		private final Map<String, String> annotations;
+
+		private SpooledRelationship(final long startId, final long endId, final String hash,
+				final Map<String, String> annotations){
+			this.startId = startId;
+			this.endId = endId;
+			this.hash = hash;
+			this.annotations = annotations;
+		}
+	}
+
+	private static final Comparator<SpooledRelationship> relationshipOrder = Comparator
+			.comparingLong((SpooledRelationship r) -> r.startId)
+			.thenComparingLong(r -> r.endId)
+			.thenComparing(r -> r.hash);
+
+	private final Neo4j storage;
+	private final File directory;
+	private final int sortBufferSize;
+
+	// Off the heap. Hashes which are not 32 hex characters (not expected) are kept in otherNodeIds.
+	private final NodeIdCache nodeIds = new NodeIdCache();
+	private final Map<String, Long> otherNodeIds = new HashMap<String, Long>();
+	private long nodeCount = 0;
+	// Ids of the nodes spooled by putVertex (and not only as an edge endpoint)
+	private final LongBitSet putNodeIds = new LongBitSet();
+	private final Set<String> nodePropertyNames = new TreeSet<String>();
+	private final Set<String> relationshipPropertyNames = new TreeSet<String>();
+
+	private DataOutputStream nodeSpool;
+	private final List<SpooledRelationship> relationshipBuffer = new ArrayList<SpooledRelationship>();
+	private final List<File> relationshipRunFiles = new ArrayList<File>();
+
+	private long nodesSpooled = 0;
+	private long relationshipsSpooled = 0;
+	private volatile long lastPutMillis = System.currentTimeMillis();
+
+	public BulkImporter(final Neo4j storage){
+		this.storage = storage;
+		this.directory = storage.getConfiguration().bulkImportDirectory;
+		this.sortBufferSize = storage.getConfiguration().bulkImportSortBufferSize;
+	}
+
+	public final void start() throws Exception{
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new Exception("Failed to create bulk import directory: '" + directory.getAbsolutePath() + "'");
+		}
+		deleteIntermediateFiles();
+		nodeSpool = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, nodeSpoolFileName)), ioBufferSize));
+		logger.log(Level.INFO, "Bulk import started. Spooling to: " + directory.getAbsolutePath());
+	}
+
+	public final long getLastPutMillis(){
+		return lastPutMillis;
+	}
+
+	public final Set<String> getNodePropertyNames(){
+		return Collections.unmodifiableSet(nodePropertyNames);
+	}
+
+	public final Set<String> getRelationshipPropertyNames(){
+		return Collections.unmodifiableSet(relationshipPropertyNames);
+	}
+
+	public final void putVertex(final AbstractVertex vertex) throws Exception{
+		lastPutMillis = System.currentTimeMillis();
+		final String hashCode = getHashCode(vertex);
+		final long existingId = getNodeId(hashCode);
+		if(existingId >= 0 && putNodeIds.get(existingId)){
+			return;
+		}
+		final long id = existingId >= 0 ? existingId : newNodeId(hashCode);
+		spoolNode(id, hashCode, vertex, true);
+		putNodeIds.set(id);
+	}
+
+	public final void putEdge(final AbstractEdge edge) throws Exception{
+		lastPutMillis = System.currentTimeMillis();
+		final String hashCode = edge.bigHashCode();
+		if(hashCode == null){
+			throw new Exception("NULL hash code for edge to put: " + edge);
+		}
+		if(edge.getChildVertex() == null || edge.getParentVertex() == null){
+			throw new Exception("NULL endpoint. Failed to put edge: " + edge);
+		}
+		final Map<String, String> annotations = edge.getCopyOfAnnotations();
+		storage.validateUpdateHashKeyAndKeysInAnnotationMap(edge, "Edge", annotations);
+
+		final long childId = getOrSpoolNode(edge.getChildVertex());
+		final long parentId = getOrSpoolNode(edge.getParentVertex());
+
+		relationshipPropertyNames.addAll(annotations.keySet());
+		relationshipBuffer.add(new SpooledRelationship(childId, parentId, hashCode, annotations));
+		relationshipsSpooled++;
+		storage.getStorageStats().edgeCount.increment();
+		if(relationshipBuffer.size() >= sortBufferSize){
+			spoolRelationshipRun();
+		}
+	}
+
+	private final long getOrSpoolNode(final AbstractVertex vertex) throws Exception{
+		final String hashCode = getHashCode(vertex);
+		final long existingId = getNodeId(hashCode);
+		if(existingId >= 0){
+			return existingId;
+		}
+		final long id = newNodeId(hashCode);
+		spoolNode(id, hashCode, vertex, false);
+		return id;
+	}
+
+	private static String getHashCode(final AbstractVertex vertex) throws Exception{
+		final String hashCode = vertex.bigHashCode();
+		if(hashCode == null){
+			throw new Exception("NULL hash code for vertex to put: " + vertex);
+		}
+		return hashCode;
+	}
+
+	// -1 if not seen
+	private final long getNodeId(final String hashCode){
+		final long id = nodeIds.get(hashCode);
+		if(id >= 0){
+			return id;
+		}
+		final Long otherId = otherNodeIds.get(hashCode);
+		return otherId == null ? -1 : otherId;
+	}
+
+	private final long newNodeId(final String hashCode){
+		final long id = nodeCount++;
+		if(!nodeIds.put(hashCode, id)){
+			otherNodeIds.put(hashCode, id);
+		}
+		storage.getStorageStats().vertexCount.increment();
+		return id;
+	}
+
+	private final void spoolNode(final long id, final String hashCode, final AbstractVertex vertex,
+			final boolean fromPutVertex) throws Exception{
+		final Map<String, String> annotations = vertex.getCopyOfAnnotations();
+		storage.validateUpdateHashKeyAndKeysInAnnotationMap(vertex, "Vertex", annotations);
+
+		nodeSpool.writeLong(id);
+		nodeSpool.writeBoolean(fromPutVertex);
+		writeString(nodeSpool, hashCode);
+		writeAnnotations(nodeSpool, annotations);
+		nodesSpooled++;
+		nodePropertyNames.addAll(annotations.keySet());
+	}
+
+	private final void spoolRelationshipRun() throws IOException{
+		if(relationshipBuffer.isEmpty()){
+			return;
+		}
+		relationshipBuffer.sort(relationshipOrder);
+		final File runFile = new File(directory,
+				relationshipRunFilePrefix + relationshipRunFiles.size() + relationshipRunFileSuffix);
+		try(final DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(runFile), ioBufferSize))){
+			for(final SpooledRelationship relationship : relationshipBuffer){
+				output.writeLong(relationship.startId);
+				output.writeLong(relationship.endId);
+				writeString(output, relationship.hash);
+				writeAnnotations(output, relationship.annotations);
+			}
+		}
+		relationshipRunFiles.add(runFile);
+		relationshipBuffer.clear();
+		storage.debug("Spooled relationship run #" + relationshipRunFiles.size());
+	}
+
+	/**
+	 * Writes the CSV files and runs 'neo4j-admin import'. The intermediate files are deleted on success.
+	 */
+	public final void finish() throws Exception{
+		final long startMillis = System.currentTimeMillis();
+		nodeSpool.close();
+		spoolRelationshipRun();
+
+		final File nodesFile = new File(directory, nodesFileName);
+		final File relationshipsFile = new File(directory, relationshipsFileName);
+		final long nodes = writeNodesFile(nodesFile);
+		final long relationships = writeRelationshipsFile(relationshipsFile);
+		logger.log(Level.INFO, "Bulk import files written with " + nodes + " node(s) and " + relationships
+				+ " relationship(s) (" + (relationshipsSpooled - relationships) + " duplicate(s) skipped) in "
+				+ (System.currentTimeMillis() - startMillis) + " millis");
+
+		runImport(nodesFile, relationshipsFile);
+		logger.log(Level.INFO, "Bulk import completed in " + (System.currentTimeMillis() - startMillis) + " millis");
+
+		nodeIds.clear();
+		otherNodeIds.clear();
+		nodeCount = 0;
+		putNodeIds.clear();
+		deleteIntermediateFiles();
+	}
+
+	private final long writeNodesFile(final File nodesFile) throws IOException{
+		final List<String> keys = new ArrayList<String>(nodePropertyNames);
+		final List<String> header = new ArrayList<String>();
+		header.add(":ID");
+		header.add(storage.getConfiguration().hashPropertyName);
+		header.addAll(keys);
+
+		long nodes = 0;
+		try(final DataInputStream input = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(new File(directory, nodeSpoolFileName)), ioBufferSize));
+				final Writer output = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(nodesFile), StandardCharsets.UTF_8), ioBufferSize)){
+			writeHeader(output, header);
+			for(long i = 0; i < nodesSpooled; i++){
+				final long id = input.readLong();
+				final boolean fromPutVertex = input.readBoolean();
+				final String hash = readString(input);
+				final Map<String, String> annotations = readAnnotations(input);
+				if(!fromPutVertex && putNodeIds.get(id)){
+					// Superseded by the copy from putVertex
+					continue;
+				}
+				nodes++;
+				output.write(String.valueOf(id));
+				output.write(',');
+				writeField(output, hash);
+				writeFields(output, keys, annotations);
+			}
+		}
+		return nodes;
+	}
+
+	private static final class RunReader{
+		private final DataInputStream input;
+		private SpooledRelationship current;
+
+		private RunReader(final File runFile) throws IOException{
+			this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), ioBufferSize));
+		}
+
+		// False at the end of the run
+		private boolean advance() throws IOException{
+			final long startId;
+			try{
+				startId = input.readLong();
+			}catch(EOFException e){
+				current = null;
+				return false;
+			}
+			final long endId = input.readLong();
+			final String hash = readString(input);
+			current = new SpooledRelationship(startId, endId, hash, readAnnotations(input));
+			return true;
+		}
+	}
+
+	// K-way merge of the sorted runs
+	private final long writeRelationshipsFile(final File relationshipsFile) throws IOException{
+		final List<String> keys = new ArrayList<String>(relationshipPropertyNames);
+		final List<String> header = new ArrayList<String>();
+		header.add(":START_ID");
+		header.add(":END_ID");
+		header.add(storage.getConfiguration().hashPropertyName);
+		header.addAll(keys);
+
+		final PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, relationshipRunFiles.size()),
+				(a, b) -> relationshipOrder.compare(a.current, b.current));
+		final List<RunReader> readers = new ArrayList<RunReader>();
+		long written = 0;
+		try(final Writer output = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(relationshipsFile), StandardCharsets.UTF_8), ioBufferSize)){
+			writeHeader(output, header);
+			for(final File runFile : relationshipRunFiles){
+				final RunReader reader = new RunReader(runFile);
+				readers.add(reader);
+				if(reader.advance()){
+					queue.add(reader);
+				}
+			}
+			SpooledRelationship previous = null;
+			while(!queue.isEmpty()){
+				final RunReader reader = queue.poll();
+				final SpooledRelationship relationship = reader.current;
+				if(previous == null || relationshipOrder.compare(previous, relationship) != 0){
+					output.write(String.valueOf(relationship.startId));
+					output.write(',');
+					output.write(String.valueOf(relationship.endId));
+					output.write(',');
+					writeField(output, relationship.hash);
+					writeFields(output, keys, relationship.annotations);
+					written++;
+				}
+				previous = relationship;
+				if(reader.advance()){
+					queue.add(reader);
+				}
+			}
+		}finally{
+			for(final RunReader reader : readers){
+				try{ reader.input.close(); }catch(Exception e){ }
+			}
+		}
+		return written;
+	}
+
+	private final void runImport(final File nodesFile, final File relationshipsFile) throws Exception{
+		final Configuration configuration = storage.getConfiguration();
+
+		// The data directory is not the one in the configuration of the neo4j home
+		final File additionalConfigFile = new File(directory, additionalConfigFileName);
+		final File dataDirectory = new File(configuration.dbHomeDirectoryFile.getAbsoluteFile(),
+				configuration.dbDataDirectoryName);
+		Files.write(additionalConfigFile.toPath(), Arrays.asList(
+				"dbms.directories.data=" + dataDirectory.getAbsolutePath()), StandardCharsets.UTF_8);
+
+		final List<String> command = new ArrayList<String>();
+		command.add(configuration.neo4jAdminFile.getAbsolutePath());
+		command.add("import");
+		command.add("--database=" + configuration.dbName);
+		command.add("--id-type=INTEGER");
+		command.add("--multiline-fields=true");
+		command.add("--additional-config=" + additionalConfigFile.getAbsolutePath());
+		command.add("--report-file=" + new File(directory, "import.report").getAbsolutePath());
+		command.add("--nodes=" + configuration.nodePrimaryLabelName + "=" + nodesFile.getAbsolutePath());
+		command.add("--relationships=" + configuration.edgeRelationshipTypeName + "="
+				+ relationshipsFile.getAbsolutePath());
+
+		final File importLogFile = new File(directory, importLogFileName);
+		final ProcessBuilder processBuilder = new ProcessBuilder(command);
+		processBuilder.environment().put("NEO4J_HOME", configuration.dbHomeDirectoryFile.getAbsolutePath());
+		processBuilder.redirectErrorStream(true);
+		processBuilder.redirectOutput(importLogFile);
+
+		logger.log(Level.INFO, "Running: " + String.join(" ", command));
+		final Process process = processBuilder.start();
+		final int exitValue = process.waitFor();
+		if(exitValue != 0){
+			throw new Exception("'neo4j-admin import' failed with exit value " + exitValue
+					+ ". Intermediate files kept. Output in: '" + importLogFile.getAbsolutePath() + "'");
+		}
+	}
+
+	private final void deleteIntermediateFiles(){
+		final File[] files = directory.listFiles();
+		if(files == null){
+			return;
+		}
+		for(final File file : files){
+			final String name = file.getName();
+			if(name.equals(nodeSpoolFileName) || name.equals(nodesFileName) || name.equals(relationshipsFileName)
+					|| (name.startsWith(relationshipRunFilePrefix) && name.endsWith(relationshipRunFileSuffix))){
+				if(!file.delete()){
+					logger.log(Level.WARNING, "Failed to delete bulk import file: " + file.getAbsolutePath());
+				}
+			}
+		}
+		relationshipRunFiles.clear();
+	}
+
+	////////////////
+
+	private static void writeHeader(final Writer output, final List<String> header) throws IOException{
+		for(int i = 0; i < header.size(); i++){
+			if(i > 0){
+				output.write(',');
+			}
+			final String name = header.get(i);
+			if(name.startsWith(":")){
+				output.write(name);
+			}else{
+				writeField(output, name);
+			}
+		}
+		output.write('\n');
+	}
+
+	// A missing value is an empty unquoted field so that the property is not set
+	private static void writeFields(final Writer output, final List<String> keys, final Map<String, String> annotations)
+			throws IOException{
+		for(final String key : keys){
+			output.write(',');
+			final String value = annotations.get(key);
+			if(value != null){
+				writeField(output, value);
+			}
+		}
+		output.write('\n');
+	}
+
+	private static void writeField(final Writer output, final String value) throws IOException{
+		output.write('"');
+		for(int i = 0; i < value.length(); i++){
+			final char c = value.charAt(i);
+			if(c == '"'){
+				output.write('"');
+			}
+			output.write(c);
+		}
+		output.write('"');
+	}
+
+	private static void writeAnnotations(final DataOutputStream output, final Map<String, String> annotations)
+			throws IOException{
+		output.writeInt(annotations.size());
+		for(final Map.Entry<String, String> entry : annotations.entrySet()){
+			writeString(output, entry.getKey());
+			writeString(output, entry.getValue());
+		}
+	}
+
+	private static Map<String, String> readAnnotations(final DataInputStream input) throws IOException{
+		final int size = input.readInt();
+		final Map<String, String> annotations = new HashMap<String, String>();
+		for(int i = 0; i < size; i++){
+			final String key = readString(input);
+			annotations.put(key, readString(input));
+		}
+		return annotations;
+	}
+
+	private static void writeString(final DataOutputStream output, final String value) throws IOException{
+		final byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(final DataInputStream input) throws IOException{
+		final byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
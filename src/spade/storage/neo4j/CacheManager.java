@@ -19,12 +19,19 @@
  */
 package spade.storage.neo4j;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 
 import spade.core.AbstractScreen;
 import spade.screen.Deduplicate;
 import spade.storage.Neo4j;
+import spade.storage.neo4j.Configuration.VertexCacheMode;
 
 public class CacheManager{
 
@@ -32,9 +39,17 @@ public class CacheManager{
 	private Deduplicate deduplicateScreen = null;
 	
 	private final Neo4j storage;
+
+	// Null if disabled. The vertex cache of the Deduplicate screen is used instead.
+	private final NodeIdCache nodeIdCache;
+	// Node ids created or read in the open transaction. Cached only after the transaction is committed because a
+	// rolled back node id can be reused by the database for another node.
+	private final Map<String, Long> uncommittedNodeIds = new HashMap<String, Long>();
 	
 	public CacheManager(final Neo4j storage){
 		this.storage = storage;
+		this.nodeIdCache = storage.getConfiguration().vertexCacheMaxEntries > 0
+				? new NodeIdCache(storage.getConfiguration().vertexCacheMaxEntries) : null;
 		
 		synchronized(screenLock){
 			final AbstractScreen screen = this.storage.findScreen(spade.screen.Deduplicate.class);
@@ -92,6 +107,42 @@ public class CacheManager{
 		return true;
 	}
 
+	/**
+	 * Batched version of edgeCacheGet. The hash codes not in the cache are looked up in the database together.
+	 *
+	 * @return The hash codes of the edges which already exist
+	 */
+	public final Set<String> edgeCacheGetAll(final Collection<String> hashCodes, final Transaction tx){
+		final Set<String> found = new HashSet<String>();
+		final Set<String> notCached = new HashSet<String>();
+		synchronized(screenLock){
+			for(final String hashCode : hashCodes){
+				if(hashCode == null){
+					continue;
+				}
+				final Object value = deduplicateScreen == null ? null : deduplicateScreen.getEdgeCacheValueForStorage(hashCode);
+				if(value == null){
+					notCached.add(hashCode);
+				}else if(Boolean.TRUE.equals(value)){
+					found.add(hashCode);
+				}else if(!(value instanceof Boolean)){
+					throw new RuntimeException(
+							"Invalid object ("+value+") type in cache. Expected '"+Boolean.class+"' but is '"+value.getClass()+"'");
+				}
+			}
+		}
+
+		if(!notCached.isEmpty()){
+			final TaskGetRelationshipsByProperty storageTask = new TaskGetRelationshipsByProperty(
+					storage.getConfiguration().neo4jEdgeRelationshipType, storage.getConfiguration().hashPropertyName, notCached);
+			for(final String hashCode : storageTask.execute(storage, tx)){
+				edgeCachePut(hashCode, true);
+				found.add(hashCode);
+			}
+		}
+		return found;
+	}
+
 	public final void edgeCachePut(final String hashCode, final boolean value){
 		if(hashCode != null){
 			synchronized(screenLock){
@@ -102,6 +153,10 @@ public class CacheManager{
 		}
 	}
 
+	/**
+	 * Unsets the vertices cached in the Deduplicate screen. The committed node ids in the off-heap cache stay valid
+	 * across transactions and are kept.
+	 */
 	public final void vertexCacheReset(){
 		synchronized(screenLock){
 			if(deduplicateScreen != null){
@@ -110,6 +165,39 @@ public class CacheManager{
 		}
 	}
 
+	/**
+	 * Caches the node ids of the transaction which was just committed
+	 */
+	public final void vertexCacheCommit(){
+		final Map<String, Long> committedNodeIds;
+		synchronized(uncommittedNodeIds){
+			committedNodeIds = new HashMap<String, Long>(uncommittedNodeIds);
+			uncommittedNodeIds.clear();
+		}
+		for(final Map.Entry<String, Long> entry : committedNodeIds.entrySet()){
+			if(nodeIdCache != null){
+				nodeIdCache.put(entry.getKey(), entry.getValue());
+			}else{
+				vertexCachePut(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Discards the node ids of the transaction which was just rolled back
+	 */
+	public final void vertexCacheRollback(){
+		synchronized(uncommittedNodeIds){
+			uncommittedNodeIds.clear();
+		}
+	}
+
+	private final Long uncommittedNodeIdGet(final String hashCode){
+		synchronized(uncommittedNodeIds){
+			return uncommittedNodeIds.get(hashCode);
+		}
+	}
+
 	public final Node executeTaskGetNodeByHashCode(final String hashCode, final Transaction tx){
 		final TaskGetNodeByProperty storageTask = new TaskGetNodeByProperty(
 				storage.getConfiguration().neo4jVertexLabel, storage.getConfiguration().hashPropertyName, hashCode);
@@ -121,15 +209,30 @@ public class CacheManager{
 			return null;
 		}
 
-		final Object value = vertexCacheGet(hashCode);
-		if(value != null){
-			try{
-				return (Node)value;
-			}catch(Exception e){
-				throw new RuntimeException(
-						"Invalid object ("+value+") type in cache. Expected '"+Node.class+"' but is '"+value.getClass()+"'", e);
+		final Long uncommittedNodeId = uncommittedNodeIdGet(hashCode);
+		if(uncommittedNodeId != null){
+			storage.getStorageStats().vertexCacheHit.increment();
+			return tx.getNodeById(uncommittedNodeId);
+		}
+		if(nodeIdCache != null){
+			final long nodeId = nodeIdCache.get(hashCode);
+			if(nodeId > -1){
+				storage.getStorageStats().vertexCacheHit.increment();
+				return tx.getNodeById(nodeId);
+			}
+		}else{
+			final Object value = vertexCacheGet(hashCode);
+			if(value != null){
+				storage.getStorageStats().vertexCacheHit.increment();
+				try{
+					return (Node)value;
+				}catch(Exception e){
+					throw new RuntimeException(
+							"Invalid object ("+value+") type in cache. Expected '"+Node.class+"' but is '"+value.getClass()+"'", e);
+				}
 			}
 		}
+		storage.getStorageStats().vertexCacheMiss.increment();
 
 		final Node node = executeTaskGetNodeByHashCode(hashCode, tx);
 
@@ -137,6 +240,7 @@ public class CacheManager{
 			return null;
 		}
 
+		storage.getStorageStats().vertexDbHit.increment();
 		vertexCachePutNode(hashCode, node);
 
 		return node;
@@ -147,15 +251,30 @@ public class CacheManager{
 			return null;
 		}
 
-		final Object value = vertexCacheGet(hashCode);
-		if(value != null){
-			try{
-				return (Long)value;
-			}catch(Exception e){
-				throw new RuntimeException(
-						"Invalid object ("+value+") type in cache. Expected '"+Long.class+"' but is '"+value.getClass()+"'", e);
+		final Long uncommittedNodeId = uncommittedNodeIdGet(hashCode);
+		if(uncommittedNodeId != null){
+			storage.getStorageStats().vertexCacheHit.increment();
+			return uncommittedNodeId;
+		}
+		if(nodeIdCache != null){
+			final long nodeId = nodeIdCache.get(hashCode);
+			if(nodeId > -1){
+				storage.getStorageStats().vertexCacheHit.increment();
+				return nodeId;
+			}
+		}else{
+			final Object value = vertexCacheGet(hashCode);
+			if(value != null){
+				storage.getStorageStats().vertexCacheHit.increment();
+				try{
+					return (Long)value;
+				}catch(Exception e){
+					throw new RuntimeException(
+							"Invalid object ("+value+") type in cache. Expected '"+Long.class+"' but is '"+value.getClass()+"'", e);
+				}
 			}
 		}
+		storage.getStorageStats().vertexCacheMiss.increment();
 
 		final Node node = executeTaskGetNodeByHashCode(hashCode, tx);
 
@@ -163,11 +282,78 @@ public class CacheManager{
 			return null;
 		}
 
+		storage.getStorageStats().vertexDbHit.increment();
 		vertexCachePutNodeId(hashCode, node.getId());
 
 		return node.getId();
 	}
 
+	/**
+	 * Node ids of the vertices in the cache irrespective of the vertex cache mode. The database is not looked up.
+	 *
+	 * @return Map from hash code to node id for the hash codes found
+	 */
+	public final Map<String, Long> vertexCacheGetNodeIds(final Collection<String> hashCodes){
+		final Map<String, Long> nodeIds = new HashMap<String, Long>();
+		synchronized(uncommittedNodeIds){
+			for(final String hashCode : hashCodes){
+				final Long nodeId = uncommittedNodeIds.get(hashCode);
+				if(nodeId != null){
+					nodeIds.put(hashCode, nodeId);
+				}
+			}
+		}
+		if(nodeIdCache != null){
+			for(final String hashCode : hashCodes){
+				if(nodeIds.containsKey(hashCode)){
+					continue;
+				}
+				final long nodeId = nodeIdCache.get(hashCode);
+				if(nodeId > -1){
+					nodeIds.put(hashCode, nodeId);
+				}
+			}
+		}else{
+			synchronized(screenLock){
+				if(deduplicateScreen != null){
+					for(final String hashCode : hashCodes){
+						if(hashCode == null || nodeIds.containsKey(hashCode)){
+							continue;
+						}
+						final Object value = deduplicateScreen.getVertexCacheValueForStorage(hashCode);
+						if(value instanceof Long){
+							nodeIds.put(hashCode, (Long)value);
+						}else if(value instanceof Node){
+							nodeIds.put(hashCode, ((Node)value).getId());
+						}else if(value != null){
+							throw new RuntimeException(
+									"Invalid object ("+value+") type in cache. Expected '"+Long.class+"' or '"+Node.class+"' but is '"+value.getClass()+"'");
+						}
+					}
+				}
+			}
+		}
+		storage.getStorageStats().vertexCacheHit.add(nodeIds.size());
+		storage.getStorageStats().vertexCacheMiss.add(hashCodes.size() - nodeIds.size());
+		return nodeIds;
+	}
+
+	/**
+	 * Caches the node ids as node ids or nodes depending on the vertex cache mode (only node ids in the off-heap cache)
+	 */
+	public final void vertexCachePutNodeIds(final Map<String, Long> nodeIds, final Transaction tx){
+		final VertexCacheMode vertexCacheMode = storage.getConfiguration().vertexCacheMode;
+		for(final Map.Entry<String, Long> entry : nodeIds.entrySet()){
+			if(nodeIdCache != null || VertexCacheMode.ID.equals(vertexCacheMode)){
+				vertexCachePutNodeId(entry.getKey(), entry.getValue());
+			}else if(VertexCacheMode.NODE.equals(vertexCacheMode)){
+				vertexCachePutNode(entry.getKey(), tx.getNodeById(entry.getValue()));
+			}else{
+				throw new RuntimeException("Failed to cache node ids. Unhandled vertex cache mode: " + vertexCacheMode);
+			}
+		}
+	}
+
 	public final Object vertexCacheGet(final String hashCode){
 		if(hashCode != null){
 			synchronized(screenLock){
@@ -180,11 +366,29 @@ public class CacheManager{
 	}
 
 	public final void vertexCachePutNode(final String hashCode, final Node value){
-		vertexCachePut(hashCode, value);
+		if(nodeIdCache != null){
+			vertexCachePutNodeId(hashCode, value.getId());
+		}else{
+			vertexCachePut(hashCode, value);
+		}
 	}
 
+	/**
+	 * Cached after the open transaction is committed (see vertexCacheCommit)
+	 */
 	public final void vertexCachePutNodeId(final String hashCode, final long value){
-		vertexCachePut(hashCode, value);
+		if(hashCode != null){
+			synchronized(uncommittedNodeIds){
+				uncommittedNodeIds.put(hashCode, value);
+			}
+		}
+	}
+
+	/**
+	 * @return Null if the off-heap cache is disabled
+	 */
+	public final NodeIdCache getNodeIdCache(){
+		return nodeIdCache;
 	}
 
 	public final void vertexCachePut(final String hashCode, final Object value){
@@ -50,11 +50,13 @@ public class Configuration{
 		// Cache management
 		keyVertexCacheMode = "vertexCacheMode",
 		keyEdgeCacheFindMode = "edgeCacheFindMode",
+		keyVertexCacheMaxEntries = "vertexCacheMaxEntries",
 		// Storage buffer management
 		keyFlushBufferSize = "flushBufferSize", 
 		keyFlushAfterSeconds = "flushAfterSeconds",
 		keyBufferLimit = "bufferLimit",
 		keyTransactionTimeoutInSeconds = "transactionTimeoutInSeconds",
+		keyBatchWrites = "batchWrites",
 		// Storage and database interaction management
 		keyForceShutdown = "forceShutdown",
 		keyReset = "reset",
@@ -78,6 +80,12 @@ public class Configuration{
 		// Thread management (i.e. responsivity)
 		keySleepWaitMillis = "sleepWaitMillis", 
 		keyMainThreadSleepWaitMillis = "mainThreadSleepWaitMillis",
+		// Bulk import management
+		keyBulkImport = "bulkImport",
+		keyBulkImportDirectory = "bulkImportDirectory",
+		keyBulkImportSortBufferSize = "bulkImportSortBufferSize",
+		keyBulkImportFinishAfterIdleSeconds = "bulkImportFinishAfterIdleSeconds",
+		keyNeo4jAdminPath = "neo4jAdminPath",
 		// Test management
 		keyTest = "test",
 		keyTestVertexTotal = "test.vertex.total",
@@ -94,11 +102,13 @@ public class Configuration{
 	// Cache management
 	public final VertexCacheMode vertexCacheMode;
 	public final EdgeCacheFindMode edgeCacheFindMode;
+	public final long vertexCacheMaxEntries;
 	// Storage buffer management
 	public final int flushBufferSize;
 	public final int flushAfterSeconds;
 	public final int bufferLimit;
 	public final int transactionTimeoutInSeconds;
+	public final boolean batchWrites;
 	// Storage and database interaction management
 	public final boolean forceShutdown;
 	public final boolean reset;
@@ -126,6 +136,12 @@ public class Configuration{
 	// Thread management (i.e. responsivity)
 	public final long sleepWaitMillis;
 	public final long mainThreadSleepWaitMillis;
+	// Bulk import management
+	public final boolean bulkImport;
+	public final File bulkImportDirectory;
+	public final int bulkImportSortBufferSize;
+	public final int bulkImportFinishAfterIdleSeconds;
+	public final File neo4jAdminFile;
 	// Test management
 	public final boolean test;
 	public final long testVertexTotal;
@@ -145,11 +161,13 @@ public class Configuration{
 			// Cache management
 			final VertexCacheMode vertexCacheMode,
 			final EdgeCacheFindMode edgeCacheFindMode,
+			final long vertexCacheMaxEntries,
 			// Storage buffer management
 			final int flushBufferSize, 
 			final int flushAfterSeconds, 
 			final int bufferLimit, 
 			final int transactionTimeoutInSeconds,
+			final boolean batchWrites,
 			// Storage and database interaction management
 			final boolean forceShutdown,
 			final boolean reset,
@@ -177,6 +195,12 @@ public class Configuration{
 			// Thread management (i.e. responsivity)
 			final long sleepWaitMillis,
 			final long mainThreadSleepWaitMillis,
+			// Bulk import management
+			final boolean bulkImport,
+			final File bulkImportDirectory,
+			final int bulkImportSortBufferSize,
+			final int bulkImportFinishAfterIdleSeconds,
+			final File neo4jAdminFile,
 			// Test management
 			final boolean test,
 			final long testVertexTotal, 
@@ -196,11 +220,13 @@ public class Configuration{
 		// Cache management
 		this.vertexCacheMode = vertexCacheMode;
 		this.edgeCacheFindMode = edgeCacheFindMode;
+		this.vertexCacheMaxEntries = vertexCacheMaxEntries;
 		// Storage buffer management
 		this.flushBufferSize = flushBufferSize;
 		this.flushAfterSeconds = flushAfterSeconds;
 		this.bufferLimit = bufferLimit;
 		this.transactionTimeoutInSeconds = transactionTimeoutInSeconds;
+		this.batchWrites = batchWrites;
 		// Storage and database interaction management
 		this.forceShutdown = forceShutdown;
 		this.reset = reset;
@@ -228,6 +254,12 @@ public class Configuration{
 		// Thread management (i.e. responsivity)
 		this.sleepWaitMillis = sleepWaitMillis;
 		this.mainThreadSleepWaitMillis = mainThreadSleepWaitMillis;
+		// Bulk import management
+		this.bulkImport = bulkImport;
+		this.bulkImportDirectory = bulkImportDirectory;
+		this.bulkImportSortBufferSize = bulkImportSortBufferSize;
+		this.bulkImportFinishAfterIdleSeconds = bulkImportFinishAfterIdleSeconds;
+		this.neo4jAdminFile = neo4jAdminFile;
 		// Test management
 		this.test = test;
 		this.testVertexTotal = testVertexTotal;
@@ -409,6 +441,13 @@ public class Configuration{
 			return Result.failed("Invalid value for '" + keyEdgeCacheFindMode + "': '"+edgeCacheFindModeString+"'", null, edgeCacheFindModeResult);
 		}
 		final EdgeCacheFindMode edgeCacheFindMode = edgeCacheFindModeResult.result;
+
+		final String vertexCacheMaxEntriesString = map.remove(keyVertexCacheMaxEntries);
+		final Result<Long> vertexCacheMaxEntriesResult = HelperFunctions.parseLong(vertexCacheMaxEntriesString, 10, 0, Long.MAX_VALUE);
+		if(vertexCacheMaxEntriesResult.error){
+			return Result.failed("Invalid value for '" + keyVertexCacheMaxEntries + "': '"+vertexCacheMaxEntriesString+"'", null, vertexCacheMaxEntriesResult);
+		}
+		final long vertexCacheMaxEntries = vertexCacheMaxEntriesResult.result;
 		// End - Cache management
 
 		// Start - Storage buffer management
@@ -439,6 +478,13 @@ public class Configuration{
 			return Result.failed("Invalid value for '" + keyTransactionTimeoutInSeconds + "': '"+transactionTimeoutInSecondsString+"'", null, transactionTimeoutInSecondsResult);
 		}
 		final int transactionTimeoutInSeconds = transactionTimeoutInSecondsResult.result.intValue();
+
+		final String batchWritesString = map.remove(keyBatchWrites);
+		final Result<Boolean> batchWritesResult = HelperFunctions.parseBoolean(batchWritesString);
+		if(batchWritesResult.error){
+			return Result.failed("Invalid value for '" + keyBatchWrites + "': '"+batchWritesString+"'", null, batchWritesResult);
+		}
+		final boolean batchWrites = batchWritesResult.result;
 		// End - Storage buffer management
 
 		// Start - Storage and database interaction management
@@ -599,6 +645,62 @@ public class Configuration{
 		final long mainThreadSleepWaitMillis = mainThreadSleepWaitMillisResult.result;
 		// End - Thread management (i.e. responsivity)
 
+		// Start - Bulk import management
+		final String bulkImportString = map.remove(keyBulkImport);
+		final Result<Boolean> bulkImportResult = HelperFunctions.parseBoolean(bulkImportString);
+		if(bulkImportResult.error){
+			return Result.failed("Invalid value for '" + keyBulkImport + "': '" + bulkImportString + "'", null, bulkImportResult);
+		}
+		final boolean bulkImport = bulkImportResult.result;
+
+		final String bulkImportDirectoryString = map.remove(keyBulkImportDirectory);
+		final String bulkImportSortBufferSizeString = map.remove(keyBulkImportSortBufferSize);
+		final String bulkImportFinishAfterIdleSecondsString = map.remove(keyBulkImportFinishAfterIdleSeconds);
+		final String neo4jAdminPathString = map.remove(keyNeo4jAdminPath);
+
+		final File bulkImportDirectory;
+		final int bulkImportSortBufferSize;
+		final int bulkImportFinishAfterIdleSeconds;
+		final File neo4jAdminFile;
+		if(bulkImport){
+			if(reset){
+				return Result.failed("Values for '" + keyBulkImport + "' and '" + keyReset + "' must not both be true. "
+						+ "Bulk import is only done into an empty database");
+			}
+
+			if(HelperFunctions.isNullOrEmpty(bulkImportDirectoryString)){
+				return Result.failed("NULL/Empty value for '" + keyBulkImportDirectory + "': '" + bulkImportDirectoryString + "'");
+			}
+			bulkImportDirectory = new File(bulkImportDirectoryString.trim());
+
+			final Result<Long> bulkImportSortBufferSizeResult = HelperFunctions.parseLong(bulkImportSortBufferSizeString, 10, 1, Integer.MAX_VALUE);
+			if(bulkImportSortBufferSizeResult.error){
+				return Result.failed("Invalid value for '" + keyBulkImportSortBufferSize + "': '" + bulkImportSortBufferSizeString + "'", null, bulkImportSortBufferSizeResult);
+			}
+			bulkImportSortBufferSize = bulkImportSortBufferSizeResult.result.intValue();
+
+			final Result<Long> bulkImportFinishAfterIdleSecondsResult = HelperFunctions.parseLong(bulkImportFinishAfterIdleSecondsString, 10, 0, Integer.MAX_VALUE);
+			if(bulkImportFinishAfterIdleSecondsResult.error){
+				return Result.failed("Invalid value for '" + keyBulkImportFinishAfterIdleSeconds + "': '" + bulkImportFinishAfterIdleSecondsString + "'", null, bulkImportFinishAfterIdleSecondsResult);
+			}
+			bulkImportFinishAfterIdleSeconds = bulkImportFinishAfterIdleSecondsResult.result.intValue();
+
+			if(HelperFunctions.isNullOrEmpty(neo4jAdminPathString)){
+				neo4jAdminFile = new File(dbHomeDirectoryFile.getAbsoluteFile(), "bin" + File.separatorChar + "neo4j-admin");
+			}else{
+				neo4jAdminFile = new File(neo4jAdminPathString.trim());
+			}
+			if(!neo4jAdminFile.isFile() || !neo4jAdminFile.canExecute()){
+				return Result.failed("Path for key '" + keyNeo4jAdminPath + "' must be an executable file: '" + neo4jAdminFile.getAbsolutePath() + "'");
+			}
+		}else{
+			bulkImportDirectory = null;
+			bulkImportSortBufferSize = 0;
+			bulkImportFinishAfterIdleSeconds = 0;
+			neo4jAdminFile = null;
+		}
+		// End - Bulk import management
+
 		// Start - Test management
 		final String testString = map.remove(keyTest);
 		final Result<Boolean> testResult = HelperFunctions.parseBoolean(testString);
@@ -667,11 +769,13 @@ public class Configuration{
 						// Cache management
 						vertexCacheMode, 
 						edgeCacheFindMode,
+						vertexCacheMaxEntries,
 						// Storage buffer management
 						flushBufferSize, 
 						flushAfterSeconds, 
 						bufferLimit,
 						transactionTimeoutInSeconds,
+						batchWrites,
 						// Storage and database interaction management
 						forceShutdown, 
 						reset, 
@@ -699,6 +803,12 @@ public class Configuration{
 						// Thread management (i.e. responsivity)
 						sleepWaitMillis, 
 						mainThreadSleepWaitMillis, 
+						// Bulk import management
+						bulkImport,
+						bulkImportDirectory,
+						bulkImportSortBufferSize,
+						bulkImportFinishAfterIdleSeconds,
+						neo4jAdminFile,
 						// Test management
 						test, 
 						testVertexTotal, 
@@ -724,11 +834,13 @@ public class Configuration{
 				// Cache management
 				+ ", " + keyVertexCacheMode + "=" + vertexCacheMode + newLine
 				+ ", " + keyEdgeCacheFindMode + "=" + edgeCacheFindMode + newLine
+				+ ", " + keyVertexCacheMaxEntries + "=" + vertexCacheMaxEntries + " (off-heap cache:" + ((vertexCacheMaxEntries > 0) ? ("enabled") : ("disabled") )+ ")" + newLine
 				// Storage buffer management
 				+ ", " + keyFlushBufferSize + "=" + flushBufferSize + newLine
 				+ ", " + keyFlushAfterSeconds + "=" + flushAfterSeconds + newLine
 				+ ", " + keyBufferLimit + "=" + bufferLimit + " (buffering:" + ((bufferLimit < 0) ? ("disabled") : ("enabled") )+ ")" + newLine
 				+ ", " + keyTransactionTimeoutInSeconds + "=" + transactionTimeoutInSeconds + " (limited:" + ((transactionTimeoutInSeconds < 0) ? ("no") : ("yes") )+ ")" + newLine
+				+ ", " + keyBatchWrites + "=" + batchWrites + newLine
 				// Storage and database interaction management
 				+ ", " + keyForceShutdown + "=" + forceShutdown + newLine
 				+ ", " + keyReset + "=" + reset + newLine
@@ -752,6 +864,12 @@ public class Configuration{
 				// Thread management (i.e. responsivity)
 				+ ", " + keySleepWaitMillis + "=" + sleepWaitMillis + newLine
 				+ ", " + keyMainThreadSleepWaitMillis + "=" + mainThreadSleepWaitMillis + newLine
+				// Bulk import management
+				+ ", " + keyBulkImport + "=" + bulkImport + newLine
+				+ ", " + keyBulkImportDirectory + "=" + (bulkImportDirectory == null ? "null" : bulkImportDirectory.getAbsolutePath()) + newLine
+				+ ", " + keyBulkImportSortBufferSize + "=" + bulkImportSortBufferSize + newLine
+				+ ", " + keyBulkImportFinishAfterIdleSeconds + "=" + bulkImportFinishAfterIdleSeconds + newLine
+				+ ", " + keyNeo4jAdminPath + "=" + (neo4jAdminFile == null ? "null" : neo4jAdminFile.getAbsolutePath()) + newLine
 				// Test management
 				+ ", " + keyTest + "=" + test + newLine
 				+ ", " + keyTestVertexTotal + "=" + testVertexTotal + newLine
@@ -39,11 +39,16 @@ import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.Schema;
 
+import spade.core.HashHelper;
 import spade.storage.Neo4j;
 import spade.utility.HelperFunctions;
 
 public class DatabaseManager{
 
+	// Single node holding the metadata of the database (i.e. the hash algorithm)
+	private static final Label metadataNodeLabel = Label.label("spade_metadata");
+	private static final String metadataKeyHashAlgorithm = "hash_algorithm";
+
 	private final Neo4j storage;
 
 	private volatile boolean shudownHookAdded = false;
@@ -334,6 +339,24 @@ public class DatabaseManager{
 			}
 		}
 
+		try{
+			tx = getGraphDatabaseService().beginTx();
+			final ResourceIterator<Node> metadataNodeIterator = tx.findNodes(metadataNodeLabel);
+			while(metadataNodeIterator.hasNext()){
+				metadataNodeIterator.next().delete();
+			}
+			metadataNodeIterator.close();
+			timedCommit(tx);
+		}finally{
+			if(tx != null){
+				try{
+					tx.close();
+				}catch(Exception closeException){
+					// ignore
+				}
+			}
+		}
+
 		try{
 			tx = getGraphDatabaseService().beginTx();
 			long operationsCountInTransaction = 0;
@@ -371,6 +394,42 @@ public class DatabaseManager{
 		}
 	}
 	
+	/**
+	 * Records the hash algorithm of the vertex and edge hashes in the metadata node, or verifies it if already
+	 * recorded. A database populated before the metadata node existed is assumed to use md5.
+	 *
+	 * @param imported True if the database was just populated by a bulk import with the configured algorithm
+	 * @throws Exception if the recorded algorithm is different from the configured one
+	 */
+	public final void checkHashAlgorithm(final boolean imported) throws Exception{
+		try(final Transaction tx = beginANewTransaction()){
+			Node metadataNode = null;
+			try(final ResourceIterator<Node> metadataNodeIterator = tx.findNodes(metadataNodeLabel)){
+				if(metadataNodeIterator.hasNext()){
+					metadataNode = metadataNodeIterator.next();
+				}
+			}
+			final String recordedAlgorithm = metadataNode == null ? null
+					: (String)metadataNode.getProperty(metadataKeyHashAlgorithm, null);
+
+			boolean populated = false;
+			if(recordedAlgorithm == null && !imported){
+				try(final ResourceIterator<Node> nodeIterator = tx.findNodes(storage.getConfiguration().neo4jVertexLabel)){
+					populated = nodeIterator.hasNext();
+				}
+			}
+
+			final String algorithmToRecord = HashHelper.defaultInstance.checkRecordedAlgorithm(recordedAlgorithm, populated);
+			if(algorithmToRecord != null){
+				if(metadataNode == null){
+					metadataNode = tx.createNode(metadataNodeLabel);
+				}
+				metadataNode.setProperty(metadataKeyHashAlgorithm, algorithmToRecord);
+				timedCommit(tx);
+			}
+		}
+	}
+
 	public final Transaction beginANewTransaction(){
 		if(!isUsable()){
 			throw new RuntimeException("Database not initialized or already shutdown");
@@ -20,6 +20,7 @@
 package spade.storage.neo4j;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -31,9 +32,11 @@ import spade.core.AbstractStorage;
 import spade.query.quickgrail.core.EnvironmentVariableManager;
 import spade.query.quickgrail.core.GraphDescription;
 import spade.query.quickgrail.core.GraphStatistic;
+import spade.query.quickgrail.core.GraphStatisticSketch;
 import spade.query.quickgrail.core.GraphStatistic.Interval;
 import spade.query.quickgrail.core.QueriedEdge;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.query.quickgrail.core.QueryMonitor;
 import spade.query.quickgrail.core.QuickGrailQueryResolver.PredicateOperator;
 import spade.query.quickgrail.entities.Graph;
 import spade.query.quickgrail.entities.GraphMetadata;
@@ -82,40 +85,71 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		return storage;
 	}
 
+	private Object executeQuery(final String query){
+		return executeQueryForSmallResult(query);
+	}
+
+	private List<Map<String, Object>> executeQueryForSmallResult(final String query){
+		return executeTask(new TaskExecuteQuery(query));
+	}
+
+	private Map<String, Map<String, String>> readHashToVertexMap(final String vertexAliasInQuery, final String query){
+		return executeTask(new TaskGetHashToVertexMap(query, vertexAliasInQuery));
+	}
+
+	private Set<QueriedEdge> readEdgeSet(final String relationshipAliasInQuery, final String query){
+		return executeTask(new TaskGetQueriedEdgeSet(query, relationshipAliasInQuery));
+	}
+
+	/*
+	 * Tasks of the query are skipped (if pending) or terminated (if running) when the query is cancelled
+	 */
+	private <X> X executeTask(final StorageTask<X> task){
+		final QueryMonitor queryMonitor = getQueryMonitor();
+		final QueryMonitor.Cancellable cancellable = task::cancel;
+		queryMonitor.register(cancellable);
+		try{
+			return storage.executeQueryAndBlockForResult(task);
+		}finally{
+			queryMonitor.unregister(cancellable);
+			queryMonitor.addRowsTouched(task.getRowsTouched());
+		}
+	}
+
 	@Override
 	public void insertLiteralEdge(Graph targetGraph, ArrayList<String> edges){
-		List<String> hashes = edges;
-		if(hashes == null || hashes.isEmpty()){
+		if(edges == null || edges.isEmpty()){
 			// Empty graph already
 		}else{
-			String query = "match ()-[e]->() where ";
-			String whereClause = "";
-			for(String hash : hashes){
-				whereClause += "e.`"+hashKey+"`='" + hash + "' or ";
-			}
-			whereClause = whereClause.substring(0, whereClause.length() - 3);
-			query += whereClause;
-			query += " " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
-	 		storage.executeQuery(query);
+			final String query = "match ()-[e]->() where e.`" + hashKey + "` in " + toListLiteral(edges) + " "
+					+ buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
+	 		executeQuery(query);
 		}
 	}
 
 	@Override
 	public void insertLiteralVertex(Graph targetGraph, ArrayList<String> vertices){
-		List<String> hashes = vertices;
-		if(hashes == null || hashes.isEmpty()){
+		if(vertices == null || vertices.isEmpty()){
 			// Empty graph already
 		}else{
-			String query = "match (v) where ";
-			String whereClause = "";
-			for(String hash : hashes){
-				whereClause += "v.`"+hashKey+"`='" + hash + "' or ";
+			final String query = "match (v) where v.`" + hashKey + "` in " + toListLiteral(vertices)
+					+ " set v:" + targetGraph.name + ";";
+	 		executeQuery(query);
+		}
+	}
+
+	// One list instead of a chain of 'or' so that large batches (for example, from the scaffold) are built in
+	// linear time and can use the index on the hash
+	private static String toListLiteral(final List<String> hashes){
+		final StringBuilder list = new StringBuilder(hashes.size() * 36);
+		list.append('[');
+		for(final String hash : hashes){
+			if(list.length() > 1){
+				list.append(", ");
 			}
-			whereClause = whereClause.substring(0, whereClause.length() - 3);
-			query += whereClause;
-			query += " set v:" + targetGraph.name + ";";
-	 		storage.executeQuery(query);
+			list.append('\'').append(hash.replace("\\", "\\\\").replace("'", "\\'")).append('\'');
 		}
+		return list.append(']').toString();
 	}
 
 	@Override
@@ -146,7 +180,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 		query += " set v:" + targetGraph.name + ";";
- 		storage.executeQuery(query);
+ 		executeQuery(query);
 	}
 
 	@Override
@@ -174,7 +208,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 		query += " set a:" + targetGraph.name;
 		query += " set b:" + targetGraph.name + ";";
- 		storage.executeQuery(query);
+ 		executeQuery(query);
 	}
 
 	private String buildComparison(
@@ -238,12 +272,12 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 		query += " set v:" + targetGraph.name + ";";
- 		storage.executeQuery(query);
+ 		executeQuery(query);
 	}
 
 	@Override
 	public ResultTable evaluateQuery(String nativeQuery){
-		List<Map<String, Object>> result = storage.executeQueryForSmallResult(nativeQuery);
+		List<Map<String, Object>> result = executeQueryForSmallResult(nativeQuery);
 		
 		int cellCount = 0;
 		
@@ -303,8 +337,8 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		query += " with distinct x as src, y as dst, " + fieldsString + " min(e0) as e ";
 		query += " " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
 				
-		storage.executeQuery(vertexQuery);
-		storage.executeQuery(query);
+		executeQuery(vertexQuery);
+		executeQuery(query);
 	}
 	
 	@Override
@@ -314,7 +348,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 				+ "` asc with collect(v)[" + fromInclusive + ".." + toExclusive
 				+ "] as vlist unwind vlist as vref set vref:" + targetGraph.name
 				+ ";";
-		storage.executeQuery(query);
+		executeQuery(query);
 	}
 
 	@Override
@@ -328,7 +362,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		query += "with e0 order by e0.`" + hashKey + "` asc with collect(e0)[" + fromInclusive + ".." + toExclusive + "] " + 
 				"as e0list unwind e0list as e ";
 		query += buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
-		storage.executeQuery(query);
+		executeQuery(query);
 	}
 
 	@Override
@@ -357,7 +391,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 		query += " " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
 		
-		storage.executeQuery(query);
+		executeQuery(query);
 	}
 
 	@Override
@@ -379,7 +413,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		
 		query += ";";
 		
-		storage.executeQuery(query);
+		executeQuery(query);
 	}
 
 	@Override
@@ -388,7 +422,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		vertexQuery += "match (x:" + lhsGraph.name + ":" + rhsGraph.name + ") ";
 		vertexQuery += "set x:" + outputGraph.name + ";";
 		
-		storage.executeQuery(vertexQuery);
+		executeQuery(vertexQuery);
 		
 		final String edgeProperty = "e.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
 		String edgeQuery = "";
@@ -405,7 +439,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 		edgeQuery += " " + buildSubqueryForUpdatingEdgeSymbols("e", outputGraph.name);
 		
-		storage.executeQuery(edgeQuery);
+		executeQuery(edgeQuery);
 	}
 
 	@Override
@@ -420,8 +454,8 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 		edgeQuery += " with e order by id(e) asc limit " + limit;
 		edgeQuery += " " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
-		storage.executeQuery(vertexQuery);
-		storage.executeQuery(edgeQuery);
+		executeQuery(vertexQuery);
+		executeQuery(edgeQuery);
 	}
 	
 	@Override
@@ -436,10 +470,10 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			vertices = 0;
 		}
 		if(neo4jQueryEnvironment.isBaseGraph(graph)){
-			result = storage.executeQueryForSmallResult("match ()-[e]->() return count(e) as ecount;");
+			result = executeQueryForSmallResult("match ()-[e]->() return count(e) as ecount;");
 		}else{
 			final String edgeProperty = "e.`" + neo4jQueryEnvironment.edgeLabelsPropertyName + "`";
-			result = storage.executeQueryForSmallResult("match ()-[e]->() " + "where " + edgeProperty + " contains ',"
+			result = executeQueryForSmallResult("match ()-[e]->() " + "where " + edgeProperty + " contains ',"
 					+ graph.name + ",' " + "return count(e) as ecount;");
 		}
 		if(result.size() > 0){
@@ -454,7 +488,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 	public long getGraphStatisticSize(final Graph graph, final ElementType elementType, final String annotationKey){
 		switch(elementType){
 			case VERTEX:{
-				final List<Map<String, Object>> result = storage.executeQueryForSmallResult(
+				final List<Map<String, Object>> result = executeQueryForSmallResult(
 						"match (v:" + graph.name + ") where v.`" + annotationKey + "` is not null return count(v) as vcount;"
 						);
 				if(result.size() > 0){
@@ -466,12 +500,12 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			case EDGE:{
 				final List<Map<String, Object>> result;
 				if(neo4jQueryEnvironment.isBaseGraph(graph)){
-					result = storage.executeQueryForSmallResult(
+					result = executeQueryForSmallResult(
 							"match ()-[e]->() where e.`" + annotationKey + "` is not null return count(e) as ecount;"
 							);
 				}else{
 					final String edgeProperty = "e.`" + neo4jQueryEnvironment.edgeLabelsPropertyName + "`";
-					result = storage.executeQueryForSmallResult(
+					result = executeQueryForSmallResult(
 							"match ()-[e]->() " 
 							+ "where " + edgeProperty + " contains '," + graph.name + ",' "
 							+ "and e.`" + annotationKey + "` is not null "
@@ -489,6 +523,51 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 	}
 
+	@Override
+	public void sketchGraphStatistic(final Graph graph, final ElementType elementType, final String annotationKey,
+			final GraphStatisticSketch sketch){
+		final GraphStatistic.Count count = getGraphCount(graph);
+		// Sampling only reduces the number of values returned, not the scan. rand() is a filter on each row so every
+		// node with the label (or every relationship) is still read. Not restricted to a range of ids instead because
+		// ids follow insertion order and the sample would not be random.
+		final String query;
+		switch(elementType){
+			case VERTEX:{
+				final double samplingFraction = sketch.chooseSamplingFraction(count.getVertices());
+				query = "match (v:" + graph.name + ") where v.`" + annotationKey + "` is not null"
+						+ (samplingFraction < 1 ? " and rand() < " + samplingFraction : "")
+						+ " return v.`" + annotationKey + "` as ann;";
+				break;
+			}
+			case EDGE:{
+				final double samplingFraction = sketch.chooseSamplingFraction(count.getEdges());
+				final String sampleFilter = samplingFraction < 1 ? " and rand() < " + samplingFraction : "";
+				if(neo4jQueryEnvironment.isBaseGraph(graph)){
+					query = "match ()-[e]->() where e.`" + annotationKey + "` is not null" + sampleFilter
+							+ " return e.`" + annotationKey + "` as ann;";
+				}else{
+					final String edgeProperty = "e.`" + neo4jQueryEnvironment.edgeLabelsPropertyName + "`";
+					query = "match ()-[e]->() "
+							+ "where " + edgeProperty + " contains '," + graph.name + ",' "
+							+ "and e.`" + annotationKey + "` is not null" + sampleFilter
+							+ " return e.`" + annotationKey + "` as ann;";
+				}
+				break;
+			}
+			default:{
+				throw new RuntimeException("Unknown element type");
+			}
+		}
+
+		// Only the sampled values are returned instead of an aggregate over all of them
+		for(final Map<String, Object> map : executeQueryForSmallResult(query)){
+			final Object valueObject = map.get("ann");
+			if(valueObject != null){
+				sketch.offer(String.valueOf(valueObject));
+			}
+		}
+	}
+
 	@Override
 	public GraphStatistic.Distribution getGraphDistribution(final Graph graph, final ElementType elementType,
 			final String annotationKey, final Integer binCount){
@@ -527,7 +606,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 
-		final List<Map<String, Object>> minMaxResult = storage.executeQueryForSmallResult(minMaxQuery);
+		final List<Map<String, Object>> minMaxResult = executeQueryForSmallResult(minMaxQuery);
 		if(minMaxResult.size() == 0){
 			throw new RuntimeException("Failed to get min and max for: '" + annotationKey + "'");
 		}
@@ -583,7 +662,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 				finalColumnName);
 		nameToInterval.put(finalColumnName, new Interval(begin, max));
 
-		final List<Map<String, Object>> result = storage.executeQueryForSmallResult(query);
+		final List<Map<String, Object>> result = executeQueryForSmallResult(query);
 		final SortedMap<Interval, Double> distribution = new TreeMap<>();
 		if(result.size() > 0){
 			final Map<String, Object> data = result.get(0);
@@ -632,7 +711,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 
-		final List<Map<String, Object>> result = storage.executeQueryForSmallResult(query);
+		final List<Map<String, Object>> result = executeQueryForSmallResult(query);
 		final double stdDev;
 		if(result.size() > 0){
 			stdDev = Double.parseDouble(String.valueOf(result.get(0).get("std")));
@@ -673,7 +752,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 
-		final List<Map<String, Object>> result = storage.executeQueryForSmallResult(query);
+		final List<Map<String, Object>> result = executeQueryForSmallResult(query);
 		final Double mean;
 		if(result.size() > 0){
 			mean = Double.parseDouble(String.valueOf(result.get(0).get("mean")));
@@ -714,7 +793,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 
-		final List<Map<String, Object>> result = storage.executeQueryForSmallResult(query);
+		final List<Map<String, Object>> result = executeQueryForSmallResult(query);
 		final SortedMap<String, Double> histogram = new TreeMap<>();
 		if(result.size() > 0){
 			for(final Map<String, Object> map : result){
@@ -746,10 +825,10 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			edgeQuery += " where not " + edgeProperty + " contains '," + subtrahendGraph.name + ",'";
 			edgeQuery += " " + buildSubqueryForUpdatingEdgeSymbols("e", outputGraph.name);
 			if(component == null || component == Graph.Component.kVertex){
-				storage.executeQuery(vertexQuery);
+				executeQuery(vertexQuery);
 			}
 			if(component == null || component == Graph.Component.kEdge){
-				storage.executeQuery(edgeQuery);
+				executeQuery(edgeQuery);
 			}
 		}else{
 			String vertexQuery = "match (n:" + minuendGraph.name + ") where not '" + subtrahendGraph.name + 
@@ -760,10 +839,10 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			edgeQuery += " and not " + edgeProperty + " contains '," + subtrahendGraph.name + ",'";
 			edgeQuery += " " + buildSubqueryForUpdatingEdgeSymbols("e", outputGraph.name);
 			if(component == null || component == Graph.Component.kVertex){
-				storage.executeQuery(vertexQuery);
+				executeQuery(vertexQuery);
 			}
 			if(component == null || component == Graph.Component.kEdge){
-				storage.executeQuery(edgeQuery);
+				executeQuery(edgeQuery);
 			}
 		}
 	}
@@ -778,8 +857,8 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 		edgeQuery += " " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name);
 		
-		storage.executeQuery(edgeQuery);
-		storage.executeQuery(vertexQuery);
+		executeQuery(edgeQuery);
+		executeQuery(vertexQuery);
 	}
 
 	@Override
@@ -795,7 +874,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			query += " set a:" + targetGraph.name;
 			query += " set b:" + targetGraph.name;
 			query += " " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
-			storage.executeQuery(query);
+			executeQuery(query);
 		}
 		
 		if(direction.equals(GetLineage.Direction.kDescendant) || direction.equals(GetLineage.Direction.kBoth)){
@@ -807,7 +886,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			query += " set a:" + targetGraph.name;
 			query += " set b:" + targetGraph.name;
 			query += " " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
-			storage.executeQuery(query);
+			executeQuery(query);
 		}
 	}
 	
@@ -849,7 +928,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 			
 			final Set<String> annotations = new HashSet<String>();
-			final List<Map<String, Object>> queryResult = storage.executeQueryForSmallResult(query);
+			final List<Map<String, Object>> queryResult = executeQueryForSmallResult(query);
 			for(Map<String, Object> map : queryResult){
 				final Object value = map.get("rowsofkeys");
 				if(value != null){
@@ -896,7 +975,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 					if(instruction.limit != null){
 						query += " limit " + instruction.limit;
 					}
-					final List<Map<String, Object>> result = storage.executeQueryForSmallResult(query);
+					final List<Map<String, Object>> result = executeQueryForSmallResult(query);
 					final GraphDescription desc = new GraphDescription(instruction.elementType, instruction.annotationName, 
 							instruction.descriptionType);
 					for(Map<String, Object> map : result){
@@ -911,7 +990,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 				case MINMAX:{
 					query += "return min(" + alias + ".`" + instruction.annotationName + "`) as spademin, "
 							+ "max(" + alias + ".`" + instruction.annotationName + "`) as spademax;";
-					final List<Map<String, Object>> result = storage.executeQueryForSmallResult(query);
+					final List<Map<String, Object>> result = executeQueryForSmallResult(query);
 					String minValue = null, maxValue = null;
 					if(result.size() > 0){
 						final Object minObject = result.get(0).get("spademin");
@@ -940,7 +1019,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 	@Override
 	public Map<String, Map<String, String>> exportVertices(final Graph targetGraph){
 		String nodesQuery = "match (v:" + targetGraph.name + ") return v;";
-		return storage.readHashToVertexMap("v", nodesQuery);
+		return readHashToVertexMap("v", nodesQuery);
 	}
 	
 	@Override
@@ -952,7 +1031,70 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 		edgeQuery += " return e;";
 		
-		return storage.readEdgeSet("e", edgeQuery);
+		return readEdgeSet("e", edgeQuery);
+	}
+
+	/**
+	 * Pages through the graph in the order of the hash. Each page starts after the last hash of the previous page so
+	 * that it only reads its own elements (through the index on the hash, if any) instead of collecting the whole
+	 * graph as getSubsetVertex and getSubsetEdge do.
+	 */
+	@Override
+	public GraphStatistic.Count exportGraph(final Graph targetGraph, final int chunkSize,
+			final GraphChunkConsumer consumer) throws Exception{
+		final GraphStatistic.Count count = new GraphStatistic.Count();
+
+		String lastVertexHash = null;
+		while(true){
+			String query = "match (v:" + targetGraph.name + ")";
+			if(lastVertexHash != null){
+				query += " where v.`" + hashKey + "` > '" + lastVertexHash + "'";
+			}
+			query += " with v order by v.`" + hashKey + "` asc limit " + chunkSize + " return v;";
+			final Map<String, Map<String, String>> vertexChunk = readHashToVertexMap("v", query);
+			if(vertexChunk.isEmpty()){
+				break;
+			}
+			count.addVertices(vertexChunk.size());
+			lastVertexHash = Collections.max(vertexChunk.keySet());
+			exportVertexChunk(vertexChunk, consumer);
+			if(vertexChunk.size() < chunkSize){
+				break;
+			}
+		}
+
+		final Graph scratchGraph = getQueryEnvironment().allocateGraph();
+		final String edgeProperty = "e.`" + neo4jQueryEnvironment.edgeLabelsPropertyName + "`";
+		String lastEdgeHash = null;
+		while(true){
+			final List<String> conditions = new ArrayList<String>();
+			if(!neo4jQueryEnvironment.isBaseGraph(targetGraph)){
+				conditions.add(edgeProperty + " contains '," + targetGraph.name + ",'");
+			}
+			if(lastEdgeHash != null){
+				conditions.add("e.`" + hashKey + "` > '" + lastEdgeHash + "'");
+			}
+			String query = "match ()-[e]->()";
+			if(!conditions.isEmpty()){
+				query += " where " + String.join(" and ", conditions);
+			}
+			query += " with e order by e.`" + hashKey + "` asc limit " + chunkSize + " return e;";
+			final Set<QueriedEdge> edgeChunk = readEdgeSet("e", query);
+			if(edgeChunk.isEmpty()){
+				break;
+			}
+			count.addEdges(edgeChunk.size());
+			for(final QueriedEdge edge : edgeChunk){
+				if(lastEdgeHash == null || edge.edgeHash.compareTo(lastEdgeHash) > 0){
+					lastEdgeHash = edge.edgeHash;
+				}
+			}
+			exportEdgeChunk(edgeChunk, scratchGraph, consumer);
+			if(edgeChunk.size() < chunkSize){
+				break;
+			}
+		}
+		return count;
 	}
 	
 	@Override
@@ -968,7 +1110,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 			query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
 			query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-			storage.executeQuery(query);
+			executeQuery(query);
 		}
 		
 		if(direction.equals(GetLineage.Direction.kDescendant) || direction.equals(GetLineage.Direction.kBoth)){
@@ -981,49 +1123,134 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 			}
 			query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
 			query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-			storage.executeQuery(query);
+			executeQuery(query);
+		}
+	}
+
+	/*
+	 * Bidirectional BFS from the sources (following edges out) and from the destinations (following edges in) which
+	 * always expands the smaller frontier. Edges are followed both ways from both sides if 'undirected'. Stops when the
+	 * depths of the two searches add up to 'maxDepth' or when a frontier is exhausted.
+	 *
+	 * A vertex on a path of length at most 'maxDepth' is within the searched depth of at least one of the two sides.
+	 * The searched vertices are left labelled with 'm_fwd' or 'm_bwd' so that the path patterns only have to look at
+	 * those.
+	 *
+	 * Returns true if the two searches met i.e. if there can be any path at all.
+	 */
+	private boolean createSearchSpace(Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth, boolean undirected){
+		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
+		final String edgeCondition;
+		if(neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
+			edgeCondition = "";
+		}else{
+			edgeCondition = " and " + edgeProperty + " contains '," + subjectGraph.name + ",'";
+		}
+
+		executeQuery("match (n:"+srcGraph.name+":"+subjectGraph.name+") set n:m_fwd:m_fcur;");
+		executeQuery("match (n:"+dstGraph.name+":"+subjectGraph.name+") set n:m_bwd:m_bcur;");
+
+		final String forwardPattern = undirected ? "-[e1]-" : "-[e1]->";
+		final String backwardPattern = undirected ? "-[e1]-" : "<-[e1]-";
+
+		int depth = 0;
+		while(depth < maxDepth){
+			final long forwardSize = getSearchCount("m_fcur");
+			final long backwardSize = getSearchCount("m_bcur");
+			if(forwardSize == 0 || backwardSize == 0){
+				break;
+			}
+			if(forwardSize <= backwardSize){
+				expandSearch("m_fcur", "m_fwd", forwardPattern, subjectGraph, edgeCondition);
+			}else{
+				expandSearch("m_bcur", "m_bwd", backwardPattern, subjectGraph, edgeCondition);
+			}
+			depth++;
+		}
+		final boolean met = getSearchCount("m_fwd:m_bwd") > 0;
+
+		executeQuery("match (n:m_fcur) remove n:m_fcur;");
+		executeQuery("match (n:m_bcur) remove n:m_bcur;");
+		return met;
+	}
+
+	// Replaces the frontier with its unvisited neighbours
+	private void expandSearch(String frontierLabel, String visitedLabel, String pattern, Graph subjectGraph,
+			String edgeCondition){
+		executeQuery("match (a:"+frontierLabel+")"+pattern+"(b:"+subjectGraph.name+") "
+				+ "where not b:"+visitedLabel+edgeCondition+" set b:m_fnext;");
+		executeQuery("match (n:"+frontierLabel+") remove n:"+frontierLabel+";");
+		executeQuery("match (n:m_fnext) remove n:m_fnext set n:"+visitedLabel+":"+frontierLabel+";");
+	}
+
+	private long getSearchCount(String labels){
+		final List<Map<String, Object>> result = storage
+				.executeQueryForSmallResult("match (n:" + labels + ") return count(n) as vcount;");
+		if(result.size() > 0){
+			return Long.parseLong(String.valueOf(result.get(0).get("vcount")));
+		}else{
+			return 0;
 		}
 	}
 
+	private void deleteSearchSpace(){
+		executeQuery("match (n:m_fwd) remove n:m_fwd;");
+		executeQuery("match (n:m_bwd) remove n:m_bwd;");
+	}
+
 	@Override
 	public void getSimplePath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		if(!createSearchSpace(subjectGraph, srcGraph, dstGraph, maxDepth, false)){
+			deleteSearchSpace();
+			return;
+		}
 		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
 		String query = "match ";
 		query += "p=(a:"+srcGraph.name+":"+subjectGraph.name+")"
 				+ "-[e0*0.."+maxDepth+"]->"
 				+ "(b:"+dstGraph.name+":"+subjectGraph.name+") ";
+		query += " where all(n in nodes(p) where n:m_fwd or n:m_bwd) ";
 		if(!neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
+			query += " and all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
 		}
 		query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
 		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-		storage.executeQuery(query);
+		executeQuery(query);
+		deleteSearchSpace();
 	}
 	
 	@Override
 	public void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		// Paths in either direction so search both ways from both sides
+		if(!createSearchSpace(subjectGraph, srcGraph, dstGraph, maxDepth, true)){
+			deleteSearchSpace();
+			return;
+		}
 		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
 		String query = "match ";
 		query += "p=(a:"+srcGraph.name+":"+subjectGraph.name+")"
 				+ "-[e0*0.."+maxDepth+"]->"
 				+ "(b:"+dstGraph.name+":"+subjectGraph.name+") ";
+		query += " where all(n in nodes(p) where n:m_fwd or n:m_bwd) ";
 		if(!neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
+			query += " and all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
 		}
 		query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
 		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-		storage.executeQuery(query);
+		executeQuery(query);
 		
 		query = "match ";
 		query += "p=(a:"+dstGraph.name+":"+subjectGraph.name+")"
 				+ "-[e0*0.."+maxDepth+"]->"
 				+ "(b:"+srcGraph.name+":"+subjectGraph.name+") ";
+		query += " where all(n in nodes(p) where n:m_fwd or n:m_bwd) ";
 		if(!neo4jQueryEnvironment.isBaseGraph(subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
+			query += " and all(e1 in relationships(p) where " + edgeProperty + " contains '," + subjectGraph.name + ",') ";
 		}
 		query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
 		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-		storage.executeQuery(query);
+		executeQuery(query);
+		deleteSearchSpace();
 	}
 
 	@Override
@@ -1038,7 +1265,7 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 		query += " foreach (n in nodes(p) | set n:" + targetGraph.name + ") ";
 		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ");";
-		storage.executeQuery(query);
+		executeQuery(query);
 	}
 
 	@Override
@@ -1070,10 +1297,10 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		edgeQuery2 += " " + buildSubqueryForUpdatingEdgeSymbols("e", targetGraph.name) + ";";
 		
 		// order matters
-		storage.executeQuery(vertexQuery);
-		storage.executeQuery(edgeQuery0);
-		storage.executeQuery(edgeQuery1);
-		storage.executeQuery(edgeQuery2);
+		executeQuery(vertexQuery);
+		executeQuery(edgeQuery0);
+		executeQuery(edgeQuery1);
+		executeQuery(edgeQuery2);
 	}
 
 	@Override
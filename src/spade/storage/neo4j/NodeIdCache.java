@@ -0,0 +1,290 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Map from the 128-bit hash of a vertex to the id of its node, kept off the heap.
+ *
+ * Open addressing with linear probing over direct buffers. A slot is the two longs of the binary hash followed by the
+ * node id plus one (zero marks an empty slot). The table doubles until it can hold the maximum number of entries.
+ * After that, once the table is at its load factor, a new entry replaces the entry in its home slot so that the
+ * memory used stays bounded. Only committed node ids are put (see CacheManager.vertexCacheCommit), so they stay
+ * valid across transactions and nothing is cleared.
+ *
+ * An unbounded map (see the constructor without arguments) never replaces an entry and keeps doubling instead, within
+ * the limit on direct memory (-XX:MaxDirectMemorySize). The BulkImporter uses it to map every hash to its node id.
+ *
+ * Hashes which are not 32 hex characters are never cached.
+ */
+public class NodeIdCache{
+
+	private static final int bytesPerSlot = 24;
+	private static final int maxSlotsPerSegment = 1 << 20;
+	private static final long initialCapacity = 1 << 16;
+	private static final double maxLoadFactor = 0.75;
+	private static final int maxProbes = 64;
+
+	private final long maxEntries;
+	private final long maxCapacity;
+	// Probes before an entry is given up (bounded) or the table grows. Unbounded probes in an unbounded map always
+	// find an empty slot because of the load factor.
+	private final long probeLimit;
+
+	private ByteBuffer[] segments;
+	private int segmentShift;
+	private long capacity;
+	private long size;
+	private long replaced;
+
+	// Key of the last parsed hash
+	private long keyHigh, keyLow;
+
+	/**
+	 * @param maxEntries Maximum number of entries to keep. Must be positive.
+	 */
+	public NodeIdCache(final long maxEntries){
+		if(maxEntries <= 0){
+			throw new IllegalArgumentException("Maximum entries must be positive: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.maxCapacity = Math.max(initialCapacity, nextPowerOfTwo((long)Math.ceil(maxEntries / maxLoadFactor)));
+		this.probeLimit = maxProbes;
+		allocate(Math.min(initialCapacity, maxCapacity));
+	}
+
+	/**
+	 * Unbounded. No entry is ever replaced or dropped.
+	 */
+	public NodeIdCache(){
+		this.maxEntries = Long.MAX_VALUE;
+		this.maxCapacity = 1L << 62;
+		this.probeLimit = Long.MAX_VALUE;
+		allocate(initialCapacity);
+	}
+
+	private static long nextPowerOfTwo(final long value){
+		return value <= 1 ? 1 : Long.highestOneBit(value - 1) << 1;
+	}
+
+	private void allocate(final long capacity){
+		final int slotsPerSegment = (int)Math.min(capacity, maxSlotsPerSegment);
+		final int segmentCount = (int)(capacity / slotsPerSegment);
+		this.segments = new ByteBuffer[segmentCount];
+		for(int i = 0; i < segmentCount; i++){
+			this.segments[i] = ByteBuffer.allocateDirect(slotsPerSegment * bytesPerSlot).order(ByteOrder.nativeOrder());
+		}
+		this.segmentShift = Integer.numberOfTrailingZeros(slotsPerSegment);
+		this.capacity = capacity;
+		this.size = 0;
+	}
+
+	// Value of a hex character or -1
+	private static final byte[] hexValues = new byte[128];
+	static{
+		Arrays.fill(hexValues, (byte)-1);
+		for(int i = 0; i < 10; i++){
+			hexValues['0' + i] = (byte)i;
+		}
+		for(int i = 0; i < 6; i++){
+			hexValues['a' + i] = (byte)(10 + i);
+			hexValues['A' + i] = (byte)(10 + i);
+		}
+	}
+
+	/**
+	 * Sets keyHigh and keyLow. Table lookups instead of branches on the character class because the characters of a
+	 * hash are random.
+	 *
+	 * @return False if not a 32 character hex string
+	 */
+	private boolean parseKey(final String hashCode){
+		if(hashCode == null || hashCode.length() != 32){
+			return false;
+		}
+		long high = 0, low = 0;
+		int invalid = 0;
+		for(int i = 0; i < 16; i++){
+			final char c = hashCode.charAt(i);
+			final int value = c < 128 ? hexValues[c] : -1;
+			invalid |= value;
+			high = (high << 4) | (value & 0xF);
+		}
+		for(int i = 16; i < 32; i++){
+			final char c = hashCode.charAt(i);
+			final int value = c < 128 ? hexValues[c] : -1;
+			invalid |= value;
+			low = (low << 4) | (value & 0xF);
+		}
+		if(invalid < 0){
+			return false;
+		}
+		keyHigh = high;
+		keyLow = low;
+		return true;
+	}
+
+	private long homeSlot(final long high, final long low){
+		final long mixed = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+		return (mixed ^ (mixed >>> 29)) & (capacity - 1);
+	}
+
+	private ByteBuffer segment(final long slot){
+		return segments[(int)(slot >>> segmentShift)];
+	}
+
+	private int offset(final long slot){
+		return (int)(slot & ((1L << segmentShift) - 1)) * bytesPerSlot;
+	}
+
+	/**
+	 * @return The node id or -1 if not in the cache
+	 */
+	public synchronized final long get(final String hashCode){
+		if(!parseKey(hashCode)){
+			return -1;
+		}
+		long slot = homeSlot(keyHigh, keyLow);
+		for(long probe = 0; probe < probeLimit; probe++){
+			final ByteBuffer segment = segment(slot);
+			final int offset = offset(slot);
+			final long value = segment.getLong(offset + 16);
+			if(value == 0){
+				return -1;
+			}
+			if(segment.getLong(offset) == keyHigh && segment.getLong(offset + 8) == keyLow){
+				return value - 1;
+			}
+			slot = (slot + 1) & (capacity - 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * @param nodeId Must be non-negative
+	 * @return False if not put because the node id is negative or the hash is not 32 hex characters
+	 */
+	public synchronized final boolean put(final String hashCode, final long nodeId){
+		if(nodeId < 0 || !parseKey(hashCode)){
+			return false;
+		}
+		while(true){
+			if(size >= capacity * maxLoadFactor && capacity < maxCapacity){
+				grow();
+			}
+			if(insert(keyHigh, keyLow, nodeId + 1, size < capacity * maxLoadFactor)){
+				return true;
+			}
+			if(capacity < maxCapacity){
+				grow(); // A long run of slots
+			}else{
+				break;
+			}
+		}
+		// Full. Replace the entry in the home slot.
+		final long slot = homeSlot(keyHigh, keyLow);
+		final ByteBuffer segment = segment(slot);
+		final int offset = offset(slot);
+		if(segment.getLong(offset + 16) == 0){
+			size++;
+		}else{
+			replaced++;
+		}
+		segment.putLong(offset, keyHigh);
+		segment.putLong(offset + 8, keyLow);
+		segment.putLong(offset + 16, nodeId + 1);
+		return true;
+	}
+
+	/**
+	 * @param value Node id plus one
+	 * @param allowNew If false then only an existing entry can be updated
+	 * @return False if the key was neither updated nor added
+	 */
+	private boolean insert(final long high, final long low, final long value, final boolean allowNew){
+		long slot = homeSlot(high, low);
+		for(long probe = 0; probe < probeLimit; probe++){
+			final ByteBuffer segment = segment(slot);
+			final int offset = offset(slot);
+			final long existingValue = segment.getLong(offset + 16);
+			if(existingValue == 0){
+				if(!allowNew){
+					return false;
+				}
+				segment.putLong(offset, high);
+				segment.putLong(offset + 8, low);
+				segment.putLong(offset + 16, value);
+				size++;
+				return true;
+			}
+			if(segment.getLong(offset) == high && segment.getLong(offset + 8) == low){
+				segment.putLong(offset + 16, value);
+				return true;
+			}
+			slot = (slot + 1) & (capacity - 1);
+		}
+		return false;
+	}
+
+	private void grow(){
+		final ByteBuffer[] oldSegments = segments;
+		final int oldSlotsPerSegment = 1 << segmentShift;
+		allocate(capacity * 2);
+		for(final ByteBuffer oldSegment : oldSegments){
+			for(int i = 0; i < oldSlotsPerSegment; i++){
+				final int offset = i * bytesPerSlot;
+				final long value = oldSegment.getLong(offset + 16);
+				if(value != 0){
+					if(!insert(oldSegment.getLong(offset), oldSegment.getLong(offset + 8), value, true)){
+						replaced++; // Dropped
+					}
+				}
+			}
+		}
+	}
+
+	public synchronized final void clear(){
+		allocate(Math.min(initialCapacity, maxCapacity));
+	}
+
+	public synchronized final long size(){
+		return size;
+	}
+
+	/**
+	 * @return Number of entries replaced (or dropped) to keep the cache bounded
+	 */
+	public synchronized final long getReplaced(){
+		return replaced;
+	}
+
+	public synchronized final long getOffHeapBytes(){
+		return capacity * bytesPerSlot;
+	}
+
+	@Override
+	public synchronized final String toString(){
+		return "NodeIdCache [size=" + size + ", capacity=" + capacity + ", maxEntries=" + maxEntries
+				+ ", replaced=" + replaced + ", offHeapBytes=" + getOffHeapBytes() + "]";
+	}
+}
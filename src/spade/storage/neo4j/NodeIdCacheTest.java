@@ -0,0 +1,118 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Checks the lookups, the growth, and the bound on the number of entries of NodeIdCache.
+ *
+ * Usage: java -cp 'build:lib/*' spade.storage.neo4j.NodeIdCacheTest
+ */
+public class NodeIdCacheTest{
+
+	public static void main(final String[] args) throws Exception{
+		testPutAndGet();
+		testInvalidKeys();
+		testGrowth();
+		testBounded();
+		testUnbounded();
+		System.out.println(NodeIdCacheTest.class.getSimpleName() + ": passed");
+	}
+
+	private static void testPutAndGet(){
+		final NodeIdCache cache = new NodeIdCache(100);
+		final String hash = hash(1);
+		check(cache.get(hash) == -1, "Expected -1 before put");
+		check(cache.put(hash, 0), "Expected node id 0 to be put");
+		check(cache.get(hash) == 0, "Expected node id 0");
+		check(cache.get(hash.toUpperCase()) == 0, "Expected the same entry for an upper case hash");
+		cache.put(hash, 42);
+		check(cache.get(hash) == 42 && cache.size() == 1, "Expected the node id to be updated in place");
+		check(cache.get(hash(2)) == -1, "Expected -1 for another hash");
+		cache.clear();
+		check(cache.get(hash) == -1 && cache.size() == 0, "Expected an empty cache after clear");
+	}
+
+	private static void testInvalidKeys(){
+		final NodeIdCache cache = new NodeIdCache(100);
+		check(!cache.put(null, 1), "Expected a null hash not to be put");
+		check(!cache.put("abc", 1), "Expected a short hash not to be put");
+		check(!cache.put(hash(1).substring(1) + "g", 1), "Expected a hash with a non-hex character not to be put");
+		check(!cache.put(hash(1), -1), "Expected a negative node id not to be put");
+		check(cache.size() == 0 && cache.get(hash(1)) == -1 && cache.get("abc") == -1,
+				"Expected nothing in the cache");
+	}
+
+	private static void testGrowth(){
+		final int count = 200000; // More than the initial capacity
+		final NodeIdCache cache = new NodeIdCache(count);
+		for(int i = 0; i < count; i++){
+			cache.put(hash(i), i);
+		}
+		for(int i = 0; i < count; i++){
+			check(cache.get(hash(i)) == i, "Lost node id " + i + " while growing: " + cache);
+		}
+		check(cache.size() == count && cache.getReplaced() == 0, "Expected no replaced entries: " + cache);
+	}
+
+	private static void testBounded(){
+		final int maxEntries = 1000;
+		final NodeIdCache cache = new NodeIdCache(maxEntries);
+		for(int i = 0; i < 100000; i++){
+			cache.put(hash(i), i);
+			check(cache.get(hash(i)) == i, "Expected the last put node id " + i + " to be found: " + cache);
+		}
+		final long offHeapBytes = cache.getOffHeapBytes();
+		for(int i = 100000; i < 200000; i++){
+			cache.put(hash(i), i);
+		}
+		check(cache.getOffHeapBytes() == offHeapBytes, "Expected the memory to stay bounded: " + cache);
+		check(cache.getReplaced() > 0, "Expected replaced entries: " + cache);
+		for(int i = 0; i < 200000; i++){
+			final long nodeId = cache.get(hash(i));
+			check(nodeId == -1 || nodeId == i, "Wrong node id for " + i + ": " + nodeId);
+		}
+	}
+
+	private static void testUnbounded(){
+		final int count = 300000;
+		final NodeIdCache cache = new NodeIdCache();
+		for(int i = 0; i < count; i++){
+			cache.put(hash(i), i);
+		}
+		for(int i = 0; i < count; i++){
+			check(cache.get(hash(i)) == i, "Lost node id " + i + " in the unbounded cache: " + cache);
+		}
+		check(cache.size() == count && cache.getReplaced() == 0, "Expected no replaced entries: " + cache);
+	}
+
+	////////////////////
+
+	private static String hash(final long i){
+		return DigestUtils.md5Hex("vertex_hash_" + i);
+	}
+
+	private static void check(final boolean condition, final String message){
+		if(!condition){
+			throw new AssertionError(message);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tasks waiting for the task runner of the Neo4j storage.
+ *
+ * Tasks are taken by priority (queries, then index creation, then writes) and in the order added within a priority.
+ * The runner waits for a task (or a wake up) instead of polling. Writers wait for space when the number of pending
+ * writes is over the buffer limit.
+ *
+ * Once closed, tasks added or left in the queue are completed with an error so that nobody waits for them.
+ */
+public class PendingTaskQueue{
+
+	public enum Priority{ QUERY, SCHEMA, WRITE };
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private final List<ArrayDeque<StorageTask<?>>> lanes = new ArrayList<ArrayDeque<StorageTask<?>>>();
+	private final int writeLimit;
+
+	private int size = 0;
+	private boolean wokenUp = false;
+	private boolean writeLimitReleased = false;
+	private boolean closed = false;
+
+	/**
+	 * @param writeLimit Maximum number of pending writes before writers wait. No limit if negative.
+	 */
+	public PendingTaskQueue(final int writeLimit){
+		this.writeLimit = writeLimit;
+		for(int i = 0; i < Priority.values().length; i++){
+			lanes.add(new ArrayDeque<StorageTask<?>>());
+		}
+	}
+
+	/**
+	 * Waits for space if the task is a write and the buffer limit is reached.
+	 *
+	 * @return False if the queue is closed. The task is completed with an error in that case.
+	 */
+	public final boolean add(final StorageTask<?> task, final Priority priority) throws InterruptedException{
+		lock.lock();
+		try{
+			final ArrayDeque<StorageTask<?>> lane = lanes.get(priority.ordinal());
+			if(priority == Priority.WRITE && writeLimit > -1){
+				while(lane.size() > writeLimit && !writeLimitReleased && !closed){
+					notFull.await();
+				}
+			}
+			if(closed){
+				discard(task);
+				return false;
+			}
+			lane.addLast(task);
+			size++;
+			notEmpty.signal();
+			return true;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param timeoutMillis Maximum time to wait for a task. Wait until a task is added or wakeUp is called if negative.
+	 * @return The task with the highest priority or null if none by the timeout, on wake up, or if closed
+	 */
+	public final StorageTask<?> poll(final long timeoutMillis) throws InterruptedException{
+		lock.lock();
+		try{
+			long remainingNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+			while(size == 0 && !wokenUp && !closed){
+				if(timeoutMillis < 0){
+					notEmpty.await();
+				}else{
+					if(remainingNanos <= 0){
+						return null;
+					}
+					remainingNanos = notEmpty.awaitNanos(remainingNanos);
+				}
+			}
+			wokenUp = false;
+			for(final ArrayDeque<StorageTask<?>> lane : lanes){
+				final StorageTask<?> task = lane.pollFirst();
+				if(task != null){
+					size--;
+					if(lane == lanes.get(Priority.WRITE.ordinal())){
+						notFull.signal();
+					}
+					return task;
+				}
+			}
+			return null;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the writes at the head of the write lane without waiting
+	 *
+	 * @param tasks Collection to add the writes to
+	 * @param max Maximum number of writes to take
+	 * @return Number of writes taken
+	 */
+	public final int drainWrites(final Collection<StorageTask<?>> tasks, final int max){
+		lock.lock();
+		try{
+			final ArrayDeque<StorageTask<?>> lane = lanes.get(Priority.WRITE.ordinal());
+			int drained = 0;
+			while(drained < max && !lane.isEmpty()){
+				tasks.add(lane.pollFirst());
+				drained++;
+			}
+			if(drained > 0){
+				size -= drained;
+				notFull.signalAll();
+			}
+			return drained;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Makes a waiting (or the next) poll return
+	 */
+	public final void wakeUp(){
+		lock.lock();
+		try{
+			wokenUp = true;
+			notEmpty.signalAll();
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writers no longer wait for space (i.e. on shutdown)
+	 */
+	public final void releaseWriteLimit(){
+		lock.lock();
+		try{
+			writeLimitReleased = true;
+			notFull.signalAll();
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	public final int size(){
+		lock.lock();
+		try{
+			return size;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Completes all the tasks in the queue with an error
+	 *
+	 * @return Number of tasks discarded
+	 */
+	public final int discardAll(){
+		lock.lock();
+		try{
+			final int discarded = size;
+			for(final ArrayDeque<StorageTask<?>> lane : lanes){
+				StorageTask<?> task;
+				while((task = lane.pollFirst()) != null){
+					discard(task);
+				}
+			}
+			size = 0;
+			notFull.signalAll();
+			return discarded;
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Discards all the tasks in the queue and the ones added afterwards
+	 *
+	 * @return Number of tasks discarded
+	 */
+	public final int close(){
+		lock.lock();
+		try{
+			closed = true;
+			notEmpty.signalAll();
+			return discardAll();
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	private static void discard(final StorageTask<?> task){
+		task.setError(new RuntimeException("Task discarded because the task runner is not running: " + task));
+		task.completed();
+	}
+}
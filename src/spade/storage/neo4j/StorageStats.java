@@ -72,6 +72,7 @@ public class StorageStats{
 				logger.log(Level.INFO,
 						vertexCacheHit.format(elapsedTimeSinceStartMillis, elapsedTimeSinceIntervalMillis));
 				logger.log(Level.INFO, vertexDbHit.format(elapsedTimeSinceStartMillis, elapsedTimeSinceIntervalMillis));
+				logger.log(Level.INFO, formatHitRatio("Vertex Cache", vertexCacheHit, vertexCacheMiss));
 
 				logger.log(Level.INFO, edgeCount.format(elapsedTimeSinceStartMillis, elapsedTimeSinceIntervalMillis));
 				logger.log(Level.INFO,
@@ -146,6 +147,24 @@ public class StorageStats{
 		}
 	}
 	
+	private static String formatHitRatio(final String name, final StorageStat hit, final StorageStat miss){
+		final long hitSinceEpoch, hitSinceLastInterval, missSinceEpoch, missSinceLastInterval;
+		synchronized(hit){
+			hitSinceEpoch = hit.valueSinceEpoch;
+			hitSinceLastInterval = hit.valueSinceLastInterval;
+		}
+		synchronized(miss){
+			missSinceEpoch = miss.valueSinceEpoch;
+			missSinceLastInterval = miss.valueSinceLastInterval;
+		}
+		return String.format("%s Hit Ratio [Overall=%.3f; Interval=%.3f]", name,
+				getRatio(hitSinceEpoch, missSinceEpoch), getRatio(hitSinceLastInterval, missSinceLastInterval));
+	}
+
+	private static double getRatio(final long hit, final long miss){
+		return (hit + miss) == 0 ? Double.NaN : ((double)hit) / ((double)(hit + miss));
+	}
+
 	public final static class StorageStat{
 		private final String name;
 		private long valueSinceEpoch = 0;
@@ -160,6 +179,11 @@ public class StorageStats{
 			this.valueSinceEpoch++;
 		}
 
+		public synchronized final void add(final long value){
+			this.valueSinceLastInterval += value;
+			this.valueSinceEpoch += value;
+		}
+
 		synchronized final void newInterval(){
 			this.valueSinceLastInterval = 0;
 		}
@@ -19,14 +19,16 @@
  */
 package spade.storage.neo4j;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.neo4j.graphdb.Transaction;
 
 import spade.storage.Neo4j;
 
 public abstract class StorageTask<R>{
 
-	private final Object completedLock = new Object();
-	private volatile boolean completed = false;
+	// Completed with the result, or exceptionally with the error, once the task is completed
+	private final CompletableFuture<R> future = new CompletableFuture<R>();
 	
 	private final Object errorLock = new Object();
 	private Throwable error = null;
@@ -40,6 +42,13 @@ public abstract class StorageTask<R>{
 	private final Object transactionTimeoutInSecondsLock = new Object();
 	private int transactionTimeoutInSeconds = -1;
 
+	private final Object cancelLock = new Object();
+	private volatile boolean cancelled = false;
+	// Transaction of the task while it executes. Only set for tasks which run in their own transaction.
+	private Transaction runningTransaction = null;
+
+	private volatile long rowsTouched = 0;
+
 	public StorageTask(final boolean commitBeforeExecution, final boolean commitAfterExecution){
 		this.commitBeforeExecution = commitBeforeExecution;
 		this.commitAfterExecution = commitAfterExecution;
@@ -63,18 +72,59 @@ public abstract class StorageTask<R>{
 		}
 	}
 
-	public final boolean isCompleted(){
-		synchronized(completedLock){
-			return this.completed;
+	/**
+	 * A task which has not started is skipped. A running task which runs in its own transaction is terminated.
+	 */
+	public final void cancel(){
+		synchronized(cancelLock){
+			cancelled = true;
+			if(runningTransaction != null){
+				runningTransaction.terminate();
+			}
+		}
+	}
+
+	public final boolean isCancelled(){
+		return cancelled;
+	}
+
+	public final void setRunningTransaction(final Transaction runningTransaction){
+		synchronized(cancelLock){
+			this.runningTransaction = commitBeforeExecution ? runningTransaction : null;
+			if(cancelled && this.runningTransaction != null){
+				this.runningTransaction.terminate();
+			}
 		}
 	}
 
+	/**
+	 * @return Rows (nodes, relationships, properties or result rows) read or written by the task
+	 */
+	public final long getRowsTouched(){
+		return rowsTouched;
+	}
+
+	protected final void addRowsTouched(final long rows){
+		rowsTouched += rows;
+	}
+
+	public final boolean isCompleted(){
+		return future.isDone();
+	}
+
 	public final void completed(){
-		synchronized(completedLock){
-			this.completed = true;
+		final Throwable error = getError();
+		if(error != null){
+			future.completeExceptionally(error);
+		}else{
+			future.complete(getResult());
 		}
 	}
 
+	public final CompletableFuture<R> getFuture(){
+		return future;
+	}
+
 	public final Throwable getError(){
 		synchronized(errorLock){
 			return this.error;
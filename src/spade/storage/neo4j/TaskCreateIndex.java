@@ -51,7 +51,8 @@ public class TaskCreateIndex extends StorageTask<IndexDefinition>{
 			}else{
 				indexCreator = tx.schema().indexFor(storage.getConfiguration().neo4jEdgeRelationshipType).withIndexType(IndexType.FULLTEXT);
 			}
-			indexCreator = indexCreator.on(key);
+			indexCreator = indexCreator.on(key).withName(
+					storage.getConfiguration().indexNamePrefix + (forNodes ? "vertex_" : "edge_") + key);
 			final IndexDefinition indexDefinition = indexCreator.create();
 			setResult(indexDefinition);
 			return indexDefinition;
@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.neo4j.graphdb.QueryStatistics;
 import org.neo4j.graphdb.Transaction;
 
 import spade.storage.Neo4j;
@@ -52,6 +53,10 @@ public class TaskExecuteQuery extends StorageTask<List<Map<String, Object>>>{
 		while(result.hasNext()){
 			listOfMaps.add(new HashMap<String, Object>(result.next()));
 		}
+		final QueryStatistics statistics = result.getQueryStatistics();
+		addRowsTouched(listOfMaps.size() + statistics.getNodesCreated() + statistics.getNodesDeleted()
+				+ statistics.getRelationshipsCreated() + statistics.getRelationshipsDeleted()
+				+ statistics.getPropertiesSet());
 		result.close();
 		setResult(listOfMaps);
 		return listOfMaps;
@@ -78,6 +78,7 @@ public class TaskGetHashToVertexMap extends StorageTask<Map<String, Map<String,
 			hashToVertexAnnotations.put(hashAnnotationValue, annotations);
 		}
 		
+		addRowsTouched(hashToVertexAnnotations.size());
 		setResult(hashToVertexAnnotations);
 		result.close();
 		return hashToVertexAnnotations;
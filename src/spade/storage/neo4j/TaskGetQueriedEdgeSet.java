@@ -85,6 +85,7 @@ public class TaskGetQueriedEdgeSet extends StorageTask<Set<QueriedEdge>>{
 			edgeSet.add(new QueriedEdge(edgeHashString, childVertexHashString, parentVertexHashString, annotations));
 		}
 		
+		addRowsTouched(edgeSet.size());
 		setResult(edgeSet);
 		result.close();
 		return edgeSet;
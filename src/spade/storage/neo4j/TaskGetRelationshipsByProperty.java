@@ -0,0 +1,113 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterable;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import spade.storage.Neo4j;
+import spade.storage.neo4j.Configuration.EdgeCacheFindMode;
+
+/**
+ * Batched version of TaskGetRelationshipByProperty. All the values are looked up in one pass (or one query).
+ */
+public class TaskGetRelationshipsByProperty extends StorageTask<Set<String>>{
+
+	private final RelationshipType relationshipType;
+	private final String propertyName;
+	private final Set<String> propertyValues;
+
+	@Override
+	public final String toString(){
+		return "TaskGetRelationshipsByProperty [relationshipType="+relationshipType+", propertyName="+propertyName+", "
+				+ "propertyValues="+propertyValues.size()+"]";
+	}
+
+	public TaskGetRelationshipsByProperty(final RelationshipType relationshipType,
+			final String propertyName, final Collection<String> propertyValues){
+		super(false, false);
+		this.relationshipType = relationshipType;
+		this.propertyName = propertyName;
+		this.propertyValues = new HashSet<String>(propertyValues);
+	}
+
+	/**
+	 * @return The values which were found
+	 */
+	public final Set<String> execute(final Neo4j storage, final Transaction tx){
+		final Set<String> found = new HashSet<String>();
+		if(propertyValues.isEmpty()){
+			setResult(found);
+			return found;
+		}
+		try{
+			storage.getStorageStats().startActionTimer(this.getClass().getSimpleName());
+			if(storage.getConfiguration().edgeCacheFindMode.equals(EdgeCacheFindMode.ITERATE)){
+				final ResourceIterable<Relationship> relationshipIterable = tx.getAllRelationships();
+				final ResourceIterator<Relationship> relationshipIterator = relationshipIterable.iterator();
+				try{
+					while(relationshipIterator.hasNext() && found.size() < propertyValues.size()){
+						final Relationship relationship = relationshipIterator.next();
+						if(relationship.isType(relationshipType)){
+							final String value = String.valueOf(relationship.getProperty(propertyName, null));
+							if(propertyValues.contains(value)){
+								found.add(value);
+							}
+						}
+					}
+				}finally{
+					relationshipIterator.close();
+				}
+			}else if(storage.getConfiguration().edgeCacheFindMode.equals(EdgeCacheFindMode.NONE)){
+				// Nothing to look up
+			}else if(storage.getConfiguration().edgeCacheFindMode.equals(EdgeCacheFindMode.CYPHER)){
+				final Map<String, Object> parameters = new HashMap<String, Object>();
+				parameters.put("values", new ArrayList<String>(propertyValues));
+				final Result result = tx.execute("unwind $values as value match ()-[e]->() where e.`"+propertyName+"` = value "
+						+ "return distinct value;", parameters);
+				try{
+					while(result.hasNext()){
+						found.add(String.valueOf(result.next().get("value")));
+					}
+				}finally{
+					result.close();
+				}
+			}else{
+				throw new RuntimeException(
+						"Failed to find relationships. Unhandled edge cache find mode: " + storage.getConfiguration().edgeCacheFindMode);
+			}
+			setResult(found);
+			return found;
+		}finally{
+			storage.getStorageStats().stopActionTimer(this.getClass().getSimpleName());
+		}
+	}
+}
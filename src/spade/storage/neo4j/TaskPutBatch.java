@@ -0,0 +1,326 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.storage.Neo4j;
+
+/**
+ * Puts the vertices and edges of a group of TaskPutVertex and TaskPutEdge tasks with parameterized statements.
+ *
+ * The edges are looked up in the database together, the vertices (including the endpoints of the new edges) not in
+ * the cache are merged by hash in one statement and then the relationships are created in one statement by the node
+ * ids of the endpoints.
+ *
+ * An invalid vertex or edge is discarded with an error set in its task. The rest of the batch is still put.
+ * The tasks in the batch are completed by completeBatchedTasks.
+ */
+public class TaskPutBatch extends StorageTask<Integer>{
+
+	private static final Logger logger = Logger.getLogger(TaskPutBatch.class.getName());
+
+	private final List<StorageTask<?>> tasks;
+
+	private static final class PendingEdge{
+		private final TaskPutEdge task;
+		private final String hashCode;
+		private final Map<String, String> annotations;
+
+		private PendingEdge(final TaskPutEdge task, final String hashCode, final Map<String, String> annotations){
+			this.task = task;
+			this.hashCode = hashCode;
+			this.annotations = annotations;
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "TaskPutBatch [tasks=" + tasks.size() + "]";
+	}
+
+	public TaskPutBatch(final List<StorageTask<?>> tasks){
+		super(false, false);
+		this.tasks = tasks;
+	}
+
+	public static final boolean isBatchable(final StorageTask<?> task){
+		return task instanceof TaskPutVertex || task instanceof TaskPutEdge;
+	}
+
+	public final int size(){
+		return tasks.size();
+	}
+
+	/**
+	 * Completes the tasks in the batch. The error of the batch (if any) is set in the tasks without an error.
+	 */
+	public final void completeBatchedTasks(){
+		for(final StorageTask<?> task : tasks){
+			if(task.getError() == null && getError() != null){
+				task.setError(getError());
+			}
+			task.completed();
+		}
+	}
+
+	private static final String quote(final String name){
+		return "`" + name.replace("`", "``") + "`";
+	}
+
+	private static final Map<String, String> getValidAnnotations(final Neo4j storage, final Object object,
+			final String objectName, final Map<String, String> annotations) throws Exception{
+		if(annotations.containsKey(null)){
+			throw new Exception("NULL key in " + objectName.toLowerCase() + ": " + object);
+		}
+		storage.validateUpdateHashKeyAndKeysInAnnotationMap(object, objectName, annotations);
+		return annotations;
+	}
+
+	private static final String addVertex(final Neo4j storage, final AbstractVertex vertex,
+			final Map<String, Map<String, String>> vertices) throws Exception{
+		if(vertex == null){
+			throw new Exception("NULL vertex to put");
+		}
+		final String hashCode = vertex.bigHashCode();
+		if(hashCode == null){
+			throw new Exception("NULL hash code for vertex to put: " + vertex);
+		}
+		if(!vertices.containsKey(hashCode)){
+			vertices.put(hashCode, getValidAnnotations(storage, vertex, "Vertex", vertex.getCopyOfAnnotations()));
+		}
+		return hashCode;
+	}
+
+	private static final PendingEdge getPendingEdge(final Neo4j storage, final TaskPutEdge task) throws Exception{
+		final AbstractEdge edge = task.getEdge();
+		if(edge == null){
+			throw new Exception("NULL edge to put");
+		}
+		final String hashCode = edge.bigHashCode();
+		if(hashCode == null){
+			throw new Exception("NULL hash code for edge to put: " + edge);
+		}
+		if(edge.getChildVertex() == null){
+			throw new Exception("Child vertex is NULL. Failed to put edge: " + edge);
+		}
+		if(edge.getParentVertex() == null){
+			throw new Exception("Parent vertex is NULL. Failed to put edge: " + edge);
+		}
+		return new PendingEdge(task, hashCode, getValidAnnotations(storage, edge, "Edge", edge.getCopyOfAnnotations()));
+	}
+
+	private final void discard(final StorageTask<?> task, final Exception e){
+		task.setError(e);
+		logger.log(Level.WARNING, "Discarded from batch: " + task, e);
+	}
+
+	@Override
+	public final Integer execute(final Neo4j storage, final Transaction tx) throws Exception{
+		final Map<String, Map<String, String>> vertices = new LinkedHashMap<String, Map<String, String>>();
+		final Map<String, PendingEdge> edges = new LinkedHashMap<String, PendingEdge>();
+
+		for(final StorageTask<?> task : tasks){
+			try{
+				if(task instanceof TaskPutVertex){
+					addVertex(storage, ((TaskPutVertex)task).getVertex(), vertices);
+				}else if(task instanceof TaskPutEdge){
+					final PendingEdge pendingEdge = getPendingEdge(storage, (TaskPutEdge)task);
+					if(!edges.containsKey(pendingEdge.hashCode)){
+						edges.put(pendingEdge.hashCode, pendingEdge);
+					}
+				}else{
+					throw new Exception("Unexpected task in batch");
+				}
+			}catch(Exception e){
+				discard(task, e);
+			}
+		}
+
+		// Existing edges are skipped along with their endpoints
+		edges.keySet().removeAll(storage.getCacheManager().edgeCacheGetAll(edges.keySet(), tx));
+
+		final Map<PendingEdge, String[]> edgeEndpoints = new LinkedHashMap<PendingEdge, String[]>();
+		for(final PendingEdge pendingEdge : edges.values()){
+			try{
+				final AbstractEdge edge = pendingEdge.task.getEdge();
+				final String childHashCode = addVertex(storage, edge.getChildVertex(), vertices);
+				final String parentHashCode = addVertex(storage, edge.getParentVertex(), vertices);
+				edgeEndpoints.put(pendingEdge, new String[]{childHashCode, parentHashCode});
+			}catch(Exception e){
+				discard(pendingEdge.task, e);
+			}
+		}
+
+		final Map<String, Long> nodeIds = storage.getCacheManager().vertexCacheGetNodeIds(vertices.keySet());
+		vertices.keySet().removeAll(nodeIds.keySet());
+		final int nodesCreated;
+		if(vertices.isEmpty()){
+			nodesCreated = 0;
+		}else{
+			final Map<String, Long> mergedNodeIds = new HashMap<String, Long>();
+			nodesCreated = mergeNodes(storage, tx, vertices, mergedNodeIds);
+			storage.getCacheManager().vertexCachePutNodeIds(mergedNodeIds, tx);
+			nodeIds.putAll(mergedNodeIds);
+		}
+
+		final int relationshipsCreated;
+		if(edgeEndpoints.isEmpty()){
+			relationshipsCreated = 0;
+		}else{
+			relationshipsCreated = createRelationships(storage, tx, edgeEndpoints, nodeIds);
+		}
+
+		final Integer result = nodesCreated + relationshipsCreated;
+		setResult(result);
+		return result;
+	}
+
+	/**
+	 * @return Number of nodes created
+	 */
+	private final int mergeNodes(final Neo4j storage, final Transaction tx, final Map<String, Map<String, String>> vertices,
+			final Map<String, Long> nodeIds){
+		final String hashPropertyName = storage.getConfiguration().hashPropertyName;
+		final Set<String> propertyNames = new HashSet<String>();
+		propertyNames.add(hashPropertyName);
+
+		final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for(final Map.Entry<String, Map<String, String>> entry : vertices.entrySet()){
+			final Map<String, Object> row = new HashMap<String, Object>();
+			row.put("hash", entry.getKey());
+			row.put("properties", entry.getValue());
+			rows.add(row);
+			propertyNames.addAll(entry.getValue().keySet());
+		}
+
+		final Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("rows", rows);
+
+		storage.getStorageStats().startActionTimer("BATCH-NODE-MERGE");
+		final int nodesCreated;
+		final Result result = tx.execute("unwind $rows as row "
+				+ "merge (n:" + quote(storage.getConfiguration().nodePrimaryLabelName) + " {" + quote(hashPropertyName) + ": row.hash}) "
+				+ "on create set n += row.properties "
+				+ "return row.hash as hash, id(n) as id", parameters);
+		try{
+			while(result.hasNext()){
+				final Map<String, Object> map = result.next();
+				nodeIds.put((String)map.get("hash"), ((Number)map.get("id")).longValue());
+			}
+			nodesCreated = result.getQueryStatistics().getNodesCreated();
+		}finally{
+			result.close();
+			storage.getStorageStats().stopActionTimer("BATCH-NODE-MERGE");
+		}
+
+		storage.getStorageStats().vertexCount.add(nodesCreated);
+		storage.getStorageStats().vertexDbHit.add(nodeIds.size() - nodesCreated);
+		storage.updateNodePropertyNames(propertyNames);
+		return nodesCreated;
+	}
+
+	/**
+	 * @return Number of relationships created
+	 */
+	private final int createRelationships(final Neo4j storage, final Transaction tx,
+			final Map<PendingEdge, String[]> edgeEndpoints, final Map<String, Long> nodeIds){
+		final String hashPropertyName = storage.getConfiguration().hashPropertyName;
+		final Set<String> propertyNames = new HashSet<String>();
+		propertyNames.add(hashPropertyName);
+
+		final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		final Map<String, PendingEdge> rowEdges = new HashMap<String, PendingEdge>();
+		for(final Map.Entry<PendingEdge, String[]> entry : edgeEndpoints.entrySet()){
+			final PendingEdge pendingEdge = entry.getKey();
+			final Long childNodeId = nodeIds.get(entry.getValue()[0]);
+			final Long parentNodeId = nodeIds.get(entry.getValue()[1]);
+			if(childNodeId == null || parentNodeId == null){
+				discard(pendingEdge.task, new Exception("Failed to resolve the nodes of the edge: " + pendingEdge.task.getEdge()));
+				continue;
+			}
+			final Map<String, Object> properties = new HashMap<String, Object>(pendingEdge.annotations);
+			properties.put(hashPropertyName, pendingEdge.hashCode);
+			final Map<String, Object> row = new HashMap<String, Object>();
+			row.put("child", childNodeId);
+			row.put("parent", parentNodeId);
+			row.put("properties", properties);
+			row.put("hash", pendingEdge.hashCode);
+			rows.add(row);
+			rowEdges.put(pendingEdge.hashCode, pendingEdge);
+			propertyNames.addAll(pendingEdge.annotations.keySet());
+		}
+		if(rows.isEmpty()){
+			return 0;
+		}
+
+		final Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("rows", rows);
+
+		storage.getStorageStats().startActionTimer("BATCH-RELATIONSHIP-CREATE");
+		final int relationshipsCreated;
+		final Result result = tx.execute("unwind $rows as row "
+				+ "match (c) where id(c) = row.child "
+				+ "match (p) where id(p) = row.parent "
+				+ "create (c)-[e:" + quote(storage.getConfiguration().edgeRelationshipTypeName) + "]->(p) "
+				+ "set e = row.properties "
+				+ "return row.hash as hash", parameters);
+		// No row returned for an edge whose endpoint node does not exist (anymore)
+		final Set<String> createdHashCodes = new HashSet<String>();
+		try{
+			while(result.hasNext()){
+				createdHashCodes.add((String)result.next().get("hash"));
+			}
+			relationshipsCreated = result.getQueryStatistics().getRelationshipsCreated();
+		}finally{
+			result.close();
+			storage.getStorageStats().stopActionTimer("BATCH-RELATIONSHIP-CREATE");
+		}
+
+		for(final Map.Entry<String, PendingEdge> entry : rowEdges.entrySet()){
+			if(createdHashCodes.contains(entry.getKey())){
+				storage.getCacheManager().edgeCachePut(entry.getKey(), true);
+			}else{
+				discard(entry.getValue().task,
+						new Exception("Node of the edge not found in the database: " + entry.getValue().task.getEdge()));
+			}
+		}
+		if(createdHashCodes.size() < rowEdges.size()){
+			logger.log(Level.WARNING, (rowEdges.size() - createdHashCodes.size())
+					+ " edge(s) not created because a node was not found");
+		}
+		storage.getStorageStats().edgeCount.add(relationshipsCreated);
+		storage.updateRelationshipPropertyNames(propertyNames);
+		return relationshipsCreated;
+	}
+}
@@ -44,6 +44,10 @@ public class TaskPutEdge extends StorageTask<Relationship>{
 		this.edge = edge;
 	}
 
+	public final AbstractEdge getEdge(){
+		return edge;
+	}
+
 	private final void storeAnnotations(final Neo4j storage, final Transaction tx, final Relationship relationship,
 			final Map<String, String> annotations) throws Exception{
 
@@ -103,12 +107,16 @@ public class TaskPutEdge extends StorageTask<Relationship>{
 				if(childNodeId == null){
 					final TaskPutVertex task = new TaskPutVertex(childVertex);
 					childNode = task.execute(storage, tx);
+				}else{
+					childNode = tx.getNodeById(childNodeId);
 				}
 
 				final Long parentNodeId = storage.getCacheManager().vertexCacheGetNodeId(parentVertex.bigHashCode(), tx);
 				if(parentNodeId == null){
 					final TaskPutVertex task = new TaskPutVertex(parentVertex);
 					parentNode = task.execute(storage, tx);
+				}else{
+					parentNode = tx.getNodeById(parentNodeId);
 				}
 			}else if(storage.getConfiguration().vertexCacheMode.equals(VertexCacheMode.NODE)){
 				childNode = storage.getCacheManager().vertexCacheGetNode(childVertex.bigHashCode(), tx);
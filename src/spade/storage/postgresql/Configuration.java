@@ -38,7 +38,13 @@ public class Configuration{
 		, keyBufferSize = "buffer"
 		, keyReset = "reset"
 		, keySecondaryIndexes = "secondaryIndexes"
-		, keyFetchSize = "fetch";
+		, keyFetchSize = "fetch"
+		, keyAsyncFlush = "asyncFlush"
+		, keyMaxInFlightBatches = "maxInFlightBatches"
+		, keyCopyFormat = "copyFormat"
+		, keyLoaders = "loaders"
+		, keyPartitions = "partitions"
+		, keyTraversal = "traversal";
 
 	private String driverClassName;
 	private String jdbcProtocol;
@@ -51,6 +57,12 @@ public class Configuration{
 	private boolean reset;
 	private boolean secondaryIndexes;
 	private int fetchSize;
+	private boolean asyncFlush;
+	private int maxInFlightBatches;
+	private CopyEncoder.Format copyFormat;
+	private int loaders;
+	private int partitions;
+	private PostgreSQLInstructionExecutor.Traversal traversal;
 
 	public final void load(final String arguments, final String path) throws Exception{
 		try{
@@ -66,6 +78,25 @@ public class Configuration{
 			reset = ArgumentFunctions.mustParseBoolean(keyReset, map);
 			secondaryIndexes = ArgumentFunctions.mustParseBoolean(keySecondaryIndexes, map);
 			fetchSize = ArgumentFunctions.mustParseInteger(keyFetchSize, map);
+			asyncFlush = ArgumentFunctions.mustParseBoolean(keyAsyncFlush, map);
+			maxInFlightBatches = (int)ArgumentFunctions.mustBeGreaterThanZero(keyMaxInFlightBatches, map);
+			final String copyFormatValue = ArgumentFunctions.mustParseNonEmptyString(keyCopyFormat, map);
+			try{
+				copyFormat = CopyEncoder.Format.valueOf(copyFormatValue.trim().toUpperCase());
+			}catch(Exception e){
+				throw new Exception("Invalid value for '" + keyCopyFormat + "': '" + copyFormatValue + "'. Expected 'csv' or 'binary'");
+			}
+			loaders = (int)ArgumentFunctions.mustBeGreaterThanZero(keyLoaders, map);
+			partitions = ArgumentFunctions.mustParseInteger(keyPartitions, map);
+			if(partitions < 0){
+				throw new Exception("Invalid value for '" + keyPartitions + "': " + partitions + ". Must be zero or greater");
+			}
+			final String traversalValue = ArgumentFunctions.mustParseNonEmptyString(keyTraversal, map);
+			try{
+				traversal = PostgreSQLInstructionExecutor.Traversal.valueOf(traversalValue.trim().toUpperCase());
+			}catch(Exception e){
+				throw new Exception("Invalid value for '" + keyTraversal + "': '" + traversalValue + "'. Expected 'iterative' or 'recursive'");
+			}
 		}catch(Exception e){
 			throw new Exception("Failed to read/parse configuration: '" + path + "'", e);
 		}
@@ -123,11 +154,37 @@ public class Configuration{
 		return fetchSize > 0;
 	}
 
+	public boolean isAsyncFlush(){
+		return asyncFlush;
+	}
+
+	public int getMaxInFlightBatches(){
+		return maxInFlightBatches;
+	}
+
+	public CopyEncoder.Format getCopyFormat(){
+		return copyFormat;
+	}
+
+	public int getLoaders(){
+		return loaders;
+	}
+
+	public int getPartitions(){
+		return partitions;
+	}
+
+	public PostgreSQLInstructionExecutor.Traversal getTraversal(){
+		return traversal;
+	}
+
 	@Override
 	public String toString(){
 		return "Configuration [driverClassName=" + driverClassName + ", jdbcProtocol=" + jdbcProtocol + ", host=" + host
 				+ ", port=" + port + ", dbName=" + dbName + ", dbUser=" + dbUser + ", dbPassword=" + dbPassword
 				+ ", bufferSize=" + bufferSize + ", reset=" + reset + ", secondaryIndexes=" + secondaryIndexes
-				+ ", fetchSize=" + fetchSize + "]";
+				+ ", fetchSize=" + fetchSize + ", asyncFlush=" + asyncFlush
+				+ ", maxInFlightBatches=" + maxInFlightBatches + ", copyFormat=" + copyFormat
+				+ ", loaders=" + loaders + ", partitions=" + partitions + ", traversal=" + traversal + "]";
 	}
 }
@@ -0,0 +1,277 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.postgresql;
+
+import java.sql.SQLException;
+
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Encodes rows directly into a 'COPY ... FROM STDIN' stream through a reusable byte buffer.
+ *
+ * CSV: every non-null value is quoted (quotes doubled), null is written as an empty unquoted field.
+ * BINARY: PostgreSQL binary COPY format. Hashes are written as 16-byte UUIDs and text as UTF-8.
+ *
+ * Not thread-safe. One COPY at a time.
+ */
+public final class CopyEncoder{
+
+	public static enum Format{ CSV, BINARY }
+
+	private static final byte[] binarySignature = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte)0xff, '\r', '\n', 0};
+	private static final int uuidBytes = 16;
+
+	private final Format format;
+	private final byte[] buffer;
+	private int position = 0;
+
+	private CopyIn copyIn = null;
+	private int fieldIndex = 0;
+
+	public CopyEncoder(final Format format, final int bufferSize){
+		if(format == null){
+			throw new IllegalArgumentException("NULL format");
+		}
+		// Must be able to hold the largest value that is not split: a 4-byte UTF-8 character or a UUID
+		if(bufferSize < 64){
+			throw new IllegalArgumentException("Buffer size must be at least 64 bytes: " + bufferSize);
+		}
+		this.format = format;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public Format getFormat(){
+		return format;
+	}
+
+	/**
+	 * @return Options to use in the COPY command. For example: 'copy vertex from stdin (format csv)'
+	 */
+	public String getCopyOptions(){
+		switch(format){
+			case BINARY: return "format binary";
+			case CSV:
+			default: return "format csv";
+		}
+	}
+
+	public void begin(final CopyIn copyIn) throws SQLException{
+		if(this.copyIn != null){
+			throw new IllegalStateException("Previous COPY not ended");
+		}
+		this.copyIn = copyIn;
+		this.position = 0;
+		if(format == Format.BINARY){
+			ensure(binarySignature.length + 8);
+			System.arraycopy(binarySignature, 0, buffer, position, binarySignature.length);
+			position += binarySignature.length;
+			putInt(0); // Flags
+			putInt(0); // Header extension length
+		}
+	}
+
+	public void beginRow(final int fieldCount) throws SQLException{
+		fieldIndex = 0;
+		if(format == Format.BINARY){
+			ensure(2);
+			putShort(fieldCount);
+		}
+	}
+
+	public void endRow() throws SQLException{
+		if(format == Format.CSV){
+			ensure(1);
+			buffer[position++] = '\n';
+		}
+	}
+
+	/**
+	 * @param hexHash 32 hex characters (as returned by bigHashCode) or null
+	 */
+	public void writeHash(final String hexHash) throws SQLException{
+		if(hexHash == null){
+			writeNull();
+			return;
+		}
+		if(format == Format.BINARY){
+			if(hexHash.length() != uuidBytes * 2){
+				throw new SQLException("Invalid hash for UUID column: '" + hexHash + "'");
+			}
+			ensure(4 + uuidBytes);
+			putInt(uuidBytes);
+			for(int i = 0; i < uuidBytes; i++){
+				final int high = Character.digit(hexHash.charAt(2 * i), 16);
+				final int low = Character.digit(hexHash.charAt(2 * i + 1), 16);
+				if(high < 0 || low < 0){
+					throw new SQLException("Invalid hash for UUID column: '" + hexHash + "'");
+				}
+				buffer[position++] = (byte)((high << 4) | low);
+			}
+		}else{
+			writeText(hexHash);
+		}
+	}
+
+	public void writeText(final String value) throws SQLException{
+		if(value == null){
+			writeNull();
+			return;
+		}
+		if(format == Format.BINARY){
+			ensure(4);
+			putInt(utf8Length(value));
+			putUtf8(value, false);
+		}else{
+			writeSeparator();
+			ensure(1);
+			buffer[position++] = '"';
+			putUtf8(value, true);
+			ensure(1);
+			buffer[position++] = '"';
+		}
+	}
+
+	public void writeNull() throws SQLException{
+		if(format == Format.BINARY){
+			ensure(4);
+			putInt(-1);
+		}else{
+			writeSeparator();
+		}
+	}
+
+	/**
+	 * @return Number of rows copied
+	 */
+	public long end() throws SQLException{
+		try{
+			if(format == Format.BINARY){
+				ensure(2);
+				putShort(-1);
+			}
+			flushBuffer();
+			return copyIn.endCopy();
+		}finally{
+			copyIn = null;
+		}
+	}
+
+	/**
+	 * Cancels the current COPY (if any). Nothing written since begin is persisted.
+	 */
+	public void abort(){
+		if(copyIn != null){
+			try{
+				if(copyIn.isActive()){
+					copyIn.cancelCopy();
+				}
+			}catch(Exception e){
+				// Connection is probably broken. Nothing else to do.
+			}finally{
+				copyIn = null;
+				position = 0;
+			}
+		}
+	}
+
+	private void writeSeparator() throws SQLException{
+		if(fieldIndex++ > 0){
+			ensure(1);
+			buffer[position++] = ',';
+		}
+	}
+
+	private void ensure(final int bytes) throws SQLException{
+		if(buffer.length - position < bytes){
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws SQLException{
+		if(position > 0){
+			copyIn.writeToCopy(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	private void putShort(final int value){
+		buffer[position++] = (byte)(value >>> 8);
+		buffer[position++] = (byte)value;
+	}
+
+	private void putInt(final int value){
+		buffer[position++] = (byte)(value >>> 24);
+		buffer[position++] = (byte)(value >>> 16);
+		buffer[position++] = (byte)(value >>> 8);
+		buffer[position++] = (byte)value;
+	}
+
+	// Must be kept in sync with putUtf8. Unpaired surrogates are written as '?' like String.getBytes.
+	private static int utf8Length(final String value){
+		int length = 0;
+		final int count = value.length();
+		for(int i = 0; i < count; i++){
+			final char c = value.charAt(i);
+			if(c < 0x80){
+				length += 1;
+			}else if(c < 0x800){
+				length += 2;
+			}else if(Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))){
+				length += 4;
+				i++;
+			}else if(Character.isSurrogate(c)){
+				length += 1;
+			}else{
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private void putUtf8(final String value, final boolean doubleQuotes) throws SQLException{
+		final int count = value.length();
+		for(int i = 0; i < count; i++){
+			final char c = value.charAt(i);
+			ensure(4);
+			if(c < 0x80){
+				if(doubleQuotes && c == '"'){
+					ensure(2);
+					buffer[position++] = '"';
+				}
+				buffer[position++] = (byte)c;
+			}else if(c < 0x800){
+				buffer[position++] = (byte)(0xc0 | (c >> 6));
+				buffer[position++] = (byte)(0x80 | (c & 0x3f));
+			}else if(Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(value.charAt(i + 1))){
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[position++] = (byte)(0xf0 | (codePoint >> 18));
+				buffer[position++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+				buffer[position++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+				buffer[position++] = (byte)(0x80 | (codePoint & 0x3f));
+			}else if(Character.isSurrogate(c)){
+				buffer[position++] = '?';
+			}else{
+				buffer[position++] = (byte)(0xe0 | (c >> 12));
+				buffer[position++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+				buffer[position++] = (byte)(0x80 | (c & 0x3f));
+			}
+		}
+	}
+}
@@ -19,7 +19,9 @@
  */
 package spade.storage.postgresql;
 
+import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -32,6 +34,7 @@ import spade.core.AbstractStorage;
 import spade.query.quickgrail.core.GraphDescription;
 import spade.query.quickgrail.core.GraphStatistic;
 import spade.query.quickgrail.core.GraphStatistic.Interval;
+import spade.query.quickgrail.core.GraphStatisticSketch;
 import spade.query.quickgrail.core.QueriedEdge;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
 import spade.query.quickgrail.core.QuickGrailQueryResolver.PredicateOperator;
@@ -55,6 +58,15 @@ import spade.utility.HelperFunctions;
  */
 public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
+	/**
+	 * How the lineage, path and link instructions are evaluated.
+	 *
+	 * ITERATIVE runs a few statements per depth level on the scratch tables. Path and link instructions only look at the
+	 * vertices found by a bidirectional search from the sources and the destinations.
+	 * RECURSIVE compiles each instruction into one WITH RECURSIVE statement.
+	 */
+	public static enum Traversal{ ITERATIVE, RECURSIVE }
+
 	private final PostgreSQL storage;
 	private final PostgreSQLQueryEnvironment queryEnvironment;
 	
@@ -63,10 +75,13 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	private final String idParentVertexColumnName;
 	private final String vertexAnnotationTableName;
 	private final String edgeAnnotationTableName;
+	private final Traversal traversal;
+	// Connection of the session. NULL for the shared executor which uses the connection of the storage
+	private final Connection connection;
 
 	public PostgreSQLInstructionExecutor(PostgreSQL storage, PostgreSQLQueryEnvironment queryEnvironment,
 			String idColumnName, String idChildVertexColumnName, String idParentVertexColumnName,
-			String vertexAnnotationTableName, String edgeAnnotationTableName){
+			String vertexAnnotationTableName, String edgeAnnotationTableName, Traversal traversal){
 		this.storage = storage;
 		this.queryEnvironment = queryEnvironment;
 		this.idColumnName = idColumnName;
@@ -74,6 +89,8 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		this.idParentVertexColumnName = idParentVertexColumnName;
 		this.vertexAnnotationTableName = vertexAnnotationTableName;
 		this.edgeAnnotationTableName = edgeAnnotationTableName;
+		this.traversal = traversal;
+		this.connection = null;
 		if(this.queryEnvironment == null){
 			throw new IllegalArgumentException("NULL Query Environment");
 		}
@@ -95,6 +112,57 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		if(HelperFunctions.isNullOrEmpty(this.edgeAnnotationTableName)){
 			throw new IllegalArgumentException("NULL/Empty edge table name: " + this.edgeAnnotationTableName);
 		}
+		if(this.traversal == null){
+			throw new IllegalArgumentException("NULL traversal");
+		}
+	}
+
+	private PostgreSQLInstructionExecutor(final PostgreSQLInstructionExecutor sharedExecutor, final Connection connection){
+		this.storage = sharedExecutor.storage;
+		this.queryEnvironment = sharedExecutor.queryEnvironment;
+		this.idColumnName = sharedExecutor.idColumnName;
+		this.idChildVertexColumnName = sharedExecutor.idChildVertexColumnName;
+		this.idParentVertexColumnName = sharedExecutor.idParentVertexColumnName;
+		this.vertexAnnotationTableName = sharedExecutor.vertexAnnotationTableName;
+		this.edgeAnnotationTableName = sharedExecutor.edgeAnnotationTableName;
+		this.traversal = sharedExecutor.traversal;
+		this.connection = connection;
+		if(this.connection == null){
+			throw new IllegalArgumentException("NULL session connection");
+		}
+	}
+
+	/**
+	 * Each session gets its own connection. The scratch tables are temporary tables which are only visible to the
+	 * connection that created them so sessions can run queries concurrently.
+	 */
+	@Override
+	public QueryInstructionExecutor openSession() throws Exception{
+		return new PostgreSQLInstructionExecutor(this, storage.createQueryConnection());
+	}
+
+	@Override
+	public void closeSession() throws Exception{
+		if(connection != null){
+			connection.close();
+		}
+	}
+
+	/**
+	 * The buffers of the storage are flushed once per query and not before every statement so that the statements of
+	 * concurrent sessions do not wait for ingest
+	 */
+	@Override
+	public void beforeQuery(){
+		storage.flushForQuery();
+	}
+
+	/**
+	 * Each instruction runs on the connection of its own session so the scratch tables are not shared
+	 */
+	@Override
+	public boolean supportsConcurrentInstructions(){
+		return true;
 	}
 
 	@Override
@@ -161,7 +229,9 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
 	// TODO
 	private List<List<String>> executeQueryForResult(String query, boolean addColumnNames){
-		final List<List<String>> result = storage.executeQueryForResult(query, addColumnNames);
+		final List<List<String>> result = connection == null
+				? storage.executeQueryForResult(query, addColumnNames, getQueryMonitor())
+				: storage.executeQueryForResult(connection, query, addColumnNames, getQueryMonitor());
 		/*
 		final Logger l = Logger.getLogger(this.getClass().getName());
 		l.log(Level.SEVERE, "Query: '" + query + "'");
@@ -181,56 +251,31 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
 	@Override
 	public void insertLiteralEdge(Graph targetGraph, ArrayList<String> edges){
-		if(!edges.isEmpty()){
-			String insertSubpart = "";
-			for(String edge : edges){
-				if(edge.length() <= 32){
-					insertSubpart += "('" + edge + "'), ";
-				}
-			}
-
-			if(!insertSubpart.isEmpty()){
-				final String tempEdgeTable = "m_edgehash";
-				executeQueryForResult("drop table if exists " + tempEdgeTable + ";\n", false);
-				executeQueryForResult("create table " + tempEdgeTable + " (" + getIdColumnName() + " uuid);\n", false);
-				insertSubpart = insertSubpart.substring(0, insertSubpart.length() - 2);
-				executeQueryForResult("insert into " + tempEdgeTable + " values " + insertSubpart + ";\n", false);
-
-				executeQueryForResult("insert into " + getEdgeTableName(targetGraph) + " select "
-						+ getIdColumnName() + " from " + getEdgeAnnotationTableName() + " where " + getIdColumnName()
-						+ " in (select " + getIdColumnName() + " from " + tempEdgeTable + " group by "
-						+ getIdColumnName() + ");\n", false);
-
-				executeQueryForResult("drop table " + tempEdgeTable + ";\n", false);
-			}
-		}
+		insertLiteralIds(getEdgeTableName(targetGraph), getEdgeAnnotationTableName(), edges);
 	}
 
 	@Override
 	public void insertLiteralVertex(Graph targetGraph, ArrayList<String> vertices){
-		if(!vertices.isEmpty()){
-			String insertSubpart = "";
-			for(String vertex : vertices){
-				if(vertex.length() <= 32){
-					insertSubpart += "('" + vertex + "'), ";
-				}
-			}
-
-			if(!insertSubpart.isEmpty()){
-				final String tempVertexTable = "m_vertexhash";
-				executeQueryForResult("drop table if exists " + tempVertexTable + ";\n", false);
-				executeQueryForResult("create table " + tempVertexTable + " (" + getIdColumnName() + " uuid);\n", false);
-				insertSubpart = insertSubpart.substring(0, insertSubpart.length() - 2);
-				executeQueryForResult("insert into " + tempVertexTable + " values " + insertSubpart + ";\n", false);
-
-				executeQueryForResult("insert into " + getVertexTableName(targetGraph) + " select "
-						+ getIdColumnName() + " from " + getVertexAnnotationTableName() + " where " + getIdColumnName()
-						+ " in (select " + getIdColumnName() + " from " + tempVertexTable + " group by "
-						+ getIdColumnName() + ");\n", false);
+		insertLiteralIds(getVertexTableName(targetGraph), getVertexAnnotationTableName(), vertices);
+	}
 
-				executeQueryForResult("drop table " + tempVertexTable + ";\n", false);
+	/*
+	 * The hashes are bound as one array parameter so that large batches (for example, from the scaffold) are neither
+	 * concatenated into the statement nor copied into a temporary table first
+	 */
+	private void insertLiteralIds(final String targetTableName, final String annotationTableName,
+			final ArrayList<String> hashes){
+		final List<String> ids = new ArrayList<String>(hashes.size());
+		for(final String hash : hashes){
+			if(hash.length() <= 32){
+				ids.add(hash);
 			}
 		}
+		if(!ids.isEmpty()){
+			storage.executeUpdateWithArray(connection, "insert into " + targetTableName + " select "
+					+ getIdColumnName() + " from " + annotationTableName + " where " + getIdColumnName()
+					+ " in (select unnest(cast(? as uuid[])))", "text", ids, getQueryMonitor());
+		}
 	}
 
 	private void createUUIDTable(String tableName, boolean deleteFirst){
@@ -241,6 +286,15 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		executeQueryForResult(createQuery, false);
 	}
 	
+	/*
+	 * Scratch tables are temporary so that they are private to the connection of the session and are not written to the WAL
+	 */
+	private void createScratchUUIDTable(String tableName){
+		dropTable(tableName);
+		String createQuery = "create temporary table " + tableName + "(" + getIdColumnName() + " uuid" + ")";
+		executeQueryForResult(createQuery, false);
+	}
+	
 	private void createUUIDShortestPathTable(String tableName, boolean deleteFirst){
 		if(deleteFirst){
 			dropTable(tableName);
@@ -360,7 +414,7 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		final String vertexAnnotationsTableName = getVertexAnnotationTableName();
 
 		executeQueryForResult("drop table if exists m_answer_x", false);
-		executeQueryForResult("create table m_answer_x (id1 uuid, id2 uuid)", false);
+		executeQueryForResult("create temporary table m_answer_x (id1 uuid, id2 uuid)", false);
 
 		String query = "insert into m_answer_x "
 				+ "select ga1.\""+getIdColumnName()+"\", ga2.\""+getIdColumnName()+"\" from " 
@@ -392,7 +446,7 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		executeQueryForResult(query, false);
 		
 		executeQueryForResult("drop table if exists m_answer_y", false);
-		executeQueryForResult("create table m_answer_y (id uuid)", false);
+		executeQueryForResult("create temporary table m_answer_y (id uuid)", false);
 		executeQueryForResult("insert into m_answer_y select id1 from m_answer_x group by id1", false);
 		executeQueryForResult("insert into m_answer_y select id2 from m_answer_x group by id2", false);
 		
@@ -630,7 +684,7 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
 		String answerTable = "m_answer";
 
-		createUUIDTable(answerTable, true);
+		createScratchUUIDTable(answerTable);
 
 		if(component == GetEdgeEndpoint.Component.kSource
 				|| component == GetEdgeEndpoint.Component.kBoth){
@@ -703,6 +757,18 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		return new GraphStatistic.Count(numVertices, numEdges);
 	}
 
+	@Override
+	public long getGraphSizeInBytes(final Graph graph){
+		long bytes = 0;
+		for(final String table : new String[]{getVertexTableName(graph), getEdgeTableName(graph)}){
+			bytes += Long.parseLong(
+					executeQueryForResult("select coalesce(pg_total_relation_size(to_regclass('" + table + "')), 0)",
+							false).get(0).get(0)
+					);
+		}
+		return bytes;
+	}
+
 	@Override
 	public long getGraphStatisticSize(final Graph graph, final ElementType elementType, final String annotationKey){
 		final String idColumnName = getIdColumnName();
@@ -740,6 +806,63 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		return size;
 	}
 
+	@Override
+	public void sketchGraphStatistic(final Graph graph, final ElementType elementType, final String annotationKey,
+			final GraphStatisticSketch sketch){
+		final String idColumnName = getIdColumnName();
+		final String annotationTable;
+		final String targetTable;
+		final Set<String> annotationKeys;
+		switch(elementType){
+			case VERTEX:{
+				annotationKeys = getColumnNamesOfVertexAnnotationTable();
+				annotationTable = getVertexAnnotationTableName();
+				targetTable = getVertexTableName(graph);
+				break;
+			}
+			case EDGE:{
+				annotationKeys = getColumnNamesOfEdgeAnnotationTable();
+				annotationTable = getEdgeAnnotationTableName();
+				targetTable = getEdgeTableName(graph);
+				break;
+			}
+			default:{
+				throw new RuntimeException("Unknown element type");
+			}
+		}
+
+		if(!annotationKeys.contains(annotationKey)){
+			return;
+		}
+
+		final double samplingFraction = sketch.chooseSamplingFraction(getEstimatedRowCount(targetTable));
+		// Every annotation row is in the base graph
+		final String graphFilter = queryEnvironment.isBaseGraph(graph) ? ""
+				: " and " + idColumnName + " IN (SELECT " + idColumnName + " FROM " + targetTable + ")";
+
+		// Sample of the pages of the annotation table so that only the sampled pages are read. The rows of a page are
+		// sampled together which the errors of the sketch do not account for.
+		final String sampleQuery = "SELECT " + annotationKey + " FROM " + annotationTable
+				+ (samplingFraction < 1 ? " TABLESAMPLE SYSTEM (" + (samplingFraction * 100) + ")" : "")
+				+ " WHERE " + annotationKey + " is not null and " + annotationKey + " <> ''" + graphFilter;
+		for(final List<String> row : executeQueryForResult(sampleQuery, false)){
+			sketch.offer(row.get(0));
+		}
+	}
+
+	// Planner estimate if the table has been analyzed, otherwise the exact count
+	private long getEstimatedRowCount(final String tableName){
+		final String estimateQuery = "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass('" + tableName + "')";
+		final List<List<String>> estimate = executeQueryForResult(estimateQuery, false);
+		if(estimate.size() > 0 && estimate.get(0).get(0) != null){
+			final long rows = Long.parseLong(estimate.get(0).get(0));
+			if(rows > 0){
+				return rows;
+			}
+		}
+		return Long.parseLong(executeQueryForResult("SELECT count(*) FROM " + tableName, false).get(0).get(0));
+	}
+
 	@Override
 	public GraphStatistic.Distribution getGraphDistribution(final Graph graph, final ElementType elementType, final String annotationKey,
 			final Integer binCount){
@@ -1002,22 +1125,22 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			final String src = direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex();
 			final String dst = direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex();
 			
-			createUUIDTable(cursorTable, true);
-			createUUIDTable(nextTable, true);
-			createUUIDTable(answerTable, true);
-			createUUIDTable(answerEdgeTable, true);
+			createScratchUUIDTable(cursorTable);
+			createScratchUUIDTable(nextTable);
+			createScratchUUIDTable(answerTable);
+			createScratchUUIDTable(answerEdgeTable);
 
 			executeQueryForResult("insert into "+cursorTable+" select "+getIdColumnName()+" from " + startVertexTable + ";", false);
 			executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + cursorTable + ";", false);
 
 			for(int i = 0; i < 1; ++i){
-				createUUIDTable(nextTable, true);
+				createScratchUUIDTable(nextTable);
 				executeQueryForResult("insert into " + nextTable + " select \"" + dst + "\" from " + getEdgeAnnotationTableName()
 					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+cursorTable+")"
 					+ " " + filter + " group by \"" + dst + "\";", false);
 				executeQueryForResult("insert into " + answerEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
 					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+cursorTable+") " + filter + ";", false);
-				createUUIDTable(cursorTable, true);
+				createScratchUUIDTable(cursorTable);
 				executeQueryForResult("insert into " + cursorTable + " select " + getIdColumnName() + " from " + nextTable
 						+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");", false);
 				executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + cursorTable + ";", 
@@ -1054,22 +1177,27 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		Map<String, Map<String, String>> hashToVertexMap = new HashMap<String, Map<String, String>>();
 		
 		for(List<String> vertexList : verticesListOfList){
-			String hash = null;
-			Map<String, String> annotations = new HashMap<String, String>();
-			for(int i = 0; i < vertexHeader.size(); i++){
-				String annotationKey = vertexHeader.get(i);
-				String annotationValue = vertexList.get(i);
-				if(annotationKey.equals(getIdColumnName())){
-					hash = annotationValue.replaceAll("\\-", "");
-				}else{
-					if(annotationValue != null){
-						annotations.put(annotationKey, annotationValue);
-					}
+			putVertexRow(hashToVertexMap, vertexHeader, vertexList);
+		}
+		return hashToVertexMap;
+	}
+
+	private void putVertexRow(final Map<String, Map<String, String>> hashToVertexMap, final List<String> vertexHeader,
+			final List<String> vertexList){
+		String hash = null;
+		Map<String, String> annotations = new HashMap<String, String>();
+		for(int i = 0; i < vertexHeader.size(); i++){
+			String annotationKey = vertexHeader.get(i);
+			String annotationValue = vertexList.get(i);
+			if(annotationKey.equals(getIdColumnName())){
+				hash = annotationValue.replaceAll("\\-", "");
+			}else{
+				if(annotationValue != null){
+					annotations.put(annotationKey, annotationValue);
 				}
 			}
-			hashToVertexMap.put(hash, annotations);
 		}
-		return hashToVertexMap;
+		hashToVertexMap.put(hash, annotations);
 	}
 	
 	@Override
@@ -1084,31 +1212,77 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		Set<QueriedEdge> edgeSet = new HashSet<QueriedEdge>();
 		
 		for(List<String> edgeList : edgesListOfList){
-			String hash = null;
-			String childHash = null;
-			String parentHash = null;
-			Map<String, String> annotations = new HashMap<String, String>();
-			for(int i = 0; i < edgeHeader.size(); i++){
-				String annotationKey = edgeHeader.get(i);
-				String annotationValue = edgeList.get(i);
-				if(annotationKey.equals(getIdColumnName())){
-					hash = annotationValue.replaceAll("\\-", "");
-				}else if(annotationKey.equals(getIdColumnNameChildVertex())){
-					childHash = annotationValue.replaceAll("\\-", "");
-				}else if(annotationKey.equals(getIdColumnNameParentVertex())){
-					parentHash = annotationValue.replaceAll("\\-", "");
-				}else{
-					if(annotationValue != null){
-						annotations.put(annotationKey, annotationValue);
-					}
-				}
-			}
-			edgeSet.add(new QueriedEdge(hash, childHash, parentHash, annotations));
+			edgeSet.add(getEdgeRow(edgeHeader, edgeList));
 		}
 		
 		return edgeSet;
 	}
 
+	private QueriedEdge getEdgeRow(final List<String> edgeHeader, final List<String> edgeList){
+		String hash = null;
+		String childHash = null;
+		String parentHash = null;
+		Map<String, String> annotations = new HashMap<String, String>();
+		for(int i = 0; i < edgeHeader.size(); i++){
+			String annotationKey = edgeHeader.get(i);
+			String annotationValue = edgeList.get(i);
+			if(annotationKey.equals(getIdColumnName())){
+				hash = annotationValue.replaceAll("\\-", "");
+			}else if(annotationKey.equals(getIdColumnNameChildVertex())){
+				childHash = annotationValue.replaceAll("\\-", "");
+			}else if(annotationKey.equals(getIdColumnNameParentVertex())){
+				parentHash = annotationValue.replaceAll("\\-", "");
+			}else{
+				if(annotationValue != null){
+					annotations.put(annotationKey, annotationValue);
+				}
+			}
+		}
+		return new QueriedEdge(hash, childHash, parentHash, annotations);
+	}
+
+	/**
+	 * Reads the annotation rows through cursors instead of paging through the graph. The graph tables are not
+	 * temporary so they are visible to the connection of the cursor.
+	 */
+	@Override
+	public GraphStatistic.Count exportGraph(final Graph targetGraph, final int chunkSize,
+			final GraphChunkConsumer consumer) throws Exception{
+		final GraphStatistic.Count count = new GraphStatistic.Count();
+
+		final Map<String, Map<String, String>> vertexChunk = new HashMap<String, Map<String, String>>();
+		storage.executeQueryWithCursor("select * from " + getVertexAnnotationTableName() + " where " + getIdColumnName()
+				+ " in (select " + getIdColumnName() + " from " + getVertexTableName(targetGraph) + ")", chunkSize,
+				(vertexHeader, vertexList) -> {
+					getQueryMonitor().checkCancelled();
+					getQueryMonitor().addRowsTouched(1);
+					putVertexRow(vertexChunk, vertexHeader, vertexList);
+					count.addVertices(1);
+					if(vertexChunk.size() == chunkSize){
+						exportVertexChunk(vertexChunk, consumer);
+						vertexChunk.clear();
+					}
+				});
+		exportVertexChunk(vertexChunk, consumer);
+
+		final Graph scratchGraph = getQueryEnvironment().allocateGraph();
+		final Set<QueriedEdge> edgeChunk = new HashSet<QueriedEdge>();
+		storage.executeQueryWithCursor("select * from " + getEdgeAnnotationTableName() + " where " + getIdColumnName()
+				+ " in (select " + getIdColumnName() + " from " + getEdgeTableName(targetGraph) + ")", chunkSize,
+				(edgeHeader, edgeList) -> {
+					getQueryMonitor().checkCancelled();
+					getQueryMonitor().addRowsTouched(1);
+					edgeChunk.add(getEdgeRow(edgeHeader, edgeList));
+					count.addEdges(1);
+					if(edgeChunk.size() == chunkSize){
+						exportEdgeChunk(edgeChunk, scratchGraph, consumer);
+						edgeChunk.clear();
+					}
+				});
+		exportEdgeChunk(edgeChunk, scratchGraph, consumer);
+		return count;
+	}
+
 	@Override
 	public void collapseEdge(Graph targetGraph, Graph sourceGraph, ArrayList<String> fields){
 		String sourceVertexTable = getVertexTableName(sourceGraph);
@@ -1170,7 +1344,7 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 
 		final String answerTable = "m_answer";
 		
-		createUUIDTable(answerTable, true);
+		createScratchUUIDTable(answerTable);
 
 		// Get vertices.
 		executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + skeletonVertexTable 
@@ -1200,34 +1374,53 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	
 	@Override
 	public void getShortestPath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		if(traversal == Traversal.RECURSIVE){
+			getShortestPathRecursive(targetGraph, subjectGraph, srcGraph, dstGraph, maxDepth);
+			return;
+		}
+		// With a single source and a single destination the first meeting of the searches gives the exact distance.
+		// With more destinations the search can not stop early since farther destinations would be missed.
+		final boolean stopOnMeet = hasOneVertex(srcGraph) && hasOneVertex(dstGraph);
+		final int shortestDistance = createSearchSpace(subjectGraph, srcGraph, dstGraph, maxDepth, false, stopOnMeet);
+		if(shortestDistance < 0){
+			dropTable(searchSpaceTable);
+			return;
+		}
+		if(stopOnMeet){
+			maxDepth = shortestDistance;
+		}
+		final String searchSpaceCondition = getSearchSpaceEdgeCondition(getEdgeAnnotationTableName());
+
 		String filter;
 		dropTable("m_conn");
-		noResultExecuteQuery("create table m_conn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
+		noResultExecuteQuery("create temporary table m_conn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
 		if(queryEnvironment.isBaseGraph(subjectGraph)){
-			filter = "";
+			filter = " and " + searchSpaceCondition;
 			noResultExecuteQuery("insert into m_conn select \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\" "
-					+ "from " + getEdgeAnnotationTableName() + " group by \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\"");
+					+ "from " + getEdgeAnnotationTableName() + " where " + searchSpaceCondition
+					+ " group by \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\"");
 		}else{
 			String subjectEdgeTable = getEdgeTableName(subjectGraph);
-			filter = " and "+getEdgeAnnotationTableName()+".\""+getIdColumnName()+"\" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
+			filter = " and "+getEdgeAnnotationTableName()+".\""+getIdColumnName()+"\" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")"
+					+ " and " + searchSpaceCondition;
 			dropTable("m_sgedge");
-			noResultExecuteQuery("create table m_sgedge ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
+			noResultExecuteQuery("create temporary table m_sgedge ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
 			noResultExecuteQuery("insert into m_sgedge select \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\" "
 					+ "from " + getEdgeAnnotationTableName() + " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "
-					+ subjectEdgeTable + ")");
+					+ subjectEdgeTable + ") and " + searchSpaceCondition);
 			noResultExecuteQuery("insert into m_conn select "+getIdColumnNameChildVertex()+", "+getIdColumnNameParentVertex()+" from "
 					+ "m_sgedge group by " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex());
 			dropTable("m_sgedge");
 		}
 		// Create subgraph edges table.
 		dropTable("m_sgconn");
-		noResultExecuteQuery("create table m_sgconn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid,"
+		noResultExecuteQuery("create temporary table m_sgconn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid,"
 				+ "reaching uuid, depth int)");
 		
 		dropTable("m_cur"); dropTable("m_next"); dropTable("m_answer");
-		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
-		noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
-		noResultExecuteQuery("create table m_answer ("+getIdColumnName()+" uuid)");
+		noResultExecuteQuery("create temporary table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
+		noResultExecuteQuery("create temporary table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
+		noResultExecuteQuery("create temporary table m_answer ("+getIdColumnName()+" uuid)");
 
 		noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+", " + getIdColumnName() + " from " 
 				+ getVertexTableName(dstGraph));
@@ -1238,11 +1431,11 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 					"insert into m_sgconn select " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex() + ", reaching, "+String.valueOf(i + 1)+" "
 					+ "from m_cur, m_conn where " + getIdColumnName() + " = " + getIdColumnNameParentVertex());
 			dropTable("m_next");
-			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
+			noResultExecuteQuery("create temporary table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
 			noResultExecuteQuery("insert into m_next select " + getIdColumnNameChildVertex() + ", reaching from "
 				+ "m_cur, m_conn where "+getIdColumnName()+" = " + getIdColumnNameParentVertex());
 			dropTable("m_cur");
-			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
+			noResultExecuteQuery("create temporary table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
 			noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + ", reaching from m_next where "
 				+ getIdColumnName() + " not in (select "+getIdColumnName()+" from m_answer) group by " + getIdColumnName() + ", reaching");
 			noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
@@ -1255,24 +1448,24 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		}
 
 		dropTable("m_cur"); dropTable("m_next");
-		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid)");
-		noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid)");
+		noResultExecuteQuery("create temporary table m_cur ("+getIdColumnName()+" uuid)");
+		noResultExecuteQuery("create temporary table m_next ("+getIdColumnName()+" uuid)");
 
 		noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + " from " + getVertexTableName(srcGraph)
 				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from m_answer)");
 
 		dropTable("m_answer");
-		noResultExecuteQuery("create table m_answer ("+getIdColumnName()+" uuid)");
+		noResultExecuteQuery("create temporary table m_answer ("+getIdColumnName()+" uuid)");
 		noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur");
 
 		for(int i = 0; i < maxDepth; ++i){
 			dropTable("m_next");
-			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid)");
+			noResultExecuteQuery("create temporary table m_next ("+getIdColumnName()+" uuid)");
 			noResultExecuteQuery("insert into m_next select min(" + getIdColumnNameParentVertex() + "::text)::uuid" // TODO as?
 					+ " from m_cur, m_sgconn where " + getIdColumnName() + " = " + getIdColumnNameChildVertex() + " and depth + " + String.valueOf(i) 
 					+ " <= " + String.valueOf(maxDepth) + " group by " + getIdColumnNameChildVertex() + ", reaching");
 			dropTable("m_cur");
-			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid)");
+			noResultExecuteQuery("create temporary table m_cur ("+getIdColumnName()+" uuid)");
 			noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+" from m_next where "
 					+getIdColumnName()+" not in (select "+getIdColumnName()+" from m_answer)");
 			noResultExecuteQuery("insert into m_answer select "+getIdColumnName()+" from m_cur");
@@ -1292,10 +1485,15 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from m_answer)"
 			+ " and \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from m_answer) " + filter);
 		dropTable("m_cur");dropTable("m_next");dropTable("m_answer");dropTable("m_conn");dropTable("m_sgconn");
+		dropTable(searchSpaceTable);
 	}
 	
 	@Override
 	public void getLineage(Graph targetGraph, Graph subjectGraph, Graph startGraph, int depth, Direction directionArg){
+		if(traversal == Traversal.RECURSIVE){
+			getLineageRecursive(targetGraph, subjectGraph, startGraph, depth, directionArg);
+			return;
+		}
 		final List<Direction> directions = new ArrayList<Direction>();
 		if(directionArg == Direction.kBoth){
 			directions.add(Direction.kAncestor);
@@ -1324,22 +1522,22 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			final String src = direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex();
 			final String dst = direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex();
 			
-			createUUIDTable(currentTable, true);
-			createUUIDTable(nextTable, true);
-			createUUIDTable(answerTable, true);
-			createUUIDTable(answerEdgeTable, true);
+			createScratchUUIDTable(currentTable);
+			createScratchUUIDTable(nextTable);
+			createScratchUUIDTable(answerTable);
+			createScratchUUIDTable(answerEdgeTable);
 
 			executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + startVertexTable + ";", false);
 			executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";", false);
 
 			for(int i = 0; i < depth; ++i){
-				createUUIDTable(nextTable, true);
+				createScratchUUIDTable(nextTable);
 				executeQueryForResult("insert into " + nextTable + " select \"" + dst + "\" from " + getEdgeAnnotationTableName()
 					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
 					+ " " + filter + " group by \"" + dst + "\";", false);
 				executeQueryForResult("insert into " + answerEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
 					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+currentTable+") " + filter + ";", false);
-				createUUIDTable(currentTable, true);
+				createScratchUUIDTable(currentTable);
 				executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable
 						+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");", false);
 				executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";", 
@@ -1366,6 +1564,15 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 	
 	@Override
 	public void getSimplePath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		if(traversal == Traversal.RECURSIVE){
+			getSimplePathRecursive(targetGraph, subjectGraph, srcGraph, dstGraph, maxDepth);
+			return;
+		}
+
+		if(createSearchSpace(subjectGraph, srcGraph, dstGraph, maxDepth, false, false) < 0){
+			dropTable(searchSpaceTable);
+			return;
+		}
 		
 		final String depthColumnName = "depth";
 		final String currentTable = "m_cur";
@@ -1379,12 +1586,12 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		final String dstVertexTable = getVertexTableName(dstGraph);
 		final String srcVertexTable = getVertexTableName(srcGraph);
 		
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
-		createUUIDTable(answerTable, true);
+		createScratchUUIDTable(currentTable);
+		createScratchUUIDTable(nextTable);
+		createScratchUUIDTable(answerTable);
 		
 		dropTable(currentSubgraphTable);
-		executeQueryForResult("create table " + currentSubgraphTable + "("
+		executeQueryForResult("create temporary table " + currentSubgraphTable + "("
 				+ "\""+getIdColumnNameChildVertex()+"\" uuid, "
 				+ "\""+getIdColumnNameParentVertex()+"\" uuid, "
 				+ depthColumnName + " int);", false);
@@ -1392,8 +1599,9 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + dstVertexTable, false);
 		executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + currentTable, false);
 		
-		final String filter = queryEnvironment.isBaseGraph(subjectGraph) 
-				? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
+		final String filter = (queryEnvironment.isBaseGraph(subjectGraph) 
+				? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")")
+				+ " and " + getSearchSpaceEdgeCondition(getEdgeAnnotationTableName());
 		
 		final String q0 = "insert into " + currentSubgraphTable + " select \"" + getIdColumnNameChildVertex() + "\", \""
 				+ getIdColumnNameParentVertex() + "\", %s from " + getEdgeAnnotationTableName() + " where \""
@@ -1414,9 +1622,9 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			final String formattedQ0 = String.format(q0, i+1);
 			
 			executeQueryForResult(formattedQ0, false);
-			createUUIDTable(nextTable, true);
+			createScratchUUIDTable(nextTable);
 			executeQueryForResult(q2, false);
-			createUUIDTable(currentTable, true);
+			createScratchUUIDTable(currentTable);
 			executeQueryForResult(q4, false);
 			executeQueryForResult(q5, false);
 
@@ -1427,13 +1635,13 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
+		createScratchUUIDTable(currentTable);
+		createScratchUUIDTable(nextTable);
 		
 		executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + srcVertexTable
 				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+answerTable+");", false);
 
-		createUUIDTable(answerTable, true);
+		createScratchUUIDTable(answerTable);
 		
 		executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable, false);
 
@@ -1450,11 +1658,11 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		final String qq5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
 
 		for(int i = 0; i < maxDepth; ++i){
-			createUUIDTable(nextTable, true);
+			createScratchUUIDTable(nextTable);
 			final String formattedQq1 = String.format(qq1, i);
 			executeQueryForResult(formattedQq1, false);
 			executeQueryForResult(qq2, false);
-			createUUIDTable(currentTable, true);
+			createScratchUUIDTable(currentTable);
 			executeQueryForResult(qq4, false);
 			executeQueryForResult(qq5, false);
 			
@@ -1470,13 +1678,24 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		dropTable(currentTable);
 		dropTable(nextTable);
 		dropTable(answerTable);
+		dropTable(searchSpaceTable);
 	}
 	
 	@Override
 	public void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		if(traversal == Traversal.RECURSIVE){
+			getLinkRecursive(targetGraph, subjectGraph, srcGraph, dstGraph, maxDepth);
+			return;
+		}
+
 		if(maxDepth <= 0){
 			return;
 		}
+
+		if(createSearchSpace(subjectGraph, srcGraph, dstGraph, maxDepth, true, false) < 0){
+			dropTable(searchSpaceTable);
+			return;
+		}
 		
 		maxDepth = maxDepth - 1;
 		
@@ -1492,12 +1711,12 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		final String targetVertexTable = getVertexTableName(targetGraph);
 		final String targetEdgeTable = getEdgeTableName(targetGraph);
 		
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
-		createUUIDTable(answerTable, true);
+		createScratchUUIDTable(currentTable);
+		createScratchUUIDTable(nextTable);
+		createScratchUUIDTable(answerTable);
 		
 		dropTable(currentSubgraphTable);
-		executeQueryForResult("create table " + currentSubgraphTable + "("
+		executeQueryForResult("create temporary table " + currentSubgraphTable + "("
 				+ "\""+getIdColumnNameChildVertex()+"\" uuid, "
 				+ "\""+getIdColumnNameParentVertex()+"\" uuid, "
 				+ depthColumnName + " int);", false);
@@ -1506,8 +1725,9 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + currentTable, false);
 		
 		
-		final String filter = queryEnvironment.isBaseGraph(subjectGraph) 
-				? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
+		final String filter = (queryEnvironment.isBaseGraph(subjectGraph) 
+				? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")")
+				+ " and " + getSearchSpaceEdgeCondition(getEdgeAnnotationTableName());
 		final String q0 = "insert into "+currentSubgraphTable+" select \""+getIdColumnNameChildVertex()+"\", \""+getIdColumnNameParentVertex()+"\", %s from " + getEdgeAnnotationTableName()
 				+ " where \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from " + currentTable + ")"
 				+ " " + filter + ";";
@@ -1532,10 +1752,10 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			
 			executeQueryForResult(formattedQ0, false);
 			executeQueryForResult(formattedQ1, false);
-			createUUIDTable(nextTable, true);
+			createScratchUUIDTable(nextTable);
 			executeQueryForResult(q3, false);
 			executeQueryForResult(q4, false);
-			createUUIDTable(currentTable, true);
+			createScratchUUIDTable(currentTable);
 			executeQueryForResult(q6, false);
 			executeQueryForResult(q7, false);
 
@@ -1546,13 +1766,13 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			}
 		}
 		
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
+		createScratchUUIDTable(currentTable);
+		createScratchUUIDTable(nextTable);
 		
 		executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + srcVertexTable
 				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+answerTable+");", false);
 
-		createUUIDTable(answerTable, true);
+		createScratchUUIDTable(answerTable);
 		
 		executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable, false);
 
@@ -1569,12 +1789,12 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		final String qq5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
 		
 		for(int i = 0; i < maxDepth; ++i){
-			createUUIDTable(nextTable, true);
+			createScratchUUIDTable(nextTable);
 			final String formattedQq1 = String.format(qq1, i);
 			final String formattedQq2 = String.format(qq2, i);
 			executeQueryForResult(formattedQq1, false);
 			executeQueryForResult(formattedQq2, false);
-			createUUIDTable(currentTable, true);
+			createScratchUUIDTable(currentTable);
 			executeQueryForResult(qq4, false);
 			executeQueryForResult(qq5, false);
 			
@@ -1595,8 +1815,301 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		dropTable(currentTable);
 		dropTable(nextTable);
 		dropTable(answerTable);
+		dropTable(searchSpaceTable);
 	}
 	
+	////////////////////
+	// Bidirectional search
+	////////////////////
+
+	private static final String searchSpaceTable = "m_ball";
+
+	private long getTableCount(final String tableName){
+		return Long.parseLong(executeQueryForResult("select count(*) from " + tableName + ";", false).get(0).get(0));
+	}
+
+	// Shortest distance between a vertex found from the sources and a vertex found from the destinations. -1 if none
+	private int getSearchMeetingDistance(){
+		final String id = quote(getIdColumnName());
+		final String distance = executeQueryForResult("select min(f.depth + b.depth) from m_fwd f, m_bwd b where f." + id
+				+ " = b." + id + ";", false).get(0).get(0);
+		return distance == null ? -1 : Integer.parseInt(distance);
+	}
+
+	private void startSearch(final String frontierTable, final String visitedTable, final Graph startGraph){
+		final String id = quote(getIdColumnName());
+		createScratchUUIDTable(frontierTable);
+		dropTable(visitedTable);
+		executeQueryForResult("create temporary table " + visitedTable + " (" + id + " uuid, depth int);", false);
+		executeQueryForResult("insert into " + frontierTable + " select " + id + " from " + getVertexTableName(startGraph)
+				+ " group by " + id + ";", false);
+		executeQueryForResult("insert into " + visitedTable + " select " + id + ", 0 from " + frontierTable + ";", false);
+	}
+
+	// Replaces the frontier with its unvisited neighbours. Each direction is {from column, to column}.
+	private void expandSearch(final String frontierTable, final String visitedTable, final int depth,
+			final Graph subjectGraph, final String[][] directions){
+		final String id = quote(getIdColumnName());
+		final String nextTable = "m_snext";
+		createScratchUUIDTable(nextTable);
+		for(final String[] direction : directions){
+			executeQueryForResult("insert into " + nextTable + " select e." + quote(direction[1]) + " from "
+					+ getEdgeAnnotationTableName() + " e where e." + quote(direction[0]) + " in (select " + id + " from "
+					+ frontierTable + ") and " + getSubjectEdgeCondition("e", subjectGraph) + ";", false);
+		}
+		createScratchUUIDTable(frontierTable);
+		executeQueryForResult("insert into " + frontierTable + " select " + id + " from " + nextTable + " where " + id
+				+ " not in (select " + id + " from " + visitedTable + ") group by " + id + ";", false);
+		executeQueryForResult("insert into " + visitedTable + " select " + id + ", " + depth + " from " + frontierTable + ";",
+				false);
+		dropTable(nextTable);
+	}
+
+	/*
+	 * Bidirectional BFS from the sources (child to parent) and from the destinations (parent to child) which always
+	 * expands the smaller frontier. Both ways are followed from both sides if 'undirected'. Stops when the depths of
+	 * the two searches add up to 'maxDepth', when a frontier is exhausted, or (if 'stopOnMeet') as soon as the two
+	 * searches meet.
+	 *
+	 * A vertex on a path of length at most 'maxDepth' is within the searched depth of at least one of the two sides.
+	 * The searched vertices are left in the search space table so that the path instructions only have to look at the
+	 * edges between them.
+	 *
+	 * Returns the length of the shortest path found or -1 if the searches did not meet.
+	 */
+	private int createSearchSpace(final Graph subjectGraph, final Graph srcGraph, final Graph dstGraph, final int maxDepth,
+			final boolean undirected, final boolean stopOnMeet){
+		final String child = getIdColumnNameChildVertex();
+		final String parent = getIdColumnNameParentVertex();
+		final String[][] forwardDirections = undirected
+				? new String[][]{{child, parent}, {parent, child}} : new String[][]{{child, parent}};
+		final String[][] backwardDirections = undirected
+				? new String[][]{{parent, child}, {child, parent}} : new String[][]{{parent, child}};
+
+		startSearch("m_fcur", "m_fwd", srcGraph);
+		startSearch("m_bcur", "m_bwd", dstGraph);
+		int shortestDistance = getSearchMeetingDistance();
+		int forwardDepth = 0, backwardDepth = 0;
+		while(forwardDepth + backwardDepth < maxDepth && !(stopOnMeet && shortestDistance >= 0)){
+			final long forwardSize = getTableCount("m_fcur");
+			final long backwardSize = getTableCount("m_bcur");
+			if(forwardSize == 0 || backwardSize == 0){
+				break;
+			}
+			if(forwardSize <= backwardSize){
+				expandSearch("m_fcur", "m_fwd", ++forwardDepth, subjectGraph, forwardDirections);
+			}else{
+				expandSearch("m_bcur", "m_bwd", ++backwardDepth, subjectGraph, backwardDirections);
+			}
+			shortestDistance = getSearchMeetingDistance();
+		}
+
+		final String id = quote(getIdColumnName());
+		createScratchUUIDTable(searchSpaceTable);
+		executeQueryForResult("insert into " + searchSpaceTable + " select " + id + " from m_fwd union select " + id
+				+ " from m_bwd;", false);
+		dropTable("m_fcur");
+		dropTable("m_bcur");
+		dropTable("m_fwd");
+		dropTable("m_bwd");
+		return shortestDistance;
+	}
+
+	// Condition for the edges with both endpoints in the search space
+	private String getSearchSpaceEdgeCondition(final String edgeTableName){
+		final String id = quote(getIdColumnName());
+		return edgeTableName + "." + quote(getIdColumnNameChildVertex()) + " in (select " + id + " from " + searchSpaceTable + ")"
+				+ " and " + edgeTableName + "." + quote(getIdColumnNameParentVertex()) + " in (select " + id + " from "
+				+ searchSpaceTable + ")";
+	}
+
+	private boolean hasOneVertex(final Graph graph){
+		return Long.parseLong(executeQueryForResult("select count(distinct " + getIdColumnName() + ") from "
+				+ getVertexTableName(graph) + ";", false).get(0).get(0)) == 1;
+	}
+
+	////////////////////
+	// Recursive traversals
+	////////////////////
+
+	// Each traversal below is one statement. The recursive CTEs are breadth-first: each row is one depth level so that
+	// a vertex is expanded only once (at the smallest depth) and only the edges of the vertices being expanded are read.
+
+	private String quote(final String columnName){
+		return "\"" + columnName + "\"";
+	}
+
+	private String getSubjectEdgeCondition(final String edgeAlias, final Graph subjectGraph){
+		if(queryEnvironment.isBaseGraph(subjectGraph)){
+			return "true";
+		}
+		return edgeAlias + "." + quote(getIdColumnName()) + " in (select " + quote(getIdColumnName()) + " from "
+				+ getEdgeTableName(subjectGraph) + ")";
+	}
+
+	/*
+	 * Levels of a breadth-first search from the vertices returned by 'startQuery'. A row of 'levelsName' has the vertices
+	 * first reached at a depth ('frontier') and all the vertices reached up to that depth ('visited'). A step follows an
+	 * edge from its 'from' column to its 'to' column for each pair in 'steps' (both directions for undirected searches).
+	 * 'stepCondition' (if not null) is given the edge's 'from' and 'to' columns and the depth of the 'from' vertex.
+	 * 'reachedName' has the smallest depth of each vertex reached in at most 'maxDepth' steps.
+	 */
+	private String getLevelCTEs(final String levelsName, final String reachedName, final String startQuery,
+			final Graph subjectGraph, final List<String[]> steps, final StepCondition stepCondition, final int maxDepth){
+		final String id = quote(getIdColumnName());
+		final StringBuilder next = new StringBuilder();
+		for(final String[] step : steps){
+			final String from = "e." + step[0];
+			final String to = "e." + step[1];
+			if(next.length() > 0){
+				next.append(" union ");
+			}
+			next.append("select ").append(to).append(" as vertex from ").append(getEdgeAnnotationTableName()).append(" e")
+				.append(", unnest(l.frontier) f(vertex) where ").append(from).append(" = f.vertex")
+				.append(" and ").append(getSubjectEdgeCondition("e", subjectGraph));
+			if(stepCondition != null){
+				next.append(" and ").append(stepCondition.get(from, to, "l.depth"));
+			}
+		}
+		return levelsName + "(depth, frontier, visited) as ("
+				+ "select 0, s.vertices, s.vertices from (select array(" + startQuery + ") as vertices) s"
+				+ " union all "
+				+ "select l.depth + 1, n.frontier, l.visited || n.frontier from " + levelsName + " l, lateral ("
+				+ "select array(select x.vertex from (" + next + ") x left join unnest(l.visited) v(vertex)"
+				+ " on v.vertex = x.vertex where v.vertex is null) as frontier) n"
+				+ " where l.depth < " + maxDepth + " and cardinality(l.frontier) > 0), "
+				+ reachedName + " as (select unnest(frontier) as " + id + ", depth from " + levelsName + ")";
+	}
+
+	private static interface StepCondition{
+		public String get(final String fromColumn, final String toColumn, final String fromDepth);
+	}
+
+	// Vertices (with the smallest depth) reachable from 'fromVertexTable' in at most 'maxDepth' steps against the edges
+	private String getDistanceCTEs(final String recursiveName, final String distanceName, final String fromVertexTable,
+			final Graph subjectGraph, final String fromColumn, final String toColumn, final int maxDepth){
+		final String id = quote(getIdColumnName());
+		return getLevelCTEs(recursiveName, distanceName, "select distinct " + id + " from " + fromVertexTable, subjectGraph,
+				Arrays.<String[]>asList(new String[]{fromColumn, toColumn}), null, maxDepth);
+	}
+
+	private void getLineageRecursive(final Graph targetGraph, final Graph subjectGraph, final Graph startGraph,
+			final int depth, final Direction directionArg){
+		final List<Direction> directions = new ArrayList<Direction>();
+		if(directionArg == Direction.kBoth){
+			directions.add(Direction.kAncestor);
+			directions.add(Direction.kDescendant);
+		}else{
+			directions.add(directionArg);
+		}
+
+		final String id = quote(getIdColumnName());
+		for(final Direction direction : directions){
+			if(direction != Direction.kAncestor && direction != Direction.kDescendant){
+				throw new RuntimeException("Unexpected direction: " + direction);
+			}
+			final String src = quote(direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex());
+			final String dst = quote(direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex());
+
+			// Edges are the ones going out of the vertices found before the last level
+			executeQueryForResult("with recursive "
+					+ getDistanceCTEs("m_lineage", "m_reached", getVertexTableName(startGraph), subjectGraph, src, dst, depth) + ", "
+					+ "m_vertices as (insert into " + getVertexTableName(targetGraph) + " select " + id + " from m_reached) "
+					+ "insert into " + getEdgeTableName(targetGraph) + " select e." + id + " from " + getEdgeAnnotationTableName() + " e"
+					+ " where e." + src + " in (select " + id + " from m_reached where depth < " + depth + ")"
+					+ " and " + getSubjectEdgeCondition("e", subjectGraph)
+					+ " group by e." + id + ";", false);
+		}
+	}
+
+	private void getSimplePathRecursive(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph,
+			final Graph dstGraph, final int maxDepth){
+		final String id = quote(getIdColumnName());
+		final String child = quote(getIdColumnNameChildVertex());
+		final String parent = quote(getIdColumnNameParentVertex());
+		final String subjectCondition = getSubjectEdgeCondition("e", subjectGraph);
+
+		// A vertex is on a path if (distance from the sources) + (distance to the destinations) <= max depth. The
+		// distance from the sources only grows along a path so expanding a vertex at its smallest depth is enough.
+		executeQueryForResult("with recursive "
+				+ getDistanceCTEs("m_backward", "m_to_dst", getVertexTableName(dstGraph), subjectGraph, parent, child, maxDepth) + ", "
+				+ getLevelCTEs("m_forward", "m_from_src",
+						"select distinct s." + id + " from " + getVertexTableName(srcGraph) + " s, m_to_dst t where s." + id + " = t." + id,
+						subjectGraph, Arrays.<String[]>asList(new String[]{child, parent}),
+						(from, to, fromDepth) -> "exists (select 1 from m_to_dst t where t." + id + " = " + to
+								+ " and " + fromDepth + " + 1 + t.depth <= " + maxDepth + ")",
+						maxDepth) + ", "
+				+ "m_on_path as (select f." + id + ", f.depth as from_src, t.depth as to_dst"
+				+ " from m_from_src f, m_to_dst t where f." + id + " = t." + id + "), "
+				+ "m_vertices as (insert into " + getVertexTableName(targetGraph) + " select " + id + " from m_on_path) "
+				+ "insert into " + getEdgeTableName(targetGraph) + " select e." + id
+				+ " from " + getEdgeAnnotationTableName() + " e, m_on_path c, m_on_path p"
+				+ " where e." + child + " = c." + id + " and e." + parent + " = p." + id
+				+ " and c.from_src + 1 + p.to_dst <= " + maxDepth + " and " + subjectCondition
+				+ " group by e." + id + ";", false);
+	}
+
+	private void getLinkRecursive(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph,
+			final Graph dstGraph, int maxDepth){
+		if(maxDepth <= 0){
+			return;
+		}
+
+		maxDepth = maxDepth - 1;
+		final int linkMaxDepth = maxDepth;
+
+		final String id = quote(getIdColumnName());
+		final String child = quote(getIdColumnNameChildVertex());
+		final String parent = quote(getIdColumnNameParentVertex());
+		final String subjectCondition = getSubjectEdgeCondition("e", subjectGraph);
+
+		// Edges are followed in both directions, and only from the vertices being expanded
+		final List<String[]> undirected = Arrays.<String[]>asList(new String[]{child, parent}, new String[]{parent, child});
+
+		// Same as the iterative version: the edges are undirected and a step from the vertex 'a' to 'b' is allowed if
+		// (depth of a) + 1 + min(distance of a, distance of b to the destinations) <= max depth
+		executeQueryForResult("with recursive "
+				+ getLevelCTEs("m_backward", "m_to_dst", "select distinct " + id + " from " + getVertexTableName(dstGraph),
+						subjectGraph, undirected, null, maxDepth) + ", "
+				+ getLevelCTEs("m_forward", "m_answer",
+						"select distinct s." + id + " from " + getVertexTableName(srcGraph) + " s, m_to_dst t where s." + id + " = t." + id,
+						subjectGraph, undirected,
+						(from, to, fromDepth) -> "exists (select 1 from m_to_dst ta, m_to_dst tb where ta." + id + " = " + from
+								+ " and tb." + id + " = " + to + " and " + fromDepth + " + 1 + least(ta.depth, tb.depth) <= "
+								+ linkMaxDepth + ")",
+						maxDepth) + ", "
+				+ "m_vertices as (insert into " + getVertexTableName(targetGraph) + " select " + id + " from m_answer) "
+				+ "insert into " + getEdgeTableName(targetGraph) + " select e." + id + " from " + getEdgeAnnotationTableName() + " e"
+				+ " where e." + child + " in (select " + id + " from m_answer)"
+				+ " and e." + parent + " in (select " + id + " from m_answer)"
+				+ " and " + subjectCondition + ";", false);
+	}
+
+	private void getShortestPathRecursive(final Graph targetGraph, final Graph subjectGraph, final Graph srcGraph,
+			final Graph dstGraph, final int maxDepth){
+		final String id = quote(getIdColumnName());
+		final String child = quote(getIdColumnNameChildVertex());
+		final String parent = quote(getIdColumnNameParentVertex());
+		final String subjectCondition = getSubjectEdgeCondition("e", subjectGraph);
+
+		// From every vertex step to the parent (smallest hash on ties) which is one step closer to the destinations
+		executeQueryForResult("with recursive "
+				+ getDistanceCTEs("m_backward", "m_to_dst", getVertexTableName(dstGraph), subjectGraph, parent, child, maxDepth) + ", "
+				+ "m_next_hop as (select e." + child + " as from_id, min(e." + parent + "::text)::uuid as to_id"
+				+ " from " + getEdgeAnnotationTableName() + " e, m_to_dst c, m_to_dst p"
+				+ " where e." + child + " = c." + id + " and e." + parent + " = p." + id + " and p.depth = c.depth - 1"
+				+ " and " + subjectCondition + " group by e." + child + "), "
+				+ "m_path(" + id + ") as ("
+				+ "select s." + id + " from " + getVertexTableName(srcGraph) + " s, m_to_dst t where s." + id + " = t." + id
+				+ " union "
+				+ "select n.to_id from m_path w, m_next_hop n where n.from_id = w." + id + "), "
+				+ "m_vertices as (insert into " + getVertexTableName(targetGraph) + " select " + id + " from m_path) "
+				+ "insert into " + getEdgeTableName(targetGraph) + " select e." + id + " from " + getEdgeAnnotationTableName() + " e"
+				+ " where e." + child + " in (select " + id + " from m_path)"
+				+ " and e." + parent + " in (select " + id + " from m_path)"
+				+ " and " + subjectCondition + ";", false);
+	}
+
 	@Override
 	public void createEmptyGraphMetadata(GraphMetadata metadata){
 		String vertexTable = getMetadataVertexTableName(metadata);
@@ -41,6 +41,10 @@ public class QuickstepConfiguration {
   private static final int DEFAULT_FORCE_SUBMIT_TIME_INTERVAL = 180;
   private static final int MINIMUM_FORCE_SUBMIT_TIME_INTERVAL = 30;
 
+  // Number of connections loading batches in parallel.
+  private static final int DEFAULT_NUM_LOADERS = 4;
+  private static final int MINIMUM_NUM_LOADERS = 1;
+
   // Default Quickstep server address.
   private static final String DEFAULT_QUICKSTEP_SERVER_IP = "0.0.0.0";
   private static final int DEFAULT_QUICKSTEP_SERVER_PORT = 3000;
@@ -66,6 +70,7 @@ public class QuickstepConfiguration {
   private String debugLogFilePath;
   private int edgeBatchSize;
   private int forceSubmitTimeInterval;
+  private int numLoaders;
 
   private int maxVertexKeyLength;
   private int maxVertexValueLength;
@@ -102,6 +107,11 @@ public class QuickstepConfiguration {
                                                    DEFAULT_FORCE_SUBMIT_TIME_INTERVAL,
                                                    MINIMUM_FORCE_SUBMIT_TIME_INTERVAL);
 
+    // Parallel loaders.
+    numLoaders = getPropertyOrDefault("loaders",
+                                      DEFAULT_NUM_LOADERS,
+                                      MINIMUM_NUM_LOADERS);
+
     // Graph annotation fields max length.
     maxVertexKeyLength = getPropertyOrDefault("maxVertexKeyLength",
                                               DEFAULT_VERTEX_ANNOTATION_MAX_KEY_LENGTH,
@@ -155,6 +165,13 @@ public class QuickstepConfiguration {
     return forceSubmitTimeInterval;
   }
 
+  /**
+   * @return Number of connections loading batches into Quickstep in parallel.
+   */
+  public int getNumLoaders() {
+    return numLoaders;
+  }
+
   /**
    * @return Maximum vertex annotation key length to be stored.
    */
@@ -268,6 +285,7 @@ public class QuickstepConfiguration {
                   "serverPort = " + serverPort + "\n" +
                   "batchSize = " + edgeBatchSize + "\n" +
                   "batchTimeIntervalInSeconds = " + forceSubmitTimeInterval + "\n" +
+                  "loaders = " + numLoaders + "\n" +
                   "maxVertexKeyLength = " + maxVertexKeyLength + "\n" +
                   "maxVertexValueLength = " + maxVertexValueLength + "\n" +
                   "maxEdgeKeyLength = " + maxEdgeKeyLength + "\n" +
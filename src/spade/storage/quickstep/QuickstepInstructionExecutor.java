@@ -104,54 +104,56 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		return qs;
 	}
 
+	/**
+	 * Batches are loaded over other connections so the ones submitted are waited for
+	 */
+	@Override
+	public void beforeQuery(){
+		qs.awaitLoadedBatches();
+	}
+
 	@Override
 	public void insertLiteralEdge(Graph targetGraph, ArrayList<String> edges){
-		if(!edges.isEmpty()){
-			String insertSubpart = "";
-			for(String edge : edges){
-				if(edge.length() <= 32){
-					insertSubpart += "('" + edge + "'), ";
-				}
-			}
-			
-			if(!insertSubpart.isEmpty()){
-				final String tempEdgeTable = "m_edgehash";
-				qs.executeQuery("drop table " + tempEdgeTable + ";\n");
-				qs.executeQuery("create table " + tempEdgeTable + " (md5 char(32));\n");
-				insertSubpart = insertSubpart.substring(0, insertSubpart.length() - 2);
-				qs.executeQuery("insert into " + tempEdgeTable + " values " + insertSubpart + ";\n");
-				
-				qs.executeQuery("insert into " + getEdgeTableName(targetGraph)
-						+ " select id from " + edgeTableName + " where md5 in (select md5 from "+tempEdgeTable+" group by md5);\n");
-				
-				qs.executeQuery("drop table " + tempEdgeTable + ";\n");
-			}
-		}
+		insertLiteralMd5s(getEdgeTableName(targetGraph), edgeTableName, "m_edgehash", edges);
 	}
 
 	@Override
 	public void insertLiteralVertex(Graph targetGraph, ArrayList<String> vertices){
-		if(!vertices.isEmpty()){
-			String insertSubpart = "";
-			for(String vertex : vertices){
-				if(vertex.length() <= 32){
-					insertSubpart += "('" + vertex + "'), ";
-				}
+		insertLiteralMd5s(getVertexTableName(targetGraph), vertexTableName, "m_vertexhash", vertices);
+	}
+
+	/*
+	 * The hashes are copied into the temporary table as data so that large batches (for example, from the scaffold)
+	 * are not concatenated into the statement. Only hex strings can match an md5.
+	 */
+	private void insertLiteralMd5s(final String targetTableName, final String sourceTableName,
+			final String tempTableName, final ArrayList<String> hashes){
+		final StringBuilder data = new StringBuilder(hashes.size() * 33);
+		for(final String hash : hashes){
+			if(hash.length() <= 32 && isHex(hash)){
+				data.append(hash).append('\n');
 			}
-			
-			if(!insertSubpart.isEmpty()){
-				final String tempVertexTable = "m_vertexhash";
-				qs.executeQuery("drop table " + tempVertexTable + ";\n");
-				qs.executeQuery("create table " + tempVertexTable + " (md5 char(32));\n");
-				insertSubpart = insertSubpart.substring(0, insertSubpart.length() - 2);
-				qs.executeQuery("insert into " + tempVertexTable + " values " + insertSubpart + ";\n");
-				
-				qs.executeQuery("insert into " + getVertexTableName(targetGraph)
-						+ " select id from " + vertexTableName + " where md5 in (select md5 from "+tempVertexTable+" group by md5);\n");
-				
-				qs.executeQuery("drop table " + tempVertexTable + ";\n");
+		}
+		if(data.length() > 0){
+			qs.executeQuery("drop table " + tempTableName + ";\n");
+			qs.executeQuery("create table " + tempTableName + " (md5 char(32));\n");
+			qs.getExecutor().executeQuery("copy " + tempTableName + " from stdin;", data.toString());
+
+			qs.executeQuery("insert into " + targetTableName
+					+ " select id from " + sourceTableName + " where md5 in (select md5 from " + tempTableName
+					+ " group by md5);\n");
+
+			qs.executeQuery("drop table " + tempTableName + ";\n");
+		}
+	}
+
+	private static boolean isHex(final String str){
+		for(int i = 0; i < str.length(); i++){
+			if(Character.digit(str.charAt(i), 16) < 0){
+				return false;
 			}
 		}
+		return !str.isEmpty();
 	}
 
 	private String formatString(String str){
@@ -959,7 +961,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 				+ "DROP TABLE m_answer_edge;");
 	}
 
-	private Map<String, String> _getIdToHashOfVertices(String targetVertexTable){
+	private Map<String, String> _getIdToHashOfVertices(String targetVertexTable, String idRange){
 		long numVertices = qs
 				.executeQueryForLongResult("COPY SELECT COUNT(*) FROM " + targetVertexTable + " TO stdout;");
 		if(numVertices == 0){
@@ -971,7 +973,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		Map<String, String> idToHash = new HashMap<String, String>();
 		
 		String vertexHashStr = qs.executeQuery("COPY SELECT * FROM vertex WHERE id IN (SELECT id FROM "
-				+ targetVertexTable + ") TO stdout WITH (DELIMITER e'\\n');");
+				+ targetVertexTable + ")" + idRange + " TO stdout WITH (DELIMITER e'\\n');");
 		String[] vertexHashLines = vertexHashStr.split("\n");
 		vertexHashStr = null;
 
@@ -988,14 +990,14 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		return idToHash;
 	}
 	
-	private Map<String, Map<String, String>> _exportVertices(String targetVertexTable){
-		Map<String, String> idToHash = _getIdToHashOfVertices(targetVertexTable);
+	private Map<String, Map<String, String>> _exportVertices(String targetVertexTable, String idRange){
+		Map<String, String> idToHash = _getIdToHashOfVertices(targetVertexTable, idRange);
 		if(idToHash.size() == 0){
 			return new HashMap<String, Map<String, String>>();
 		}
 		
 		final String vertexAnnoQuery = "COPY SELECT * FROM vertex_anno WHERE id IN (SELECT id FROM " + targetVertexTable
-				+ ") TO stdout WITH (DELIMITER e'\\n');";
+				+ ")" + idRange + " TO stdout WITH (DELIMITER e'\\n');";
 		final Map<String, Map<String, String>> idToAnnos = parseTableAsIdToAnnotations(vertexAnnoQuery, "vertex");
 		
 		////////////
@@ -1049,20 +1051,20 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		return idToAnnos;
 	}
 
-	private Map<String, String> _getIdToHashOfSrcDstVertices(String targetEdgeTable){
+	private Map<String, String> _getIdToHashOfSrcDstVertices(String targetEdgeTable, String idRange){
 		qs.executeQuery("drop table m_export_edge;\n" + "create table m_export_edge (id INT);\n");
 		
-		qs.executeQuery("insert into m_export_edge select src from edge e where e.id in (select id from "+targetEdgeTable+");\n");
-		qs.executeQuery("insert into m_export_edge select dst from edge e where e.id in (select id from "+targetEdgeTable+");\n");
+		qs.executeQuery("insert into m_export_edge select src from edge e where e.id in (select id from "+targetEdgeTable+")"+idRange+";\n");
+		qs.executeQuery("insert into m_export_edge select dst from edge e where e.id in (select id from "+targetEdgeTable+")"+idRange+";\n");
 		
-		Map<String, String> idToHash = _getIdToHashOfVertices("m_export_edge");
+		Map<String, String> idToHash = _getIdToHashOfVertices("m_export_edge", "");
 
 		qs.executeQuery("drop table m_export_edge;\n");
 		
 		return idToHash;
 	}
 
-	private Set<QueriedEdge> _exportEdges(String targetVertexTable, String targetEdgeTable){
+	private Set<QueriedEdge> _exportEdges(String targetVertexTable, String targetEdgeTable, String idRange){
 		Set<QueriedEdge> edges = new HashSet<QueriedEdge>();
 
 		long numEdges = qs.executeQueryForLongResult("COPY SELECT COUNT(*) FROM " + targetEdgeTable + " TO stdout;");
@@ -1076,7 +1078,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		Map<String, SimpleEntry<String, String>> edgeIdToSrcDstIds = new HashMap<String, SimpleEntry<String, String>>();
 
 		String edgeIdSrcDstIdStr = qs.executeQuery("COPY SELECT * FROM "+edgeTableName+" WHERE id IN (SELECT id FROM "
-				+ targetEdgeTable + ") TO stdout WITH (DELIMITER e'\\n');");
+				+ targetEdgeTable + ")" + idRange + " TO stdout WITH (DELIMITER e'\\n');");
 		String[] edgeIdSrcDstId = edgeIdSrcDstIdStr.split("\n");
 		edgeIdSrcDstIdStr = null;
 
@@ -1095,12 +1097,12 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		
 		//////
 		
-		Map<String, String> vertexIdToHash = _getIdToHashOfSrcDstVertices(targetEdgeTable);
+		Map<String, String> vertexIdToHash = _getIdToHashOfSrcDstVertices(targetEdgeTable, idRange);
 		
 		//////
 
 		final String edgeAnnoQuery = "COPY SELECT * FROM edge_anno WHERE id IN (SELECT id FROM " + targetEdgeTable
-				+ ") TO stdout WITH (DELIMITER e'\\n');";
+				+ ")" + idRange + " TO stdout WITH (DELIMITER e'\\n');";
 		final Map<String, Map<String, String>> edgeIdToAnnos = parseTableAsIdToAnnotations(edgeAnnoQuery, "edge");
 
 		Set<String> edgeIds = new HashSet<String>();
@@ -1124,7 +1126,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 	public Map<String, Map<String, String>> exportVertices(final Graph targetGraph){
 		String targetVertexTable = queryEnvironment.getGraphVertexTableName(targetGraph);
 
-		Map<String, Map<String, String>> result = _exportVertices(targetVertexTable);
+		Map<String, Map<String, String>> result = _exportVertices(targetVertexTable, "");
 
 		return result;
 	}
@@ -1134,17 +1136,158 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		String targetVertexTable = queryEnvironment.getGraphVertexTableName(targetGraph);
 		String targetEdgeTable = queryEnvironment.getGraphEdgeTableName(targetGraph);
 		
-		Set<QueriedEdge> edges = _exportEdges(targetVertexTable, targetEdgeTable);
+		Set<QueriedEdge> edges = _exportEdges(targetVertexTable, targetEdgeTable, "");
 
 		return edges;
 	}
 
+	/**
+	 * Pages through the graph in the order of the id. Each page starts after the last id of the previous page and the
+	 * export queries of the page are restricted to its id range, so that only the blocks (sorted by id) of the page
+	 * are read instead of ranking the whole graph as getSubsetVertex and getSubsetEdge do.
+	 */
 	@Override
-	public void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
-		qs.executeQuery("DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n"
-				+ "CREATE TABLE m_cur (id INT);\n" + "CREATE TABLE m_next (id INT);\n"
-				+ "CREATE TABLE m_answer (id INT);");
+	public GraphStatistic.Count exportGraph(final Graph targetGraph, final int chunkSize,
+			final GraphChunkConsumer consumer) throws Exception{
+		final GraphStatistic.Count count = new GraphStatistic.Count();
+
+		final String targetVertexTable = getVertexTableName(targetGraph);
+		qs.executeQuery("\\analyzerange " + targetVertexTable + "\n");
+		long lastVertexId = -1;
+		while(true){
+			final long chunkRows = createExportChunk(targetVertexTable, "INT", lastVertexId, chunkSize);
+			if(chunkRows == 0){
+				break;
+			}
+			final long maxVertexId = qs.executeQueryForLongResult("COPY SELECT MAX(id) FROM m_export_chunk TO stdout;");
+			final Map<String, Map<String, String>> vertexChunk = _exportVertices("m_export_chunk",
+					" AND id > " + lastVertexId + " AND id <= " + maxVertexId);
+			count.addVertices(vertexChunk.size());
+			exportVertexChunk(vertexChunk, consumer);
+			lastVertexId = maxVertexId;
+			if(chunkRows < chunkSize){
+				break;
+			}
+		}
+
+		final String targetEdgeTable = getEdgeTableName(targetGraph);
+		qs.executeQuery("\\analyzerange " + targetEdgeTable + "\n");
+		final Graph scratchGraph = getQueryEnvironment().allocateGraph();
+		long lastEdgeId = -1;
+		while(true){
+			final long chunkRows = createExportChunk(targetEdgeTable, "LONG", lastEdgeId, chunkSize);
+			if(chunkRows == 0){
+				break;
+			}
+			final long maxEdgeId = qs.executeQueryForLongResult("COPY SELECT MAX(id) FROM m_export_chunk TO stdout;");
+			final Set<QueriedEdge> edgeChunk = _exportEdges(targetVertexTable, "m_export_chunk",
+					" AND id > " + lastEdgeId + " AND id <= " + maxEdgeId);
+			count.addEdges(edgeChunk.size());
+			exportEdgeChunk(edgeChunk, scratchGraph, consumer);
+			lastEdgeId = maxEdgeId;
+			if(chunkRows < chunkSize){
+				break;
+			}
+		}
+
+		qs.executeQuery("DROP TABLE m_export_chunk;\n");
+		return count;
+	}
+
+	// Fills the table m_export_chunk with the (at most 'chunkSize') smallest ids of the table after 'afterId'
+	private long createExportChunk(final String sourceTable, final String idType, final long afterId,
+			final int chunkSize){
+		qs.executeQuery("DROP TABLE m_export_chunk;\n" + "CREATE TABLE m_export_chunk (id " + idType + ");\n");
+		qs.executeQuery("INSERT INTO m_export_chunk SELECT id FROM " + sourceTable + " WHERE id > " + afterId
+				+ " ORDER BY id ASC LIMIT " + chunkSize + ";\n");
+		return qs.executeQueryForLongResult("COPY SELECT COUNT(*) FROM m_export_chunk TO stdout;");
+	}
+
+	private boolean hasOneVertex(Graph graph){
+		return qs.executeQueryForLongResult(
+				"COPY SELECT COUNT(DISTINCT id) FROM " + getVertexTableName(graph) + " TO stdout;") == 1;
+	}
+
+	/*
+	 * Bidirectional BFS from the sources (src to dst) and from the destinations (dst to src) which always expands the
+	 * smaller frontier. Both ways are followed from both sides if 'undirected'. Stops when the depths of the two
+	 * searches add up to 'maxDepth', when a frontier is exhausted, or (if 'stopOnMeet') as soon as the two searches
+	 * meet.
+	 *
+	 * A vertex on a path of length at most 'maxDepth' is within the searched depth of at least one of the two sides.
+	 * The searched vertices are left in the table m_ball so that the path instructions only have to look at the edges
+	 * between them.
+	 *
+	 * Returns the length of the shortest path found or -1 if the searches did not meet.
+	 */
+	private long createSearchSpace(Graph srcGraph, Graph dstGraph, int maxDepth, boolean undirected, boolean stopOnMeet,
+			String filter){
+		qs.executeQuery("DROP TABLE m_fcur;\n" + "DROP TABLE m_bcur;\n" + "DROP TABLE m_fwd;\n" + "DROP TABLE m_bwd;\n"
+				+ "CREATE TABLE m_fcur (id INT);\n" + "CREATE TABLE m_bcur (id INT);\n"
+				+ "CREATE TABLE m_fwd (id INT, depth INT);\n" + "CREATE TABLE m_bwd (id INT, depth INT);");
+		qs.executeQuery("INSERT INTO m_fcur SELECT id FROM " + getVertexTableName(srcGraph) + " GROUP BY id;\n"
+				+ "INSERT INTO m_fwd SELECT id, 0 FROM m_fcur;\n"
+				+ "INSERT INTO m_bcur SELECT id FROM " + getVertexTableName(dstGraph) + " GROUP BY id;\n"
+				+ "INSERT INTO m_bwd SELECT id, 0 FROM m_bcur;\n" + "\\analyzerange edge\n");
+
+		final String forwardStmts = getSearchExpansion("m_fcur", "m_fwd", undirected
+				? new String[][]{{"src", "dst"}, {"dst", "src"}} : new String[][]{{"src", "dst"}}, filter);
+		final String backwardStmts = getSearchExpansion("m_bcur", "m_bwd", undirected
+				? new String[][]{{"dst", "src"}, {"src", "dst"}} : new String[][]{{"dst", "src"}}, filter);
+
+		long shortestDistance = getSearchMeetingDistance();
+		int forwardDepth = 0, backwardDepth = 0;
+		while(forwardDepth + backwardDepth < maxDepth && !(stopOnMeet && shortestDistance >= 0)){
+			final long forwardSize = qs.executeQueryForLongResult("COPY SELECT COUNT(*) FROM m_fcur TO stdout;");
+			final long backwardSize = qs.executeQueryForLongResult("COPY SELECT COUNT(*) FROM m_bcur TO stdout;");
+			if(forwardSize == 0 || backwardSize == 0){
+				break;
+			}
+			if(forwardSize <= backwardSize){
+				qs.executeQuery(forwardStmts.replace("$depth", String.valueOf(++forwardDepth)));
+			}else{
+				qs.executeQuery(backwardStmts.replace("$depth", String.valueOf(++backwardDepth)));
+			}
+			shortestDistance = getSearchMeetingDistance();
+		}
+
+		qs.executeQuery("DROP TABLE m_ball;\n" + "CREATE TABLE m_ball (id INT);\n"
+				+ "INSERT INTO m_ball SELECT id FROM m_fwd;\n" + "INSERT INTO m_ball SELECT id FROM m_bwd;\n"
+				+ "\\analyzerange m_ball\n"
+				+ "DROP TABLE m_fcur;\n" + "DROP TABLE m_bcur;\n" + "DROP TABLE m_fwd;\n" + "DROP TABLE m_bwd;");
+		return shortestDistance;
+	}
+
+	// Statements which replace the frontier with its unvisited neighbours. Each direction is {from column, to column}.
+	private String getSearchExpansion(String frontierTable, String visitedTable, String[][] directions, String filter){
+		String stmts = "DROP TABLE m_snext;\n" + "CREATE TABLE m_snext (id INT);\n" + "\\analyzerange " + frontierTable + "\n";
+		for(String[] direction : directions){
+			stmts += "INSERT INTO m_snext SELECT " + direction[1] + " FROM edge WHERE " + direction[0]
+					+ " IN (SELECT id FROM " + frontierTable + ")" + filter + ";\n";
+		}
+		stmts += "DROP TABLE " + frontierTable + ";\n" + "CREATE TABLE " + frontierTable + " (id INT);\n"
+				+ "\\analyzerange " + visitedTable + "\n"
+				+ "INSERT INTO " + frontierTable + " SELECT id FROM m_snext WHERE id NOT IN (SELECT id FROM " + visitedTable
+				+ ") GROUP BY id;\n"
+				+ "INSERT INTO " + visitedTable + " SELECT id, $depth FROM " + frontierTable + ";\n" + "DROP TABLE m_snext;";
+		return stmts;
+	}
+
+	// Shortest distance between a vertex found from the sources and a vertex found from the destinations. -1 if none
+	private long getSearchMeetingDistance(){
+		if(qs.executeQueryForLongResult("COPY SELECT COUNT(*) FROM m_fwd f, m_bwd b WHERE f.id = b.id TO stdout;") == 0){
+			return -1;
+		}
+		return qs.executeQueryForLongResult("COPY SELECT MIN(f.depth + b.depth) FROM m_fwd f, m_bwd b WHERE f.id = b.id TO stdout;");
+	}
+
+	// Filter for the edges with both endpoints in m_ball
+	private String getSearchSpaceFilter(){
+		return " AND edge.src IN (SELECT id FROM m_ball) AND edge.dst IN (SELECT id FROM m_ball)";
+	}
 
+	@Override
+	public void getLink(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
 		String filter;
 		if(isBaseGraph(subjectGraph)){
 			filter = "";
@@ -1152,6 +1295,16 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 			filter = " AND edge.id IN (SELECT id FROM " + getEdgeTableName(subjectGraph) + ")";
 		}
 
+		if(createSearchSpace(srcGraph, dstGraph, maxDepth, true, false, filter) < 0){
+			qs.executeQuery("DROP TABLE m_ball;");
+			return;
+		}
+		filter += getSearchSpaceFilter();
+
+		qs.executeQuery("DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n"
+				+ "CREATE TABLE m_cur (id INT);\n" + "CREATE TABLE m_next (id INT);\n"
+				+ "CREATE TABLE m_answer (id INT);");
+
 		// Create subgraph edges table.
 		qs.executeQuery("DROP TABLE m_sgconn;\n" + "CREATE TABLE m_sgconn (src INT, dst INT, depth INT);");
 
@@ -1211,23 +1364,39 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 				+ " AND dst IN (SELECT id FROM m_answer)" + filter + ";");
 
 		qs.executeQuery(
-				"DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n" + "DROP TABLE m_sgconn;");
+				"DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n" + "DROP TABLE m_sgconn;\n"
+				+ "DROP TABLE m_ball;");
 	}
 
 	@Override
 	public void getShortestPath(Graph targetGraph, Graph subjectGraph, Graph srcGraph, Graph dstGraph, int maxDepth){
+		// With a single source and a single destination the first meeting of the searches gives the exact distance.
+		// With more destinations the search can not stop early since farther destinations would be missed.
+		final boolean stopOnMeet = hasOneVertex(srcGraph) && hasOneVertex(dstGraph);
+		final long shortestDistance = createSearchSpace(srcGraph, dstGraph, maxDepth, false, stopOnMeet,
+				isBaseGraph(subjectGraph) ? "" : " AND edge.id IN (SELECT id FROM " + getEdgeTableName(subjectGraph) + ")");
+		if(shortestDistance < 0){
+			qs.executeQuery("DROP TABLE m_ball;");
+			return;
+		}
+		if(stopOnMeet){
+			maxDepth = (int)shortestDistance;
+		}
+
 		String filter;
 		qs.executeQuery("DROP TABLE m_conn;\n" + "CREATE TABLE m_conn (src INT, dst INT);");
 		if(isBaseGraph(subjectGraph)){
-			filter = "";
+			filter = getSearchSpaceFilter();
 			qs.executeQuery(
-					"\\analyzecount edge\n" + "INSERT INTO m_conn SELECT src, dst FROM edge GROUP BY src, dst;");
+					"\\analyzecount edge\n" + "INSERT INTO m_conn SELECT src, dst FROM edge WHERE TRUE" + filter
+					+ " GROUP BY src, dst;");
 		}else{
 			String subjectEdgeTable = getEdgeTableName(subjectGraph);
-			filter = " AND edge.id IN (SELECT id FROM " + subjectEdgeTable + ")";
+			filter = " AND edge.id IN (SELECT id FROM " + subjectEdgeTable + ")" + getSearchSpaceFilter();
 			qs.executeQuery("DROP TABLE m_sgedge;\n" + "CREATE TABLE m_sgedge (src INT, dst INT);\n" + "\\analyzerange "
 					+ subjectEdgeTable + "\n" + "INSERT INTO m_sgedge SELECT src, dst FROM edge"
-					+ " WHERE id IN (SELECT id FROM " + subjectEdgeTable + ");\n" + "\\analyzecount m_sgedge\n"
+					+ " WHERE id IN (SELECT id FROM " + subjectEdgeTable + ")" + getSearchSpaceFilter() + ";\n"
+					+ "\\analyzecount m_sgedge\n"
 					+ "INSERT INTO m_conn SELECT src, dst FROM m_sgedge GROUP BY src, dst;\n" + "DROP TABLE m_sgedge;");
 		}
 		qs.executeQuery("\\analyze m_conn\n");
@@ -1294,7 +1463,7 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 				+ " AND dst IN (SELECT id FROM m_answer)" + filter + ";");
 
 		qs.executeQuery("DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n"
-				+ "DROP TABLE m_conn;\n" + "DROP TABLE m_sgconn;");
+				+ "DROP TABLE m_conn;\n" + "DROP TABLE m_sgconn;\n" + "DROP TABLE m_ball;");
 	}
 
 	@Override
@@ -1402,10 +1571,6 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		String subjectEdgeTable = getEdgeTableName(subjectGraph);
 		String dstVertexTable = getVertexTableName(dstGraph);
 		String srcVertexTable = getVertexTableName(srcGraph);
-		qs.executeQuery("DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n"
-				+ "CREATE TABLE m_cur (id INT);\n" + "CREATE TABLE m_next (id INT);\n"
-				+ "CREATE TABLE m_answer (id INT);");
-
 		String filter;
 		if(isBaseGraph(subjectGraph)){
 			filter = "";
@@ -1413,6 +1578,16 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 			filter = " AND edge.id IN (SELECT id FROM " + subjectEdgeTable + ")";
 		}
 
+		if(createSearchSpace(srcGraph, dstGraph, maxDepth, false, false, filter) < 0){
+			qs.executeQuery("DROP TABLE m_ball;");
+			return;
+		}
+		filter += getSearchSpaceFilter();
+
+		qs.executeQuery("DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n"
+				+ "CREATE TABLE m_cur (id INT);\n" + "CREATE TABLE m_next (id INT);\n"
+				+ "CREATE TABLE m_answer (id INT);");
+
 		// Create subgraph edges table.
 		qs.executeQuery("DROP TABLE m_sgconn;\n" + "CREATE TABLE m_sgconn (src INT, dst INT, depth INT);");
 
@@ -1464,7 +1639,8 @@ public class QuickstepInstructionExecutor extends QueryInstructionExecutor{
 		qs.executeQuery("\\analyzerange m_answer\n" + "INSERT INTO " + targetVertexTable + " SELECT id FROM m_answer;");
 
 		qs.executeQuery(
-				"DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n" + "DROP TABLE m_sgconn;");
+				"DROP TABLE m_cur;\n" + "DROP TABLE m_next;\n" + "DROP TABLE m_answer;\n" + "DROP TABLE m_sgconn;\n"
+				+ "DROP TABLE m_ball;");
 	}
 
 	@Override
@@ -0,0 +1,193 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.quickstep;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-process map from the md5 of a vertex to its id in Quickstep.
+ *
+ * Open addressing with linear probing over primitive arrays (the 128-bit hash as two longs and the id) so that
+ * there is no object per vertex. Ids must be positive (0 marks an empty slot). Hashes which are not 32 hex
+ * characters are kept in a regular map.
+ */
+public class VertexIdIndex {
+  private static final int INITIAL_CAPACITY = 1 << 16;
+  private static final double MAX_LOAD_FACTOR = 0.7;
+
+  // Value of a hex character or -1
+  private static final byte[] HEX_VALUES = new byte[128];
+  static {
+    Arrays.fill(HEX_VALUES, (byte) -1);
+    for (int i = 0; i < 10; ++i) {
+      HEX_VALUES['0' + i] = (byte) i;
+    }
+    for (int i = 0; i < 6; ++i) {
+      HEX_VALUES['a' + i] = (byte) (10 + i);
+      HEX_VALUES['A' + i] = (byte) (10 + i);
+    }
+  }
+
+  private long[] highs;
+  private long[] lows;
+  private int[] ids;
+  private int size;
+
+  private final Map<String, Integer> otherHashes = new HashMap<String, Integer>();
+
+  // Key of the last parsed hash
+  private long keyHigh, keyLow;
+
+  public VertexIdIndex() {
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(final int capacity) {
+    highs = new long[capacity];
+    lows = new long[capacity];
+    ids = new int[capacity];
+    size = 0;
+  }
+
+  /**
+   * Sets keyHigh and keyLow.
+   *
+   * @return False if not a 32 character hex string.
+   */
+  private boolean parseKey(final String md5) {
+    if (md5.length() != 32) {
+      return false;
+    }
+    long high = 0, low = 0;
+    int invalid = 0;
+    for (int i = 0; i < 16; ++i) {
+      final char c = md5.charAt(i);
+      final int value = c < 128 ? HEX_VALUES[c] : -1;
+      invalid |= value;
+      high = (high << 4) | (value & 0xF);
+    }
+    for (int i = 16; i < 32; ++i) {
+      final char c = md5.charAt(i);
+      final int value = c < 128 ? HEX_VALUES[c] : -1;
+      invalid |= value;
+      low = (low << 4) | (value & 0xF);
+    }
+    if (invalid < 0) {
+      return false;
+    }
+    keyHigh = high;
+    keyLow = low;
+    return true;
+  }
+
+  private static int homeSlot(final long high, final long low, final int capacity) {
+    final long mixed = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+    return (int) ((mixed ^ (mixed >>> 29)) & (capacity - 1));
+  }
+
+  /**
+   * @return The id of the vertex or 0 if not in the index.
+   */
+  public int get(final String md5) {
+    if (md5 == null) {
+      return 0;
+    }
+    if (!parseKey(md5)) {
+      final Integer id = otherHashes.get(md5);
+      return id == null ? 0 : id;
+    }
+    final int mask = ids.length - 1;
+    for (int slot = homeSlot(keyHigh, keyLow, ids.length); ; slot = (slot + 1) & mask) {
+      final int id = ids[slot];
+      if (id == 0) {
+        return 0;
+      }
+      if (highs[slot] == keyHigh && lows[slot] == keyLow) {
+        return id;
+      }
+    }
+  }
+
+  /**
+   * @param id Must be positive.
+   */
+  public void put(final String md5, final int id) {
+    if (md5 == null || id <= 0) {
+      throw new IllegalArgumentException("Invalid vertex hash or id: " + md5 + ", " + id);
+    }
+    if (!parseKey(md5)) {
+      otherHashes.put(md5, id);
+      return;
+    }
+    if (size + 1 > ids.length * MAX_LOAD_FACTOR) {
+      grow();
+    }
+    insert(keyHigh, keyLow, id);
+  }
+
+  private void insert(final long high, final long low, final int id) {
+    final int mask = ids.length - 1;
+    for (int slot = homeSlot(high, low, ids.length); ; slot = (slot + 1) & mask) {
+      if (ids[slot] == 0) {
+        highs[slot] = high;
+        lows[slot] = low;
+        ids[slot] = id;
+        ++size;
+        return;
+      }
+      if (highs[slot] == high && lows[slot] == low) {
+        ids[slot] = id;
+        return;
+      }
+    }
+  }
+
+  private void grow() {
+    if (ids.length >= (1 << 30)) {
+      throw new IllegalStateException("Vertex id index full at " + size + " vertices");
+    }
+    final long[] oldHighs = highs;
+    final long[] oldLows = lows;
+    final int[] oldIds = ids;
+    allocate(oldIds.length * 2);
+    for (int i = 0; i < oldIds.length; ++i) {
+      if (oldIds[i] != 0) {
+        insert(oldHighs[i], oldLows[i], oldIds[i]);
+      }
+    }
+  }
+
+  /**
+   * @return Number of vertices in the index.
+   */
+  public int size() {
+    return size + otherHashes.size();
+  }
+
+  /**
+   * Remove all vertices.
+   */
+  public void clear() {
+    allocate(INITIAL_CAPACITY);
+    otherHashes.clear();
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.quickstep;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Checks the lookups and the growth of VertexIdIndex, including the hashes that are not md5s.
+ *
+ * Usage: java -cp 'build:lib/*' spade.storage.quickstep.VertexIdIndexTest
+ */
+public class VertexIdIndexTest {
+  public static void main(final String[] args) throws Exception {
+    testPutAndGet();
+    testOtherHashes();
+    testInvalidIds();
+    testGrowth();
+    System.out.println(VertexIdIndexTest.class.getSimpleName() + ": passed");
+  }
+
+  private static void testPutAndGet() {
+    final VertexIdIndex index = new VertexIdIndex();
+    final String md5 = md5(1);
+    check(index.get(md5) == 0, "Expected 0 before put");
+    check(index.get(null) == 0, "Expected 0 for a null hash");
+    index.put(md5, 7);
+    check(index.get(md5) == 7, "Expected id 7");
+    check(index.get(md5.toUpperCase()) == 7, "Expected the same entry for an upper case md5");
+    index.put(md5, 8);
+    check(index.get(md5) == 8 && index.size() == 1, "Expected the id to be updated in place");
+    check(index.get(md5(2)) == 0, "Expected 0 for another md5");
+    index.clear();
+    check(index.get(md5) == 0 && index.size() == 0, "Expected an empty index after clear");
+  }
+
+  private static void testOtherHashes() {
+    final VertexIdIndex index = new VertexIdIndex();
+    final String shortHash = "abc";
+    final String nonHexHash = md5(1).substring(1) + "z";
+    index.put(shortHash, 1);
+    index.put(nonHexHash, 2);
+    index.put(md5(1), 3);
+    check(index.get(shortHash) == 1 && index.get(nonHexHash) == 2 && index.get(md5(1)) == 3,
+        "Expected the hashes which are not md5s to be kept apart from the md5s");
+    check(index.size() == 3, "Expected 3 vertices but found " + index.size());
+    index.clear();
+    check(index.get(shortHash) == 0 && index.size() == 0, "Expected the other hashes to be cleared");
+  }
+
+  private static void testInvalidIds() {
+    final VertexIdIndex index = new VertexIdIndex();
+    for (final int id : new int[] {0, -1}) {
+      try {
+        index.put(md5(1), id);
+        throw new AssertionError("Expected id " + id + " to be rejected");
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+    try {
+      index.put(null, 1);
+      throw new AssertionError("Expected a null hash to be rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    check(index.size() == 0, "Expected nothing in the index");
+  }
+
+  private static void testGrowth() {
+    final int count = 500000; // Several times the initial capacity
+    final VertexIdIndex index = new VertexIdIndex();
+    for (int i = 1; i <= count; ++i) {
+      index.put(md5(i), i);
+    }
+    check(index.size() == count, "Expected " + count + " vertices but found " + index.size());
+    for (int i = 1; i <= count; ++i) {
+      check(index.get(md5(i)) == i, "Lost id " + i + " while growing");
+    }
+    check(index.get(md5(count + 1)) == 0, "Expected 0 for an md5 never put");
+  }
+
+  private static String md5(final long i) {
+    return DigestUtils.md5Hex("vertex_" + i);
+  }
+
+  private static void check(final boolean condition, final String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+}
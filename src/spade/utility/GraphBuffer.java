@@ -30,34 +30,30 @@ public class GraphBuffer{
 
 	private int maxSize;
 
-	private final Set<AbstractVertex> vertices = new HashSet<AbstractVertex>();
-	private final Set<AbstractEdge> edges = new HashSet<AbstractEdge>();
+	private final Object lock = new Object();
+	private Set<AbstractVertex> vertices = new HashSet<AbstractVertex>();
+	private Set<AbstractEdge> edges = new HashSet<AbstractEdge>();
 
 	public void setMaxSize(final int maxSize){
 		this.maxSize = maxSize;
 	}
 
 	public void add(final AbstractVertex vertex){
-		synchronized(vertices){
+		synchronized(lock){
 			vertices.add(vertex);
 		}
 	}
 
 	public void add(final AbstractEdge edge){
-		synchronized(edges){
+		synchronized(lock){
 			edges.add(edge);
 		}
 	}
 
 	public int size(){
-		int size = 0;
-		synchronized(vertices){
-			size += vertices.size();
+		synchronized(lock){
+			return vertices.size() + edges.size();
 		}
-		synchronized(edges){
-			size += edges.size();
-		}
-		return size;
 	}
 
 	public boolean empty(){
@@ -68,24 +64,32 @@ public class GraphBuffer{
 		return size() > maxSize;
 	}
 
+	/**
+	 * Hands over the buffered vertices and edges to the returned snapshot and starts with empty sets.
+	 * The sets are swapped and not copied so the cost does not depend on the size of the buffer.
+	 * 
+	 * @return Snapshot of everything added since the last flush
+	 */
 	public GraphSnapshot flush(){
-		final GraphSnapshot result = new GraphSnapshot();
-		if(!empty()){
-			synchronized(vertices){
-				result.vertices.addAll(vertices);
-				vertices.clear();
-			}
-			synchronized(edges){
-				result.edges.addAll(edges);
-				edges.clear();
+		synchronized(lock){
+			if(vertices.isEmpty() && edges.isEmpty()){
+				return new GraphSnapshot(new HashSet<AbstractVertex>(), new HashSet<AbstractEdge>());
 			}
+			final GraphSnapshot result = new GraphSnapshot(vertices, edges);
+			vertices = new HashSet<AbstractVertex>();
+			edges = new HashSet<AbstractEdge>();
+			return result;
 		}
-		return result;
 	}
 
 	public static class GraphSnapshot{
-		private final Set<AbstractVertex> vertices = new HashSet<AbstractVertex>();
-		private final Set<AbstractEdge> edges = new HashSet<AbstractEdge>();
+		private final Set<AbstractVertex> vertices;
+		private final Set<AbstractEdge> edges;
+
+		private GraphSnapshot(final Set<AbstractVertex> vertices, final Set<AbstractEdge> edges){
+			this.vertices = vertices;
+			this.edges = edges;
+		}
 
 		public int vertexSize(){
 			return vertices.size();
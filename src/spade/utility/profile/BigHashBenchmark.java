@@ -0,0 +1,193 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.profile;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.edge.opm.Used;
+import spade.edge.opm.WasGeneratedBy;
+import spade.edge.opm.WasTriggeredBy;
+import spade.vertex.opm.Artifact;
+import spade.vertex.opm.Process;
+
+/**
+ * Microbenchmark for the big hash of vertices and edges on a synthetic stream shaped like the output of the
+ * Audit reporter (processes, files, and the edges between them).
+ *
+ * Each element goes through the set operations done on the way to a storage (deduplication of vertices, edges, and
+ * lookups of the endpoints). The stream is run twice: once with the cached big hash, and once with the cache reset
+ * before every set operation which is what every hashCode and equals call cost before the hash was cached.
+ *
+ * Usage: java -cp 'build:lib/*' spade.utility.profile.BigHashBenchmark [edges (default 1000000)] [processes (default 1000)]
+ */
+public class BigHashBenchmark{
+
+	public static void main(final String[] args){
+		final int edgeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final int processCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		// Warm up
+		run(createStream(edgeCount / 10, processCount), false);
+		run(createStream(edgeCount / 10, processCount), true);
+
+		final long uncachedMillis = run(createStream(edgeCount, processCount), true);
+		final long cachedMillis = run(createStream(edgeCount, processCount), false);
+
+		System.out.println(String.format("edges=%s, processes=%s", edgeCount, processCount));
+		System.out.println(String.format("uncached: %s ms (%.0f edges/sec)", uncachedMillis, rate(edgeCount, uncachedMillis)));
+		System.out.println(String.format("cached:   %s ms (%.0f edges/sec)", cachedMillis, rate(edgeCount, cachedMillis)));
+		System.out.println(String.format("speedup:  %.2fx", cachedMillis == 0 ? 0 : ((double)uncachedMillis / cachedMillis)));
+	}
+
+	private static double rate(final long count, final long millis){
+		return millis == 0 ? 0 : (count * 1000.0) / millis;
+	}
+
+	private static long run(final List<AbstractEdge> stream, final boolean resetCache){
+		final Set<AbstractVertex> vertices = new HashSet<AbstractVertex>();
+		final Set<AbstractEdge> edges = new HashSet<AbstractEdge>();
+		long found = 0;
+		final long startMillis = System.currentTimeMillis();
+		for(final AbstractEdge edge : stream){
+			final AbstractVertex child = edge.getChildVertex();
+			final AbstractVertex parent = edge.getParentVertex();
+			// Vertex deduplication
+			if(resetCache){ reset(child); }
+			vertices.add(child);
+			if(resetCache){ reset(parent); }
+			vertices.add(parent);
+			// Edge deduplication
+			if(resetCache){ reset(edge); }
+			edges.add(edge);
+			// Endpoint lookups
+			if(resetCache){ reset(child); }
+			if(vertices.contains(child)){ found++; }
+			if(resetCache){ reset(parent); }
+			if(vertices.contains(parent)){ found++; }
+		}
+		final long elapsedMillis = System.currentTimeMillis() - startMillis;
+		if(found != stream.size() * 2L){
+			throw new RuntimeException("Unexpected lookups: " + found);
+		}
+		return elapsedMillis;
+	}
+
+	// Re-adding an existing annotation does not change the element but invalidates its cached hash
+	private static void reset(final AbstractVertex vertex){
+		vertex.addAnnotation(AbstractVertex.typeKey, vertex.type());
+	}
+
+	private static void reset(final AbstractEdge edge){
+		edge.addAnnotation(AbstractEdge.typeKey, edge.type());
+		reset(edge.getChildVertex());
+		reset(edge.getParentVertex());
+	}
+
+	/**
+	 * Puts the stream into a storage initialized with the arguments and shuts the storage down so that the buffered
+	 * elements are written too.
+	 *
+	 * @return Milliseconds from the first element to the end of the shutdown
+	 */
+	static long timeStorage(final AbstractStorage storage, final String arguments, final List<AbstractEdge> stream){
+		if(!storage.initialize(arguments)){
+			throw new RuntimeException("Failed to initialize storage with arguments: " + arguments);
+		}
+		final long startMillis = System.currentTimeMillis();
+		for(final AbstractEdge edge : stream){
+			storage.storeVertex(edge.getChildVertex());
+			storage.storeVertex(edge.getParentVertex());
+			storage.storeEdge(edge);
+		}
+		storage.shutdown();
+		return System.currentTimeMillis() - startMillis;
+	}
+
+	static List<AbstractEdge> createStream(final int edgeCount, final int processCount){
+		final Random random = new Random(0);
+		final List<Process> processes = new ArrayList<Process>();
+		for(int i = 0; i < processCount; i++){
+			processes.add(createProcess(i, random));
+		}
+		final List<AbstractEdge> stream = new ArrayList<AbstractEdge>(edgeCount);
+		for(int i = 0; i < edgeCount; i++){
+			final Process process = processes.get(random.nextInt(processCount));
+			final int operation = random.nextInt(10);
+			final AbstractEdge edge;
+			if(operation < 5){
+				edge = new Used(process, createArtifact(random));
+				edge.addAnnotation("operation", "read");
+			}else if(operation < 9){
+				edge = new WasGeneratedBy(createArtifact(random), process);
+				edge.addAnnotation("operation", "write");
+			}else{
+				edge = new WasTriggeredBy(process, processes.get(random.nextInt(processCount)));
+				edge.addAnnotation("operation", "clone");
+			}
+			edge.addAnnotation("event id", String.valueOf(i));
+			edge.addAnnotation("time", String.format("%d.%03d", 1600000000 + (i / 1000), i % 1000));
+			edge.addAnnotation("size", String.valueOf(random.nextInt(65536)));
+			edge.addAnnotation("source", "syscall");
+			stream.add(edge);
+		}
+		return stream;
+	}
+
+	private static Process createProcess(final int index, final Random random){
+		final Process process = new Process();
+		final int pid = 1000 + index;
+		process.addAnnotation("pid", String.valueOf(pid));
+		process.addAnnotation("ppid", String.valueOf(1 + random.nextInt(pid)));
+		process.addAnnotation("name", "proc" + index);
+		process.addAnnotation("exe", "/usr/bin/proc" + index);
+		process.addAnnotation("cwd", "/home/user" + (index % 10));
+		process.addAnnotation("command line", "/usr/bin/proc" + index + " --option value" + index);
+		process.addAnnotation("uid", "1000");
+		process.addAnnotation("euid", "1000");
+		process.addAnnotation("suid", "1000");
+		process.addAnnotation("fsuid", "1000");
+		process.addAnnotation("gid", "1000");
+		process.addAnnotation("egid", "1000");
+		process.addAnnotation("sgid", "1000");
+		process.addAnnotation("fsgid", "1000");
+		process.addAnnotation("seen time", String.format("%d.%03d", 1600000000 + index, index % 1000));
+		process.addAnnotation("source", "syscall");
+		return process;
+	}
+
+	private static Artifact createArtifact(final Random random){
+		final Artifact artifact = new Artifact();
+		final int file = random.nextInt(100000);
+		artifact.addAnnotation("subtype", "file");
+		artifact.addAnnotation("path", "/var/lib/data/dir" + (file % 100) + "/file" + file);
+		artifact.addAnnotation("version", String.valueOf(random.nextInt(10)));
+		artifact.addAnnotation("epoch", "0");
+		artifact.addAnnotation("permissions", "0644");
+		artifact.addAnnotation("source", "syscall");
+		return artifact;
+	}
+}
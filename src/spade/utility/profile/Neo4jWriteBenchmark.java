@@ -0,0 +1,66 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import spade.core.AbstractEdge;
+import spade.storage.Neo4j;
+
+/**
+ * Ingest rate of the Neo4j storage with the batched write path ('batchWrites=true') and with one task per vertex and
+ * edge ('batchWrites=false').
+ *
+ * Both modes alternate within a run on a fresh database ('reset=true') with the Audit-shaped stream of
+ * BigHashBenchmark, and are timed until the storage has shut down. Other settings come from
+ * cfg/spade.storage.Neo4j.config unless given as storage arguments.
+ *
+ * Usage: java -cp 'build:lib/*' spade.utility.profile.Neo4jWriteBenchmark [edges (default 1000000)]
+ *     [runs per mode (default 1)] [storage arguments (for example: 'flushBufferSize=10000')]
+ */
+public class Neo4jWriteBenchmark{
+
+	public static void main(final String[] args){
+		final int edgeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final int runs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		final StringBuilder storageArguments = new StringBuilder();
+		for(int i = 2; i < args.length; i++){
+			storageArguments.append(" ").append(args[i]);
+		}
+
+		final List<AbstractEdge> stream = BigHashBenchmark.createStream(edgeCount, 1000);
+
+		final List<String> results = new ArrayList<String>();
+		for(int i = 0; i < runs; i++){
+			for(final boolean batchWrites : new boolean[]{false, true}){
+				final long millis = BigHashBenchmark.timeStorage(new Neo4j(),
+						"reset=true batchWrites=" + batchWrites + storageArguments, stream);
+				results.add(String.format("run=%s, batchWrites=%s: %s ms (%.0f edges/sec)", i + 1, batchWrites, millis,
+						millis == 0 ? 0 : (edgeCount * 1000.0) / millis));
+			}
+		}
+
+		System.out.println(String.format("edges=%s, arguments='%s'", edgeCount, storageArguments.toString().trim()));
+		for(final String result : results){
+			System.out.println(result);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import spade.core.AbstractEdge;
+import spade.storage.PostgreSQL;
+
+/**
+ * Sustained ingest rate of the PostgreSQL storage for different numbers of loaders.
+ *
+ * Every loader count starts from an empty database ('reset=true') and loads the stream of BigHashBenchmark. The rate
+ * counts the time to the end of the shutdown because the loaders are still copying buffered batches until then.
+ * Connection settings come from cfg/spade.storage.PostgreSQL.config unless given as storage arguments.
+ *
+ * Usage: java -cp 'build:lib/*' spade.utility.profile.PostgreSQLLoadBenchmark [edges (default 1000000)]
+ *     [loaders (default 1,2,4,8)] [storage arguments (for example: 'partitions=8 buffer=100000')]
+ */
+public class PostgreSQLLoadBenchmark{
+
+	public static void main(final String[] args){
+		final int edgeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final String loadersArgument = args.length > 1 ? args[1] : "1,2,4,8";
+		final StringBuilder storageArguments = new StringBuilder();
+		for(int i = 2; i < args.length; i++){
+			storageArguments.append(" ").append(args[i]);
+		}
+
+		final List<Integer> loadersList = new ArrayList<Integer>();
+		for(final String loaders : loadersArgument.split(",")){
+			loadersList.add(Integer.parseInt(loaders.trim()));
+		}
+
+		final List<AbstractEdge> stream = BigHashBenchmark.createStream(edgeCount, 1000);
+
+		final List<String> results = new ArrayList<String>();
+		for(final int loaders : loadersList){
+			final long millis = BigHashBenchmark.timeStorage(new PostgreSQL(),
+					"reset=true loaders=" + loaders + storageArguments, stream);
+			results.add(String.format("loaders=%s: %s ms (%.0f edges/sec)", loaders, millis,
+					millis == 0 ? 0 : (edgeCount * 1000.0) / millis));
+		}
+
+		System.out.println(String.format("edges=%s, arguments='%s'", edgeCount, storageArguments.toString().trim()));
+		for(final String result : results){
+			System.out.println(result);
+		}
+	}
+}
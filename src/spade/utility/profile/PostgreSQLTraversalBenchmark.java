@@ -0,0 +1,168 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2022 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+import spade.query.quickgrail.core.GraphStatistic;
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.GetLineage;
+import spade.storage.PostgreSQL;
+import spade.storage.postgresql.PostgreSQLInstructionExecutor;
+
+/**
+ * Time of lineage, path and link queries in the PostgreSQL storage for the iterative and the recursive traversal.
+ *
+ * A random DAG is loaded once (the database is reset) where each vertex has edges to a few older vertices. Then the
+ * same queries are run with each traversal and the sizes of the results are compared. Connection settings are read
+ * from cfg/spade.storage.PostgreSQL.config and can be overridden by the storage arguments.
+ *
+ * Usage: java -cp 'build:lib/*' spade.utility.profile.PostgreSQLTraversalBenchmark [vertices (default 100000)]
+ *     [edges per vertex (default 3)] [depths (default 5,10,20)] [storage arguments]
+ */
+public class PostgreSQLTraversalBenchmark{
+
+	public static void main(final String[] args){
+		final int vertexCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int edgesPerVertex = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		final String depthsArgument = args.length > 2 ? args[2] : "5,10,20";
+		final StringBuilder storageArguments = new StringBuilder();
+		for(int i = 3; i < args.length; i++){
+			storageArguments.append(" ").append(args[i]);
+		}
+
+		final List<Integer> depths = new ArrayList<Integer>();
+		for(final String depth : depthsArgument.split(",")){
+			depths.add(Integer.parseInt(depth.trim()));
+		}
+
+		final List<AbstractVertex> vertices = load(vertexCount, edgesPerVertex, storageArguments.toString());
+
+		// Newest vertices have the longest ancestry and the oldest the longest descendancy
+		final ArrayList<String> sources = new ArrayList<String>();
+		final ArrayList<String> destinations = new ArrayList<String>();
+		for(int i = 0; i < 10 && i < vertices.size(); i++){
+			sources.add(vertices.get(vertices.size() - 1 - i).bigHashCode());
+			destinations.add(vertices.get(i).bigHashCode());
+		}
+
+		final List<String> results = new ArrayList<String>();
+		for(final int depth : depths){
+			final List<String> counts = new ArrayList<String>();
+			for(final PostgreSQLInstructionExecutor.Traversal traversal : PostgreSQLInstructionExecutor.Traversal.values()){
+				final PostgreSQL storage = new PostgreSQL();
+				final String arguments = "reset=false traversal=" + traversal.name().toLowerCase() + storageArguments;
+				if(!storage.initialize(arguments)){
+					throw new RuntimeException("Failed to initialize storage with arguments: " + arguments);
+				}
+				try{
+					final PostgreSQLInstructionExecutor executor = (PostgreSQLInstructionExecutor)storage.getQueryInstructionExecutor();
+					final Graph base = executor.getQueryEnvironment().getBaseGraph();
+					final Graph src = createGraph(executor);
+					executor.insertLiteralVertex(src, sources);
+					final Graph dst = createGraph(executor);
+					executor.insertLiteralVertex(dst, destinations);
+
+					final StringBuilder line = new StringBuilder(String.format("depth=%s, traversal=%s:", depth, traversal));
+					final StringBuilder count = new StringBuilder();
+
+					final Graph lineage = createGraph(executor);
+					long startMillis = System.currentTimeMillis();
+					executor.getLineage(lineage, base, src, depth, GetLineage.Direction.kAncestor);
+					line.append(String.format(" lineage=%s ms", System.currentTimeMillis() - startMillis));
+					count.append(toString("lineage", executor.getGraphCount(lineage)));
+
+					final Graph paths = createGraph(executor);
+					startMillis = System.currentTimeMillis();
+					executor.getSimplePath(paths, base, src, dst, depth);
+					line.append(String.format(", paths=%s ms", System.currentTimeMillis() - startMillis));
+					count.append(toString(", paths", executor.getGraphCount(paths)));
+
+					final Graph shortestPath = createGraph(executor);
+					startMillis = System.currentTimeMillis();
+					executor.getShortestPath(shortestPath, base, src, dst, depth);
+					line.append(String.format(", shortest path=%s ms", System.currentTimeMillis() - startMillis));
+					count.append(toString(", shortest path", executor.getGraphCount(shortestPath)));
+
+					final Graph link = createGraph(executor);
+					startMillis = System.currentTimeMillis();
+					executor.getLink(link, base, src, dst, depth);
+					line.append(String.format(", link=%s ms", System.currentTimeMillis() - startMillis));
+					count.append(toString(", link", executor.getGraphCount(link)));
+
+					results.add(line.toString());
+					counts.add(count.toString());
+				}finally{
+					storage.shutdown();
+				}
+			}
+			for(int i = 1; i < counts.size(); i++){
+				if(!counts.get(i).equals(counts.get(0))){
+					results.add(String.format("depth=%s: result sizes differ: [%s] vs [%s]", depth, counts.get(0), counts.get(i)));
+				}
+			}
+			results.add(String.format("depth=%s: %s", depth, counts.get(0)));
+		}
+
+		System.out.println(String.format("vertices=%s, edges per vertex=%s, arguments='%s'", vertexCount, edgesPerVertex,
+				storageArguments.toString().trim()));
+		for(final String result : results){
+			System.out.println(result);
+		}
+	}
+
+	private static String toString(final String name, final GraphStatistic.Count count){
+		return String.format("%s=(%s, %s)", name, count.getVertices(), count.getEdges());
+	}
+
+	private static Graph createGraph(final PostgreSQLInstructionExecutor executor){
+		final Graph graph = executor.getQueryEnvironment().allocateGraph();
+		executor.createEmptyGraph(graph);
+		return graph;
+	}
+
+	private static List<AbstractVertex> load(final int vertexCount, final int edgesPerVertex, final String storageArguments){
+		final Random random = new Random(0);
+		final List<AbstractVertex> vertices = new ArrayList<AbstractVertex>(vertexCount);
+		final PostgreSQL storage = new PostgreSQL();
+		final String arguments = "reset=true" + storageArguments;
+		if(!storage.initialize(arguments)){
+			throw new RuntimeException("Failed to initialize storage with arguments: " + arguments);
+		}
+		for(int i = 0; i < vertexCount; i++){
+			final Vertex vertex = new Vertex();
+			vertex.addAnnotation("id", String.valueOf(i));
+			vertices.add(vertex);
+			storage.storeVertex(vertex);
+			for(int j = 0; j < edgesPerVertex && i > 0; j++){
+				final Edge edge = new Edge(vertex, vertices.get(random.nextInt(i)));
+				edge.addAnnotation("id", i + ":" + j);
+				storage.storeEdge(edge);
+			}
+		}
+		storage.shutdown();
+		return vertices;
+	}
+}